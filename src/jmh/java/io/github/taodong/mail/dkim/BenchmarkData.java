@@ -0,0 +1,141 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Date;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ * Generated bodies, messages and keys shared by benchmarks
+ */
+public final class BenchmarkData {
+
+    /**
+     * Character content of generated bodies, CJK mirrors the ea_cjk_a, digits and letters groups of
+     * data/test_email_body/test_schema.yaml
+     */
+    public enum Content {
+        ASCII,
+        CJK
+    }
+
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final String DIGITS = "0123456789";
+    private static final int CJK_EXT_A_START = 0x3400;
+    private static final int CJK_EXT_A_SIZE = 0x4DBF - 0x3400 + 1;
+    private static final int LINE_LENGTH = 76;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Generate a body of text lines ending with CRLF, including whitespace sequences and trailing whitespace so that
+     * relaxed canonicalization has work to do
+     * @param content - the characters to use
+     * @param size - the approximate size of the body in UTF-8 bytes
+     * @return the body
+     */
+    static String body(Content content, int size) {
+        var random = new SplittableRandom(size);
+        var sb = new StringBuilder(size);
+        var bytes = 0;
+        var column = 0;
+        while (bytes < size) {
+            if (column >= LINE_LENGTH) {
+                if (random.nextInt(4) == 0) {
+                    sb.append(" \t");
+                    bytes += 2;
+                }
+                sb.append("\r\n");
+                bytes += 2;
+                column = 0;
+            } else if (random.nextInt(8) == 0) {
+                sb.append(random.nextInt(6) == 0 ? "  " : " ");
+                bytes += 1;
+                column++;
+            } else if (content == Content.CJK && random.nextInt(3) != 0) {
+                sb.append((char) (CJK_EXT_A_START + random.nextInt(CJK_EXT_A_SIZE)));
+                bytes += 3;
+                column += 2;
+            } else {
+                var group = random.nextInt(4) == 0 ? DIGITS : LETTERS;
+                sb.append(group.charAt(random.nextInt(group.length())));
+                bytes++;
+                column++;
+            }
+        }
+        return sb.append("\r\n").toString();
+    }
+
+    static byte[] bodyBytes(Content content, int size) {
+        return body(content, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Create a message with the standard headers plus extra trace headers
+     * @param body - the message body
+     * @param headerCount - total number of headers in the message, at least the five standard ones are added
+     * @return the message
+     */
+    static MimeMessage message(String body, int headerCount) {
+        var message = new MimeMessage(Session.getInstance(new Properties()));
+        try {
+            message.setFrom("tao.dong@duotail.com");
+            message.setRecipients(MimeMessage.RecipientType.TO, "test@gmail.com");
+            message.setSubject("Benchmark");
+            message.setSentDate(new Date(1733788800000L));
+            message.setHeader("Message-ID", "<benchmark@duotail.com>");
+            for (var i = 5; i < headerCount; i++) {
+                message.addHeader("X-Trace-" + i, "hop " + i + " by mta" + i + ".duotail.com with ESMTPS id " + i);
+            }
+            message.setText(body, StandardCharsets.UTF_8.name());
+            return message;
+        } catch (MessagingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Serialize and parse a message again, the body of a parsed message is read from memory without the piped
+     * encoding thread a message built with {@link MimeMessage#setText(String)} needs
+     * @param message - the message to copy
+     * @return the parsed copy
+     */
+    static MimeMessage parsed(MimeMessage message) {
+        try {
+            var out = new ByteArrayOutputStream();
+            message.writeTo(out);
+            return new MimeMessage(Session.getInstance(new Properties()), new ByteArrayInputStream(out.toByteArray()));
+        } catch (IOException | MessagingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static RSAPrivateKey key() {
+        try (var input = BenchmarkData.class.getClassLoader().getResourceAsStream("keys/test_key.pem")) {
+            return new DkimMimeMessageHelper().getKPCS8KeyFromInputStream(input);
+        } catch (IOException | DkimSigningException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static DkimSigningProfile profile(Canonicalization headerCanonicalization, Canonicalization bodyCanonicalization) {
+        return DkimSigningProfile.builder()
+                .privateKey(key())
+                .selector("s1")
+                .domain("duotail.com")
+                .identity("tao.dong@duotail.com")
+                .headers(new DkimMimeMessageHelper().getDkimSignHeaders(null))
+                .headerCanonicalization(headerCanonicalization)
+                .bodyCanonicalization(bodyCanonicalization)
+                .build();
+    }
+}
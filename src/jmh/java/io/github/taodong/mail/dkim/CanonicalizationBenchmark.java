@@ -0,0 +1,66 @@
+package io.github.taodong.mail.dkim;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Body canonicalization through the String operator, the byte scanner and the streaming canonicalizer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CanonicalizationBenchmark {
+
+    @Param({"SIMPLE", "RELAXED"})
+    private Canonicalization canonicalization;
+
+    @Param({"1024", "65536", "1048576", "52428800"})
+    private int bodySize;
+
+    @Param({"ASCII", "CJK"})
+    private BenchmarkData.Content content;
+
+    private String body;
+    private byte[] bodyBytes;
+
+    @Setup
+    public void setUp() {
+        body = BenchmarkData.body(content, bodySize);
+        bodyBytes = BenchmarkData.bodyBytes(content, bodySize);
+    }
+
+    @Benchmark
+    public String bodyOperator() {
+        return canonicalization.getBodyOperator().apply(body);
+    }
+
+    @Benchmark
+    public byte[] bodyBytes() {
+        return canonicalization.canonicalizeBody(bodyBytes);
+    }
+
+    @Benchmark
+    public long bodyStream() throws IOException {
+        try (var canonicalBody = new CanonicalBodyOutputStream(canonicalization, OutputStream.nullOutputStream())) {
+            canonicalBody.write(bodyBytes);
+            canonicalBody.finish();
+            return canonicalBody.getBodyLength();
+        }
+    }
+}
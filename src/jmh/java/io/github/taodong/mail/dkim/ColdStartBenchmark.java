@@ -0,0 +1,53 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.internet.MimeMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The first signature of a fresh JVM, with and without {@link DkimSigner#warmUp()} when the signer is created. Every
+ * fork signs a single message, add forks for a stable distribution, e.g. {@code -f 30}. The harness has loaded and run
+ * part of the JDK before the measurement, a process signing right after it started is slower still.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class ColdStartBenchmark {
+
+    @Param({"false", "true"})
+    private boolean warmUp;
+
+    @Param({"SIMPLE", "RELAXED"})
+    private Canonicalization canonicalization;
+
+    private MimeMessage message;
+    private DkimSigner signer;
+
+    @Setup
+    public void setUp() throws DkimSigningException {
+        message = BenchmarkData.parsed(BenchmarkData.message(BenchmarkData.body(BenchmarkData.Content.ASCII, 4096), 10));
+        signer = new DkimSigner(BenchmarkData.profile(canonicalization, canonicalization));
+        if (warmUp) {
+            signer.warmUp();
+        }
+    }
+
+    @Benchmark
+    public String firstSign() throws DkimSigningException {
+        return signer.sign(message);
+    }
+}
@@ -0,0 +1,45 @@
+package io.github.taodong.mail.dkim;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of the DKIM-Signature header value
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DkimSignatureBenchmark {
+
+    private DkimSignature signature;
+
+    @Setup
+    public void setUp() {
+        signature = new DkimSignature();
+        signature.addTagValue(HeaderTag.DOMAIN, "duotail.com");
+        signature.addTagValue(HeaderTag.CANONICALIZATION, "relaxed/simple");
+        signature.addTagValue(HeaderTag.USERNAME, "tao.dong@duotail.com");
+        signature.addTagValue(HeaderTag.SELECTOR, "s1");
+        signature.addTagValue(HeaderTag.HEADERS, "From:To:Subject:Date:Content-Type:Message-ID:MIME-Version");
+        signature.addTagValue(HeaderTag.BODY_HASH, "frcCV1k9oG9oKj3dpUqdJg1PxRT2RSN/XKdLCPjaYaY=");
+        signature.addTagValue(HeaderTag.SIGNATURE, "A".repeat(344));
+    }
+
+    @Benchmark
+    public String getValue() throws DkimSigningException {
+        return signature.getValue();
+    }
+}
@@ -0,0 +1,72 @@
+package io.github.taodong.mail.dkim;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Header canonicalization of a message header block through the String operator and the byte scanner
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeaderCanonicalizationBenchmark {
+
+    @Param({"SIMPLE", "RELAXED"})
+    private Canonicalization canonicalization;
+
+    @Param({"5", "20", "50"})
+    private int headerCount;
+
+    @Param({"ASCII", "CJK"})
+    private BenchmarkData.Content content;
+
+    private String[] names;
+    private String[] values;
+    private byte[][] nameBytes;
+    private byte[][] valueBytes;
+
+    @Setup
+    public void setUp() {
+        names = new String[headerCount];
+        values = new String[headerCount];
+        nameBytes = new byte[headerCount][];
+        valueBytes = new byte[headerCount][];
+        for (var i = 0; i < headerCount; i++) {
+            names[i] = "X-Header-" + i;
+            // folded values with whitespace sequences, the way long headers arrive from MTAs
+            values[i] = BenchmarkData.body(content, 120).replace("\r\n", "\r\n\t").strip();
+            nameBytes[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            valueBytes[i] = values[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public void headerOperator(Blackhole blackhole) {
+        for (var i = 0; i < headerCount; i++) {
+            blackhole.consume(canonicalization.getHeaderOperator().apply(names[i], values[i]));
+        }
+    }
+
+    @Benchmark
+    public void headerBytes(Blackhole blackhole) {
+        for (var i = 0; i < headerCount; i++) {
+            blackhole.consume(canonicalization.canonicalizeHeader(nameBytes[i], valueBytes[i]));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package io.github.taodong.mail.dkim;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one signature in {@link DkimSigningMetrics} with 64 threads signing for the same selector
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+public class MetricsBenchmark {
+
+    private final DkimSigningMetrics metrics = new DkimSigningMetrics(null, "benchmark");
+
+    @Benchmark
+    public void onSigned() {
+        var random = ThreadLocalRandom.current();
+        metrics.onSigned("example.com", "s1", random.nextLong(100_000, 10_000_000), random.nextLong(1_000, 100_000));
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.activation.DataHandler;
+import jakarta.activation.FileDataSource;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of hashing a message with several file attachments with the parts encoded one after another and in parallel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultipartBenchmark {
+
+    @Param({"2", "8"})
+    private int attachments;
+
+    @Param({"1048576", "10485760"})
+    private int attachmentSize;
+
+    private Path dir;
+    private MimeMessage message;
+    private DkimSigner sequential;
+    private DkimSigner parallel;
+
+    @Setup
+    public void setUp() throws DkimSigningException, IOException, MessagingException {
+        dir = Files.createTempDirectory("dkim-multipart");
+        var multipart = new MimeMultipart();
+        var text = new MimeBodyPart();
+        text.setText(BenchmarkData.body(BenchmarkData.Content.ASCII, 4096), "utf-8");
+        multipart.addBodyPart(text);
+        var random = new SplittableRandom(attachmentSize);
+        for (var i = 0; i < attachments; i++) {
+            var bytes = new byte[attachmentSize];
+            random.nextBytes(bytes);
+            var file = Files.write(dir.resolve("attachment-" + i + ".bin"), bytes);
+            var attachment = new MimeBodyPart();
+            attachment.setDataHandler(new DataHandler(new FileDataSource(file.toFile())));
+            attachment.setFileName(file.getFileName().toString());
+            multipart.addBodyPart(attachment);
+        }
+        message = BenchmarkData.message("", 10);
+        message.setContent(multipart);
+        message.saveChanges();
+
+        var profile = BenchmarkData.profile(Canonicalization.RELAXED, Canonicalization.RELAXED);
+        sequential = new DkimSigner(profile);
+        parallel = new DkimSigner(profile.toBuilder().parallelPartEncoding(true).build());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (var files = Files.walk(dir)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public DkimSigner.HashedBody sequential() throws DkimSigningException {
+        return sequential.hashBody(message);
+    }
+
+    @Benchmark
+    public DkimSigner.HashedBody parallel() throws DkimSigningException {
+        return parallel.hashBody(message);
+    }
+}
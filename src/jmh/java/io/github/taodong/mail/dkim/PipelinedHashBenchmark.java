@@ -0,0 +1,56 @@
+package io.github.taodong.mail.dkim;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of hashing a large body with canonicalization and SHA-256 on the signing thread and on two pipelined threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelinedHashBenchmark {
+
+    @Param({"SIMPLE", "RELAXED"})
+    private Canonicalization canonicalization;
+
+    @Param({"1048576", "52428800"})
+    private int bodySize;
+
+    private ByteBuffer body;
+    private DkimSigner sequential;
+    private DkimSigner pipelined;
+
+    @Setup
+    public void setUp() throws DkimSigningException {
+        body = ByteBuffer.wrap(BenchmarkData.bodyBytes(BenchmarkData.Content.ASCII, bodySize));
+        var profile = BenchmarkData.profile(canonicalization, canonicalization);
+        sequential = new DkimSigner(profile);
+        pipelined = new DkimSigner(profile.toBuilder().pipelinedHashThreshold(64 * 1024).build());
+    }
+
+    @Benchmark
+    public DkimSigner.HashedBody sequential() throws DkimSigningException {
+        return sequential.hashBody(body.duplicate(), null);
+    }
+
+    @Benchmark
+    public DkimSigner.HashedBody pipelined() throws DkimSigningException {
+        return pipelined.hashBody(body.duplicate(), null);
+    }
+}
@@ -0,0 +1,64 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.internet.MimeMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing a small message with Ed25519 compared with RSA-2048 and RSA-4096, the private key operation dominates
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SigningAlgorithmBenchmark {
+
+    public enum KeyType {
+        RSA_2048,
+        RSA_4096,
+        ED25519
+    }
+
+    @Param({"RSA_2048", "RSA_4096", "ED25519"})
+    private KeyType keyType;
+
+    private MimeMessage message;
+    private DkimSigner signer;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException, DkimSigningException {
+        var generator = switch (keyType) {
+            case RSA_2048, RSA_4096 -> KeyPairGenerator.getInstance("RSA");
+            case ED25519 -> KeyPairGenerator.getInstance("Ed25519");
+        };
+        if (keyType != KeyType.ED25519) {
+            generator.initialize(keyType == KeyType.RSA_2048 ? 2048 : 4096);
+        }
+
+        var profile = BenchmarkData.profile(Canonicalization.RELAXED, Canonicalization.SIMPLE).toBuilder()
+                .privateKey(generator.generateKeyPair().getPrivate())
+                .build();
+        signer = new DkimSigner(profile);
+        message = BenchmarkData.parsed(BenchmarkData.message(BenchmarkData.body(BenchmarkData.Content.ASCII, 1024), 10));
+    }
+
+    @Benchmark
+    public String sign() throws DkimSigningException {
+        return signer.sign(message);
+    }
+}
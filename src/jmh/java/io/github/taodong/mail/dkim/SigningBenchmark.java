@@ -0,0 +1,80 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Body hashing and the full signing pipeline of a MimeMessage and of the same message in wire format
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SigningBenchmark {
+
+    @Param({"SIMPLE", "RELAXED"})
+    private Canonicalization canonicalization;
+
+    @Param({"1024", "65536", "1048576", "52428800"})
+    private int bodySize;
+
+    @Param({"10", "50"})
+    private int headerCount;
+
+    @Param({"ASCII", "CJK"})
+    private BenchmarkData.Content content;
+
+    private MimeMessage message;
+    private byte[] rawMessage;
+    private DkimSigningProfile profile;
+    private DkimSigner signer;
+    private DkimSigningService signingService;
+
+    @Setup
+    public void setUp() throws DkimSigningException, IOException, MessagingException {
+        message = BenchmarkData.message(BenchmarkData.body(content, bodySize), headerCount);
+        var out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        rawMessage = out.toByteArray();
+        profile = BenchmarkData.profile(canonicalization, canonicalization);
+        signer = new DkimSigner(profile);
+        signingService = new DkimSigningService();
+    }
+
+    @Benchmark
+    public DkimSigner.HashedBody hashBody() throws DkimSigningException {
+        return signer.hashBody(message);
+    }
+
+    @Benchmark
+    public String signPrepared() throws DkimSigningException {
+        return signer.sign(message);
+    }
+
+    @Benchmark
+    public String signRaw() throws DkimSigningException {
+        return signer.sign(rawMessage);
+    }
+
+    @Benchmark
+    public String signService() throws DkimSigningException {
+        return signingService.sign(message, profile);
+    }
+}
@@ -0,0 +1,29 @@
+package io.github.taodong.mail.dkim;
+
+import lombok.Getter;
+
+/**
+ * The chain validation status of an ARC-Seal, the {@code cv=} tag, RFC 8617 section 4.1.3
+ */
+@Getter
+public enum ArcChainStatus {
+    /**
+     * The message has no ARC chain yet, the first ARC set of a message
+     */
+    NONE("none"),
+    /**
+     * The ARC chain of the message validated
+     */
+    PASS("pass"),
+    /**
+     * The ARC chain of the message failed to validate, the seal only covers its own ARC set
+     */
+    FAIL("fail")
+    ;
+
+    private final String tagValue;
+
+    ArcChainStatus(String tagValue) {
+        this.tagValue = tagValue;
+    }
+}
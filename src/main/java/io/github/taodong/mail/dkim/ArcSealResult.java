@@ -0,0 +1,33 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.validation.constraints.NotNull;
+
+/**
+ * The header fields of an ARC set, and the DKIM signature computed in the same pass, see {@link ArcSealer}. Values are
+ * unfolded.
+ * @param dkimSignature - the DKIM-Signature value, null when no DKIM signer was passed
+ * @param instance - the instance of the ARC set, 1 for the first set of a message
+ * @param authenticationResults - the ARC-Authentication-Results value
+ * @param messageSignature - the ARC-Message-Signature value
+ * @param seal - the ARC-Seal value
+ */
+public record ArcSealResult(String dkimSignature, int instance, String authenticationResults,
+                            String messageSignature, String seal) {
+
+    /**
+     * Add the header fields to the message they were computed for, the DKIM signature first, since the ARC-Message-
+     * Signature may sign it
+     * @param message - the message
+     * @throws MessagingException when failed to add the headers
+     */
+    public void addTo(@NotNull MimeMessage message) throws MessagingException {
+        if (dkimSignature != null) {
+            message.addHeader(DkimSignature.DKIM_SIGNATURE_HEADER, dkimSignature);
+        }
+        message.addHeader(ArcSealer.ARC_AUTHENTICATION_RESULTS_HEADER, authenticationResults);
+        message.addHeader(ArcSealer.ARC_MESSAGE_SIGNATURE_HEADER, messageSignature);
+        message.addHeader(ArcSealer.ARC_SEAL_HEADER, seal);
+    }
+}
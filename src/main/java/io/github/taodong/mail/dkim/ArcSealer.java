@@ -0,0 +1,252 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.internet.MimeMessage;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Add ARC sets (RFC 8617) to messages passing through a forwarder or a mailing list, optionally together with a DKIM
+ * signature of the relay. The ARC-Message-Signature is a DKIM signature under other leading tags and is computed by
+ * the same code: the message is read once, headers are indexed once and every header line is canonicalized once per
+ * header canonicalization, and the body is canonicalized and hashed in a single pass for the ARC-Message-Signature and
+ * the DKIM signature. When both use the same body canonicalization, the body is hashed once.
+ * <p>
+ * The ARC-Seal signs the ARC sets of the message with relaxed header canonicalization. The sealer doesn't validate
+ * the existing chain, pass the result of the validation of the chain as the chain status. A chain which is not
+ * structurally valid, e.g. a set missing a header field or a header field with a malformed instance, is sealed with
+ * {@link ArcChainStatus#FAIL}. The sealer is
+ * immutable and thread-safe.
+ */
+public class ArcSealer {
+    public static final String ARC_SEAL_HEADER = "ARC-Seal";
+    public static final String ARC_MESSAGE_SIGNATURE_HEADER = "ARC-Message-Signature";
+    public static final String ARC_AUTHENTICATION_RESULTS_HEADER = "ARC-Authentication-Results";
+    static final int MAX_INSTANCE = 50;
+
+    private static final String[] ARC_HEADERS = {ARC_AUTHENTICATION_RESULTS_HEADER, ARC_MESSAGE_SIGNATURE_HEADER, ARC_SEAL_HEADER};
+
+    private final DkimSigner signer;
+    private final String authServId;
+    private final Clock clock;
+
+    /**
+     * Create a sealer
+     * @param profile - the signing profile of the ARC-Message-Signature and the ARC-Seal, the identity may be left out,
+     *                ARC-Seal is never signed by the ARC-Message-Signature even when listed in the headers
+     * @param authServId - the authentication service identifier of the ARC-Authentication-Results, usually the host
+     *                   name of the relay
+     * @throws DkimSigningException when the profile is not valid
+     */
+    public ArcSealer(@NotNull DkimSigningProfile profile, @NotBlank String authServId) throws DkimSigningException {
+        this(profile, authServId, SigningMetricsListener.NONE);
+    }
+
+    /**
+     * Create a sealer reporting every ARC-Message-Signature to a metrics listener
+     * @param profile - the signing profile of the ARC-Message-Signature and the ARC-Seal, the identity may be left out,
+     *                ARC-Seal is never signed by the ARC-Message-Signature even when listed in the headers
+     * @param authServId - the authentication service identifier of the ARC-Authentication-Results, usually the host
+     *                   name of the relay
+     * @param metricsListener - listener notified of every ARC-Message-Signature and failure, e.g.
+     *                        {@link DkimSigningMetrics}
+     * @throws DkimSigningException when the profile is not valid
+     */
+    public ArcSealer(@NotNull DkimSigningProfile profile, @NotBlank String authServId,
+                     @NotNull SigningMetricsListener metricsListener) throws DkimSigningException {
+        this(profile, authServId, metricsListener, Clock.systemUTC());
+    }
+
+    ArcSealer(DkimSigningProfile profile, String authServId, Clock clock) throws DkimSigningException {
+        this(profile, authServId, SigningMetricsListener.NONE, clock);
+    }
+
+    ArcSealer(DkimSigningProfile profile, String authServId, SigningMetricsListener metricsListener, Clock clock)
+            throws DkimSigningException {
+        var headers = profile.headers().stream()
+                .filter(header -> !header.name().equalsIgnoreCase(ARC_SEAL_HEADER))
+                .toList();
+        this.signer = new DkimSigner(profile.toBuilder()
+                .identity(StringUtils.defaultIfBlank(profile.identity(), "@" + profile.domain()))
+                .headers(headers)
+                .build(), metricsListener);
+        this.authServId = authServId;
+        this.clock = clock;
+    }
+
+    /**
+     * Add the next ARC set to a message
+     * @param message - the message
+     * @param authenticationResults - the results of the authentication checks of the relay, e.g.
+     *                              {@code spf=pass smtp.mailfrom=example.com; dkim=pass header.d=example.com}, the
+     *                              instance and the authentication service identifier are added
+     * @param chainStatus - the result of validating the ARC chain of the message, {@link ArcChainStatus#NONE} when the
+     *                    message has no ARC set
+     * @return the header fields to add
+     * @throws DkimSigningException when failed to read or sign the message, or the chain has the maximum number of sets
+     */
+    public ArcSealResult seal(@NotNull MimeMessage message, String authenticationResults,
+                              @NotNull ArcChainStatus chainStatus) throws DkimSigningException {
+        return seal(message, authenticationResults, chainStatus, null);
+    }
+
+    /**
+     * Sign a message with DKIM and add the next ARC set, reading the message once. The ARC-Message-Signature signs the
+     * new DKIM-Signature when the profile of the sealer lists it.
+     * @param message - the message
+     * @param authenticationResults - the results of the authentication checks of the relay, the instance and the
+     *                              authentication service identifier are added
+     * @param chainStatus - the result of validating the ARC chain of the message, {@link ArcChainStatus#NONE} when the
+     *                    message has no ARC set
+     * @param dkimSigner - the DKIM signer of the relay, null to add the ARC set only
+     * @return the DKIM signature and the header fields of the ARC set
+     * @throws DkimSigningException when failed to read or sign the message, or the chain has the maximum number of sets
+     */
+    public ArcSealResult seal(@NotNull MimeMessage message, String authenticationResults,
+                              @NotNull ArcChainStatus chainStatus, DkimSigner dkimSigner) throws DkimSigningException {
+        var headerIndex = DkimSigner.indexHeaders(message);
+        var bodies = DkimMultiSigner.hashBody(message, dkimSigner == null ? List.of(signer) : List.of(signer, dkimSigner));
+
+        String dkimSignature = null;
+        if (dkimSigner != null) {
+            dkimSignature = dkimSigner.sign(headerIndex, bodies.get(dkimSigner.getBodyCanonicalization()));
+            // added below the existing signatures, as MimeMessage.addHeader does
+            headerIndex.add(new HeaderIndex.Field(DkimSignature.DKIM_SIGNATURE_HEADER, dkimSignature, null));
+        }
+        return seal(headerIndex, bodies.get(signer.getBodyCanonicalization()), authenticationResults, chainStatus,
+                dkimSignature);
+    }
+
+    private ArcSealResult seal(HeaderIndex headerIndex, DkimSigner.HashedBody body, String authenticationResults,
+                               ArcChainStatus chainStatus, String dkimSignature) throws DkimSigningException {
+        var chain = existingSets(headerIndex);
+        var sets = chain.sets();
+        var instance = sets.size() + 1;
+        if (instance > MAX_INSTANCE) {
+            throw new DkimSigningException("The ARC chain already has " + MAX_INSTANCE + " sets.");
+        }
+        if (chain.broken()) {
+            chainStatus = ArcChainStatus.FAIL;
+        } else if (instance == 1) {
+            chainStatus = ArcChainStatus.NONE;
+        } else if (chainStatus == ArcChainStatus.NONE) {
+            throw new DkimSigningException("Chain status none is only valid for the first ARC set.");
+        }
+        var timestamp = String.valueOf(clock.instant().getEpochSecond());
+        var algorithm = signer.getAlgorithm().getTagValue();
+        var domain = signer.getDomain();
+        var selector = signer.getProfile().selector();
+
+        var results = new StringBuilder();
+        DkimSignature.appendTag(results, ArcTag.INSTANCE, String.valueOf(instance))
+                .append("; ").append(authServId)
+                .append("; ").append(StringUtils.defaultIfBlank(authenticationResults, "none"));
+        var authenticationField = new HeaderIndex.Field(ARC_AUTHENTICATION_RESULTS_HEADER, results.toString(), null);
+
+        // the ARC-Message-Signature has the signed headers, body hash and signature of a DKIM signature
+        var tags = new StringBuilder();
+        DkimSignature.appendTag(tags, ArcTag.INSTANCE, String.valueOf(instance));
+        DkimSignature.appendTag(tags, HeaderTag.ALGORITHM, algorithm);
+        DkimSignature.appendTag(tags, HeaderTag.CANONICALIZATION,
+                signer.getHeaderCanonicalization().getType() + "/" + signer.getBodyCanonicalization().getType());
+        DkimSignature.appendTag(tags, HeaderTag.DOMAIN, domain);
+        DkimSignature.appendTag(tags, HeaderTag.SELECTOR, selector);
+        DkimSignature.appendTag(tags, ArcTag.TIMESTAMP, timestamp);
+        DkimSignature.appendTag(tags, HeaderTag.HEADERS, "");
+        var tagPrefix = tags.toString();
+        var messageSignature = signer.sign(headerIndex, body, tagPrefix, signer.getHeaderCanonicalization()
+                .canonicalizeHeader(bytes(ARC_MESSAGE_SIGNATURE_HEADER), bytes(tagPrefix)));
+        var messageSignatureField = new HeaderIndex.Field(ARC_MESSAGE_SIGNATURE_HEADER, messageSignature, null);
+
+        var seal = new StringBuilder();
+        DkimSignature.appendTag(seal, ArcTag.INSTANCE, String.valueOf(instance));
+        DkimSignature.appendTag(seal, HeaderTag.ALGORITHM, algorithm);
+        DkimSignature.appendTag(seal, ArcTag.TIMESTAMP, timestamp);
+        DkimSignature.appendTag(seal, ArcTag.CHAIN_VALIDATION, chainStatus.getTagValue());
+        DkimSignature.appendTag(seal, HeaderTag.DOMAIN, domain);
+        DkimSignature.appendTag(seal, HeaderTag.SELECTOR, selector);
+        DkimSignature.appendTag(seal, HeaderTag.SIGNATURE, "");
+
+        // the sets in instance order, only the new set when the chain failed, RFC 8617 section 5.1.2
+        var data = new HeaderBuffer();
+        if (chainStatus != ArcChainStatus.FAIL) {
+            for (var set : sets) {
+                for (var field : set) {
+                    data.append(field.canonicalize(Canonicalization.RELAXED)).appendCrlf();
+                }
+            }
+        }
+        data.append(authenticationField.canonicalize(Canonicalization.RELAXED)).appendCrlf();
+        data.append(messageSignatureField.canonicalize(Canonicalization.RELAXED)).appendCrlf();
+        data.append(Canonicalization.RELAXED.canonicalizeHeader(bytes(ARC_SEAL_HEADER), bytes(seal.toString())));
+        seal.append(signer.createSignatureValue(data));
+
+        return new ArcSealResult(dkimSignature, instance, results.toString(), messageSignature, seal.toString());
+    }
+
+    /**
+     * The ARC sets of a message
+     * @param sets - the header fields of every set in signing order, null for a set which is incomplete or repeated
+     * @param broken - true when the chain is not structurally valid
+     */
+    private record ArcChain(List<HeaderIndex.Field[]> sets, boolean broken) {
+    }
+
+    /**
+     * Collect the ARC sets of a message by instance, a header field with a malformed instance breaks the chain
+     */
+    private static ArcChain existingSets(HeaderIndex headerIndex) {
+        var byInstance = new HashMap<Integer, HeaderIndex.Field[]>();
+        var broken = new ArrayList<Integer>();
+        var malformed = false;
+        var maxInstance = 0;
+        for (var type = 0; type < ARC_HEADERS.length; type++) {
+            for (var field : headerIndex.get(ARC_HEADERS[type])) {
+                var instance = instanceOf(field);
+                if (instance < 0) {
+                    malformed = true;
+                    continue;
+                }
+                maxInstance = Math.max(maxInstance, instance);
+                var set = byInstance.computeIfAbsent(instance, i -> new HeaderIndex.Field[ARC_HEADERS.length]);
+                if (set[type] != null) {
+                    broken.add(instance);
+                }
+                set[type] = field;
+            }
+        }
+
+        var sets = new ArrayList<HeaderIndex.Field[]>(maxInstance);
+        for (var instance = 1; instance <= maxInstance; instance++) {
+            var set = byInstance.get(instance);
+            sets.add(set == null || broken.contains(instance) || Arrays.asList(set).contains(null) ? null : set);
+        }
+        return new ArcChain(sets, malformed || sets.contains(null));
+    }
+
+    /**
+     * Read the instance of an ARC header field, the {@code i=} tag leading its value
+     * @return the instance, -1 when malformed
+     */
+    private static int instanceOf(HeaderIndex.Field field) {
+        var tag = StringUtils.substringBefore(field.value(), ";").strip();
+        var instance = tag.startsWith(ArcTag.INSTANCE.getTagName() + "=")
+                ? StringUtils.strip(tag.substring(2)) : "";
+        if (!StringUtils.isNumeric(instance) || instance.length() > 2
+                || Integer.parseInt(instance) < 1 || Integer.parseInt(instance) > MAX_INSTANCE) {
+            return -1;
+        }
+        return Integer.parseInt(instance);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
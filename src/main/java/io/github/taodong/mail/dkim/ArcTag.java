@@ -0,0 +1,21 @@
+package io.github.taodong.mail.dkim;
+
+import lombok.Getter;
+
+/**
+ * Tags of the ARC header fields, RFC 8617 section 4.1. The other tags of an ARC-Message-Signature are the tags of a
+ * DKIM signature, see {@link HeaderTag}.
+ */
+@Getter
+public enum ArcTag {
+    INSTANCE("i"),
+    TIMESTAMP("t"),
+    CHAIN_VALIDATION("cv")
+    ;
+
+    private final String tagName;
+
+    ArcTag(String tagName) {
+        this.tagName = tagName;
+    }
+}
@@ -0,0 +1,242 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Objects;
+
+/**
+ * Streaming, byte level body canonicalizer. Bytes written into the stream are canonicalized on the fly and forwarded
+ * in chunks to a {@link MessageDigest} or another {@link OutputStream}, so the memory used stays constant no matter
+ * how big the body is.
+ * <p>
+ * Trailing empty lines can only be decided at the end of the body, the canonical body is complete after
+ * {@link #finish()} or {@link #close()} is called. The stream is not thread-safe.
+ */
+public class CanonicalBodyOutputStream extends OutputStream implements WritableByteChannel {
+    static final int CHUNK_SIZE = 8192;
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte SP = ' ';
+    private static final byte HTAB = '\t';
+    private static final byte[] CRLF = {CR, LF};
+
+    private final boolean relaxed;
+    private final OutputStream out;
+    private final boolean closeOut;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private byte[] scratch;
+    private int chunkLength;
+
+    /**
+     * Number of canonical bytes produced so far
+     */
+    @Getter
+    private long bodyLength;
+
+    private int pendingCrlfs;
+    private boolean pendingCr;
+    private boolean pendingWsp;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * Create a canonicalizer feeding the canonical body into a message digest
+     * @param canonicalization - body canonicalization method, when null, use {@link Canonicalization#SIMPLE}
+     * @param digest - the digest to update with the canonical body
+     */
+    public CanonicalBodyOutputStream(Canonicalization canonicalization, @NotNull MessageDigest digest) {
+        this(canonicalization, new DigestOutputStream(OutputStream.nullOutputStream(), digest), false);
+    }
+
+    /**
+     * Create a canonicalizer writing the canonical body into another output stream
+     * @param canonicalization - body canonicalization method, when null, use {@link Canonicalization#SIMPLE}
+     * @param out - the output stream to write the canonical body into, closed when this stream is closed
+     */
+    public CanonicalBodyOutputStream(Canonicalization canonicalization, @NotNull OutputStream out) {
+        this(canonicalization, out, true);
+    }
+
+    private CanonicalBodyOutputStream(Canonicalization canonicalization, OutputStream out, boolean closeOut) {
+        this.relaxed = canonicalization == Canonicalization.RELAXED;
+        this.out = out;
+        this.closeOut = closeOut;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureWritable();
+        Objects.checkFromIndexSize(off, len, b.length);
+        process(b, off, len);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureWritable();
+        var count = src.remaining();
+        if (src.hasArray()) {
+            process(src.array(), src.arrayOffset() + src.position(), count);
+            src.position(src.limit());
+        } else {
+            if (scratch == null) {
+                scratch = new byte[CHUNK_SIZE];
+            }
+            while (src.hasRemaining()) {
+                var length = Math.min(scratch.length, src.remaining());
+                src.get(scratch, 0, length);
+                process(scratch, 0, length);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Complete the canonical body and flush it downstream without closing the downstream output.
+     * @throws IOException when failed to write downstream
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+
+        if (pendingCr) {
+            pendingCr = false;
+            flushPending();
+            emit(CR);
+        }
+
+        // simple adds a CRLF to an empty body as well, relaxed only ends a non-empty body with CRLF
+        if (!relaxed || bodyLength > 0) {
+            emit(CRLF, 0, CRLF.length);
+        }
+        pendingCrlfs = 0;
+        pendingWsp = false;
+
+        flushChunk();
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            finish();
+        } finally {
+            closed = true;
+            if (closeOut) {
+                out.close();
+            }
+        }
+    }
+
+    private void process(byte[] b, int off, int len) throws IOException {
+        var end = off + len;
+        var i = off;
+        while (i < end) {
+            if (pendingCr) {
+                pendingCr = false;
+                if (b[i] == LF) {
+                    // whitespace at the end of a line is ignored in relaxed mode
+                    pendingWsp = false;
+                    pendingCrlfs++;
+                    i++;
+                    continue;
+                }
+                // a lone CR is a regular character
+                flushPending();
+                emit(CR);
+            }
+
+            // pass runs of regular characters through in bulk
+            var runStart = i;
+            while (i < end && !isSpecial(b[i])) {
+                i++;
+            }
+            if (i > runStart) {
+                flushPending();
+                emit(b, runStart, i - runStart);
+            }
+
+            if (i < end) {
+                if (b[i] == CR) {
+                    pendingCr = true;
+                } else {
+                    pendingWsp = true;
+                }
+                i++;
+            }
+        }
+    }
+
+    private boolean isSpecial(byte b) {
+        return b == CR || (relaxed && (b == SP || b == HTAB));
+    }
+
+    private void flushPending() throws IOException {
+        // empty lines are only kept when followed by content
+        for (; pendingCrlfs > 0; pendingCrlfs--) {
+            emit(CRLF, 0, CRLF.length);
+        }
+        // a sequence of whitespace within a line is reduced to a single SP in relaxed mode
+        if (pendingWsp) {
+            pendingWsp = false;
+            emit(SP);
+        }
+    }
+
+    private void emit(byte b) throws IOException {
+        if (chunkLength == chunk.length) {
+            flushChunk();
+        }
+        chunk[chunkLength++] = b;
+        bodyLength++;
+    }
+
+    private void emit(byte[] b, int off, int len) throws IOException {
+        bodyLength += len;
+        if (len > chunk.length - chunkLength) {
+            flushChunk();
+            if (len >= chunk.length) {
+                out.write(b, off, len);
+                return;
+            }
+        }
+        System.arraycopy(b, off, chunk, chunkLength, len);
+        chunkLength += len;
+    }
+
+    private void flushChunk() throws IOException {
+        if (chunkLength > 0) {
+            out.write(chunk, 0, chunkLength);
+            chunkLength = 0;
+        }
+    }
+
+    private void ensureWritable() throws IOException {
+        if (finished) {
+            throw new IOException("Canonical body is already finished.");
+        }
+    }
+}
@@ -1,83 +1,59 @@
 package io.github.taodong.mail.dkim;
 
+import jakarta.validation.constraints.NotNull;
 import lombok.Getter;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.function.BinaryOperator;
 import java.util.function.UnaryOperator;
 
 /**
  * Enum for DKIM canonicalization algorithms
- * Logic is copied from java-utils-mail-dkim project
+ * Logic is copied from java-utils-mail-dkim project and reimplemented as single pass byte scanners
  *
  * @see <a href="https://github.com/simple-java-mail/java-utils-mail-dkim">java-utils-mail-dkim</a>
  */
 @Getter
 public enum Canonicalization {
-    SIMPLE("simple",
-            body -> {
-                    // if body is empty, CRLF is returned
-                    if (StringUtils.isEmpty(body)) {
-                        return "\r\n";
-                    }
-
-                    // if there is no trailing CRLF on the message body, CRLF is added
-                    if (!body.endsWith("\r\n")) {
-                        return body + "\r\n";
-                    }
-
-                    // while there are multiple trailing CRLF on the message body, one is removed
-                    while (body.endsWith("\r\n\r\n")) {
-                        body = body.substring(0, body.length() - 2);
-                    }
-
-                    return body;
-                },
-            (header, value) -> header + ": " + value
-    ),
-    RELAXED("relaxed",
-            body ->  {
-
-                // if there body is blank, an empty body is returned
-                if (StringUtils.isEmpty(body)) {
-                    return "";
-                }
-
-                // if there is no trailing CRLF on the message body, CRLF is added
-                if (!body.endsWith("\r\n")) {
-                    body += "\r\n";
-                }
-
-                // ignore all whitespace at the end of lines
-                body = body.replaceAll("[ \\t]+\r\n", "\r\n");
-
-                // reduce all sequences of whitespace within a line to a single SP character
-                body = body.replaceAll("[ \\t]+", " ");
-
-                // while there are multiple trailing CRLF on the message body, one is removed
-                while (body.endsWith("\r\n\r\n")) {
-                    body = body.substring(0, body.length() - 2);
-                }
-
-                // at last, ensure CRLF is empty
-                if ("\r\n".equals(body)) {
-                    body = "";
-                }
+    SIMPLE("simple"),
+    RELAXED("relaxed");
 
-                return body;
-
-            },
-            (header, value) -> header.trim().toLowerCase() + ":" + value.replaceAll("\\s+", " ").trim()
-    );
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte SP = ' ';
+    private static final byte HTAB = '\t';
+    private static final byte COLON = ':';
 
     private final String type;
-    private final UnaryOperator<String> bodyOperator;
-    private final BinaryOperator<String> headerOperator;
 
-    Canonicalization(String type, UnaryOperator<String> bodyOperator, BinaryOperator<String> headerOperator) {
+    Canonicalization(String type) {
         this.type = type;
-        this.bodyOperator = bodyOperator;
-        this.headerOperator = headerOperator;
+    }
+
+    /**
+     * Get the body canonicalization working on strings. Created on demand, the signing path works on bytes and
+     * doesn't pay for bootstrapping the lambda when the enum is initialized.
+     * @return the operator canonicalizing a body
+     */
+    public UnaryOperator<String> getBodyOperator() {
+        return body -> new String(
+                canonicalizeBody(StringUtils.defaultString(body).getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the header canonicalization working on strings, created on demand like {@link #getBodyOperator()}
+     * @return the operator canonicalizing a header name and value into a header line without trailing CRLF
+     */
+    public BinaryOperator<String> getHeaderOperator() {
+        return (header, value) -> new String(
+                canonicalizeHeader(header.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8);
     }
 
     /**
@@ -93,4 +69,209 @@ public enum Canonicalization {
         }
         return Canonicalization.SIMPLE;
     }
+
+    /**
+     * Canonicalize a message body
+     * @param body - the raw body
+     * @return the canonical body, the input array itself when it is already canonical
+     */
+    public byte[] canonicalizeBody(@NotNull byte[] body) {
+        if (isCanonicalBody(ByteBuffer.wrap(body))) {
+            return body;
+        }
+
+        var out = new ByteArrayOutputStream(body.length + 2);
+        try (var canonicalBody = new CanonicalBodyOutputStream(this, out)) {
+            canonicalBody.write(body);
+        } catch (IOException e) {
+            // never happens when writing into memory
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Canonicalize a message body between the position and the limit of the buffer. The position of the buffer is not changed.
+     * @param body - the raw body
+     * @return the canonical body, a slice of the input buffer when it is already canonical
+     */
+    public ByteBuffer canonicalizeBody(@NotNull ByteBuffer body) {
+        if (isCanonicalBody(body)) {
+            return body.slice();
+        }
+
+        var out = new ByteArrayOutputStream(body.remaining() + 2);
+        try (var canonicalBody = new CanonicalBodyOutputStream(this, out)) {
+            canonicalBody.write(body.duplicate());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * Check whether the bytes between the position and the limit of the buffer are already a canonical body
+     * @param body - the body to check
+     * @return true if canonicalization won't change the body
+     */
+    public boolean isCanonicalBody(@NotNull ByteBuffer body) {
+        var start = body.position();
+        var end = body.limit();
+        var length = end - start;
+
+        if (length == 0) {
+            // an empty body is canonical for relaxed, simple turns it into CRLF
+            return this == RELAXED;
+        }
+
+        // a canonical body ends with exactly one CRLF, relaxed drops a body made of an empty line
+        if (length < 2 || body.get(end - 2) != CR || body.get(end - 1) != LF
+                || (length >= 4 && body.get(end - 4) == CR && body.get(end - 3) == LF)
+                || (length == 2 && this == RELAXED)) {
+            return false;
+        }
+
+        if (this == SIMPLE) {
+            return true;
+        }
+
+        // relaxed has no tab, no whitespace sequence and no whitespace at the end of a line
+        for (var i = start; i < end; i++) {
+            var c = body.get(i);
+            if (c == HTAB) {
+                return false;
+            }
+            if (c == SP) {
+                var next = body.get(i + 1);
+                if (next == SP || next == HTAB || (next == CR && i + 2 < end && body.get(i + 2) == LF)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Canonicalize a header field
+     * @param name - the header name
+     * @param value - the unfolded or folded header value
+     * @return the canonical header line without trailing CRLF
+     */
+    public byte[] canonicalizeHeader(@NotNull byte[] name, @NotNull byte[] value) {
+        var canonical = new byte[maxHeaderLength(name, value)];
+        var length = canonicalizeHeader(name, value, canonical, 0);
+        return length == canonical.length ? canonical : Arrays.copyOf(canonical, length);
+    }
+
+    /**
+     * Canonicalize a header field into a destination array
+     * @param name - the header name
+     * @param value - the unfolded or folded header value
+     * @param dst - the destination array, must have at least {@link #maxHeaderLength(byte[], byte[])} bytes after offset
+     * @param offset - the offset of the destination to start writing
+     * @return the offset after the last byte written
+     */
+    public int canonicalizeHeader(@NotNull byte[] name, @NotNull byte[] value, @NotNull byte[] dst, int offset) {
+        if (this == SIMPLE) {
+            System.arraycopy(name, 0, dst, offset, name.length);
+            offset += name.length;
+            dst[offset++] = COLON;
+            dst[offset++] = SP;
+            System.arraycopy(value, 0, dst, offset, value.length);
+            return offset + value.length;
+        }
+
+        offset = relaxHeaderName(name, dst, offset);
+        dst[offset++] = COLON;
+        return relaxHeaderValue(value, dst, offset);
+    }
+
+    /**
+     * Get the maximum length of a canonical header line
+     * @param name - the header name
+     * @param value - the header value
+     * @return the upper bound of the canonical header length
+     */
+    public static int maxHeaderLength(byte[] name, byte[] value) {
+        return name.length + value.length + 2;
+    }
+
+    private static int relaxHeaderName(byte[] name, byte[] dst, int offset) {
+        var start = trimStart(name);
+        var end = trimEnd(name, start);
+
+        var lowerCase = true;
+        for (var i = start; i < end && lowerCase; i++) {
+            lowerCase = name[i] < 'A' || name[i] > 'Z';
+        }
+
+        if (lowerCase) {
+            System.arraycopy(name, start, dst, offset, end - start);
+            return offset + end - start;
+        }
+
+        for (var i = start; i < end; i++) {
+            var c = name[i];
+            dst[offset++] = c >= 'A' && c <= 'Z' ? (byte) (c + ('a' - 'A')) : c;
+        }
+        return offset;
+    }
+
+    private static int relaxHeaderValue(byte[] value, byte[] dst, int offset) {
+        var start = trimStart(value);
+        var end = trimEnd(value, start);
+
+        // fast path, nothing to unfold or collapse
+        var canonical = true;
+        for (var i = start; i < end && canonical; i++) {
+            var c = value[i];
+            canonical = !isWhitespace(c) || (c == SP && !isWhitespace(value[i + 1]));
+        }
+
+        if (canonical) {
+            System.arraycopy(value, start, dst, offset, end - start);
+            return offset + end - start;
+        }
+
+        var inWhitespace = false;
+        for (var i = start; i < end; i++) {
+            var c = value[i];
+            if (isWhitespace(c)) {
+                inWhitespace = true;
+            } else {
+                if (inWhitespace) {
+                    dst[offset++] = SP;
+                    inWhitespace = false;
+                }
+                dst[offset++] = c;
+            }
+        }
+        return offset;
+    }
+
+    // same as String.trim(), skips control characters and space
+    private static int trimStart(byte[] bytes) {
+        var start = 0;
+        while (start < bytes.length && isTrimmable(bytes[start])) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(byte[] bytes, int start) {
+        var end = bytes.length;
+        while (end > start && isTrimmable(bytes[end - 1])) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isTrimmable(byte c) {
+        return c >= 0 && c <= SP;
+    }
+
+    // same as regex \s, covers folding CRLF as well
+    private static boolean isWhitespace(byte c) {
+        return c == SP || c == HTAB || c == LF || c == CR || c == 0x0b || c == '\f';
+    }
 }
@@ -0,0 +1,53 @@
+package io.github.taodong.mail.dkim;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Normalize line breaks to CRLF while writing, as an SMTP transport does when it sends a message: a bare CR or LF
+ * becomes CRLF. {@link jakarta.mail.internet.MimeMessage#writeTo(OutputStream)} writes text parts in 7bit or 8bit
+ * encoding with the line breaks of their content, so a message is normalized before it is signed. Not thread-safe.
+ */
+final class CrlfOutputStream extends FilterOutputStream {
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte[] CRLF = {CR, LF};
+
+    private boolean lastCr;
+
+    CrlfOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (b == CR || b == LF) {
+            if (b == CR || !lastCr) {
+                out.write(CRLF);
+            }
+        } else {
+            out.write(b);
+        }
+        lastCr = b == CR;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        var start = off;
+        var end = off + len;
+        for (var i = off; i < end; i++) {
+            var c = b[i];
+            if (c == CR || c == LF) {
+                out.write(b, start, i - start);
+                // the LF of a CRLF was written with the CR
+                if (c == CR || !lastCr) {
+                    out.write(CRLF);
+                }
+                start = i + 1;
+            }
+            lastCr = c == CR;
+        }
+        out.write(b, start, end - start);
+    }
+}
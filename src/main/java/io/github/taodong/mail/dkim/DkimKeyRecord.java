@@ -0,0 +1,86 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.validation.constraints.NotNull;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * A DKIM public key record published in DNS at {@code <selector>._domainkey.<domain>}, RFC 6376 section 3.6.1
+ * @param keyType - value of the {@code k=} tag, {@code rsa} when missing
+ * @param publicKey - the public key, null when the key is revoked with an empty {@code p=} tag
+ */
+public record DkimKeyRecord(String keyType, PublicKey publicKey) {
+    // SubjectPublicKeyInfo header of an Ed25519 key, RFC 8463 publishes the raw 32 byte key
+    private static final byte[] ED25519_KEY_PREFIX = {0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00};
+    private static final int ED25519_KEY_LENGTH = 32;
+
+    /**
+     * Parse the text of a key record, the strings of a TXT record concatenated
+     * @param record - the record, e.g. {@code v=DKIM1; k=rsa; p=MIIBIjANBg...}
+     * @return the key record
+     * @throws DkimSigningException when the record is not a valid DKIM key record
+     */
+    public static DkimKeyRecord parse(@NotNull String record) throws DkimSigningException {
+        var tags = DkimSignature.parseTags(record);
+        var version = tags.get("v");
+        if (version != null && !version.equals("DKIM1")) {
+            throw new DkimSigningException("Unsupported key record version " + version + ".");
+        }
+        var hashes = tags.get("h");
+        if (hashes != null && Arrays.stream(hashes.split(":")).noneMatch(h -> h.strip().equalsIgnoreCase("sha256"))) {
+            throw new DkimSigningException("Key record doesn't allow sha256.");
+        }
+        var keyType = tags.getOrDefault("k", "rsa").toLowerCase(Locale.ROOT);
+        var encoded = tags.get("p");
+        if (encoded == null) {
+            throw new DkimSigningException("Key record has no p= tag.");
+        }
+        encoded = encoded.replaceAll("\\s", "");
+        if (encoded.isEmpty()) {
+            return new DkimKeyRecord(keyType, null);
+        }
+
+        try {
+            var key = Base64.getDecoder().decode(encoded);
+            return switch (keyType) {
+                case "rsa" -> new DkimKeyRecord(keyType, KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(key)));
+                case "ed25519" -> new DkimKeyRecord(keyType, ed25519Key(key));
+                default -> throw new DkimSigningException("Unsupported key type " + keyType + ".");
+            };
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            throw new DkimSigningException("Invalid public key in key record.", e);
+        }
+    }
+
+    /**
+     * @return true when the key was revoked
+     */
+    public boolean isRevoked() {
+        return publicKey == null;
+    }
+
+    /**
+     * Check whether the key can verify signatures of an algorithm
+     * @param algorithm - the signing algorithm
+     * @return true when the key type matches the algorithm
+     */
+    public boolean supports(@NotNull SigningAlgorithm algorithm) {
+        return keyType.equalsIgnoreCase(algorithm.getKeyAlgorithm());
+    }
+
+    private static PublicKey ed25519Key(byte[] key) throws GeneralSecurityException {
+        // accept a SubjectPublicKeyInfo as well, some publishers use it
+        var encoded = key;
+        if (key.length == ED25519_KEY_LENGTH) {
+            encoded = Arrays.copyOf(ED25519_KEY_PREFIX, ED25519_KEY_PREFIX.length + key.length);
+            System.arraycopy(key, 0, encoded, ED25519_KEY_PREFIX.length, key.length);
+        }
+        return KeyFactory.getInstance("Ed25519").generatePublic(new X509EncodedKeySpec(encoded));
+    }
+}
@@ -0,0 +1,301 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchService;
+import java.security.PrivateKey;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * A concurrent cache of parsed private keys keyed by domain and selector. Keys are parsed once when they are registered
+ * or loaded, lookups never touch the disk.
+ * <p>
+ * Key files are named after the DKIM DNS record of the key, {@code <selector>._domainkey.<domain>.<extension>}, e.g.
+ * {@code s1._domainkey.example.com.pem}. PEM files ({@code .pem}, {@code .key}) may hold PKCS#8, PKCS#1 or encrypted
+ * PKCS#8 keys, PKCS#12 files ({@code .p12}, {@code .pfx}) provide their first private key. Other files are ignored.
+ * <p>
+ * A watched directory is monitored on a virtual thread. Created and modified files are parsed in the background and
+ * replace the cached key atomically, a key whose file is deleted and not recreated is removed. A file which fails to
+ * parse, e.g. while it is still being written, is reported to the error handler and the previous key is kept.
+ */
+public class DkimKeyRegistry implements AutoCloseable {
+    private static final String DOMAIN_KEY_LABEL = "._domainkey.";
+
+    private final Map<KeyId, PrivateKey> keys = new ConcurrentHashMap<>();
+    private final Map<Path, KeyId> keyFiles = new ConcurrentHashMap<>();
+    private final Function<Path, char[]> passwordProvider;
+    private final BiConsumer<Path, DkimSigningException> errorHandler;
+    private final Object watchLock = new Object();
+    private WatchService watchService;
+    private volatile boolean closed;
+
+    private record KeyId(String domain, String selector) {
+        static KeyId of(String domain, String selector) {
+            return new KeyId(StringUtils.removeEnd(domain.trim(), ".").toLowerCase(Locale.ROOT),
+                    selector.trim().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private enum KeyFileFormat {
+        PEM, PKCS12;
+
+        static KeyFileFormat fromExtension(String extension) {
+            return switch (extension.toLowerCase(Locale.ROOT)) {
+                case "pem", "key" -> PEM;
+                case "p12", "pfx" -> PKCS12;
+                default -> null;
+            };
+        }
+    }
+
+    /**
+     * Create a registry for unencrypted keys, files failed to load are ignored
+     */
+    public DkimKeyRegistry() {
+        this(file -> null, (file, e) -> {});
+    }
+
+    /**
+     * Create a registry
+     * @param passwordProvider - provide the password of an encrypted PEM or PKCS#12 key file, return null when the file is not encrypted
+     * @param errorHandler - called with the file and the cause when a key file fails to load
+     */
+    public DkimKeyRegistry(@NotNull Function<Path, char[]> passwordProvider,
+                           @NotNull BiConsumer<Path, DkimSigningException> errorHandler) {
+        this.passwordProvider = passwordProvider;
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Get the cached key of a selector
+     * @param domain - the signing domain, case-insensitive
+     * @param selector - the selector, case-insensitive
+     * @return the private key, null when no key is registered
+     */
+    public PrivateKey getKey(@NotBlank String domain, @NotBlank String selector) {
+        return keys.get(KeyId.of(domain, selector));
+    }
+
+    /**
+     * Get the cached key of a selector
+     * @param domain - the signing domain, case-insensitive
+     * @param selector - the selector, case-insensitive
+     * @return the private key
+     * @throws DkimSigningException when no key is registered
+     */
+    public PrivateKey getRequiredKey(@NotBlank String domain, @NotBlank String selector) throws DkimSigningException {
+        var key = getKey(domain, selector);
+        if (key == null) {
+            throw new DkimSigningException("No private key registered for selector " + selector + " of domain " + domain + ".");
+        }
+        return key;
+    }
+
+    /**
+     * Register a key, replacing the existing key of the selector
+     * @param domain - the signing domain
+     * @param selector - the selector
+     * @param key - the private key
+     */
+    public void register(@NotBlank String domain, @NotBlank String selector, @NotNull PrivateKey key) {
+        keys.put(KeyId.of(domain, selector), key);
+    }
+
+    /**
+     * Remove the key of a selector
+     * @param domain - the signing domain
+     * @param selector - the selector
+     * @return the removed key, null when no key is registered
+     */
+    public PrivateKey unregister(@NotBlank String domain, @NotBlank String selector) {
+        return keys.remove(KeyId.of(domain, selector));
+    }
+
+    /**
+     * @return the number of registered keys
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * Load all key files of a directory. Files failed to load are reported to the error handler.
+     * @param directory - the key directory
+     * @return the number of keys loaded
+     * @throws DkimSigningException when the directory can't be listed
+     */
+    public int loadDirectory(@NotNull Path directory) throws DkimSigningException {
+        try (var files = Files.list(directory)) {
+            return (int) files.filter(Files::isRegularFile).filter(this::loadFile).count();
+        } catch (IOException e) {
+            throw new DkimSigningException("Failed to list key directory " + directory + ".", e);
+        }
+    }
+
+    /**
+     * Load all key files of a directory and keep the keys up to date with the files in the background until the
+     * registry is closed
+     * @param directory - the key directory
+     * @throws DkimSigningException when the directory can't be watched
+     */
+    public void watch(@NotNull Path directory) throws DkimSigningException {
+        synchronized (watchLock) {
+            if (closed) {
+                throw new DkimSigningException("Key registry is closed.");
+            }
+            try {
+                if (watchService == null) {
+                    watchService = directory.getFileSystem().newWatchService();
+                    var service = watchService;
+                    Thread.ofVirtual().name("dkim-key-watcher").start(() -> processEvents(service));
+                }
+                // register before loading, so no change between the two is missed
+                directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            } catch (IOException e) {
+                throw new DkimSigningException("Failed to watch key directory " + directory + ".", e);
+            }
+        }
+        loadDirectory(directory);
+    }
+
+    /**
+     * Stop watching directories, cached keys are still available
+     */
+    @Override
+    public void close() {
+        synchronized (watchLock) {
+            closed = true;
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    // the watcher thread exits on the closed service anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * Load a key file into the registry
+     * @param file - the key file
+     * @return true when a key is loaded, false when the file is not a key file or failed to load
+     */
+    boolean loadFile(Path file) {
+        var fileName = file.getFileName().toString();
+        var extensionIndex = fileName.lastIndexOf('.');
+        var labelIndex = fileName.indexOf(DOMAIN_KEY_LABEL);
+        if (extensionIndex < 0 || labelIndex <= 0 || labelIndex + DOMAIN_KEY_LABEL.length() >= extensionIndex) {
+            return false;
+        }
+        var format = KeyFileFormat.fromExtension(fileName.substring(extensionIndex + 1));
+        if (format == null) {
+            return false;
+        }
+
+        var keyId = KeyId.of(fileName.substring(labelIndex + DOMAIN_KEY_LABEL.length(), extensionIndex),
+                fileName.substring(0, labelIndex));
+        try {
+            var content = Files.readAllBytes(file);
+            var password = passwordProvider.apply(file);
+            var key = switch (format) {
+                case PEM -> PrivateKeyReader.readPem(new String(content, StandardCharsets.US_ASCII), password);
+                case PKCS12 -> PrivateKeyReader.readPkcs12(content, password);
+            };
+            keys.put(keyId, key);
+            keyFiles.put(file, keyId);
+            return true;
+        } catch (NoSuchFileException e) {
+            // deleted after the event was queued, the delete event follows
+            return false;
+        } catch (IOException e) {
+            errorHandler.accept(file, new DkimSigningException("Failed to read key file " + file + ".", e));
+        } catch (DkimSigningException e) {
+            errorHandler.accept(file, e);
+        } catch (RuntimeException e) {
+            errorHandler.accept(file, new DkimSigningException("Failed to load key file " + file + ".", e));
+        }
+        return false;
+    }
+
+    private void unloadFile(Path file) {
+        var keyId = keyFiles.remove(file);
+        // keep the key when another file, e.g. a .p12 next to a .pem, still provides it
+        if (keyId != null && !keyFiles.containsValue(keyId)) {
+            keys.remove(keyId);
+        }
+    }
+
+    private void processEvents(WatchService service) {
+        try {
+            while (!closed) {
+                var watchKey = service.take();
+                applyEvents((Path) watchKey.watchable(), watchKey.pollEvents());
+                watchKey.reset();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // the registry is closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Apply a batch of watch events of a directory. Deleted files are unloaded at the end of the batch and only when
+     * no file replaced them, so a key rotated by deleting and recreating its file is swapped without a gap.
+     * @param directory - the watched directory
+     * @param events - the events of the directory
+     */
+    void applyEvents(Path directory, List<WatchEvent<?>> events) {
+        var deleted = new LinkedHashSet<Path>();
+        for (var event : events) {
+            if (event.kind() == OVERFLOW) {
+                // events were lost, resync the whole directory
+                reloadDirectory(directory);
+                continue;
+            }
+            var file = directory.resolve((Path) event.context());
+            if (event.kind() == ENTRY_DELETE) {
+                deleted.add(file);
+            } else if (Files.isRegularFile(file)) {
+                loadFile(file);
+            }
+        }
+        for (var file : deleted) {
+            if (!Files.exists(file)) {
+                unloadFile(file);
+            }
+        }
+    }
+
+    private void reloadDirectory(Path directory) {
+        keyFiles.keySet().stream()
+                .filter(file -> directory.equals(file.getParent()) && !Files.exists(file))
+                .toList()
+                .forEach(this::unloadFile);
+        try {
+            loadDirectory(directory);
+        } catch (DkimSigningException e) {
+            errorHandler.accept(directory, e);
+        }
+    }
+}
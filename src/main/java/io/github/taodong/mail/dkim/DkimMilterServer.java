@@ -0,0 +1,288 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.validation.constraints.NotNull;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PrivateKey;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A milter signing the messages of a Sendmail or Postfix MTA, e.g. with {@code smtpd_milters = inet:localhost:8891}
+ * in the Postfix configuration. Every MTA connection is served on its own virtual thread with blocking NIO channels,
+ * so thousands of concurrent SMTP sessions cost a few kilobytes each. The signer of every message is selected by a
+ * {@link MilterSignerSelector} when its headers are complete, the body is hashed chunk by chunk as the MTA passes it
+ * and the DKIM-Signature header is added with the add-header action at the end of the message.
+ * <p>
+ * A message whose signer fails is rejected with a temporary failure, so it is retried rather than sent unsigned.
+ * Usable as a library or from the command line, see {@link #main(String[])}.
+ */
+public final class DkimMilterServer implements AutoCloseable {
+    private final MilterSignerSelector selector;
+    private final ServerSocketChannel server;
+    private final SocketAddress address;
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    /**
+     * Start a milter listening on a TCP or Unix domain socket address. A stale socket file left by a stopped milter is
+     * replaced, any other file at the path is kept.
+     * @param selector - selects the signer of every message
+     * @param address - an {@link InetSocketAddress}, port 0 picks a free port, or a {@link UnixDomainSocketAddress}
+     * @throws DkimSigningException when the socket path is taken by a file that is not a socket or failed to bind the
+     * address
+     */
+    public DkimMilterServer(@NotNull MilterSignerSelector selector, @NotNull SocketAddress address) throws DkimSigningException {
+        this.selector = selector;
+        try {
+            if (address instanceof UnixDomainSocketAddress unixAddress) {
+                if (!SigningDaemon.isSocketOrMissing(unixAddress.getPath())) {
+                    throw new DkimSigningException(unixAddress.getPath() + " exists and is not a socket.");
+                }
+                Files.deleteIfExists(unixAddress.getPath());
+                this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            } else {
+                this.server = ServerSocketChannel.open();
+            }
+            // the MTA opens a connection per SMTP session, a burst of sessions queues up
+            server.bind(address, 1024);
+            this.address = server.getLocalAddress();
+        } catch (IOException e) {
+            throw new DkimSigningException("Failed to listen on " + address + ".", e);
+        }
+        this.acceptor = Thread.ofVirtual().name("dkim-milter").start(this::accept);
+    }
+
+    /**
+     * @return the bound address, with the actual port when listening on port 0
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the number of open MTA connections
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Wait until the milter is closed
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public void join() throws InterruptedException {
+        acceptor.join();
+    }
+
+    /**
+     * Stop accepting connections and close the open connections, the MTA handles their messages by its milter
+     * default action
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        for (var connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+        if (address instanceof UnixDomainSocketAddress unixAddress) {
+            try {
+                if (SigningDaemon.isSocketOrMissing(unixAddress.getPath())) {
+                    Files.deleteIfExists(unixAddress.getPath());
+                }
+            } catch (IOException e) {
+                // a stale socket file is replaced by the next milter
+            }
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                var connection = server.accept();
+                connections.add(connection);
+                Thread.ofVirtual().name("dkim-milter-session").start(() -> serve(connection));
+            } catch (AsynchronousCloseException e) {
+                return;
+            } catch (IOException e) {
+                if (!server.isOpen()) {
+                    return;
+                }
+                // e.g. too many open files, keep accepting
+            }
+        }
+    }
+
+    private void serve(SocketChannel connection) {
+        try (connection) {
+            new MilterSession(connection, selector).run();
+        } catch (IOException e) {
+            // the MTA applies its milter default action to the message in progress
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    /**
+     * Restrict signing to the messages of internal senders, so mail relayed from the outside is not signed with the
+     * domain's key: the SMTP client authenticated, is on the loopback address or a local socket, or is in one of the
+     * internal networks. Other messages are passed on unsigned, as are all messages when the MTA doesn't pass the
+     * connection and the client didn't authenticate.
+     * @param selector - selects the signer of the messages of internal senders
+     * @param internalNetworks - the trusted networks in CIDR notation, e.g. {@code 10.0.0.0/8} or {@code 2001:db8::/32}
+     * @return the restricting selector
+     * @throws IllegalArgumentException when a network is malformed
+     */
+    public static MilterSignerSelector internalSenders(@NotNull MilterSignerSelector selector,
+                                                       @NotNull Collection<String> internalNetworks) {
+        var networks = internalNetworks.stream().map(Network::parse).toList();
+        return message -> {
+            var client = message.clientAddress();
+            var internal = message.isAuthenticated() || client != null
+                    && (client.isLoopbackAddress() || networks.stream().anyMatch(network -> network.contains(client)));
+            return internal ? selector.select(message) : null;
+        };
+    }
+
+    /**
+     * An IPv4 or IPv6 network
+     * @param address - the network address
+     * @param prefixLength - the number of leading bits of the network
+     */
+    private record Network(byte[] address, int prefixLength) {
+
+        static Network parse(String cidr) {
+            var slash = cidr.indexOf('/');
+            var host = (slash < 0 ? cidr : cidr.substring(0, slash)).strip();
+            if (host.isEmpty() || !host.contains(":") && !host.matches("[0-9.]+")) {
+                throw new IllegalArgumentException("Malformed network " + cidr + ".");
+            }
+            try {
+                var address = InetAddress.getByName(host).getAddress();
+                var prefixLength = slash < 0 ? address.length * 8 : Integer.parseInt(cidr.substring(slash + 1).strip());
+                if (prefixLength < 0 || prefixLength > address.length * 8) {
+                    throw new IllegalArgumentException("Malformed network " + cidr + ".");
+                }
+                return new Network(address, prefixLength);
+            } catch (UnknownHostException | NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed network " + cidr + ".", e);
+            }
+        }
+
+        boolean contains(InetAddress client) {
+            var bytes = client.getAddress();
+            if (bytes.length != address.length) {
+                return false;
+            }
+            var full = prefixLength / 8;
+            if (!Arrays.equals(bytes, 0, full, address, 0, full)) {
+                return false;
+            }
+            var rest = prefixLength % 8;
+            var mask = (0xff << (8 - rest)) & 0xff;
+            return rest == 0 || (bytes[full] & mask) == (address[full] & mask);
+        }
+    }
+
+    /**
+     * Parse a Postfix style milter address
+     * @param address - {@code unix:<path>}, {@code inet:<host>:<port>} or {@code inet:<port>}
+     * @return the socket address
+     */
+    static SocketAddress parseAddress(String address) {
+        if (address.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(Path.of(address.substring("unix:".length())));
+        }
+        var inet = address.startsWith("inet:") ? address.substring("inet:".length()) : address;
+        var colon = inet.lastIndexOf(':');
+        return colon < 0
+                ? new InetSocketAddress("localhost", Integer.parseInt(inet))
+                : new InetSocketAddress(inet.substring(0, colon), Integer.parseInt(inet.substring(colon + 1)));
+    }
+
+    /**
+     * Run a milter from the command line until the process is stopped, signing the messages of internal senders whose
+     * From domain is the signing domain or one of its subdomains, see
+     * {@link #internalSenders(MilterSignerSelector, Collection)}. Options:
+     * <ul>
+     *     <li>{@code --listen <address>} - {@code unix:<path>}, {@code inet:<host>:<port>} or {@code inet:<port>},
+     *     defaults to {@code inet:localhost:8891}</li>
+     *     <li>{@code --key <file>} - PEM private key, required</li>
+     *     <li>{@code --domain <domain>}, {@code --selector <selector>} - required</li>
+     *     <li>{@code --canonicalization <header>/<body>} - defaults to {@code relaxed/relaxed}</li>
+     *     <li>{@code --internal-networks <cidr>,<cidr>} - networks of clients signed without authentication besides
+     *     the loopback address, defaults to none</li>
+     * </ul>
+     * @param args - the command line arguments
+     * @throws Exception when the arguments are invalid or the milter failed to start
+     */
+    public static void main(String[] args) throws Exception {
+        var options = new HashMap<String, String>();
+        for (var i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].startsWith("--")) {
+                options.put(args[i].substring(2), args[i + 1]);
+            }
+        }
+        if (!options.containsKey("key") || !options.containsKey("domain") || !options.containsKey("selector")) {
+            System.err.println("Usage: DkimMilterServer --key <pem> --domain <domain> --selector <selector>"
+                    + " [--listen inet:localhost:8891] [--canonicalization relaxed/relaxed] [--internal-networks <cidr>,<cidr>]");
+            System.exit(2);
+            return;
+        }
+
+        var helper = new DkimMimeMessageHelper();
+        PrivateKey key;
+        try (InputStream input = Files.newInputStream(Path.of(options.get("key")))) {
+            key = helper.getPrivateKeyFromPem(input, null);
+        }
+        var canonicalization = options.getOrDefault("canonicalization", "relaxed/relaxed").split("/", 2);
+        var domain = options.get("domain").toLowerCase(Locale.ROOT);
+        var signer = new DkimSigner(DkimSigningProfile.builder()
+                .privateKey(key)
+                .selector(options.get("selector"))
+                .domain(domain)
+                .identity("@" + domain)
+                .headers(helper.getDkimSignHeaders(null))
+                .headerCanonicalization(Canonicalization.fromType(canonicalization[0]))
+                .bodyCanonicalization(Canonicalization.fromType(canonicalization.length > 1 ? canonicalization[1] : canonicalization[0]))
+                .build());
+
+        var internalNetworks = StringUtils.isBlank(options.get("internal-networks"))
+                ? List.<String>of() : List.of(options.get("internal-networks").split(","));
+        var milter = new DkimMilterServer(internalSenders(message -> {
+            var from = message.getFromDomain();
+            return from != null && (from.equals(domain) || from.endsWith("." + domain)) ? signer : null;
+        }, internalNetworks), parseAddress(options.getOrDefault("listen", "inet:localhost:8891")));
+        Runtime.getRuntime().addShutdownHook(new Thread(milter::close));
+        System.out.printf("Signing for %s on %s%n", domain, milter.getAddress());
+        milter.join();
+    }
+}
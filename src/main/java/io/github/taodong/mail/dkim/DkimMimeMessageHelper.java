@@ -11,6 +11,7 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
@@ -20,6 +21,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import static io.github.taodong.mail.dkim.StandardMessageHeader.CC;
 import static io.github.taodong.mail.dkim.StandardMessageHeader.CONTENT_TYPE;
@@ -81,16 +83,45 @@ public class DkimMimeMessageHelper {
      * @throws DkimSigningException when failed to read the private key
      */
     public RSAPrivateKey getKPCS8KeyFromInputStream(@NotNull InputStream keyStream) throws DkimSigningException {
+        return (RSAPrivateKey) getPrivateKeyFromInputStream(keyStream, SigningAlgorithm.RSA_SHA256);
+    }
+
+    /**
+     * Get an unencrypted PKCS#8 private key from input stream
+     * @param keyStream - the input stream of the private key
+     * @param algorithm - the signing algorithm the key is used for
+     * @return the private key, a {@link RSAPrivateKey} or a {@link java.security.interfaces.EdECPrivateKey}
+     * @throws DkimSigningException when failed to read the private key
+     */
+    public PrivateKey getPrivateKeyFromInputStream(@NotNull InputStream keyStream, @NotNull SigningAlgorithm algorithm)
+            throws DkimSigningException {
         try (final var reader = new BufferedReader(new InputStreamReader(keyStream, StandardCharsets.US_ASCII))) {
-            var rawKey = reader.lines().filter(line -> !line.startsWith("-----")).reduce(String::concat).orElseThrow();
-            var rsaKeyFactory = KeyFactory.getInstance("RSA");
+            var rawKey = reader.lines().filter(line -> !line.startsWith("-----")).collect(Collectors.joining());
+            var keyFactory = KeyFactory.getInstance(algorithm.getKeyAlgorithm());
             var privateKeySpec = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(rawKey));
-            return (RSAPrivateKey) rsaKeyFactory.generatePrivate(privateKeySpec);
+            return keyFactory.generatePrivate(privateKeySpec);
         } catch (IOException | NoSuchAlgorithmException | InvalidKeySpecException e) {
             throw new DkimSigningException("Failed to read private key from input stream", e);
         }
     }
 
+    /**
+     * Get a PEM encoded private key from input stream. PKCS#8, PKCS#1 and encrypted PKCS#8 keys are supported, the
+     * key algorithm, RSA or Ed25519, is detected from the key.
+     * @param keyStream - the input stream of the private key
+     * @param password - password of an encrypted key, null when the key is not encrypted
+     * @return the private key
+     * @throws DkimSigningException when failed to read the private key
+     */
+    public PrivateKey getPrivateKeyFromPem(@NotNull InputStream keyStream, char[] password)
+            throws DkimSigningException {
+        try (keyStream) {
+            return PrivateKeyReader.readPem(new String(keyStream.readAllBytes(), StandardCharsets.US_ASCII), password);
+        } catch (IOException e) {
+            throw new DkimSigningException("Failed to read private key from input stream", e);
+        }
+    }
+
     private List<DkimSignHeader> combineCustomerHeaders(List<DkimSignHeader> customHeaders) {
         List<DkimSignHeader> headers = new ArrayList<>(DEFAULT_SIGN_HEADERS);
 
@@ -0,0 +1,120 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Attach several DKIM signatures to one message, e.g. RSA together with Ed25519, or the author domain together with
+ * the ESP domain. The message is read once: the body is canonicalized and hashed once per distinct body
+ * canonicalization, headers are indexed once and every header line is canonicalized once per header
+ * canonicalization. The multi signer is immutable and thread-safe.
+ * <p>
+ * The body of a canonicalization is hashed by the first signer using it, with the pipelined hash threshold of its
+ * profile. The parts of a multipart body are encoded in parallel when any of the signers has parallel part encoding.
+ */
+public class DkimMultiSigner {
+    private final List<DkimSigner> signers;
+
+    /**
+     * Create a multi signer
+     * @param signers - the signers, signatures are returned in the same order
+     */
+    public DkimMultiSigner(@NotEmpty List<DkimSigner> signers) {
+        this.signers = List.copyOf(signers);
+    }
+
+    /**
+     * Generate all unfolded DKIM signature header values of a message.
+     * @param message - message to sign
+     * @return the DKIM signature header values in the order of signers
+     * @throws DkimSigningException when any of the signatures failed
+     */
+    public List<String> sign(@NotNull MimeMessage message) throws DkimSigningException {
+        var bodies = hashBody(message, signers);
+        var headerIndex = DkimSigner.indexHeaders(message);
+
+        var signatures = new ArrayList<String>(signers.size());
+        for (var signer : signers) {
+            signatures.add(signer.sign(headerIndex, bodies.get(signer.getBodyCanonicalization())));
+        }
+        return signatures;
+    }
+
+    /**
+     * Hash the body in one pass for every distinct body canonicalization of several signers
+     * @param message - the message
+     * @param signers - the signers, the first signer of a body canonicalization hashes its body
+     * @return the hashed bodies by body canonicalization
+     * @throws DkimSigningException when failed to read or hash the body
+     */
+    static Map<Canonicalization, DkimSigner.HashedBody> hashBody(MimeMessage message, Collection<DkimSigner> signers)
+            throws DkimSigningException {
+        var hashers = new EnumMap<Canonicalization, DkimSigner.BodyHasher>(Canonicalization.class);
+        try {
+            var parallel = false;
+            for (var signer : signers) {
+                if (!hashers.containsKey(signer.getBodyCanonicalization())) {
+                    hashers.put(signer.getBodyCanonicalization(), signer.startBodyHash());
+                }
+                parallel |= signer.isParallelPartEncoding();
+            }
+
+            var tee = new TeeOutputStream(hashers.values().stream().map(DkimSigner.BodyHasher::output).toList());
+            // the parts of a multipart are encoded on the pool, the body stream of the message is not opened then
+            var multipart = parallel ? ParallelMultipartWriter.multipartOf(message) : null;
+            if (multipart != null) {
+                ParallelMultipartWriter.writeTo(multipart, tee, ForkJoinPool.commonPool());
+            } else {
+                try (var input = message.getInputStream()) {
+                    input.transferTo(tee);
+                }
+            }
+
+            var bodies = new EnumMap<Canonicalization, DkimSigner.HashedBody>(Canonicalization.class);
+            for (var hasher : hashers.entrySet()) {
+                bodies.put(hasher.getKey(), hasher.getValue().finish());
+            }
+            return bodies;
+        } catch (IOException | MessagingException e) {
+            throw new DkimSigningException("Failed to hash message body.", e);
+        } finally {
+            hashers.values().forEach(DkimSigner.BodyHasher::close);
+        }
+    }
+
+    /**
+     * Write to several canonicalizers, which are finished and closed by their hashers
+     */
+    private static final class TeeOutputStream extends OutputStream {
+        private final List<? extends OutputStream> outputs;
+
+        private TeeOutputStream(List<? extends OutputStream> outputs) {
+            this.outputs = outputs;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            for (var out : outputs) {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (var out : outputs) {
+                out.write(b, off, len);
+            }
+        }
+    }
+}
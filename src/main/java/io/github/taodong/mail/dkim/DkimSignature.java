@@ -1,11 +1,8 @@
 package io.github.taodong.mail.dkim;
 
-import org.apache.commons.collections4.CollectionUtils;
-
-import java.util.Arrays;
 import java.util.EnumMap;
-import java.util.List;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class DkimSignature {
     private static final String TAG_DELIMITER = "; ";
@@ -16,8 +13,12 @@ public class DkimSignature {
     private final EnumMap<HeaderTag, String> headerTags = new EnumMap<>(HeaderTag.class);
 
     public DkimSignature() {
+        this(SigningAlgorithm.RSA_SHA256);
+    }
+
+    public DkimSignature(SigningAlgorithm algorithm) {
         this.headerTags.put(HeaderTag.VERSION, "1");
-        this.headerTags.put(HeaderTag.ALGORITHM, "rsa-sha256");
+        this.headerTags.put(HeaderTag.ALGORITHM, algorithm.getTagValue());
     }
 
     public void addTagValue(HeaderTag tag, String value) {
@@ -28,47 +29,139 @@ public class DkimSignature {
         return headerTags.get(tag);
     }
 
+    /**
+     * Parse a DKIM-Signature header value. Tags this model has no constant for, e.g. {@code l=} or {@code x=}, are
+     * left out, use {@link #parseTags(String)} to read them.
+     * @param value - the header value, folding included
+     * @return the signature with the value of every known tag, whitespace removed from {@code b=} and {@code bh=}
+     * @throws DkimSigningException when the tag list is malformed
+     */
+    public static DkimSignature parse(String value) throws DkimSigningException {
+        return of(parseTags(value));
+    }
+
+    /**
+     * Create a signature from parsed tags
+     * @param tags - the values by tag name, see {@link #parseTags(String)}
+     * @return the signature with the value of every known tag
+     */
+    static DkimSignature of(Map<String, String> tags) {
+        var signature = new DkimSignature();
+        signature.headerTags.clear();
+        for (var tag : HeaderTag.values()) {
+            var tagValue = tags.get(tag.getTagName());
+            if (tagValue != null) {
+                var base64 = tag == HeaderTag.SIGNATURE || tag == HeaderTag.BODY_HASH;
+                signature.headerTags.put(tag, base64 ? removeWhitespace(tagValue) : tagValue);
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Parse a tag list as defined in RFC 6376 section 3.2
+     * @param value - the tag list, folding included
+     * @return the values by tag name in order of appearance, leading and trailing whitespace removed
+     * @throws DkimSigningException when a tag has no name or no '=' or is repeated
+     */
+    public static Map<String, String> parseTags(String value) throws DkimSigningException {
+        var tags = new LinkedHashMap<String, String>();
+        for (var spec : value.split(";", -1)) {
+            if (spec.isBlank()) {
+                // a trailing ';' is allowed
+                continue;
+            }
+            var separator = spec.indexOf('=');
+            var name = separator < 0 ? "" : spec.substring(0, separator).strip();
+            if (name.isEmpty()) {
+                throw new DkimSigningException("Malformed tag " + spec.strip() + ".");
+            }
+            if (tags.put(name, spec.substring(separator + 1).strip()) != null) {
+                throw new DkimSigningException("Duplicate tag " + name + ".");
+            }
+        }
+        return tags;
+    }
+
     public String getValue() throws DkimSigningException {
-        var tags = getTagsWithExclusion(null);
-        validateContent4Signing(tags);
-        return formStringValue(getTagsWithExclusion(null));
+        return formStringValue(null, HeaderTag.values().length);
     }
 
     String getBeforeHashValue() throws DkimSigningException {
-        var tags = getTagsWithExclusion(Set.of(HeaderTag.SIGNATURE));
-        validateContent4Signing(tags);
-        return formStringValue(tags);
+        return formStringValue(HeaderTag.SIGNATURE, HeaderTag.values().length);
     }
 
-    private List<HeaderTag> getTagsWithExclusion(Set<HeaderTag> excludedTags) {
-        if (CollectionUtils.isEmpty(excludedTags)) {
-            return Arrays.asList(HeaderTag.values());
-        }
+    /**
+     * Render the tags before a tag, e.g. the constant part of the signatures of one signer
+     * @param end - the first tag not rendered
+     * @return the tag list
+     * @throws DkimSigningException when any tag before the end tag has no value
+     */
+    String getTagPrefix(HeaderTag end) throws DkimSigningException {
+        return formStringValue(null, end.ordinal());
+    }
+
+    /**
+     * Append a tag to a tag list
+     * @param tagList - the tag list, a delimiter is added when it is not empty
+     * @param tag - the tag
+     * @param value - the tag value
+     * @return the tag list
+     */
+    static StringBuilder appendTag(StringBuilder tagList, HeaderTag tag, CharSequence value) {
+        return appendTag(tagList, tag.getTagName(), value);
+    }
 
-        return Arrays.stream(HeaderTag.values())
-                .filter(tag -> !excludedTags.contains(tag))
-                .toList();
+    /**
+     * Append an ARC tag to a tag list
+     * @param tagList - the tag list, a delimiter is added when it is not empty
+     * @param tag - the tag
+     * @param value - the tag value
+     * @return the tag list
+     */
+    static StringBuilder appendTag(StringBuilder tagList, ArcTag tag, CharSequence value) {
+        return appendTag(tagList, tag.getTagName(), value);
     }
 
-    private String formStringValue(List<HeaderTag> tags) throws DkimSigningException {
-        return tags.stream()
-                .map(tag -> {
-                    var value = headerTags.get(tag);
-                    return tag.getTagName() + TAG_VALUE_DELIMITER + value;
-                })
-                .reduce((s1, s2) -> s1 + TAG_DELIMITER + s2)
-                .orElseThrow(() -> new DkimSigningException("Failed to generate DKIM signature. Please report a bug."));
+    private static StringBuilder appendTag(StringBuilder tagList, String tagName, CharSequence value) {
+        if (!tagList.isEmpty()) {
+            tagList.append(TAG_DELIMITER);
+        }
+        return tagList.append(tagName).append(TAG_VALUE_DELIMITER).append(value);
     }
 
-    private void validateContent4Signing(List<HeaderTag> tags) throws DkimSigningException {
-        var missing = tags.stream()
-                .filter(tag -> !headerTags.containsKey(tag))
-                .map(HeaderTag::getTagName)
-                .reduce((s1, s2) -> s1 + ", " + s2)
-                .orElse(null);
+    private String formStringValue(HeaderTag excludedTag, int endOrdinal) throws DkimSigningException {
+        var value = new StringBuilder(256);
+        StringBuilder missing = null;
+        for (var tag : HeaderTag.values()) {
+            if (tag.ordinal() >= endOrdinal) {
+                break;
+            }
+            if (tag == excludedTag) {
+                continue;
+            }
+            var tagValue = headerTags.get(tag);
+            if (tagValue == null) {
+                missing = missing == null ? new StringBuilder(tag.getTagName()) : missing.append(", ").append(tag.getTagName());
+            } else if (missing == null) {
+                appendTag(value, tag, tagValue);
+            }
+        }
 
         if (missing != null) {
             throw new DkimSigningException("Missing value for tag(s): " + missing);
         }
+        return value.toString();
+    }
+
+    private static String removeWhitespace(String value) {
+        var result = new StringBuilder(value.length());
+        for (var i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                result.append(c);
+            }
+        }
+        return result.toString();
     }
 }
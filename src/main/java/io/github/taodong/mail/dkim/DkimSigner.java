@@ -0,0 +1,990 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimePartDataSource;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A prepared signer for one {@link DkimSigningProfile}. Parameters are validated and constant tag values are computed
+ * once when the signer is created. {@link MessageDigest} instances are pooled and reused across calls, the signature
+ * is computed by the {@link SignatureEngine} of the profile, by default a {@link LocalSignatureEngine} pooling
+ * {@link java.security.Signature} instances. The signer is immutable and thread-safe, create it once and share it for
+ * all messages of the profile.
+ */
+public class DkimSigner {
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int MAX_IDLE_CRYPTO_OBJECTS = Runtime.getRuntime().availableProcessors() * 2;
+    private static final int RAW_READ_BUFFER_SIZE = 64 * 1024;
+    // not transmitted, the same headers SMTP transports leave out
+    private static final String[] UNSENT_HEADERS = {"Bcc", "Content-Length"};
+    static final Executor VIRTUAL_THREADS = task -> Thread.ofVirtual().name("dkim-signer").start(task);
+    // header names plus a base64 encoded RSA 4096 signature
+    private static final int SIGNATURE_VALUE_CAPACITY = 1024;
+
+    @Getter
+    private final DkimSigningProfile profile;
+    @Getter
+    private final SigningAlgorithm algorithm;
+    @Getter(AccessLevel.PACKAGE)
+    private final Canonicalization headerCanonicalization;
+    @Getter(AccessLevel.PACKAGE)
+    private final Canonicalization bodyCanonicalization;
+    @Getter(AccessLevel.PACKAGE)
+    private final List<DkimSignHeader> headers;
+    private final boolean oversignHeaders;
+    private final long pipelinedHashThreshold;
+    @Getter(AccessLevel.PACKAGE)
+    private final boolean parallelPartEncoding;
+    // recorded with the flight recorder events
+    @Getter(AccessLevel.PACKAGE)
+    private final String domain;
+    private final String canonicalizationTag;
+    private final SigningMetricsListener metricsListener;
+    // signatures are only timed when a listener receives the latency
+    private final boolean measured;
+    private final SignatureEngine signatureEngine;
+    private final ObjectPool<MessageDigest> digests;
+    private final ObjectPool<HeaderBuffer> headerBuffers = new ObjectPool<>(HeaderBuffer::new, MAX_IDLE_CRYPTO_OBJECTS);
+    private final ObjectPool<MessageBuffer> messageBuffers = new ObjectPool<>(MessageBuffer::new, MAX_IDLE_CRYPTO_OBJECTS);
+    private final boolean hasRepeatedHeaderNames;
+    // the constant tags up to "h=", as rendered and as canonicalized for signing
+    private final String tagPrefix;
+    private final byte[] canonicalTagPrefix;
+
+    /**
+     * Create a signer for the profile
+     * @param profile - the signing profile
+     * @throws DkimSigningException when the profile is not valid
+     */
+    public DkimSigner(@NotNull DkimSigningProfile profile) throws DkimSigningException {
+        this(profile, SigningMetricsListener.NONE);
+    }
+
+    /**
+     * Create a signer for the profile reporting every signature to a metrics listener
+     * @param profile - the signing profile
+     * @param metricsListener - listener notified of every signature and failure, e.g. {@link DkimSigningMetrics}
+     * @throws DkimSigningException when the profile is not valid
+     */
+    public DkimSigner(@NotNull DkimSigningProfile profile, @NotNull SigningMetricsListener metricsListener)
+            throws DkimSigningException {
+        this.profile = profile;
+        this.metricsListener = metricsListener;
+        this.measured = metricsListener != SigningMetricsListener.NONE;
+        this.domain = normalizeString(profile.domain());
+        var identity = normalizeString(profile.identity());
+        validateParameters(domain, identity);
+
+        this.headerCanonicalization = profile.headerCanonicalization() == null ? Canonicalization.SIMPLE : profile.headerCanonicalization();
+        this.bodyCanonicalization = profile.bodyCanonicalization() == null ? Canonicalization.SIMPLE : profile.bodyCanonicalization();
+        this.canonicalizationTag = headerCanonicalization.getType() + "/" + bodyCanonicalization.getType();
+        this.headers = List.copyOf(profile.headers());
+        this.oversignHeaders = profile.oversignHeaders();
+        this.pipelinedHashThreshold = profile.pipelinedHashThreshold();
+        this.parallelPartEncoding = profile.parallelPartEncoding();
+        this.hasRepeatedHeaderNames = headers.stream().map(h -> h.name().toLowerCase(Locale.ROOT)).distinct().count() < headers.size();
+
+        // a local engine fails fast on a bad key
+        this.signatureEngine = profile.signatureEngine() != null
+                ? profile.signatureEngine()
+                : createLocalEngine(profile.privateKey(), profile.algorithm());
+        this.algorithm = signatureEngine.getAlgorithm();
+        if (profile.algorithm() != null && profile.algorithm() != algorithm) {
+            throw new DkimSigningException("The signature engine signs with " + algorithm.getTagValue()
+                    + " rather than " + profile.algorithm().getTagValue());
+        }
+        this.digests = new ObjectPool<>(() -> MessageDigest.getInstance(DIGEST_ALGORITHM), MAX_IDLE_CRYPTO_OBJECTS);
+
+        // `i` tag should be a `dkim-quoted-printable` string, my use cases have no special characters, leave it as it is
+        var prefix = new DkimSignature(algorithm);
+        prefix.addTagValue(HeaderTag.DOMAIN, domain);
+        prefix.addTagValue(HeaderTag.CANONICALIZATION, canonicalizationTag);
+        prefix.addTagValue(HeaderTag.USERNAME, identity);
+        prefix.addTagValue(HeaderTag.SELECTOR, profile.selector());
+        this.tagPrefix = DkimSignature.appendTag(new StringBuilder(prefix.getTagPrefix(HeaderTag.HEADERS)), HeaderTag.HEADERS, "").toString();
+        this.canonicalTagPrefix = headerCanonicalization.canonicalizeHeader(
+                DkimSignature.DKIM_SIGNATURE_HEADER.getBytes(StandardCharsets.UTF_8), tagPrefix.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Warm up the signer for as many concurrent signatures as there are processors, see {@link #warmUp(int)}
+     * @return this signer
+     * @throws DkimSigningException when failed to warm up the signer
+     */
+    public DkimSigner warmUp() throws DkimSigningException {
+        return warmUp(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Initialize up front what the first signatures would otherwise initialize on demand, for short-lived processes
+     * such as serverless functions where the first message pays for it. The pooled digests, header buffers and
+     * signatures are created, and a generated message is signed in wire format and as a {@link MimeMessage}, which
+     * loads the JCA providers, the canonicalization and the flight recorder events and gives the JIT a first profile.
+     * The generated signatures are not reported to the metrics listener and commit no Sign flight recorder event, the
+     * phase events of the warm-up message, HeaderIndexing, BodyHash, HeaderCanonicalization and SignatureComputation,
+     * are committed when enabled. Call it once at startup, e.g. in the init phase of a function, it is safe to call
+     * while other threads sign.
+     * @param concurrency - number of messages expected to be signed at the same time
+     * @return this signer
+     * @throws DkimSigningException when failed to warm up the signer
+     */
+    public DkimSigner warmUp(@Positive int concurrency) throws DkimSigningException {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency must be positive.");
+        }
+        try {
+            digests.fill(concurrency);
+            headerBuffers.fill(concurrency);
+        } catch (GeneralSecurityException e) {
+            throw new DkimSigningException("Failed to create message digest.", e);
+        }
+        signatureEngine.warmUp(concurrency);
+
+        var message = warmUpMessage();
+        var buffer = ByteBuffer.wrap(message);
+        sign(parseHeaders(buffer), hashBody(buffer, null).hash());
+
+        MimeMessage mimeMessage;
+        try {
+            mimeMessage = new MimeMessage(Session.getInstance(new Properties()), new ByteArrayInputStream(message));
+        } catch (IllegalStateException e) {
+            // no Jakarta Mail implementation on the class path, only wire format messages can be signed
+            return this;
+        } catch (MessagingException e) {
+            throw new DkimSigningException("Failed to parse the warm-up message.", e);
+        }
+        sign(indexHeaders(mimeMessage), hashBody(mimeMessage).hash());
+        return this;
+    }
+
+    /**
+     * A message with the signed headers of the profile and a body with whitespace for relaxed canonicalization to fold
+     */
+    private byte[] warmUpMessage() {
+        var message = new StringBuilder();
+        for (var header : headers) {
+            var name = header.name();
+            // MIME headers are parsed when the body is read, they get valid values below
+            if (!StringUtils.startsWithIgnoreCase(name, "Content-") && !StringUtils.equalsIgnoreCase(name, "MIME-Version")) {
+                message.append(name).append(": warm-up@").append(domain).append("\r\n");
+            }
+        }
+        message.append("MIME-Version: 1.0\r\n")
+                .append("Content-Type: text/plain; charset=UTF-8\r\n")
+                .append("\r\n")
+                .append("Warm  up \t\r\n\r\n\r\n");
+        return message.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Generate unfolded DKIM signature header value. This value should be the last header value introduced into message before sending.
+     * @param message - message to sign
+     * @return the DKIM signature header value unfolded
+     * @throws DkimSigningException when failed to sign the message
+     */
+    public String sign(@NotNull MimeMessage message) throws DkimSigningException {
+        var event = new SigningEvents.Sign();
+        event.begin();
+        var started = measured ? System.nanoTime() : 0L;
+        try {
+            var headers = indexHeaders(message);
+            var body = hashBody(message);
+            return signed(event, started, sign(headers, body.hash()), body);
+        } catch (DkimSigningException | RuntimeException e) {
+            failed(event, started, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Sign a message asynchronously on a new virtual thread
+     * @param message - message to sign
+     * @return a future of the DKIM signature header value unfolded, completed exceptionally with a
+     * {@link DkimSigningException} when signing failed
+     */
+    public CompletableFuture<String> signAsync(@NotNull MimeMessage message) {
+        return signAsync(message, VIRTUAL_THREADS);
+    }
+
+    /**
+     * Sign a message asynchronously
+     * @param message - message to sign
+     * @param executor - executor running the signing task
+     * @return a future of the DKIM signature header value unfolded, completed exceptionally with a
+     * {@link DkimSigningException} when signing failed
+     */
+    public CompletableFuture<String> signAsync(@NotNull MimeMessage message, @NotNull Executor executor) {
+        var future = new CompletableFuture<String>();
+        try {
+            executor.execute(() -> {
+                var result = trySign(message);
+                if (result.isSuccess()) {
+                    future.complete(result.signature());
+                } else {
+                    future.completeExceptionally(result.failure());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new DkimSigningException("Failed to schedule signing.", e));
+        }
+        return future;
+    }
+
+    /**
+     * Sign a message in RFC 5322 wire format, see {@link #sign(ByteBuffer)}
+     * @param message - the message bytes, header block and body separated by an empty line
+     * @return the DKIM signature header value unfolded
+     * @throws DkimSigningException when failed to sign the message
+     */
+    public String sign(@NotNull byte[] message) throws DkimSigningException {
+        return sign(ByteBuffer.wrap(message));
+    }
+
+    /**
+     * Sign a message in RFC 5322 wire format between the position and the limit of the buffer. Headers are split from
+     * the body in one scan and the exact transmitted bytes are signed, no MIME parsing or content decoding is involved.
+     * Lines are expected to end with CRLF. The position of the buffer is not changed.
+     * @param message - the message bytes, header block and body separated by an empty line
+     * @return the DKIM signature header value unfolded
+     * @throws DkimSigningException when failed to sign the message
+     */
+    public String sign(@NotNull ByteBuffer message) throws DkimSigningException {
+        var event = new SigningEvents.Sign();
+        event.begin();
+        var started = measured ? System.nanoTime() : 0L;
+        try {
+            var buffer = message.duplicate();
+            var headers = parseHeaders(buffer);
+            var body = hashBody(buffer, null);
+            return signed(event, started, sign(headers, body.hash()), body);
+        } catch (DkimSigningException | RuntimeException e) {
+            failed(event, started, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Sign a message in RFC 5322 wire format read from a blocking channel, see {@link #sign(ByteBuffer)}. Only the
+     * header block is buffered, the body is hashed while it is read, so memory use doesn't grow with the body size.
+     * The channel is read to the end but not closed.
+     * @param message - the channel to read the message from
+     * @return the DKIM signature header value unfolded
+     * @throws DkimSigningException when failed to read or sign the message
+     */
+    public String sign(@NotNull ReadableByteChannel message) throws DkimSigningException {
+        var event = new SigningEvents.Sign();
+        event.begin();
+        var started = measured ? System.nanoTime() : 0L;
+        try {
+            ByteBuffer buffer;
+            try {
+                buffer = RawMessage.readHeaderBlock(message);
+            } catch (IOException e) {
+                throw new DkimSigningException("Failed to read message.", e);
+            }
+            var headers = parseHeaders(buffer);
+            var body = hashBody(buffer, message);
+            return signed(event, started, sign(headers, body.hash()), body);
+        } catch (DkimSigningException | RuntimeException e) {
+            failed(event, started, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Serialize a message once and sign the serialized bytes. The message is written with
+     * {@link MimeMessage#writeTo(OutputStream, String[])} into a pooled buffer, Bcc and Content-Length left out and bare
+     * line breaks of text parts normalized to CRLF as an SMTP transport does, the signature is computed over exactly
+     * those bytes and the DKIM-Signature header is put in front, so the message is not encoded a second time when it
+     * is sent. Hand the bytes to SMTP as they are, e.g. as
+     * the DATA of an SMTP client or wrapped in a {@code MimeMessage} parsed from them, which is written back unchanged.
+     * <p>
+     * Like {@link MimeMessage#writeTo(OutputStream)}, the changes of a message not saved yet are saved first.
+     * @param message - message to sign
+     * @return the signed message in wire format
+     * @throws DkimSigningException when failed to serialize or sign the message
+     */
+    public byte[] signAndSerialize(@NotNull MimeMessage message) throws DkimSigningException {
+        var buffer = serialize(message);
+        try {
+            return buffer.toByteArray(signatureHeaderLine(sign(buffer.asByteBuffer())));
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Serialize a message once, sign the serialized bytes and write the signed message, see
+     * {@link #signAndSerialize(MimeMessage)}. The message is not copied again, the DKIM-Signature header and the
+     * pooled buffer are written into the output stream, e.g. the DATA stream of an SMTP connection.
+     * @param message - message to sign
+     * @param out - the output stream to write the signed message to, not closed
+     * @return the DKIM signature header value unfolded
+     * @throws DkimSigningException when failed to serialize, sign or write the message
+     */
+    public String signAndWrite(@NotNull MimeMessage message, @NotNull OutputStream out) throws DkimSigningException {
+        var buffer = serialize(message);
+        try {
+            var value = sign(buffer.asByteBuffer());
+            out.write(signatureHeaderLine(value));
+            buffer.writeTo(out);
+            return value;
+        } catch (IOException e) {
+            throw new DkimSigningException("Failed to write message.", e);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Sign a batch of messages in parallel on the common fork-join pool, see {@link #signAll(Collection, Executor)}
+     * @param messages - messages to sign
+     * @return the results in the iteration order of the messages
+     */
+    public List<SigningResult> signAll(@NotNull Collection<MimeMessage> messages) {
+        return signAll(messages, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Sign a batch of messages in parallel. A failure of one message doesn't stop the others, it is reported in the
+     * result of the message instead. Messages sharing the same in-memory content, e.g. the same text set with
+     * {@link MimeMessage#setText(String)} or the same multipart instance, have their body hashed only once.
+     * @param messages - messages to sign
+     * @param executor - executor running the signing tasks
+     * @return the results in the iteration order of the messages
+     */
+    public List<SigningResult> signAll(@NotNull Collection<MimeMessage> messages, @NotNull Executor executor) {
+        var bodyHashes = new ConcurrentHashMap<Object, CompletableFuture<HashedBody>>();
+        var futures = messages.stream()
+                .map(message -> CompletableFuture.supplyAsync(() -> signInBatch(message, bodyHashes), executor))
+                .toList();
+        return futures.stream().map(CompletableFuture::join).toList();
+    }
+
+    /**
+     * Sign a message and capture the outcome instead of throwing
+     * @param message - message to sign
+     * @return the signing result
+     */
+    SigningResult trySign(MimeMessage message) {
+        try {
+            return SigningResult.success(message, sign(message));
+        } catch (DkimSigningException e) {
+            return SigningResult.failure(message, e);
+        } catch (RuntimeException e) {
+            return SigningResult.failure(message, new DkimSigningException("Failed to sign message.", e));
+        }
+    }
+
+    private SigningResult signInBatch(MimeMessage message, Map<Object, CompletableFuture<HashedBody>> bodyHashes) {
+        var event = new SigningEvents.Sign();
+        event.begin();
+        var started = measured ? System.nanoTime() : 0L;
+        try {
+            var key = bodyKey(message);
+            var body = key == null ? hashBody(message) : sharedBodyHash(message, key, bodyHashes);
+            return SigningResult.success(message, signed(event, started, sign(indexHeaders(message), body.hash()), body));
+        } catch (DkimSigningException e) {
+            failed(event, started, e);
+            return SigningResult.failure(message, e);
+        } catch (RuntimeException e) {
+            var failure = new DkimSigningException("Failed to sign message.", e);
+            failed(event, started, failure);
+            return SigningResult.failure(message, failure);
+        }
+    }
+
+    private HashedBody sharedBodyHash(MimeMessage message, Object key, Map<Object, CompletableFuture<HashedBody>> bodyHashes)
+            throws DkimSigningException {
+        var created = new CompletableFuture<HashedBody>();
+        var existing = bodyHashes.putIfAbsent(key, created);
+        if (existing == null) {
+            try {
+                var bodyHash = hashBody(message);
+                created.complete(bodyHash);
+                return bodyHash;
+            } catch (DkimSigningException | RuntimeException e) {
+                created.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        try {
+            return existing.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof DkimSigningException signingException) {
+                throw signingException;
+            }
+            throw new DkimSigningException("Failed to hash message body.", e.getCause());
+        }
+    }
+
+    /**
+     * The body stream of a message only depends on its content object and content type. Parsed messages are not
+     * grouped, comparing their content costs as much as hashing it.
+     */
+    private static Object bodyKey(MimeMessage message) throws DkimSigningException {
+        try {
+            var dataHandler = message.getDataHandler();
+            if (dataHandler.getDataSource() instanceof MimePartDataSource) {
+                return null;
+            }
+            var content = dataHandler.getContent();
+            return new BodyKey(message.getContentType(), content instanceof String ? content : new IdentityKey(content));
+        } catch (IOException | MessagingException e) {
+            throw new DkimSigningException("Failed to read message content.", e);
+        }
+    }
+
+    private record BodyKey(String contentType, Object content) {
+    }
+
+    private record IdentityKey(Object content) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IdentityKey that && content == that.content;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(content);
+        }
+    }
+
+    /**
+     * The base64 encoded hash of a canonical body and the length of the canonical body
+     */
+    record HashedBody(String hash, long length) {
+    }
+
+    /**
+     * Sign a message whose headers were indexed and body was hashed beforehand, e.g. by a {@link DkimTemplate}, and
+     * report it like any other signature
+     * @param headerIndex - the headers of the message
+     * @param body - the body hashed with the body canonicalization of this signer
+     * @return the DKIM signature header value unfolded
+     * @throws DkimSigningException when failed to sign the message
+     */
+    String sign(HeaderIndex headerIndex, HashedBody body) throws DkimSigningException {
+        return sign(headerIndex, body, tagPrefix, canonicalTagPrefix);
+    }
+
+    /**
+     * Sign a message whose headers were indexed and body was hashed beforehand under other leading tags, e.g. the tags
+     * of an ARC-Message-Signature, and report it like any other signature
+     * @param headerIndex - the headers of the message
+     * @param body - the body hashed with the body canonicalization of this signer
+     * @param tagPrefix - the tags up to {@code h=}
+     * @param canonicalTagPrefix - the header name and the tag prefix canonicalized with the header canonicalization
+     * @return the header value unfolded
+     * @throws DkimSigningException when failed to sign the message
+     */
+    String sign(HeaderIndex headerIndex, HashedBody body, String tagPrefix, byte[] canonicalTagPrefix)
+            throws DkimSigningException {
+        var event = new SigningEvents.Sign();
+        event.begin();
+        var started = measured ? System.nanoTime() : 0L;
+        try {
+            return signed(event, started, sign(headerIndex, body.hash(), tagPrefix, canonicalTagPrefix), body);
+        } catch (DkimSigningException | RuntimeException e) {
+            failed(event, started, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Sign with indexed headers and a precomputed body hash. The signed data is assembled in a pooled buffer: the
+     * canonical header lines, the precomputed canonical DKIM-Signature prefix and the per-message tags. The header
+     * value is rendered once from a single builder.
+     * @param headerIndex - the headers of the message
+     * @param bodyHash - base64 encoded hash of the body canonicalized with the body canonicalization of this signer
+     * @return the DKIM signature header value unfolded
+     * @throws DkimSigningException when failed to sign the message
+     */
+    String sign(HeaderIndex headerIndex, String bodyHash) throws DkimSigningException {
+        return sign(headerIndex, bodyHash, tagPrefix, canonicalTagPrefix);
+    }
+
+    /**
+     * Sign with indexed headers and a precomputed body hash under other leading tags, e.g. the tags of an
+     * ARC-Message-Signature, which has the same signed headers, body hash and signature as a DKIM signature
+     * @param headerIndex - the headers of the message
+     * @param bodyHash - base64 encoded hash of the body canonicalized with the body canonicalization of this signer
+     * @param tagPrefix - the tags up to {@code h=}
+     * @param canonicalTagPrefix - the header name and the tag prefix canonicalized with the header canonicalization
+     * @return the header value unfolded
+     * @throws DkimSigningException when failed to sign the message
+     */
+    String sign(HeaderIndex headerIndex, String bodyHash, String tagPrefix, byte[] canonicalTagPrefix)
+            throws DkimSigningException {
+        HeaderBuffer buffer;
+        try {
+            buffer = headerBuffers.borrow().reset();
+        } catch (GeneralSecurityException e) {
+            throw new DkimSigningException("Failed to create signature.", e);
+        }
+
+        var headerEvent = new SigningEvents.HeaderCanonicalization();
+        headerEvent.begin();
+        var value = new StringBuilder(tagPrefix.length() + bodyHash.length() + SIGNATURE_VALUE_CAPACITY);
+        value.append(tagPrefix);
+        var signedHeaderCount = signHeaders(value, buffer, headerIndex);
+        DkimSignature.appendTag(value, HeaderTag.BODY_HASH, bodyHash);
+        DkimSignature.appendTag(value, HeaderTag.SIGNATURE, "");
+
+        // the per-message tags have no whitespace, so canonicalization leaves them as they are
+        buffer.append(canonicalTagPrefix).append(value, tagPrefix.length(), value.length());
+        headerEvent.end();
+        if (headerEvent.shouldCommit()) {
+            headerEvent.domain = domain;
+            headerEvent.selector = profile.selector();
+            headerEvent.canonicalization = headerCanonicalization.getType();
+            headerEvent.signedHeaderCount = signedHeaderCount;
+            headerEvent.signedDataSize = buffer.size();
+            headerEvent.commit();
+        }
+
+        value.append(createSignatureValue(buffer));
+
+        if (buffer.capacity() <= HeaderBuffer.MAX_RETAINED_CAPACITY) {
+            headerBuffers.release(buffer);
+        }
+        return value.toString();
+    }
+
+    private MessageBuffer serialize(MimeMessage message) throws DkimSigningException {
+        MessageBuffer buffer;
+        try {
+            buffer = messageBuffers.borrow();
+        } catch (GeneralSecurityException e) {
+            throw new DkimSigningException("Failed to serialize message.", e);
+        }
+        buffer.reset();
+        try {
+            message.writeTo(new CrlfOutputStream(buffer), UNSENT_HEADERS);
+            return buffer;
+        } catch (IOException | MessagingException e) {
+            release(buffer);
+            throw new DkimSigningException("Failed to serialize message.", e);
+        }
+    }
+
+    private void release(MessageBuffer buffer) {
+        if (buffer.capacity() <= MessageBuffer.MAX_RETAINED_CAPACITY) {
+            messageBuffers.release(buffer);
+        }
+    }
+
+    private static byte[] signatureHeaderLine(String value) {
+        return (DkimSignature.DKIM_SIGNATURE_HEADER + ": " + value + "\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    static HeaderIndex indexHeaders(MimeMessage message) throws DkimSigningException {
+        var event = new SigningEvents.HeaderIndexing();
+        event.begin();
+        try {
+            return commit(event, HeaderIndex.of(message), false);
+        } catch (MessagingException e) {
+            throw new DkimSigningException("Failed to read message headers.", e);
+        }
+    }
+
+    private static HeaderIndex parseHeaders(ByteBuffer buffer) throws DkimSigningException {
+        var event = new SigningEvents.HeaderIndexing();
+        event.begin();
+        return commit(event, RawMessage.parse(buffer), true);
+    }
+
+    HashedBody hashBody(MimeMessage message) throws DkimSigningException {
+        var event = new SigningEvents.BodyHash();
+        event.begin();
+        // the phases are only timed while the event is recorded
+        var timed = event.isEnabled();
+        var started = timed ? System.nanoTime() : 0L;
+        MessageDigest digest = null;
+        long length;
+        try {
+            // the parts of a multipart are encoded on the pool, the body stream of the message is not opened then
+            var multipart = parallelPartEncoding ? ParallelMultipartWriter.multipartOf(message) : null;
+            try (var input = multipart == null ? message.getInputStream() : InputStream.nullInputStream()) {
+                digest = digests.borrow();
+                try (var canonicalBody = canonicalBody(digest)) {
+                    if (multipart != null) {
+                        ParallelMultipartWriter.writeTo(multipart, canonicalBody, ForkJoinPool.commonPool());
+                        if (timed) {
+                            event.hashTime = System.nanoTime() - started;
+                        }
+                    } else if (timed) {
+                        // opening the stream writes or parses the content of the message
+                        event.readTime = System.nanoTime() - started;
+                        transferTimed(input, canonicalBody, event);
+                    } else {
+                        input.transferTo(canonicalBody);
+                    }
+                    canonicalBody.finish();
+                    commit(event, canonicalBody);
+                    length = canonicalBody.getBodyLength();
+                }
+            }
+            var hashed = new HashedBody(base64Encode(digest.digest()), length);
+            digests.release(digest);
+            return hashed;
+        } catch (IOException | MessagingException | GeneralSecurityException e) {
+            if (digest != null) {
+                digest.reset();
+                digests.release(digest);
+            }
+            throw new DkimSigningException("Failed to hash message body.", e);
+        }
+    }
+
+    /**
+     * Hash a body in wire format
+     * @param body - the body, or the beginning of the body when the rest is in the channel
+     * @param rest - the channel holding the rest of the body, null when the buffer holds the whole body
+     * @return the hash of the canonical body
+     * @throws DkimSigningException when failed to read or hash the body
+     */
+    HashedBody hashBody(ByteBuffer body, ReadableByteChannel rest) throws DkimSigningException {
+        var event = new SigningEvents.BodyHash();
+        event.begin();
+        var timed = event.isEnabled();
+        MessageDigest digest = null;
+        long length;
+        try {
+            digest = digests.borrow();
+            try (var canonicalBody = canonicalBody(digest)) {
+                var started = timed ? System.nanoTime() : 0L;
+                event.bodySize = body.remaining();
+                canonicalBody.write(body);
+                if (timed) {
+                    event.hashTime = System.nanoTime() - started;
+                }
+                if (rest != null) {
+                    var chunk = ByteBuffer.allocate(RAW_READ_BUFFER_SIZE);
+                    while (true) {
+                        var read = timed ? System.nanoTime() : 0L;
+                        var count = rest.read(chunk);
+                        var hashed = timed ? System.nanoTime() : 0L;
+                        event.readTime += hashed - read;
+                        if (count < 0) {
+                            break;
+                        }
+                        event.bodySize += count;
+                        canonicalBody.write(chunk.flip());
+                        chunk.clear();
+                        if (timed) {
+                            event.hashTime += System.nanoTime() - hashed;
+                        }
+                    }
+                }
+                canonicalBody.finish();
+                commit(event, canonicalBody);
+                length = canonicalBody.getBodyLength();
+            }
+            var hashed = new HashedBody(base64Encode(digest.digest()), length);
+            digests.release(digest);
+            return hashed;
+        } catch (IOException | GeneralSecurityException e) {
+            if (digest != null) {
+                digest.reset();
+                digests.release(digest);
+            }
+            throw new DkimSigningException("Failed to hash message body.", e);
+        }
+    }
+
+    /**
+     * Start hashing a body which arrives in chunks, e.g. from an MTA, without buffering the whole body
+     * @return the hasher, closed by the caller
+     * @throws DkimSigningException when failed to create the digest
+     */
+    BodyHasher startBodyHash() throws DkimSigningException {
+        try {
+            return new BodyHasher(digests.borrow());
+        } catch (GeneralSecurityException e) {
+            throw new DkimSigningException("Failed to hash message body.", e);
+        }
+    }
+
+    /**
+     * The hash of a body in progress. Not thread-safe.
+     */
+    final class BodyHasher implements AutoCloseable {
+        private final SigningEvents.BodyHash event = new SigningEvents.BodyHash();
+        private final CanonicalBodyOutputStream canonicalBody;
+        private MessageDigest digest;
+
+        private BodyHasher(MessageDigest digest) {
+            this.digest = digest;
+            this.canonicalBody = canonicalBody(digest);
+            event.begin();
+        }
+
+        /**
+         * Hash the next chunk of the body in wire format
+         * @param chunk - the chunk
+         * @throws DkimSigningException when failed to hash the chunk
+         */
+        void update(ByteBuffer chunk) throws DkimSigningException {
+            event.bodySize += chunk.remaining();
+            try {
+                canonicalBody.write(chunk);
+            } catch (IOException e) {
+                throw new DkimSigningException("Failed to hash message body.", e);
+            }
+        }
+
+        /**
+         * @return the stream canonicalizing and hashing the body, for a body read from a stream
+         */
+        OutputStream output() {
+            return canonicalBody;
+        }
+
+        /**
+         * Complete the hash
+         * @return the hash of the canonical body
+         * @throws DkimSigningException when failed to hash the body
+         */
+        HashedBody finish() throws DkimSigningException {
+            try {
+                canonicalBody.finish();
+                canonicalBody.close();
+                commit(event, canonicalBody);
+            } catch (IOException e) {
+                throw new DkimSigningException("Failed to hash message body.", e);
+            }
+            var hashed = new HashedBody(base64Encode(digest.digest()), canonicalBody.getBodyLength());
+            digests.release(digest);
+            digest = null;
+            return hashed;
+        }
+
+        /**
+         * Release the digest of a body which is not finished, e.g. of an aborted message
+         */
+        @Override
+        public void close() {
+            if (digest != null) {
+                try {
+                    canonicalBody.close();
+                } catch (IOException e) {
+                    // the digest is reset anyway
+                }
+                digest.reset();
+                digests.release(digest);
+                digest = null;
+            }
+        }
+    }
+
+    /**
+     * Create the body canonicalizer, large bodies are hashed on a second thread when the profile has a pipelined hash
+     * threshold
+     */
+    private CanonicalBodyOutputStream canonicalBody(MessageDigest digest) {
+        if (pipelinedHashThreshold > 0) {
+            return new CanonicalBodyOutputStream(bodyCanonicalization, new PipelinedDigestOutputStream(digest, pipelinedHashThreshold));
+        }
+        return new CanonicalBodyOutputStream(bodyCanonicalization, digest);
+    }
+
+    /**
+     * Select the headers to sign. All instances of a header are signed where its name is listed first, bottom-up as
+     * RFC 6376 section 5.4.2 requires, a name listed again adds nothing. With oversigning, every header name is listed
+     * once more than the message has instances, a missing header included, so a header added in transit breaks the
+     * signature. Header names are appended to the tag list, canonical header lines to the buffer.
+     */
+    private int signHeaders(StringBuilder tagList, HeaderBuffer buffer, HeaderIndex headerIndex) throws DkimSigningException {
+        Set<String> signedNames = null;
+        var first = true;
+        var signedFields = 0;
+
+        for (var header : headers) {
+            var headerName = header.name();
+            var fields = headerIndex.get(headerName);
+            if (fields.isEmpty() && header.required()) {
+                throw new DkimSigningException("Required header " + headerName + " is missing.");
+            }
+
+            if (hasRepeatedHeaderNames) {
+                if (signedNames == null) {
+                    signedNames = new HashSet<>();
+                }
+                if (!signedNames.add(headerName.toLowerCase(Locale.ROOT))) {
+                    continue;
+                }
+            }
+            var listings = fields.size() + (oversignHeaders ? 1 : 0);
+            for (var i = 0; i < listings; i++) {
+                if (!first) {
+                    tagList.append(':');
+                }
+                tagList.append(headerName);
+                first = false;
+            }
+            for (var i = fields.size() - 1; i >= 0; i--) {
+                buffer.append(fields.get(i).canonicalize(headerCanonicalization)).appendCrlf();
+                signedFields++;
+            }
+        }
+        return signedFields;
+    }
+
+    /**
+     * Sign the canonical header data, the signature computation is timed and recorded as a flight recorder event
+     * @param buffer - the signed data
+     * @return the base64 encoded signature
+     * @throws DkimSigningException when failed to sign
+     */
+    String createSignatureValue(HeaderBuffer buffer) throws DkimSigningException {
+        var event = new SigningEvents.SignatureComputation();
+        event.begin();
+        byte[] hash;
+        try {
+            var digest = digests.borrow();
+            digest.update(buffer.array(), 0, buffer.size());
+            hash = digest.digest();
+            digests.release(digest);
+        } catch (GeneralSecurityException e) {
+            throw new DkimSigningException("Failed to create signature.", e);
+        }
+        var signed = base64Encode(signatureEngine.sign(hash));
+        event.end();
+        if (event.shouldCommit()) {
+            event.domain = domain;
+            event.selector = profile.selector();
+            event.algorithm = algorithm.getTagValue();
+            event.commit();
+        }
+        return signed;
+    }
+
+    /**
+     * Copy the body into the canonicalizer, timing reads and canonicalization separately
+     */
+    private static void transferTimed(InputStream input, CanonicalBodyOutputStream canonicalBody,
+                                      SigningEvents.BodyHash event) throws IOException {
+        var chunk = new byte[CanonicalBodyOutputStream.CHUNK_SIZE];
+        while (true) {
+            var read = System.nanoTime();
+            var count = input.read(chunk);
+            var hashed = System.nanoTime();
+            event.readTime += hashed - read;
+            if (count < 0) {
+                return;
+            }
+            event.bodySize += count;
+            canonicalBody.write(chunk, 0, count);
+            event.hashTime += System.nanoTime() - hashed;
+        }
+    }
+
+    private void commit(SigningEvents.BodyHash event, CanonicalBodyOutputStream canonicalBody) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.domain = domain;
+            event.selector = profile.selector();
+            event.canonicalization = bodyCanonicalization.getType();
+            event.canonicalBodySize = canonicalBody.getBodyLength();
+            event.commit();
+        }
+    }
+
+    private String signed(SigningEvents.Sign event, long started, String signature, HashedBody body) {
+        if (measured) {
+            metricsListener.onSigned(domain, profile.selector(), System.nanoTime() - started, body.length());
+        }
+        commit(event, true);
+        return signature;
+    }
+
+    private void failed(SigningEvents.Sign event, long started, Exception failure) {
+        if (measured) {
+            metricsListener.onFailed(domain, profile.selector(), System.nanoTime() - started, failure);
+        }
+        commit(event, false);
+    }
+
+    private void commit(SigningEvents.Sign event, boolean succeeded) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.domain = domain;
+            event.selector = profile.selector();
+            event.algorithm = algorithm.getTagValue();
+            event.canonicalization = canonicalizationTag;
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    private static HeaderIndex commit(SigningEvents.HeaderIndexing event, HeaderIndex index, boolean raw) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.headerCount = index.size();
+            event.raw = raw;
+            event.commit();
+        }
+        return index;
+    }
+
+    static String base64Encode(byte[] bytes) {
+        String encoded = Base64.getEncoder().encodeToString(bytes);
+
+        // remove unnecessary line feeds after 76 characters
+        encoded = encoded.replace("\n", "");
+        encoded = encoded.replace("\r", "");
+
+        return encoded;
+    }
+
+    private static SignatureEngine createLocalEngine(PrivateKey privateKey, SigningAlgorithm algorithm)
+            throws DkimSigningException {
+        if (privateKey == null) {
+            throw new DkimSigningException("Either a private key or a signature engine is required.");
+        }
+        return algorithm == null ? new LocalSignatureEngine(privateKey) : new LocalSignatureEngine(privateKey, algorithm);
+    }
+
+    private static void validateParameters(String domain, String identity) throws DkimSigningException {
+        if (!StringUtils.endsWithAny(identity, "@" + domain, "." + domain)) {
+            throw new DkimSigningException("The identity " + identity + " is not end with domain " + domain);
+        }
+    }
+
+    private static String normalizeString(String input) {
+        return StringUtils.lowerCase(StringUtils.trim(input));
+    }
+}
@@ -0,0 +1,287 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.validation.constraints.NotBlank;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The default {@link SigningMetricsListener}: counts signatures and failures by cause and records latency and body size
+ * histograms per domain and selector. Counters are {@link LongAdder}s and histograms are lock-free
+ * {@link LogHistogram}s striped by thread, so recording a signature costs a few uncontended atomic increments even when
+ * many threads sign for the same selector.
+ * <p>
+ * The metrics of every domain and selector seen are exposed as a {@link SigningMetricsMXBean}, registered when the
+ * first message of the selector is signed and unregistered on {@link #close()}.
+ */
+public class DkimSigningMetrics implements SigningMetricsListener, AutoCloseable {
+    static final String JMX_DOMAIN = "io.github.taodong.mail.dkim";
+    // messages may be unique per failure, e.g. a malformed header line, so their number is capped
+    static final int MAX_FAILURE_CAUSES = 32;
+    static final String OTHER_CAUSE = "Other";
+    // the sign rate is the average over the last minute, counted per second
+    static final int RATE_WINDOW_SECONDS = 60;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final MBeanServer server;
+    private final String name;
+    private final Map<String, Map<String, SelectorMetrics>> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * Create metrics exposed on the platform MBean server with the name {@code default}
+     */
+    public DkimSigningMetrics() {
+        this(ManagementFactory.getPlatformMBeanServer(), "default");
+    }
+
+    /**
+     * Create metrics
+     * @param server - the MBean server to expose the metrics on, null to not expose them
+     * @param name - the value of the {@code name} key of the object names, distinguishing several metrics instances
+     */
+    public DkimSigningMetrics(MBeanServer server, @NotBlank String name) {
+        this.server = server;
+        this.name = name;
+    }
+
+    @Override
+    public void onSigned(String domain, String selector, long latencyNanos, long bodySize) {
+        var selectorMetrics = metrics(domain, selector);
+        selectorMetrics.signed.increment();
+        selectorMetrics.countSigned(System.nanoTime());
+        selectorMetrics.latency.record(latencyNanos);
+        selectorMetrics.bodySize.record(bodySize);
+    }
+
+    @Override
+    public void onFailed(String domain, String selector, long latencyNanos, Throwable failure) {
+        var selectorMetrics = metrics(domain, selector);
+        selectorMetrics.failed.increment();
+        selectorMetrics.latency.record(latencyNanos);
+        selectorMetrics.failure(failureCause(failure)).increment();
+    }
+
+    /**
+     * Get the metrics of a selector
+     * @param domain - the signing domain, lower case
+     * @param selector - the selector
+     * @return the metrics, null when nothing was signed with the selector
+     */
+    public SigningMetricsMXBean getMetrics(String domain, String selector) {
+        var selectors = metrics.get(domain);
+        return selectors == null ? null : selectors.get(selector);
+    }
+
+    /**
+     * @return the metrics of all domains and selectors seen
+     */
+    public List<SigningMetricsMXBean> getAllMetrics() {
+        return metrics.values().stream()
+                .<SigningMetricsMXBean>mapMulti((selectors, sink) -> selectors.values().forEach(sink))
+                .toList();
+    }
+
+    /**
+     * Unregister the MBeans of all selectors, metrics recorded afterwards are not exposed
+     */
+    @Override
+    public void close() {
+        if (server == null) {
+            return;
+        }
+        for (var selectors : metrics.values()) {
+            for (var selectorMetrics : selectors.values()) {
+                try {
+                    server.unregisterMBean(objectName(selectorMetrics.domain, selectorMetrics.selector));
+                } catch (JMException e) {
+                    // already unregistered
+                }
+            }
+        }
+    }
+
+    ObjectName objectName(String domain, String selector) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=SigningMetrics,name=" + ObjectName.quote(name)
+                + ",domain=" + ObjectName.quote(domain) + ",selector=" + ObjectName.quote(selector));
+    }
+
+    private SelectorMetrics metrics(String domain, String selector) {
+        var selectors = metrics.get(domain);
+        if (selectors == null) {
+            selectors = metrics.computeIfAbsent(domain, k -> new ConcurrentHashMap<>());
+        }
+        var selectorMetrics = selectors.get(selector);
+        if (selectorMetrics == null) {
+            selectorMetrics = selectors.computeIfAbsent(selector, k -> register(new SelectorMetrics(domain, selector)));
+        }
+        return selectorMetrics;
+    }
+
+    private SelectorMetrics register(SelectorMetrics selectorMetrics) {
+        if (server != null) {
+            try {
+                server.registerMBean(selectorMetrics, objectName(selectorMetrics.domain, selectorMetrics.selector));
+            } catch (JMException e) {
+                // metrics are still recorded and readable with getMetrics, signing must not fail because of JMX
+            }
+        }
+        return selectorMetrics;
+    }
+
+    private static String failureCause(Throwable failure) {
+        if (failure.getCause() != null) {
+            return failure.getCause().getClass().getName();
+        }
+        return failure.getMessage() != null ? failure.getMessage() : failure.getClass().getName();
+    }
+
+    static final class SelectorMetrics implements SigningMetricsMXBean {
+        private final String domain;
+        private final String selector;
+        private final LongAdder signed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+        private final LogHistogram latency = new LogHistogram();
+        private final LogHistogram bodySize = new LogHistogram();
+        // signatures per second of the last minute in a ring, a slot is reused once its second left the window
+        private final AtomicLongArray rateSeconds = new AtomicLongArray(RATE_WINDOW_SECONDS);
+        private final LongAdder[] rateCounts = new LongAdder[RATE_WINDOW_SECONDS];
+        private final long created;
+
+        SelectorMetrics(String domain, String selector) {
+            this(domain, selector, System.nanoTime());
+        }
+
+        SelectorMetrics(String domain, String selector, long created) {
+            this.domain = domain;
+            this.selector = selector;
+            this.created = created;
+            for (var i = 0; i < RATE_WINDOW_SECONDS; i++) {
+                rateSeconds.set(i, Long.MIN_VALUE);
+                rateCounts[i] = new LongAdder();
+            }
+        }
+
+        void countSigned(long nanos) {
+            var second = Math.floorDiv(nanos, NANOS_PER_SECOND);
+            var slot = Math.floorMod(second, RATE_WINDOW_SECONDS);
+            if (rateSeconds.get(slot) != second) {
+                synchronized (rateCounts) {
+                    if (rateSeconds.get(slot) != second) {
+                        rateCounts[slot].reset();
+                        rateSeconds.set(slot, second);
+                    }
+                }
+            }
+            rateCounts[slot].increment();
+        }
+
+        double signRate(long nanos) {
+            var second = Math.floorDiv(nanos, NANOS_PER_SECOND);
+            var count = 0L;
+            for (var slot = 0; slot < RATE_WINDOW_SECONDS; slot++) {
+                var slotSecond = rateSeconds.get(slot);
+                if (slotSecond > second - RATE_WINDOW_SECONDS && slotSecond <= second) {
+                    count += rateCounts[slot].sum();
+                }
+            }
+            var windowStart = Math.max(created, (second - RATE_WINDOW_SECONDS + 1) * NANOS_PER_SECOND);
+            return count * 1e9 / Math.max(1, nanos - windowStart);
+        }
+
+        private LongAdder failure(String cause) {
+            var counter = failures.get(cause);
+            if (counter == null) {
+                var key = failures.size() < MAX_FAILURE_CAUSES ? cause : OTHER_CAUSE;
+                counter = failures.computeIfAbsent(key, k -> new LongAdder());
+            }
+            return counter;
+        }
+
+        @Override
+        public String getDomain() {
+            return domain;
+        }
+
+        @Override
+        public String getSelector() {
+            return selector;
+        }
+
+        @Override
+        public long getSignedCount() {
+            return signed.sum();
+        }
+
+        @Override
+        public long getFailedCount() {
+            return failed.sum();
+        }
+
+        @Override
+        public Map<String, Long> getFailuresByCause() {
+            var counts = new TreeMap<String, Long>();
+            failures.forEach((cause, counter) -> counts.put(cause, counter.sum()));
+            return counts;
+        }
+
+        @Override
+        public double getSignRate() {
+            return signRate(System.nanoTime());
+        }
+
+        @Override
+        public long getLatencyP50Nanos() {
+            return latency.percentile(0.5);
+        }
+
+        @Override
+        public long getLatencyP99Nanos() {
+            return latency.percentile(0.99);
+        }
+
+        @Override
+        public long getLatencyP999Nanos() {
+            return latency.percentile(0.999);
+        }
+
+        @Override
+        public long getLatencyMaxNanos() {
+            return latency.max();
+        }
+
+        @Override
+        public double getLatencyMeanNanos() {
+            var count = latency.count();
+            return count == 0 ? 0 : (double) latency.sum() / count;
+        }
+
+        @Override
+        public long getBodySizeP50() {
+            return bodySize.percentile(0.5);
+        }
+
+        @Override
+        public long getBodySizeP99() {
+            return bodySize.percentile(0.99);
+        }
+
+        @Override
+        public long getBodySizeP999() {
+            return bodySize.percentile(0.999);
+        }
+
+        @Override
+        public long getBodySizeMax() {
+            return bodySize.max();
+        }
+    }
+}
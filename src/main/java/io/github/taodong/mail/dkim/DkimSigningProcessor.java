@@ -0,0 +1,159 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.internet.MimeMessage;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Processor} signing a stream of messages. At most {@code maxInFlight} messages are requested from
+ * upstream and not yet published, and every subscriber buffers at most {@code maxInFlight} results not yet delivered to
+ * it, rounded up to a power of two by {@link SubmissionPublisher}. A message is requested only after the result of a
+ * previous one was accepted into the subscribers' buffers, so with a single subscriber the pipeline holds about
+ * {@code 2 * maxInFlight} messages and a slow consumer, e.g. an SMTP connection, caps the memory used instead of
+ * letting messages pile up.
+ * <p>
+ * Messages are signed concurrently on the signing executor, results are published in completion order and carry the
+ * message they belong to. Results are published and delivered on virtual threads, a signing thread never waits for a
+ * slow subscriber, so a bounded signing executor can't starve the delivery. Requests to upstream are made by one
+ * thread at a time. A failed message is published as a failed {@link SigningResult} and doesn't stop the stream. The
+ * processor completes after upstream completes and every message requested is published.
+ */
+public class DkimSigningProcessor extends SubmissionPublisher<SigningResult>
+        implements Flow.Processor<MimeMessage, SigningResult> {
+
+    private final DkimSigner signer;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // results not published yet, at most maxInFlight as no more messages are requested
+    private final Queue<SigningResult> results = new ConcurrentLinkedQueue<>();
+    // messages to request from upstream on the next drain
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger drainRequests = new AtomicInteger();
+    // only read and written by the drain loop
+    private boolean finished;
+    private boolean cancelled;
+    private volatile Flow.Subscription subscription;
+    private volatile boolean upstreamDone;
+    private volatile Throwable upstreamError;
+
+    /**
+     * Create a processor signing on virtual threads with a {@code maxInFlight} of {@link Flow#defaultBufferSize()}
+     * @param signer - the signer
+     */
+    public DkimSigningProcessor(@NotNull DkimSigner signer) {
+        this(signer, DkimSigner.VIRTUAL_THREADS, Flow.defaultBufferSize());
+    }
+
+    /**
+     * Create a processor
+     * @param signer - the signer
+     * @param executor - executor signing messages, may be bounded
+     * @param maxInFlight - maximum number of messages requested from upstream and not yet published, also the capacity
+     *                    of the result buffer of every subscriber
+     */
+    public DkimSigningProcessor(@NotNull DkimSigner signer, @NotNull Executor executor, @Positive int maxInFlight) {
+        super(DkimSigner.VIRTUAL_THREADS, maxInFlight);
+        this.signer = signer;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        demand.addAndGet(maxInFlight);
+        drain();
+    }
+
+    @Override
+    public void onNext(MimeMessage message) {
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(() -> signed(signer.trySign(message)));
+        } catch (RejectedExecutionException e) {
+            signed(SigningResult.failure(message, new DkimSigningException("Failed to schedule signing.", e)));
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        upstreamError = throwable;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    private void signed(SigningResult result) {
+        results.add(result);
+        drain();
+    }
+
+    /**
+     * Run the drain loop on a virtual thread unless it is running, it then runs once more
+     */
+    private void drain() {
+        if (drainRequests.getAndIncrement() == 0) {
+            DkimSigner.VIRTUAL_THREADS.execute(this::drainLoop);
+        }
+    }
+
+    /**
+     * Publish the results, then request as many messages from upstream as were published, or cancel upstream when the
+     * processor was closed. Only one thread runs the loop at a time, so calls to the subscription are serialized.
+     */
+    private void drainLoop() {
+        var missed = 1;
+        do {
+            for (var result = results.poll(); result != null; result = results.poll()) {
+                if (!isClosed()) {
+                    // blocks while the subscribers' buffers are full, which holds back the next request, the results
+                    // of subscribers which all cancelled are dropped
+                    submit(result);
+                }
+                inFlight.decrementAndGet();
+                demand.incrementAndGet();
+            }
+
+            if (upstreamDone) {
+                if (inFlight.get() == 0 && results.isEmpty() && !finished) {
+                    finished = true;
+                    if (upstreamError != null) {
+                        closeExceptionally(upstreamError);
+                    } else {
+                        close();
+                    }
+                }
+            } else if (isClosed()) {
+                if (!cancelled) {
+                    cancelled = true;
+                    subscription.cancel();
+                }
+            } else {
+                var requested = demand.getAndSet(0);
+                if (requested > 0) {
+                    subscription.request(requested);
+                }
+            }
+            missed = drainRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
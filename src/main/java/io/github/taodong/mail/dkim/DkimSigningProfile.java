@@ -0,0 +1,44 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.Builder;
+
+import java.security.PrivateKey;
+import java.util.List;
+
+/**
+ * Everything needed to sign messages for one domain and selector
+ * @param privateKey - private key to sign the message, a RSA or Ed25519 key, not needed with a signature engine
+ * @param selector - selector to sign
+ * @param domain - domain to sign
+ * @param identity - identity to sign
+ * @param headers - headers to sign, you can use {@link DkimMimeMessageHelper#getDkimSignHeaders(List)} to manage the headers
+ * @param headerCanonicalization - header canonicalization method, when null, use {@link Canonicalization#SIMPLE}
+ * @param bodyCanonicalization - body canonicalization method, when null, use {@link Canonicalization#SIMPLE}
+ * @param algorithm - signing algorithm, when null, use {@link SigningAlgorithm#ED25519_SHA256} for an Ed25519 key and
+ *                  {@link SigningAlgorithm#RSA_SHA256} for others
+ * @param oversignHeaders - when true, list every header name once more in the {@code h=} tag than the message has
+ *                        instances, a missing header is then listed once, so headers added later break the signature
+ * @param pipelinedHashThreshold - when positive, once more than this many canonical body bytes were hashed, the rest of
+ *                               the body is hashed on a second thread while the signing thread keeps reading and
+ *                               canonicalizing, 0 hashes every body on the signing thread
+ * @param parallelPartEncoding - when true, the leaf parts of a multipart message built in memory, e.g. file
+ *                             attachments, are transfer encoded in parallel on the common fork-join pool and hashed in
+ *                             wire order
+ * @param signatureEngine - engine computing the signatures, e.g. a {@link SigningDaemonClient} engine keeping the key
+ *                        in a signing daemon, when null, sign with the private key in process by a
+ *                        {@link LocalSignatureEngine}
+ */
+@Builder(toBuilder = true)
+public record DkimSigningProfile(PrivateKey privateKey,
+                                 @NotBlank String selector, @NotBlank String domain,
+                                 @NotBlank String identity, @NotEmpty List<DkimSignHeader> headers,
+                                 Canonicalization headerCanonicalization,
+                                 Canonicalization bodyCanonicalization,
+                                 SigningAlgorithm algorithm,
+                                 boolean oversignHeaders,
+                                 long pipelinedHashThreshold,
+                                 boolean parallelPartEncoding,
+                                 SignatureEngine signatureEngine) {
+}
@@ -0,0 +1,226 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Route messages to the signer of their author domain, for a sender signing for many domains. Routes are prepared
+ * {@link DkimSigner}s keyed by domain:
+ * <ul>
+ *     <li>{@code example.com} routes the messages from {@code example.com}, and with parent domain fallback the
+ *     messages from its subdomains without a route of their own</li>
+ *     <li>{@code *.example.com} routes the messages from any subdomain of {@code example.com}, not from
+ *     {@code example.com} itself</li>
+ * </ul>
+ * A domain is looked up exactly first, then for every parent domain, nearest first, the wildcard route and, with
+ * parent domain fallback, the route of the parent. A subdomain is signed by the signer of a parent domain the same way
+ * a signer accepts an identity in a subdomain of its signing domain. Every lookup is a hash lookup per label of the
+ * domain, independent of the number of routes.
+ * <p>
+ * The routes are an immutable snapshot replaced on every update, so lookups never lock and always see a consistent
+ * set of routes, while updates are serialized and copy the snapshot. Update in bulk with {@link #putAll(Map)} or
+ * {@link #replaceAll(Map)} when changing many routes.
+ */
+public class DkimSigningRouter implements MilterSignerSelector {
+    private static final String WILDCARD = "*.";
+
+    private final SigningMetricsListener metricsListener;
+    private final boolean parentDomainFallback;
+    private final Object updateLock = new Object();
+    private volatile Routes routes = new Routes(Map.of(), Map.of());
+
+    /**
+     * The exact and the wildcard routes, wildcard routes are keyed by their parent domain
+     */
+    private record Routes(Map<String, DkimSigner> exact, Map<String, DkimSigner> wildcard) {
+    }
+
+    /**
+     * Create a router with parent domain fallback
+     */
+    public DkimSigningRouter() {
+        this(SigningMetricsListener.NONE, true);
+    }
+
+    /**
+     * Create a router
+     * @param metricsListener - listener notified of every signature and failure of the routed signers
+     * @param parentDomainFallback - when true, a subdomain without a route of its own is signed with the route of the
+     *                             nearest parent domain
+     */
+    public DkimSigningRouter(@NotNull SigningMetricsListener metricsListener, boolean parentDomainFallback) {
+        this.metricsListener = metricsListener;
+        this.parentDomainFallback = parentDomainFallback;
+    }
+
+    /**
+     * Add or replace a route
+     * @param domain - the domain, e.g. {@code example.com}, or a wildcard for its subdomains, e.g. {@code *.example.com}
+     * @param profile - the signing profile of the domain
+     * @throws DkimSigningException when the profile is not valid
+     */
+    public void put(@NotBlank String domain, @NotNull DkimSigningProfile profile) throws DkimSigningException {
+        putAll(Map.of(domain, profile));
+    }
+
+    /**
+     * Add or replace routes in one update. No route is changed when a profile is not valid.
+     * @param profiles - the signing profiles by domain or wildcard
+     * @throws DkimSigningException when a profile is not valid
+     */
+    public void putAll(@NotNull Map<String, DkimSigningProfile> profiles) throws DkimSigningException {
+        var signers = prepare(profiles);
+        synchronized (updateLock) {
+            var exact = new HashMap<>(routes.exact());
+            var wildcard = new HashMap<>(routes.wildcard());
+            signers.forEach((domain, signer) -> (isWildcard(domain) ? wildcard : exact).put(stripWildcard(domain), signer));
+            routes = new Routes(Map.copyOf(exact), Map.copyOf(wildcard));
+        }
+    }
+
+    /**
+     * Replace all routes in one update, e.g. after reloading the configuration of all domains. No route is changed when
+     * a profile is not valid.
+     * @param profiles - the signing profiles by domain or wildcard
+     * @throws DkimSigningException when a profile is not valid
+     */
+    public void replaceAll(@NotNull Map<String, DkimSigningProfile> profiles) throws DkimSigningException {
+        var signers = prepare(profiles);
+        var exact = new HashMap<String, DkimSigner>();
+        var wildcard = new HashMap<String, DkimSigner>();
+        signers.forEach((domain, signer) -> (isWildcard(domain) ? wildcard : exact).put(stripWildcard(domain), signer));
+        synchronized (updateLock) {
+            routes = new Routes(Map.copyOf(exact), Map.copyOf(wildcard));
+        }
+    }
+
+    /**
+     * Remove a route
+     * @param domain - the domain or wildcard of the route
+     * @return true when the route existed
+     */
+    public boolean remove(@NotBlank String domain) {
+        var key = normalize(domain);
+        synchronized (updateLock) {
+            var current = routes;
+            var table = isWildcard(key) ? current.wildcard() : current.exact();
+            if (!table.containsKey(stripWildcard(key))) {
+                return false;
+            }
+            var copy = new HashMap<>(table);
+            copy.remove(stripWildcard(key));
+            routes = isWildcard(key)
+                    ? new Routes(current.exact(), Map.copyOf(copy))
+                    : new Routes(Map.copyOf(copy), current.wildcard());
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of routes, wildcards included
+     */
+    public int size() {
+        var current = routes;
+        return current.exact().size() + current.wildcard().size();
+    }
+
+    /**
+     * Resolve the signer of a domain
+     * @param domain - the author domain, case-insensitive
+     * @return the signer, null when no route matches
+     */
+    public DkimSigner resolve(String domain) {
+        if (StringUtils.isBlank(domain)) {
+            return null;
+        }
+        // one snapshot for the whole lookup
+        var current = routes;
+        var name = normalize(domain);
+        var signer = current.exact().get(name);
+        for (var dot = name.indexOf('.'); signer == null && dot >= 0; dot = name.indexOf('.', dot + 1)) {
+            var parent = name.substring(dot + 1);
+            signer = current.wildcard().get(parent);
+            if (signer == null && parentDomainFallback) {
+                signer = current.exact().get(parent);
+            }
+        }
+        return signer;
+    }
+
+    /**
+     * Resolve the signer of a message by the domain of its From address, or of its Sender address when the From domain
+     * has no route
+     * @param message - the message
+     * @return the signer, null when no route matches
+     * @throws DkimSigningException when failed to read the headers
+     */
+    public DkimSigner resolve(@NotNull MimeMessage message) throws DkimSigningException {
+        try {
+            var signer = resolve(MilterMessage.addressDomain(message.getHeader(StandardMessageHeader.FROM.getKey(), ",")));
+            return signer != null
+                    ? signer
+                    : resolve(MilterMessage.addressDomain(message.getHeader(StandardMessageHeader.SENDER.getKey(), null)));
+        } catch (MessagingException e) {
+            throw new DkimSigningException("Failed to read message headers.", e);
+        }
+    }
+
+    /**
+     * Sign a message with the signer of its From or Sender domain
+     * @param message - the message
+     * @return the DKIM signature header value unfolded
+     * @throws DkimSigningException when no route matches or failed to sign the message
+     */
+    public String sign(@NotNull MimeMessage message) throws DkimSigningException {
+        var signer = resolve(message);
+        if (signer == null) {
+            throw new DkimSigningException("No signing profile for the From or Sender domain of the message.");
+        }
+        return signer.sign(message);
+    }
+
+    /**
+     * Select the signer of a milter message by its From domain, or its Sender domain when the From domain has no route
+     * @param message - the milter message
+     * @return the signer, null when no route matches
+     */
+    @Override
+    public DkimSigner select(MilterMessage message) {
+        var signer = resolve(message.getFromDomain());
+        return signer != null ? signer : resolve(message.getSenderDomain());
+    }
+
+    /**
+     * Prepare the signers outside the update lock, a profile is validated and its key checked once
+     */
+    private Map<String, DkimSigner> prepare(Map<String, DkimSigningProfile> profiles) throws DkimSigningException {
+        var signers = new HashMap<String, DkimSigner>(profiles.size() * 2);
+        for (var entry : profiles.entrySet()) {
+            var domain = normalize(entry.getKey());
+            if (stripWildcard(domain).isEmpty() || stripWildcard(domain).contains("*")) {
+                throw new DkimSigningException("Invalid route domain " + entry.getKey() + ".");
+            }
+            signers.put(domain, new DkimSigner(entry.getValue(), metricsListener));
+        }
+        return signers;
+    }
+
+    private static boolean isWildcard(String domain) {
+        return domain.startsWith(WILDCARD);
+    }
+
+    private static String stripWildcard(String domain) {
+        return StringUtils.removeStart(domain, WILDCARD);
+    }
+
+    private static String normalize(String domain) {
+        return StringUtils.removeEnd(domain.trim(), ".").toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,29 +1,35 @@
 package io.github.taodong.mail.dkim;
 
-import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
-import jakarta.mail.internet.MimeUtility;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
-import org.apache.commons.lang3.StringUtils;
 
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.Signature;
-import java.security.SignatureException;
 import java.security.interfaces.RSAPrivateKey;
-import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class DkimSigningService {
+    private final SigningMetricsListener metricsListener;
+
+    public DkimSigningService() {
+        this(SigningMetricsListener.NONE);
+    }
+
+    /**
+     * Create a service reporting every signature to a metrics listener
+     * @param metricsListener - listener notified of every signature and failure, e.g. {@link DkimSigningMetrics}
+     */
+    public DkimSigningService(@NotNull SigningMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
 
     /**
      * Generate unfolded DKIM signature header value. This value should be the last header value introduced into message before sending.
+     * Every call prepares a new {@link DkimSigner}, create a signer once with {@link DkimSigner#DkimSigner(DkimSigningProfile)}
+     * when signing many messages with the same key.
      * @param message - message to sign
      * @param dkimPrivateKey - private key to sign the message
      * @param selector - selector to sign
@@ -41,116 +47,67 @@ public class DkimSigningService {
                        @NotBlank String identity, @NotEmpty List<DkimSignHeader> headers,
                        Canonicalization headerCanonicalization,
                        Canonicalization bodyCanonicalization) throws DkimSigningException {
-        domain = normalizeString(domain);
-        identity = normalizeString(identity);
-        validateParameters(domain, identity);
-        var signature = new DkimSignature();
-        signature.addTagValue(HeaderTag.DOMAIN, domain);
-        signature.addTagValue(HeaderTag.SELECTOR, selector);
-        signature.addTagValue(HeaderTag.USERNAME, identity); // `i` tag should be a `dkim-quoted-printable` string, my use cases have no special characters, leave it as it is
-        signature.addTagValue(HeaderTag.CANONICALIZATION, generateCanonicalizationValue(headerCanonicalization, bodyCanonicalization));
-        signature.addTagValue(HeaderTag.BODY_HASH, hashBody(message, bodyCanonicalization));
-        signHeaders(signature, message, headers, headerCanonicalization, dkimPrivateKey);
-        return signature.getValue();
-    }
-
-    private void signHeaders(DkimSignature signature, MimeMessage message, List<DkimSignHeader> headers,
-                             Canonicalization canonicalization, RSAPrivateKey privateKey) throws DkimSigningException {
-        if (canonicalization == null) {
-            canonicalization = Canonicalization.SIMPLE;
-        }
-
-        List<String> headerNames = new ArrayList<>();
-        List<String> canonicalHeaders = new ArrayList<>();
-
-        for (var header : headers) {
-            var headerName = header.name();
-            try {
-                var headerValuesArray = message.getHeader(headerName);
-                if (headerValuesArray == null) {
-                    if (header.required()) {
-                        throw new DkimSigningException("Required header " + headerName + " is missing.");
-                    }
-                    continue;
-                }
-
-                for (var headerValue : headerValuesArray) {
-                    headerNames.add(headerName);
-                    canonicalHeaders.add(canonicalization.getHeaderOperator().apply(headerName, headerValue));
-                }
-            } catch (MessagingException e) {
-                throw new DkimSigningException("Failed to get header " + headerName, e);
-            }
-        }
-
-        var headerTagValue = String.join(":", headerNames);
-        var headerToSign = String.join("\r\n", canonicalHeaders) + "\r\n";
-
-        signature.addTagValue(HeaderTag.HEADERS, headerTagValue);
-
-        var beforeHashValue = signature.getBeforeHashValue();
-        var serializedSignature = beforeHashValue + "; " + HeaderTag.SIGNATURE.getTagName() + "=";
-        var canonicalSignature = canonicalization.getHeaderOperator().apply(DkimSignature.DKIM_SIGNATURE_HEADER, serializedSignature);
-        headerToSign += canonicalSignature;
-
-        signature.addTagValue(HeaderTag.SIGNATURE, createSignatureValue(headerToSign, privateKey));
-    }
-
-    private String createSignatureValue(String headerToSign, RSAPrivateKey privateKey)
-            throws DkimSigningException {
-        try {
-            Signature rsaSignature = Signature.getInstance("SHA256withRSA");
-            rsaSignature.initSign(privateKey);
-            rsaSignature.update(headerToSign.getBytes(StandardCharsets.UTF_8));
-            return base64Encode(rsaSignature.sign());
-        } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
-            throw new DkimSigningException("Failed to create signature.", e);
-        }
-    }
-
-    private String hashBody(MimeMessage message, Canonicalization canonicalization) throws DkimSigningException {
-        if (canonicalization == null) {
-            canonicalization = Canonicalization.SIMPLE;
-        }
-
-        try (var input = message.getInputStream()) {
-            var body = MimeUtility.getBytes(input);
-            var bodyString = new String(body, StandardCharsets.UTF_8);
-            var canonicalBody = canonicalization.getBodyOperator().apply(bodyString);
-            var hashed = MessageDigest.getInstance("SHA-256").digest(canonicalBody.getBytes(StandardCharsets.UTF_8));
-            return base64Encode(hashed);
-
-        } catch (IOException | MessagingException | NoSuchAlgorithmException e) {
-            throw new DkimSigningException("Failed to hash message body.", e);
-        }
-
-
+        var profile = DkimSigningProfile.builder()
+                .privateKey(dkimPrivateKey)
+                .selector(selector)
+                .domain(domain)
+                .identity(identity)
+                .headers(headers)
+                .headerCanonicalization(headerCanonicalization)
+                .bodyCanonicalization(bodyCanonicalization)
+                .build();
+        return sign(message, profile);
     }
 
-    private static String base64Encode(byte[] bytes) {
-        String encoded = Base64.getEncoder().encodeToString(bytes);
-
-        // remove unnecessary line feeds after 76 characters
-        encoded = encoded.replace("\n", "");
-        encoded = encoded.replace("\r", "");
-
-        return encoded;
+    /**
+     * Generate unfolded DKIM signature header value with a signing profile.
+     * @param message - message to sign
+     * @param profile - the signing profile
+     * @return the DKIM signature header value unfolded
+     * @throws DkimSigningException when failed to sign the message
+     */
+    public String sign(@NotNull MimeMessage message, @NotNull DkimSigningProfile profile) throws DkimSigningException {
+        return new DkimSigner(profile, metricsListener).sign(message);
     }
 
-    private String generateCanonicalizationValue(Canonicalization headerCanonicalization, Canonicalization bodyCanonicalization) {
-
-        return (headerCanonicalization == null ? Canonicalization.SIMPLE.getType() : headerCanonicalization.getType()) + "/" +
-                (bodyCanonicalization == null ? Canonicalization.SIMPLE.getType() : bodyCanonicalization.getType());
+    /**
+     * Sign a message asynchronously on a new virtual thread, see {@link DkimSigner#signAsync(MimeMessage)}.
+     * @param message - message to sign
+     * @param profile - the signing profile
+     * @return a future of the DKIM signature header value unfolded, completed exceptionally with a
+     * {@link DkimSigningException} when the profile is not valid or signing failed
+     */
+    public CompletableFuture<String> signAsync(@NotNull MimeMessage message, @NotNull DkimSigningProfile profile) {
+        return signAsync(message, profile, DkimSigner.VIRTUAL_THREADS);
     }
 
-    private void validateParameters(String domain, String identity) throws DkimSigningException {
-        if (!StringUtils.endsWithAny(identity, "@" + domain, "." + domain)) {
-            throw new DkimSigningException("The identity " + identity + " is not end with domain " + domain);
+    /**
+     * Sign a message asynchronously, see {@link DkimSigner#signAsync(MimeMessage, Executor)}.
+     * @param message - message to sign
+     * @param profile - the signing profile
+     * @param executor - executor running the signing task
+     * @return a future of the DKIM signature header value unfolded, completed exceptionally with a
+     * {@link DkimSigningException} when the profile is not valid or signing failed
+     */
+    public CompletableFuture<String> signAsync(@NotNull MimeMessage message, @NotNull DkimSigningProfile profile,
+                                               @NotNull Executor executor) {
+        try {
+            return new DkimSigner(profile, metricsListener).signAsync(message, executor);
+        } catch (DkimSigningException e) {
+            return CompletableFuture.failedFuture(e);
         }
     }
 
-    private String normalizeString(String input) {
-        return StringUtils.lowerCase(StringUtils.trim(input));
+    /**
+     * Sign a batch of messages in parallel with a signing profile, see {@link DkimSigner#signAll(Collection)}.
+     * @param messages - messages to sign
+     * @param profile - the signing profile
+     * @return the result of each message in the iteration order of the messages
+     * @throws DkimSigningException when the profile is not valid
+     */
+    public List<SigningResult> signAll(@NotNull Collection<MimeMessage> messages, @NotNull DkimSigningProfile profile)
+            throws DkimSigningException {
+        return new DkimSigner(profile, metricsListener).signAll(messages);
     }
 
 }
@@ -0,0 +1,341 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.PrivateKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Sign the {@code .eml} files of an MTA spool directory or the messages of a Maildir tree in bulk. Every file is
+ * memory-mapped with {@link FileChannel#map} and signed as a message in wire format directly from the mapping, then the
+ * DKIM-Signature header and the original bytes are written into a temporary file next to the target, which is renamed
+ * over the target atomically, so a reader of the spool never sees a half written message.
+ * <p>
+ * The files to sign are listed before the first one is written. A message already carrying a signature of the signer,
+ * e.g. when the spool is signed again, and a file removed or renamed by the MTA or a mail client while it is signed are
+ * skipped.
+ * <p>
+ * Files are signed on a fixed pool of worker threads. Usable as a library or from the command line, see
+ * {@link #main(String[])}.
+ */
+public class DkimSpoolSigner {
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final long SKIPPED = -1;
+    private static final String MAILDIR_TMP = "tmp";
+    private static final List<String> MAILDIR_FOLDERS = List.of(MAILDIR_TMP, "new", "cur");
+
+    /**
+     * Regular, not hidden {@code .eml} files and files in the {@code new} and {@code cur} directories of a Maildir,
+     * {@code tmp} directories of a Maildir are still being delivered to and skipped. A Maildir is a directory having
+     * all of the {@code tmp}, {@code new} and {@code cur} subdirectories, other directories of these names are spool
+     * directories like any other.
+     */
+    public static final Predicate<Path> SPOOL_FILES = file -> {
+        var name = file.getFileName().toString();
+        if (name.startsWith(".")) {
+            return false;
+        }
+        var folder = maildirFolder(file);
+        return folder == null ? name.endsWith(".eml") : !folder.equals(MAILDIR_TMP);
+    };
+
+    private final DkimSigner signer;
+    private final int threads;
+    private final Predicate<Path> fileFilter;
+
+    /**
+     * Create a spool signer for {@link #SPOOL_FILES} using a worker thread per processor
+     * @param signer - the signer
+     */
+    public DkimSpoolSigner(@NotNull DkimSigner signer) {
+        this(signer, Runtime.getRuntime().availableProcessors(), SPOOL_FILES);
+    }
+
+    /**
+     * Create a spool signer
+     * @param signer - the signer
+     * @param threads - number of worker threads
+     * @param fileFilter - selects the regular files to sign
+     */
+    public DkimSpoolSigner(@NotNull DkimSigner signer, @Positive int threads, @NotNull Predicate<Path> fileFilter) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive.");
+        }
+        this.signer = signer;
+        this.threads = threads;
+        this.fileFilter = fileFilter;
+    }
+
+    /**
+     * Sign every selected file under a directory in place
+     * @param root - the spool or Maildir directory
+     * @return the report
+     * @throws IOException when failed to walk the directory
+     */
+    public SpoolSigningReport signAll(@NotNull Path root) throws IOException {
+        return signAll(root, root);
+    }
+
+    /**
+     * Sign every selected file under a directory
+     * @param root - the spool or Maildir directory
+     * @param outputRoot - the directory to write signed files to, under the same relative paths, the spool directory
+     *                   itself signs in place
+     * @return the report, a directory which failed to be listed, e.g. removed by the MTA meanwhile, is a failure
+     * @throws IOException when failed to walk the directory
+     */
+    public SpoolSigningReport signAll(@NotNull Path root, @NotNull Path outputRoot) throws IOException {
+        var started = System.nanoTime();
+        var signed = new LongAdder();
+        var skipped = new LongAdder();
+        var bytes = new LongAdder();
+        var failures = new ConcurrentHashMap<Path, DkimSigningException>();
+        // at most a few files per worker are queued, however large the spool is
+        var queued = new Semaphore(threads * 4);
+
+        // listed up front, a file replaced by its signed copy would be listed again by a running walk
+        var selected = new ArrayList<Path>();
+        try (var files = Files.walk(root)) {
+            files.filter(Files::isRegularFile).filter(fileFilter).forEach(selected::add);
+        } catch (UncheckedIOException e) {
+            var file = e.getCause() instanceof FileSystemException fileException && fileException.getFile() != null
+                    ? Path.of(fileException.getFile()) : root;
+            failures.put(file, new DkimSigningException("Failed to list " + file + ".", e.getCause()));
+        }
+
+        try (var workers = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("dkim-spool-", 0).factory())) {
+            for (var file : selected) {
+                var target = outputRoot.resolve(root.relativize(file));
+                queued.acquireUninterruptibly();
+                workers.execute(() -> {
+                    try {
+                        var size = signFile(file, target);
+                        if (size == SKIPPED) {
+                            skipped.increment();
+                        } else {
+                            bytes.add(size);
+                            signed.increment();
+                        }
+                    } catch (DkimSigningException e) {
+                        failures.put(file, e);
+                    } catch (RuntimeException e) {
+                        failures.put(file, new DkimSigningException("Failed to sign message " + file + ".", e));
+                    } finally {
+                        queued.release();
+                    }
+                });
+            }
+        }
+        return new SpoolSigningReport(signed.sum(), skipped.sum(), bytes.sum(), Map.copyOf(failures),
+                Duration.ofNanos(System.nanoTime() - started));
+    }
+
+    /**
+     * Sign one file. The target is replaced atomically, it may be the source file itself. A message already carrying a
+     * signature of the signer is not signed again, it is copied unchanged to a different target.
+     * @param source - the message in wire format
+     * @param target - the file to write the signed message to
+     * @return the size of the source file, -1 when skipped: the source was removed or replaced while it was signed or
+     * already carries a signature of the signer
+     * @throws DkimSigningException when failed to read, sign or write the message
+     */
+    public long signFile(@NotNull Path source, @NotNull Path target) throws DkimSigningException {
+        Path temp = null;
+        try (var channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            var fileKey = fileKey(source);
+            var size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new DkimSigningException("Message " + source + " is too large to map.");
+            }
+            // the mapping is read in place, the message is never copied onto the heap
+            var message = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            var value = isSignedBySigner(message) ? null : signer.sign(message);
+            var inPlace = source.toAbsolutePath().normalize().equals(target.toAbsolutePath().normalize());
+            if (value == null && inPlace) {
+                return SKIPPED;
+            }
+
+            var directory = target.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, "." + target.getFileName(), TEMP_SUFFIX);
+            try (var out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                if (value != null) {
+                    writeFully(out, ByteBuffer.wrap((DkimSignature.DKIM_SIGNATURE_HEADER + ": " + value).getBytes(StandardCharsets.UTF_8)));
+                    writeFully(out, ByteBuffer.wrap(CRLF));
+                }
+                for (var position = 0L; position < size; ) {
+                    position += channel.transferTo(position, size - position, out);
+                }
+            }
+            copyPermissions(source, temp);
+            if (inPlace && !Objects.equals(fileKey, fileKey(source))) {
+                // replaced meanwhile, the new file is signed by the next run
+                return SKIPPED;
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+            return value == null ? SKIPPED : size;
+        } catch (NoSuchFileException e) {
+            // removed or renamed, e.g. a Maildir message flagged by a mail client
+            return SKIPPED;
+        } catch (IOException e) {
+            throw new DkimSigningException("Failed to sign message " + source + ".", e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // the temporary file is hidden from the spool filter, leave it
+                }
+            }
+        }
+    }
+
+    /**
+     * Check for a DKIM-Signature of the signer, same signing domain and selector, in the header block of a message
+     */
+    private boolean isSignedBySigner(ByteBuffer message) throws DkimSigningException {
+        for (var field : RawMessage.parse(message.duplicate()).get(DkimSignature.DKIM_SIGNATURE_HEADER)) {
+            try {
+                var tags = DkimSignature.parseTags(field.value());
+                if (signer.getDomain().equalsIgnoreCase(StringUtils.strip(tags.get("d")))
+                        && signer.getProfile().selector().equalsIgnoreCase(StringUtils.strip(tags.get("s")))) {
+                    return true;
+                }
+            } catch (DkimSigningException e) {
+                // a malformed signature of someone else
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the identity of the file, e.g. its inode, null when the file system has none
+     * @throws NoSuchFileException when the file doesn't exist anymore
+     */
+    private static Object fileKey(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).fileKey();
+    }
+
+    /**
+     * Temporary files are only readable by the owner, the signed file keeps the permissions of the original
+     */
+    private static void copyPermissions(Path source, Path target) throws IOException {
+        try {
+            Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Get the Maildir folder of a file
+     * @return {@code tmp}, {@code new} or {@code cur}, null when the parent directory is not a folder of a Maildir
+     */
+    private static String maildirFolder(Path file) {
+        var parent = file.getParent();
+        if (parent == null || parent.getFileName() == null || parent.getParent() == null
+                || !MAILDIR_FOLDERS.contains(parent.getFileName().toString())) {
+            return null;
+        }
+        for (var folder : MAILDIR_FOLDERS) {
+            if (!Files.isDirectory(parent.getParent().resolve(folder))) {
+                return null;
+            }
+        }
+        return parent.getFileName().toString();
+    }
+
+    /**
+     * Sign a spool directory from the command line and print the report. Options:
+     * <ul>
+     *     <li>{@code --key <file>} - PEM private key, required</li>
+     *     <li>{@code --domain <domain>}, {@code --selector <selector>} - required</li>
+     *     <li>{@code --identity <identity>} - defaults to {@code @<domain>}</li>
+     *     <li>{@code --canonicalization <header>/<body>} - defaults to {@code relaxed/relaxed}</li>
+     *     <li>{@code --threads <count>} - defaults to the number of processors</li>
+     *     <li>{@code --output <directory>} - defaults to signing in place</li>
+     * </ul>
+     * followed by the spool directory. Exits with status 1 when any file failed.
+     * @param args - the command line arguments
+     * @throws Exception when the arguments are invalid or the spool can't be read
+     */
+    public static void main(String[] args) throws Exception {
+        var options = new HashMap<String, String>();
+        String root = null;
+        for (var i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                root = args[i];
+            }
+        }
+        if (root == null || !options.containsKey("key") || !options.containsKey("domain") || !options.containsKey("selector")) {
+            System.err.println("Usage: DkimSpoolSigner --key <pem> --domain <domain> --selector <selector> [--identity <identity>]"
+                    + " [--canonicalization relaxed/relaxed] [--threads <count>] [--output <directory>] <spool directory>");
+            System.exit(2);
+            return;
+        }
+
+        var helper = new DkimMimeMessageHelper();
+        PrivateKey key;
+        try (InputStream input = Files.newInputStream(Path.of(options.get("key")))) {
+            key = helper.getPrivateKeyFromPem(input, null);
+        }
+        var canonicalization = options.getOrDefault("canonicalization", "relaxed/relaxed").split("/", 2);
+        var domain = options.get("domain");
+        var signer = new DkimSigner(DkimSigningProfile.builder()
+                .privateKey(key)
+                .selector(options.get("selector"))
+                .domain(domain)
+                .identity(options.getOrDefault("identity", "@" + domain))
+                .headers(helper.getDkimSignHeaders(null))
+                .headerCanonicalization(Canonicalization.fromType(canonicalization[0]))
+                .bodyCanonicalization(Canonicalization.fromType(canonicalization.length > 1 ? canonicalization[1] : canonicalization[0]))
+                .build());
+
+        var threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        var report = new DkimSpoolSigner(signer, threads, SPOOL_FILES)
+                .signAll(Path.of(root), Path.of(options.getOrDefault("output", root)));
+        report.failures().forEach((file, e) -> System.err.println(file + ": " + e.getMessage()));
+        System.out.printf("Signed %d files (%d MB) in %d ms, %.1f files/s, %d skipped, %d failed%n", report.signed(),
+                report.bytes() / (1024 * 1024), report.elapsed().toMillis(), report.filesPerSecond(), report.skipped(),
+                report.failures().size());
+        if (!report.failures().isEmpty()) {
+            System.exit(1);
+        }
+    }
+}
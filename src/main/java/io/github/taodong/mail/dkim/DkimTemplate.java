@@ -0,0 +1,115 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static io.github.taodong.mail.dkim.StandardMessageHeader.CC;
+import static io.github.taodong.mail.dkim.StandardMessageHeader.DATE;
+import static io.github.taodong.mail.dkim.StandardMessageHeader.MESSAGE_ID;
+import static io.github.taodong.mail.dkim.StandardMessageHeader.TO;
+
+/**
+ * A signer prepared for the messages of a campaign, which share their body and most headers and only differ in a few
+ * per-recipient headers, e.g. To, Message-ID and Date. The body hash of the prototype message is computed once, and
+ * the signed static headers of the prototype are indexed and canonicalized once. Signing a recipient's message only
+ * reads and canonicalizes its varying headers and computes the signature.
+ * <p>
+ * The template trusts the caller: the body and the static headers of a message signed with the template must be the
+ * same as the prototype's, otherwise the signature won't verify. The template is immutable and thread-safe.
+ */
+public class DkimTemplate {
+    /**
+     * Headers which usually differ per recipient: To, Cc, Message-ID and Date
+     */
+    public static final Set<String> DEFAULT_VARYING_HEADERS = Set.of(TO.getKey(), CC.getKey(), MESSAGE_ID.getKey(), DATE.getKey());
+
+    private final DkimSigner signer;
+    private final String[] varyingHeaders;
+    private final HeaderIndex staticHeaders;
+    private final DkimSigner.HashedBody body;
+
+    /**
+     * Prepare a template with {@link #DEFAULT_VARYING_HEADERS}
+     * @param signer - the signer
+     * @param prototype - a message of the campaign
+     * @throws DkimSigningException when failed to read the prototype
+     */
+    public DkimTemplate(@NotNull DkimSigner signer, @NotNull MimeMessage prototype) throws DkimSigningException {
+        this(signer, prototype, DEFAULT_VARYING_HEADERS);
+    }
+
+    /**
+     * Prepare a template
+     * @param signer - the signer
+     * @param prototype - a message of the campaign
+     * @param varyingHeaders - names of the headers read from every message, case-insensitive, other signed headers are
+     *                       taken from the prototype
+     * @throws DkimSigningException when failed to read the prototype
+     */
+    public DkimTemplate(@NotNull DkimSigner signer, @NotNull MimeMessage prototype, @NotNull Collection<String> varyingHeaders)
+            throws DkimSigningException {
+        this.signer = signer;
+        var varying = varyingHeaders.stream().map(h -> h.toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+        var signedNames = new LinkedHashSet<String>();
+        for (var header : signer.getHeaders()) {
+            signedNames.add(header.name().toLowerCase(Locale.ROOT));
+        }
+        // only the varying headers which are signed have to be read from a message
+        this.varyingHeaders = signer.getHeaders().stream()
+                .map(DkimSignHeader::name)
+                .filter(name -> varying.contains(name.toLowerCase(Locale.ROOT)))
+                .distinct()
+                .toArray(String[]::new);
+
+        var prototypeHeaders = DkimSigner.indexHeaders(prototype);
+        var headerCanonicalization = signer.getHeaderCanonicalization();
+        this.staticHeaders = new HeaderIndex();
+        for (var name : signedNames) {
+            if (varying.contains(name)) {
+                continue;
+            }
+            for (var field : prototypeHeaders.get(name)) {
+                // the canonical line is cached in the field and shared by all messages
+                field.canonicalize(headerCanonicalization);
+                staticHeaders.add(field);
+            }
+        }
+        this.body = signer.hashBody(prototype);
+    }
+
+    /**
+     * @return the base64 encoded hash of the canonical body, the {@code bh=} value of every signature
+     */
+    public String getBodyHash() {
+        return body.hash();
+    }
+
+    /**
+     * Sign a message of the campaign
+     * @param message - the message, its body and static headers the same as the prototype's
+     * @return the DKIM signature header value unfolded
+     * @throws DkimSigningException when failed to sign the message
+     */
+    public String sign(@NotNull MimeMessage message) throws DkimSigningException {
+        var headerIndex = new HeaderIndex(staticHeaders);
+        if (varyingHeaders.length > 0) {
+            try {
+                var headers = message.getMatchingHeaders(varyingHeaders);
+                while (headers.hasMoreElements()) {
+                    var header = headers.nextElement();
+                    headerIndex.add(new HeaderIndex.Field(header.getName(), header.getValue(), null));
+                }
+            } catch (MessagingException e) {
+                throw new DkimSigningException("Failed to read message headers.", e);
+            }
+        }
+        return signer.sign(headerIndex, body);
+    }
+}
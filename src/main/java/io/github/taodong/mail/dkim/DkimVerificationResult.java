@@ -0,0 +1,41 @@
+package io.github.taodong.mail.dkim;
+
+/**
+ * The outcome of verifying one DKIM-Signature header
+ * @param status - the verification status
+ * @param domain - the signing domain of the {@code d=} tag, null when the signature couldn't be parsed
+ * @param selector - the selector of the {@code s=} tag, null when the signature couldn't be parsed
+ * @param reason - why the signature didn't pass, null when it passed
+ */
+public record DkimVerificationResult(Status status, String domain, String selector, String reason) {
+
+    /**
+     * Verification status, named after the {@code dkim} results of RFC 8601 Authentication-Results
+     */
+    public enum Status {
+        /**
+         * The signature is valid
+         */
+        PASS,
+        /**
+         * The signature or the body hash doesn't match, or the signature expired
+         */
+        FAIL,
+        /**
+         * The signature or the key record is malformed, unsupported, missing or revoked
+         */
+        PERMERROR,
+        /**
+         * The key couldn't be looked up, verifying later may succeed
+         */
+        TEMPERROR
+    }
+
+    static DkimVerificationResult pass(String domain, String selector) {
+        return new DkimVerificationResult(Status.PASS, domain, selector, null);
+    }
+
+    public boolean isPass() {
+        return status == Status.PASS;
+    }
+}
@@ -0,0 +1,343 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.validation.constraints.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Verifies the DKIM signatures of a message as described in RFC 6376 section 6: the DKIM-Signature headers are parsed
+ * into {@link DkimSignature}s, the body hash is checked against {@code bh=} and the signed headers against {@code b=}
+ * with the public key of the selector. Keys come from a {@link PublicKeyCache}, so verifying a stream of messages from
+ * the same senders doesn't repeat lookups. The verifier is thread-safe.
+ * <p>
+ * Messages are verified in wire format, so simple canonicalization sees the header lines exactly as transmitted.
+ * The body is canonicalized and hashed once per canonicalization and body length tag, however many signatures share it.
+ */
+public class DkimVerifier {
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final List<HeaderTag> REQUIRED_TAGS = List.of(HeaderTag.VERSION, HeaderTag.ALGORITHM,
+            HeaderTag.SIGNATURE, HeaderTag.BODY_HASH, HeaderTag.DOMAIN, HeaderTag.HEADERS, HeaderTag.SELECTOR);
+    private static final String LENGTH_TAG = "l";
+    private static final String EXPIRATION_TAG = "x";
+
+    private final PublicKeyCache keys;
+    private final Clock clock;
+
+    /**
+     * Create a verifier caching the keys of a resolver with the default TTLs of {@link PublicKeyCache}
+     * @param resolver - the resolver to look keys up with
+     */
+    public DkimVerifier(@NotNull PublicKeyResolver resolver) {
+        this(new PublicKeyCache(resolver));
+    }
+
+    /**
+     * Create a verifier
+     * @param keys - the key cache, may be shared by several verifiers
+     */
+    public DkimVerifier(@NotNull PublicKeyCache keys) {
+        this(keys, Clock.systemUTC());
+    }
+
+    DkimVerifier(PublicKeyCache keys, Clock clock) {
+        this.keys = keys;
+        this.clock = clock;
+    }
+
+    /**
+     * Verify the signatures of a MIME message. The message is written out in wire format first, verify the message
+     * bytes as received with {@link #verify(ByteBuffer)} when they are at hand.
+     * @param message - the message
+     * @return the result of every DKIM-Signature header top to bottom, empty when the message isn't signed
+     * @throws DkimSigningException when failed to write the message or the header block is malformed
+     */
+    public List<DkimVerificationResult> verify(@NotNull MimeMessage message) throws DkimSigningException {
+        var out = new ByteArrayOutputStream();
+        try {
+            message.writeTo(out);
+        } catch (IOException | MessagingException e) {
+            throw new DkimSigningException("Failed to read message.", e);
+        }
+        return verify(out.toByteArray());
+    }
+
+    /**
+     * Verify the signatures of a message in RFC 5322 wire format, see {@link #verify(ByteBuffer)}
+     * @param message - the message bytes, header block and body separated by an empty line
+     * @return the result of every DKIM-Signature header top to bottom, empty when the message isn't signed
+     * @throws DkimSigningException when the header block is malformed
+     */
+    public List<DkimVerificationResult> verify(@NotNull byte[] message) throws DkimSigningException {
+        return verify(ByteBuffer.wrap(message));
+    }
+
+    /**
+     * Verify the signatures of a message in RFC 5322 wire format between the position and the limit of the buffer.
+     * The position of the buffer is not changed.
+     * @param message - the message bytes, header block and body separated by an empty line
+     * @return the result of every DKIM-Signature header top to bottom, empty when the message isn't signed
+     * @throws DkimSigningException when the header block is malformed
+     */
+    public List<DkimVerificationResult> verify(@NotNull ByteBuffer message) throws DkimSigningException {
+        var buffer = message.duplicate();
+        var headers = RawMessage.parse(buffer);
+        var signatures = headers.get(DkimSignature.DKIM_SIGNATURE_HEADER);
+        var bodyHashes = new HashMap<BodyHashKey, byte[]>();
+        var results = new ArrayList<DkimVerificationResult>(signatures.size());
+        for (var signature : signatures) {
+            results.add(verify(signature, headers, buffer, bodyHashes));
+        }
+        return results;
+    }
+
+    private record BodyHashKey(Canonicalization canonicalization, long length) {
+    }
+
+    private DkimVerificationResult verify(HeaderIndex.Field header, HeaderIndex headers, ByteBuffer body,
+                                          Map<BodyHashKey, byte[]> bodyHashes) {
+        Map<String, String> tags;
+        try {
+            tags = DkimSignature.parseTags(header.value());
+        } catch (DkimSigningException e) {
+            return permError(null, null, e.getMessage());
+        }
+        var signature = DkimSignature.of(tags);
+        var domain = signature.getTagValue(HeaderTag.DOMAIN);
+        var selector = signature.getTagValue(HeaderTag.SELECTOR);
+        for (var tag : REQUIRED_TAGS) {
+            if (signature.getTagValue(tag) == null) {
+                return permError(domain, selector, "Missing tag " + tag.getTagName() + ".");
+            }
+        }
+        domain = domain.toLowerCase(Locale.ROOT);
+
+        if (!"1".equals(signature.getTagValue(HeaderTag.VERSION))) {
+            return permError(domain, selector, "Unsupported version " + signature.getTagValue(HeaderTag.VERSION) + ".");
+        }
+        var algorithm = SigningAlgorithm.fromTagValue(signature.getTagValue(HeaderTag.ALGORITHM));
+        if (algorithm == null) {
+            return permError(domain, selector, "Unsupported algorithm " + signature.getTagValue(HeaderTag.ALGORITHM) + ".");
+        }
+        var canonicalizationTag = signature.getTagValue(HeaderTag.CANONICALIZATION);
+        var canonicalizations = canonicalizationTag == null ? new String[0] : canonicalizationTag.split("/", -1);
+        var headerCanonicalization = canonicalization(canonicalizations, 0);
+        var bodyCanonicalization = canonicalization(canonicalizations, 1);
+        if (headerCanonicalization == null || bodyCanonicalization == null || canonicalizations.length > 2) {
+            return permError(domain, selector, "Unsupported canonicalization " + canonicalizationTag + ".");
+        }
+        var signedHeaders = signature.getTagValue(HeaderTag.HEADERS).split(":");
+        if (Arrays.stream(signedHeaders).noneMatch(name -> name.strip().equalsIgnoreCase("From"))) {
+            return permError(domain, selector, "From header is not signed.");
+        }
+        var identity = signature.getTagValue(HeaderTag.USERNAME);
+        if (identity != null && !inDomain(identity, domain)) {
+            return permError(domain, selector, "Identity " + identity + " is not in domain " + domain + ".");
+        }
+
+        long length;
+        try {
+            length = tags.containsKey(LENGTH_TAG) ? Long.parseLong(tags.get(LENGTH_TAG)) : -1;
+            if (tags.containsKey(EXPIRATION_TAG) && clock.instant().getEpochSecond() > Long.parseLong(tags.get(EXPIRATION_TAG))) {
+                return fail(domain, selector, "Signature expired.");
+            }
+        } catch (NumberFormatException e) {
+            return permError(domain, selector, "Malformed numeric tag.");
+        }
+
+        byte[] expectedBodyHash;
+        byte[] signatureValue;
+        try {
+            expectedBodyHash = Base64.getDecoder().decode(signature.getTagValue(HeaderTag.BODY_HASH));
+            signatureValue = Base64.getDecoder().decode(signature.getTagValue(HeaderTag.SIGNATURE));
+        } catch (IllegalArgumentException e) {
+            return permError(domain, selector, "Malformed base64 value.");
+        }
+
+        byte[] bodyHash;
+        try {
+            bodyHash = bodyHash(body, bodyCanonicalization, length, bodyHashes);
+        } catch (IOException | GeneralSecurityException e) {
+            return permError(domain, selector, "Failed to hash body: " + e.getMessage());
+        }
+        if (bodyHash == null) {
+            return fail(domain, selector, "Body is shorter than the body length tag.");
+        }
+        if (!MessageDigest.isEqual(expectedBodyHash, bodyHash)) {
+            return fail(domain, selector, "Body hash mismatch.");
+        }
+
+        DkimKeyRecord key;
+        try {
+            key = keys.getKey(domain, selector);
+        } catch (IOException e) {
+            return new DkimVerificationResult(DkimVerificationResult.Status.TEMPERROR, domain, selector,
+                    "Key lookup failed: " + e.getMessage());
+        } catch (DkimSigningException e) {
+            return permError(domain, selector, "Invalid key record: " + e.getMessage());
+        }
+        if (key == null) {
+            return permError(domain, selector, "No key record for selector " + selector + " of domain " + domain + ".");
+        }
+        if (key.isRevoked()) {
+            return permError(domain, selector, "Key revoked.");
+        }
+        if (!key.supports(algorithm)) {
+            return permError(domain, selector, "Key type " + key.keyType() + " doesn't match algorithm " + algorithm.getTagValue() + ".");
+        }
+
+        var data = signedData(header, headers, signedHeaders, headerCanonicalization);
+        try {
+            var verifier = Signature.getInstance(algorithm.getSignatureAlgorithm());
+            verifier.initVerify(key.publicKey());
+            if (algorithm.isPrehashed()) {
+                var digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+                digest.update(data.array(), 0, data.size());
+                verifier.update(digest.digest());
+            } else {
+                verifier.update(data.array(), 0, data.size());
+            }
+            return verifier.verify(signatureValue)
+                    ? DkimVerificationResult.pass(domain, selector)
+                    : fail(domain, selector, "Signature mismatch.");
+        } catch (SignatureException e) {
+            return fail(domain, selector, "Signature mismatch.");
+        } catch (GeneralSecurityException e) {
+            return permError(domain, selector, "Failed to verify signature: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuild the signed data: the listed headers picked bottom-up, a name listed more often than the message has
+     * instances signs nothing, followed by the DKIM-Signature header itself with an empty {@code b=} tag.
+     */
+    private static HeaderBuffer signedData(HeaderIndex.Field header, HeaderIndex headers, String[] signedHeaders,
+                                           Canonicalization canonicalization) {
+        var buffer = new HeaderBuffer();
+        var used = new HashMap<String, Integer>();
+        for (var name : signedHeaders) {
+            var key = name.strip().toLowerCase(Locale.ROOT);
+            var fields = headers.get(key);
+            var index = fields.size() - 1 - used.getOrDefault(key, 0);
+            used.merge(key, 1, Integer::sum);
+            if (index >= 0) {
+                buffer.append(fields.get(index).canonicalize(canonicalization)).appendCrlf();
+            }
+        }
+
+        var line = header.line() == null ? null
+                : removeSignatureValue(new String(header.line(), StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+        var unsigned = new HeaderIndex.Field(header.name(), removeSignatureValue(header.value()), line);
+        return buffer.append(unsigned.canonicalize(canonicalization));
+    }
+
+    /**
+     * Empty the value of the {@code b=} tag, the whitespace around it included
+     */
+    static String removeSignatureValue(String tagList) {
+        var start = 0;
+        while (start < tagList.length()) {
+            var end = tagList.indexOf(';', start);
+            end = end < 0 ? tagList.length() : end;
+            var separator = tagList.indexOf('=', start);
+            if (separator >= 0 && separator < end && isTagName(tagList.substring(start, separator).strip(), "b")) {
+                return tagList.substring(0, separator + 1) + tagList.substring(end);
+            }
+            start = end + 1;
+        }
+        return tagList;
+    }
+
+    private static boolean isTagName(String spec, String name) {
+        // the first tag of a header line is preceded by the header name
+        return spec.equals(name) || spec.endsWith(":" + name) || spec.endsWith(" " + name) || spec.endsWith("\t" + name);
+    }
+
+    private static byte[] bodyHash(ByteBuffer body, Canonicalization canonicalization, long length,
+                                   Map<BodyHashKey, byte[]> bodyHashes) throws IOException, GeneralSecurityException {
+        var key = new BodyHashKey(canonicalization, length);
+        if (bodyHashes.containsKey(key)) {
+            return bodyHashes.get(key);
+        }
+
+        var digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        var limited = new LimitedDigestOutputStream(digest, length);
+        var canonicalBody = new CanonicalBodyOutputStream(canonicalization, limited);
+        canonicalBody.write(body.duplicate());
+        canonicalBody.close();
+        var hash = length >= 0 && canonicalBody.getBodyLength() < length ? null : digest.digest();
+        bodyHashes.put(key, hash);
+        return hash;
+    }
+
+    private static Canonicalization canonicalization(String[] types, int index) {
+        if (index >= types.length) {
+            return Canonicalization.SIMPLE;
+        }
+        var type = types[index].strip();
+        for (var canonicalization : Canonicalization.values()) {
+            if (canonicalization.getType().equalsIgnoreCase(type)) {
+                return canonicalization;
+            }
+        }
+        return null;
+    }
+
+    private static boolean inDomain(String identity, String domain) {
+        var identityDomain = identity.substring(identity.lastIndexOf('@') + 1).strip().toLowerCase(Locale.ROOT);
+        return identityDomain.equals(domain) || identityDomain.endsWith("." + domain);
+    }
+
+    private static DkimVerificationResult fail(String domain, String selector, String reason) {
+        return new DkimVerificationResult(DkimVerificationResult.Status.FAIL, domain, selector, reason);
+    }
+
+    private static DkimVerificationResult permError(String domain, String selector, String reason) {
+        return new DkimVerificationResult(DkimVerificationResult.Status.PERMERROR, domain, selector, reason);
+    }
+
+    /**
+     * Feeds at most {@code limit} bytes into a digest, all bytes when the limit is negative
+     */
+    private static final class LimitedDigestOutputStream extends OutputStream {
+        private final MessageDigest digest;
+        private long remaining;
+
+        LimitedDigestOutputStream(MessageDigest digest, long limit) {
+            this.digest = digest;
+            this.remaining = limit < 0 ? Long.MAX_VALUE : limit;
+        }
+
+        @Override
+        public void write(int b) {
+            if (remaining > 0) {
+                digest.update((byte) b);
+                remaining--;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            var count = (int) Math.min(len, remaining);
+            digest.update(b, off, count);
+            remaining -= count;
+        }
+    }
+}
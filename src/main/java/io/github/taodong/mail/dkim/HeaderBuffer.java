@@ -0,0 +1,74 @@
+package io.github.taodong.mail.dkim;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer collecting the canonical header data of one signature before it is fed into the signer.
+ * Buffers are pooled by the signer and reused across messages, so building the signed data doesn't allocate once the
+ * buffer has grown to the usual header size. Not thread-safe.
+ */
+final class HeaderBuffer {
+    private static final int INITIAL_CAPACITY = 4096;
+    // larger buffers are dropped after use instead of being kept in the pool
+    static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    HeaderBuffer reset() {
+        size = 0;
+        return this;
+    }
+
+    HeaderBuffer append(byte[] b) {
+        ensureCapacity(b.length);
+        System.arraycopy(b, 0, bytes, size, b.length);
+        size += b.length;
+        return this;
+    }
+
+    /**
+     * Append characters as UTF-8, ASCII characters are copied without creating an intermediate array
+     * @param chars - the characters
+     * @param start - index of the first character
+     * @param end - index after the last character
+     * @return this buffer
+     */
+    HeaderBuffer append(CharSequence chars, int start, int end) {
+        ensureCapacity(end - start);
+        for (var i = start; i < end; i++) {
+            var c = chars.charAt(i);
+            if (c >= 0x80) {
+                return append(chars.subSequence(i, end).toString().getBytes(StandardCharsets.UTF_8));
+            }
+            bytes[size++] = (byte) c;
+        }
+        return this;
+    }
+
+    HeaderBuffer appendCrlf() {
+        ensureCapacity(2);
+        bytes[size++] = '\r';
+        bytes[size++] = '\n';
+        return this;
+    }
+
+    byte[] array() {
+        return bytes;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Case-insensitive multimap of the header fields of a message, built in one pass over the headers, so selecting the
+ * signed headers doesn't scan the message once per header name. Canonical header lines are computed once per
+ * canonicalization and shared by all signatures of the message. An index belongs to one signing call and is not
+ * thread-safe.
+ */
+final class HeaderIndex {
+    private final Map<String, List<Field>> fields;
+    private int size;
+
+    HeaderIndex() {
+        this.fields = new HashMap<>();
+    }
+
+    /**
+     * Create an index starting with the fields of another index. The field lists are shared, fields must only be
+     * added under names the other index doesn't have.
+     * @param base - the index to start with
+     */
+    HeaderIndex(HeaderIndex base) {
+        this.fields = new HashMap<>(base.fields);
+        this.size = base.size;
+    }
+
+    /**
+     * A header field of the message
+     */
+    static final class Field {
+        private final String name;
+        private final String value;
+        private final byte[] line;
+        private final byte[][] canonicalLines = new byte[Canonicalization.values().length][];
+
+        /**
+         * @param name - the header name as it appears in the message
+         * @param value - the header value, folding included
+         * @param line - the header line as transmitted without the trailing line break, null when not known
+         */
+        Field(String name, String value, byte[] line) {
+            this.name = name;
+            this.value = value;
+            this.line = line;
+        }
+
+        String name() {
+            return name;
+        }
+
+        String value() {
+            return value;
+        }
+
+        byte[] line() {
+            return line;
+        }
+
+        /**
+         * Canonicalize the header line. When the line as transmitted is known, it is canonicalized rather than the
+         * decoded name and value, so bytes which are not valid UTF-8 are signed as they are.
+         * @param canonicalization - header canonicalization method
+         * @return the canonical header line without trailing CRLF, UTF-8 encoded when the line is not known
+         */
+        byte[] canonicalize(Canonicalization canonicalization) {
+            var canonical = canonicalLines[canonicalization.ordinal()];
+            if (canonical == null) {
+                if (line == null) {
+                    canonical = canonicalization.canonicalizeHeader(name.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+                } else if (canonicalization == Canonicalization.SIMPLE) {
+                    canonical = line;
+                } else {
+                    var colon = indexOf(line, (byte) ':');
+                    canonical = canonicalization.canonicalizeHeader(Arrays.copyOf(line, colon),
+                            Arrays.copyOfRange(line, colon + 1, line.length));
+                }
+                canonicalLines[canonicalization.ordinal()] = canonical;
+            }
+            return canonical;
+        }
+
+        private static int indexOf(byte[] bytes, byte b) {
+            for (var i = 0; i < bytes.length; i++) {
+                if (bytes[i] == b) {
+                    return i;
+                }
+            }
+            return bytes.length;
+        }
+    }
+
+    /**
+     * Index all headers of a MIME message
+     * @param message - the message
+     * @return the header index
+     * @throws MessagingException when failed to read the headers
+     */
+    static HeaderIndex of(MimeMessage message) throws MessagingException {
+        var index = new HeaderIndex();
+        var headers = message.getAllHeaders();
+        while (headers.hasMoreElements()) {
+            var header = headers.nextElement();
+            index.add(new Field(header.getName(), header.getValue(), null));
+        }
+        return index;
+    }
+
+    void add(Field field) {
+        fields.computeIfAbsent(field.name.toLowerCase(Locale.ROOT), k -> new ArrayList<>(1)).add(field);
+        size++;
+    }
+
+    /**
+     * @return the number of header fields in the message
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get all fields of a header
+     * @param name - the header name, case-insensitive
+     * @return the fields in message order, top to bottom, empty when the header is missing
+     */
+    List<Field> get(String name) {
+        return fields.getOrDefault(name.toLowerCase(Locale.ROOT), List.of());
+    }
+}
@@ -0,0 +1,204 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link PublicKeyResolver} serving key records from memory, for tests, offline processing or as a stand-in for DNS.
+ * Records can be added one by one or loaded from a zone file in master file format, e.g.
+ * <pre>
+ * $ORIGIN example.com.
+ * s1._domainkey  300  IN  TXT  ( "v=DKIM1; k=rsa; "
+ *                                "p=MIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIBCgKCAQEA..." )
+ * </pre>
+ * Only TXT records below {@code _domainkey} are read, other records are skipped.
+ */
+public class InMemoryPublicKeyResolver implements PublicKeyResolver {
+    private static final String DOMAIN_KEY_LABEL = "._domainkey.";
+
+    private final Map<String, String> records = new ConcurrentHashMap<>();
+
+    @Override
+    public String lookup(String domain, String selector) {
+        return records.get(recordName(domain, selector));
+    }
+
+    /**
+     * Add or replace a key record
+     * @param domain - the signing domain
+     * @param selector - the selector
+     * @param record - the text of the record
+     */
+    public void put(@NotBlank String domain, @NotBlank String selector, @NotNull String record) {
+        records.put(recordName(domain, selector), record);
+    }
+
+    /**
+     * Remove a key record
+     * @param domain - the signing domain
+     * @param selector - the selector
+     */
+    public void remove(@NotBlank String domain, @NotBlank String selector) {
+        records.remove(recordName(domain, selector));
+    }
+
+    /**
+     * @return the number of key records
+     */
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Load the DKIM key records of a zone file. {@code $ORIGIN}, relative names, {@code @}, comments and records
+     * spanning lines in parentheses are supported.
+     * @param zoneFile - the zone file
+     * @return the number of key records loaded
+     * @throws DkimSigningException when failed to read the file or a record is malformed
+     */
+    public int loadZoneFile(@NotNull Path zoneFile) throws DkimSigningException {
+        String content;
+        try {
+            content = Files.readString(zoneFile, StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            throw new DkimSigningException("Failed to read zone file " + zoneFile + ".", e);
+        }
+
+        var origin = "";
+        // an entry starting with whitespace belongs to the owner of the previous entry
+        var owner = "";
+        var loaded = 0;
+        for (var entry : ZoneEntry.split(content)) {
+            var fields = entry.fields();
+            if (fields.isEmpty()) {
+                continue;
+            }
+            if (fields.getFirst().equalsIgnoreCase("$ORIGIN")) {
+                origin = fields.size() > 1 ? fields.get(1) : "";
+                continue;
+            }
+            if (entry.owner()) {
+                owner = absoluteName(fields.getFirst(), origin);
+            }
+            var txt = -1;
+            for (var i = entry.owner() ? 1 : 0; i < fields.size(); i++) {
+                if (fields.get(i).equalsIgnoreCase("TXT") && !entry.quoted().get(i)) {
+                    txt = i;
+                    break;
+                }
+            }
+            if (txt < 0) {
+                continue;
+            }
+
+            var labelIndex = owner.indexOf(DOMAIN_KEY_LABEL);
+            if (labelIndex <= 0) {
+                continue;
+            }
+            var record = new StringBuilder();
+            for (var i = txt + 1; i < fields.size(); i++) {
+                record.append(fields.get(i));
+            }
+            put(owner.substring(labelIndex + DOMAIN_KEY_LABEL.length()), owner.substring(0, labelIndex), record.toString());
+            loaded++;
+        }
+        return loaded;
+    }
+
+    /**
+     * A zone file entry, a line or several lines joined by parentheses
+     * @param fields - the fields, quoted strings without quotes
+     * @param quoted - whether each field was a quoted string
+     * @param owner - whether the entry starts with an owner name rather than whitespace
+     */
+    private record ZoneEntry(List<String> fields, List<Boolean> quoted, boolean owner) {
+
+        static List<ZoneEntry> split(String content) throws DkimSigningException {
+            var entries = new ArrayList<ZoneEntry>();
+            var fields = new ArrayList<String>();
+            var quoted = new ArrayList<Boolean>();
+            var owner = false;
+            var lineStart = true;
+            var depth = 0;
+            var i = 0;
+            while (i < content.length()) {
+                var c = content.charAt(i);
+                if (c == '\n') {
+                    if (depth == 0) {
+                        entries.add(new ZoneEntry(fields, quoted, owner));
+                        fields = new ArrayList<>();
+                        quoted = new ArrayList<>();
+                        lineStart = true;
+                    }
+                    i++;
+                    continue;
+                }
+                if (lineStart && depth == 0) {
+                    owner = !Character.isWhitespace(c);
+                    lineStart = false;
+                }
+                if (c == ';') {
+                    while (i < content.length() && content.charAt(i) != '\n') {
+                        i++;
+                    }
+                } else if (c == '(' || c == ')') {
+                    depth += c == '(' ? 1 : -1;
+                    i++;
+                } else if (c == '"') {
+                    var value = new StringBuilder();
+                    i++;
+                    while (i < content.length() && content.charAt(i) != '"') {
+                        if (content.charAt(i) == '\\' && i + 1 < content.length()) {
+                            i++;
+                        }
+                        value.append(content.charAt(i++));
+                    }
+                    if (i >= content.length()) {
+                        throw new DkimSigningException("Unterminated string in zone file.");
+                    }
+                    i++;
+                    fields.add(value.toString());
+                    quoted.add(true);
+                } else if (Character.isWhitespace(c)) {
+                    i++;
+                } else {
+                    var start = i;
+                    while (i < content.length() && !Character.isWhitespace(content.charAt(i))
+                            && "();\"".indexOf(content.charAt(i)) < 0) {
+                        i++;
+                    }
+                    fields.add(content.substring(start, i));
+                    quoted.add(false);
+                }
+            }
+            if (depth != 0) {
+                throw new DkimSigningException("Unbalanced parentheses in zone file.");
+            }
+            entries.add(new ZoneEntry(fields, quoted, owner));
+            return entries;
+        }
+    }
+
+    private static String absoluteName(String name, String origin) {
+        var absolute = name.equals("@") ? origin : name;
+        if (!absolute.endsWith(".")) {
+            absolute = origin.isEmpty() ? absolute : absolute + "." + origin;
+        }
+        absolute = absolute.endsWith(".") ? absolute.substring(0, absolute.length() - 1) : absolute;
+        return absolute.toLowerCase(Locale.ROOT);
+    }
+
+    private static String recordName(String domain, String selector) {
+        return selector.strip().toLowerCase(Locale.ROOT) + DOMAIN_KEY_LABEL + domain.strip().toLowerCase(Locale.ROOT);
+    }
+}
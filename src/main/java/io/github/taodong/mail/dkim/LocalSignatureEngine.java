@@ -0,0 +1,101 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.validation.constraints.NotNull;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.EdECPrivateKey;
+
+/**
+ * The default {@link SignatureEngine}, signing with a private key in process. {@link Signature} instances are
+ * initialized once and pooled. An RSA hash is signed with {@code NONEwithRSA} over the DER encoded DigestInfo of the
+ * hash, which gives the same signature as {@code SHA256withRSA} over the data.
+ */
+public class LocalSignatureEngine implements SignatureEngine {
+    private static final int MAX_IDLE_SIGNATURES = Runtime.getRuntime().availableProcessors() * 2;
+    private static final int SHA256_LENGTH = 32;
+    // DER encoding of the DigestInfo of SHA-256 before the hash, RFC 8017 section 9.2
+    private static final byte[] SHA256_DIGEST_INFO_PREFIX = {
+            0x30, 0x31, 0x30, 0x0d, 0x06, 0x09, 0x60, (byte) 0x86, 0x48, 0x01, 0x65, 0x03, 0x04, 0x02, 0x01, 0x05, 0x00, 0x04, 0x20
+    };
+
+    private final SigningAlgorithm algorithm;
+    private final ObjectPool<Signature> signatures;
+
+    /**
+     * Create an engine with the algorithm of the key, {@link SigningAlgorithm#ED25519_SHA256} for an Ed25519 key and
+     * {@link SigningAlgorithm#RSA_SHA256} for others
+     * @param privateKey - the private key
+     * @throws DkimSigningException when the key can't be used for signing
+     */
+    public LocalSignatureEngine(@NotNull PrivateKey privateKey) throws DkimSigningException {
+        this(privateKey, privateKey instanceof EdECPrivateKey ? SigningAlgorithm.ED25519_SHA256 : SigningAlgorithm.RSA_SHA256);
+    }
+
+    /**
+     * Create an engine
+     * @param privateKey - the private key
+     * @param algorithm - the signing algorithm
+     * @throws DkimSigningException when the key can't be used for signing
+     */
+    public LocalSignatureEngine(@NotNull PrivateKey privateKey, @NotNull SigningAlgorithm algorithm) throws DkimSigningException {
+        this.algorithm = algorithm;
+        var signatureAlgorithm = algorithm == SigningAlgorithm.RSA_SHA256 ? "NONEwithRSA" : algorithm.getSignatureAlgorithm();
+        this.signatures = new ObjectPool<>(() -> {
+            var signature = Signature.getInstance(signatureAlgorithm);
+            signature.initSign(privateKey);
+            return signature;
+        }, MAX_IDLE_SIGNATURES);
+
+        // fail fast on a bad key and keep the initialized signature for the first message
+        try {
+            signatures.release(signatures.borrow());
+        } catch (GeneralSecurityException e) {
+            throw new DkimSigningException("Failed to create signature.", e);
+        }
+    }
+
+    @Override
+    public SigningAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Initialize and pool a signature per concurrent signer and sign once, which loads the provider's key operations
+     * @param concurrency - number of signatures expected to run at the same time
+     * @throws DkimSigningException when failed to create a signature
+     */
+    @Override
+    public void warmUp(int concurrency) throws DkimSigningException {
+        try {
+            signatures.fill(concurrency);
+        } catch (GeneralSecurityException e) {
+            throw new DkimSigningException("Failed to create signature.", e);
+        }
+        sign(new byte[SHA256_LENGTH]);
+    }
+
+    /**
+     * {@inheritDoc} A digest of another length is rejected, NONEwithRSA and Ed25519 would sign any bytes.
+     */
+    @Override
+    public byte[] sign(byte[] digest) throws DkimSigningException {
+        if (digest.length != SHA256_LENGTH) {
+            throw new DkimSigningException("The digest must be a SHA-256 hash of " + SHA256_LENGTH + " bytes.");
+        }
+        try {
+            var signer = signatures.borrow();
+            if (algorithm == SigningAlgorithm.RSA_SHA256) {
+                signer.update(SHA256_DIGEST_INFO_PREFIX);
+            }
+            signer.update(digest);
+            var signed = signer.sign();
+            signatures.release(signer);
+            return signed;
+        } catch (GeneralSecurityException e) {
+            // a signature in failed state is dropped rather than returned into the pool
+            throw new DkimSigningException("Failed to create signature.", e);
+        }
+    }
+}
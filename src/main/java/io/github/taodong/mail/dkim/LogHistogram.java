@@ -0,0 +1,135 @@
+package io.github.taodong.mail.dkim;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative long values with logarithmic buckets: every power of two is split into
+ * {@value #SUB_BUCKETS} linear sub-buckets, so a reported percentile is within 12.5% of the recorded value. Values from
+ * 0 to 2^41 are covered, larger values are counted in the last bucket.
+ * <p>
+ * Recording is a single atomic increment. Counts are striped by thread into separate arrays, allocated when a stripe
+ * is first used, so threads recording concurrently rarely write to the same cache line. Reading sums the stripes and
+ * is only consistent with concurrent writes up to the values recorded meanwhile.
+ */
+final class LogHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final int STRIPES = Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Record a value, negative values are recorded as 0
+     * @param value - the value
+     */
+    void record(long value) {
+        var v = Math.max(0, value);
+        stripe().getAndIncrement(bucketOf(v));
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    long count() {
+        var count = 0L;
+        for (var bucket : snapshot()) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    long sum() {
+        return sum.sum();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Estimate a percentile
+     * @param quantile - the quantile between 0 and 1, e.g. 0.99 for p99
+     * @return the middle of the bucket holding the percentile, never more than the maximum recorded, 0 when empty
+     */
+    long percentile(double quantile) {
+        var buckets = snapshot();
+        var count = 0L;
+        for (var bucket : buckets) {
+            count += bucket;
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        var rank = Math.max(1, (long) Math.ceil(quantile * count));
+        var seen = 0L;
+        for (var i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(lowerBound(i) + (bucketWidth(i) >> 1), max());
+            }
+        }
+        return max();
+    }
+
+    /**
+     * @return the counts per bucket summed over all stripes
+     */
+    long[] snapshot() {
+        var buckets = new long[BUCKETS];
+        for (var s = 0; s < STRIPES; s++) {
+            var stripe = stripes.get(s);
+            if (stripe != null) {
+                for (var i = 0; i < BUCKETS; i++) {
+                    buckets[i] += stripe.get(i);
+                }
+            }
+        }
+        return buckets;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        var exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        var subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        var shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    private static long bucketWidth(int bucket) {
+        return bucket < SUB_BUCKETS ? 1 : 1L << (bucket / SUB_BUCKETS - 1);
+    }
+
+    private AtomicLongArray stripe() {
+        // spread sequential thread ids, virtual threads included, over the stripes
+        var id = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+        var index = (int) (id >>> 32) & (STRIPES - 1);
+        var stripe = stripes.get(index);
+        if (stripe == null) {
+            stripes.compareAndSet(index, null, new AtomicLongArray(BUCKETS));
+            stripe = stripes.get(index);
+        }
+        return stripe;
+    }
+}
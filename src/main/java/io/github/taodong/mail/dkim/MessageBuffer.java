@@ -0,0 +1,41 @@
+package io.github.taodong.mail.dkim;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A growable buffer a message is serialized into once, so the same bytes are signed and sent. Buffers are pooled by
+ * the signer and reused across messages. Not thread-safe.
+ */
+final class MessageBuffer extends ByteArrayOutputStream {
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+    // larger buffers are dropped after use instead of being kept in the pool
+    static final int MAX_RETAINED_CAPACITY = 4 * 1024 * 1024;
+
+    MessageBuffer() {
+        super(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return a view of the bytes written backed by the buffer array, valid until the buffer is reset
+     */
+    ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    /**
+     * Copy the bytes written after a prefix into a new array
+     * @param prefix - bytes to put in front
+     * @return the prefix followed by the bytes written
+     */
+    byte[] toByteArray(byte[] prefix) {
+        var bytes = new byte[prefix.length + count];
+        System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+        System.arraycopy(buf, 0, bytes, prefix.length, count);
+        return bytes;
+    }
+
+    int capacity() {
+        return buf.length;
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+import org.apache.commons.lang3.StringUtils;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What a milter knows about a message when its headers are complete, passed to a {@link MilterSignerSelector} to
+ * select the signer of the message
+ * @param sender - the envelope sender without angle brackets, empty for a null sender, null when the MTA didn't pass
+ *               the MAIL command
+ * @param clientAddress - the address of the SMTP client, the loopback address for a client on a local socket, null
+ *                      when the MTA didn't pass the connection
+ * @param macros - the macros passed by the MTA so far, names without braces, e.g. {@code auth_authen} or {@code i}
+ * @param headers - the header fields in message order, values as passed by the MTA
+ */
+public record MilterMessage(String sender, InetAddress clientAddress, Map<String, String> macros,
+                            List<Map.Entry<String, String>> headers) {
+
+    /**
+     * Get the first value of a header
+     * @param name - the header name, case-insensitive
+     * @return the value without surrounding whitespace, null when the message has no such header
+     */
+    public String getHeader(String name) {
+        for (var header : headers) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue().strip();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true when the SMTP client authenticated, i.e. the MTA passed a non-blank {@code auth_authen} macro
+     */
+    public boolean isAuthenticated() {
+        return StringUtils.isNotBlank(macros.get("auth_authen"));
+    }
+
+    /**
+     * @return the lower case domain of the first From address, null when missing or not parsable
+     */
+    public String getFromDomain() {
+        return addressDomain(getHeader(StandardMessageHeader.FROM.getKey()));
+    }
+
+    /**
+     * @return the lower case domain of the Sender address, null when missing or not parsable
+     */
+    public String getSenderDomain() {
+        return addressDomain(getHeader(StandardMessageHeader.SENDER.getKey()));
+    }
+
+    /**
+     * Get the domain of the first address of an address header
+     * @param value - the header value
+     * @return the lower case domain, null when missing or not parsable
+     */
+    static String addressDomain(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            var addresses = InternetAddress.parseHeader(value, false);
+            if (addresses.length == 0 || !StringUtils.contains(addresses[0].getAddress(), '@')) {
+                return null;
+            }
+            return StringUtils.substringAfterLast(addresses[0].getAddress(), "@").toLowerCase(Locale.ROOT);
+        } catch (AddressException e) {
+            return null;
+        }
+    }
+}
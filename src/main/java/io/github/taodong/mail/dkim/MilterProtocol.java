@@ -0,0 +1,174 @@
+package io.github.taodong.mail.dkim;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Sendmail milter protocol version 6 as spoken by Sendmail and Postfix. Every packet is a 4 byte big-endian
+ * length, a command byte and the data, the length counting the command byte and the data. Strings in the data are
+ * terminated by a NUL byte.
+ */
+final class MilterProtocol {
+    static final int VERSION = 6;
+
+    // commands from the MTA
+    static final byte SMFIC_ABORT = 'A';
+    static final byte SMFIC_BODY = 'B';
+    static final byte SMFIC_CONNECT = 'C';
+    static final byte SMFIC_MACRO = 'D';
+    static final byte SMFIC_BODYEOB = 'E';
+    static final byte SMFIC_HELO = 'H';
+    static final byte SMFIC_QUIT_NC = 'K';
+    static final byte SMFIC_HEADER = 'L';
+    static final byte SMFIC_MAIL = 'M';
+    static final byte SMFIC_EOH = 'N';
+    static final byte SMFIC_OPTNEG = 'O';
+    static final byte SMFIC_QUIT = 'Q';
+    static final byte SMFIC_RCPT = 'R';
+    static final byte SMFIC_DATA = 'T';
+    static final byte SMFIC_UNKNOWN = 'U';
+
+    // replies to the MTA
+    static final byte SMFIR_CONTINUE = 'c';
+    static final byte SMFIR_ADDHEADER = 'h';
+    static final byte SMFIR_TEMPFAIL = 't';
+
+    // actions the milter may take
+    static final int SMFIF_ADDHDRS = 0x01;
+
+    // steps the milter doesn't need
+    static final int SMFIP_NOCONNECT = 0x01;
+    static final int SMFIP_NOHELO = 0x02;
+    static final int SMFIP_NORCPT = 0x08;
+    static final int SMFIP_NOUNKNOWN = 0x100;
+    static final int SMFIP_NODATA = 0x200;
+    // header values are passed with the whitespace after the colon
+    static final int SMFIP_HDR_LEADSPC = 0x100000;
+
+    // a body chunk is at most 64 KB, headers are far smaller
+    static final int MAX_PACKET_SIZE = 1024 * 1024;
+
+    private MilterProtocol() {
+    }
+
+    /**
+     * A packet of the protocol
+     * @param command - the command or reply code
+     * @param data - the data, positioned at its start
+     */
+    record Packet(byte command, ByteBuffer data) {
+    }
+
+    /**
+     * Read packets from a channel into a reusable buffer, which grows to the largest packet. Not thread-safe.
+     */
+    static final class Reader {
+        private static final int INITIAL_CAPACITY = 8 * 1024;
+
+        private final ReadableByteChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + 1);
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+        Reader(ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Read the next packet
+         * @return the packet, its data valid until the next read, null when the channel is at its end before a packet
+         * @throws IOException when failed to read or the packet is not valid
+         */
+        Packet read() throws IOException {
+            if (!readFully(channel, header.clear(), true)) {
+                return null;
+            }
+            header.flip();
+            var length = header.getInt();
+            if (length < 1 || length > MAX_PACKET_SIZE) {
+                throw new IOException("Invalid milter packet length " + length + ".");
+            }
+            var command = header.get();
+            if (buffer.capacity() < length - 1) {
+                buffer = ByteBuffer.allocate(Math.max(length - 1, buffer.capacity() * 2));
+            }
+            var data = buffer.clear().limit(length - 1);
+            readFully(channel, data, false);
+            return new Packet(command, data.flip());
+        }
+    }
+
+    /**
+     * Write a packet
+     * @param channel - the channel
+     * @param command - the command or reply code
+     * @param data - the data, NUL terminated strings or raw bytes
+     * @throws IOException when failed to write
+     */
+    static void writePacket(WritableByteChannel channel, byte command, byte[]... data) throws IOException {
+        var length = 1;
+        for (var bytes : data) {
+            length += bytes.length;
+        }
+        var packet = ByteBuffer.allocate(Integer.BYTES + length).putInt(length).put(command);
+        for (var bytes : data) {
+            packet.put(bytes);
+        }
+        packet.flip();
+        while (packet.hasRemaining()) {
+            channel.write(packet);
+        }
+    }
+
+    /**
+     * Split data into its NUL terminated strings
+     * @param data - the data
+     * @return the strings without the NUL bytes
+     */
+    static List<byte[]> strings(ByteBuffer data) {
+        var strings = new ArrayList<byte[]>();
+        var start = data.position();
+        for (var i = start; i < data.limit(); i++) {
+            if (data.get(i) == 0) {
+                var bytes = new byte[i - start];
+                data.get(start, bytes);
+                strings.add(bytes);
+                start = i + 1;
+            }
+        }
+        if (start < data.limit()) {
+            // tolerate a missing terminator on the last string
+            var bytes = new byte[data.limit() - start];
+            data.get(start, bytes);
+            strings.add(bytes);
+        }
+        return strings;
+    }
+
+    /**
+     * Terminate a string with a NUL byte
+     * @param bytes - the string
+     * @return the terminated string
+     */
+    static byte[] terminated(byte[] bytes) {
+        var terminated = new byte[bytes.length + 1];
+        System.arraycopy(bytes, 0, terminated, 0, bytes.length);
+        return terminated;
+    }
+
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer, boolean endAllowed) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (endAllowed && buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Connection closed in the middle of a milter packet.");
+            }
+        }
+        return true;
+    }
+}
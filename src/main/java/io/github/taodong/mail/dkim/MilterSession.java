@@ -0,0 +1,314 @@
+package io.github.taodong.mail.dkim;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_ABORT;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_BODY;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_BODYEOB;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_CONNECT;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_DATA;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_EOH;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_HEADER;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_HELO;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_MACRO;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_MAIL;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_OPTNEG;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_QUIT;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_QUIT_NC;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_RCPT;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_UNKNOWN;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIF_ADDHDRS;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIP_HDR_LEADSPC;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIP_NODATA;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIP_NOHELO;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIP_NORCPT;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIP_NOUNKNOWN;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIR_ADDHEADER;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIR_CONTINUE;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIR_TEMPFAIL;
+import static io.github.taodong.mail.dkim.MilterProtocol.VERSION;
+import static io.github.taodong.mail.dkim.MilterProtocol.strings;
+import static io.github.taodong.mail.dkim.MilterProtocol.terminated;
+import static io.github.taodong.mail.dkim.MilterProtocol.writePacket;
+
+/**
+ * One milter connection of an MTA, running on its own virtual thread. The headers of a message are collected as they
+ * arrive, the signer is selected at the end of the headers and body chunks are hashed as they arrive, so the message
+ * is never buffered. At the end of the message the DKIM-Signature header is returned with the add-header action.
+ * Several messages may pass through one connection one after the other.
+ */
+final class MilterSession {
+    // the steps the milter skips when the MTA offers to, the connection is needed to tell internal clients
+    private static final int SKIPPED_STEPS = SMFIP_NOHELO | SMFIP_NORCPT | SMFIP_NOUNKNOWN | SMFIP_NODATA;
+    private static final Pattern IPV4_LITERAL = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+    private static final Pattern IPV6_LITERAL = Pattern.compile("[0-9A-Fa-f.:]*:[0-9A-Fa-f.:]*");
+    private static final byte[] SIGNATURE_HEADER = terminated(DkimSignature.DKIM_SIGNATURE_HEADER.getBytes(StandardCharsets.UTF_8));
+
+    private final ByteChannel channel;
+    private final MilterSignerSelector selector;
+    private final Map<String, String> macros = new HashMap<>();
+    private boolean leadingSpace;
+    private boolean canAddHeaders = true;
+    private InetAddress clientAddress;
+
+    // the message in progress
+    private String sender;
+    private List<Map.Entry<String, String>> headers = new ArrayList<>();
+    private HeaderIndex headerIndex = new HeaderIndex();
+    private boolean selected;
+    private DkimSigner signer;
+    private DkimSigner.BodyHasher body;
+    private DkimSigningException failure;
+
+    MilterSession(ByteChannel channel, MilterSignerSelector selector) {
+        this.channel = channel;
+        this.selector = selector;
+    }
+
+    /**
+     * Serve the connection until the MTA quits or the connection fails
+     * @throws IOException when failed to read or write, or the MTA broke the protocol
+     */
+    void run() throws IOException {
+        var reader = new MilterProtocol.Reader(channel);
+        try {
+            for (var packet = reader.read(); packet != null; packet = reader.read()) {
+                var data = packet.data();
+                switch (packet.command()) {
+                    case SMFIC_OPTNEG -> negotiate(data);
+                    case SMFIC_MACRO -> macros(data);
+                    case SMFIC_CONNECT -> {
+                        connect(data);
+                        reply(SMFIR_CONTINUE);
+                    }
+                    case SMFIC_MAIL -> {
+                        var arguments = strings(data);
+                        sender = arguments.isEmpty() ? "" : StringUtils.strip(string(arguments.get(0)), "<>");
+                        reply(SMFIR_CONTINUE);
+                    }
+                    case SMFIC_HEADER -> {
+                        header(data);
+                        reply(SMFIR_CONTINUE);
+                    }
+                    case SMFIC_EOH -> {
+                        select();
+                        reply(SMFIR_CONTINUE);
+                    }
+                    case SMFIC_BODY -> {
+                        body(data);
+                        reply(SMFIR_CONTINUE);
+                    }
+                    case SMFIC_BODYEOB -> endOfMessage(data);
+                    case SMFIC_ABORT -> reset();
+                    case SMFIC_QUIT_NC -> {
+                        // the connection is reused for a new SMTP session
+                        reset();
+                        macros.clear();
+                        clientAddress = null;
+                    }
+                    case SMFIC_QUIT -> {
+                        return;
+                    }
+                    case SMFIC_HELO, SMFIC_RCPT, SMFIC_DATA, SMFIC_UNKNOWN -> reply(SMFIR_CONTINUE);
+                    default -> throw new IOException("Unknown milter command " + (char) packet.command() + ".");
+                }
+            }
+        } finally {
+            reset();
+        }
+    }
+
+    private void negotiate(ByteBuffer data) throws IOException {
+        if (data.remaining() < 3 * Integer.BYTES) {
+            throw new IOException("Malformed milter option negotiation.");
+        }
+        var version = data.getInt();
+        var actions = data.getInt();
+        var protocol = data.getInt();
+        if (version < 2) {
+            throw new IOException("Unsupported milter protocol version " + version + ".");
+        }
+        canAddHeaders = (actions & SMFIF_ADDHDRS) != 0;
+        leadingSpace = (protocol & SMFIP_HDR_LEADSPC) != 0;
+        var reply = ByteBuffer.allocate(3 * Integer.BYTES)
+                .putInt(Math.min(version, VERSION))
+                .putInt(actions & SMFIF_ADDHDRS)
+                .putInt(protocol & (SKIPPED_STEPS | SMFIP_HDR_LEADSPC));
+        writePacket(channel, SMFIC_OPTNEG, reply.array());
+    }
+
+    private void macros(ByteBuffer data) {
+        if (!data.hasRemaining()) {
+            return;
+        }
+        // the command the macros belong to comes first
+        data.get();
+        var strings = strings(data);
+        for (var i = 0; i + 1 < strings.size(); i += 2) {
+            macros.put(StringUtils.strip(string(strings.get(i)), "{}"), string(strings.get(i + 1)));
+        }
+    }
+
+    /**
+     * The connection data is the client host name, the protocol family, the port and the client address
+     */
+    private void connect(ByteBuffer data) {
+        clientAddress = null;
+        while (data.hasRemaining() && data.get() != 0) {
+            // the host name, looked up by the MTA and not trusted
+        }
+        if (data.remaining() < 1 + Short.BYTES) {
+            // family 'U', the MTA doesn't know the client
+            return;
+        }
+        var family = data.get();
+        data.getShort();
+        var strings = strings(data);
+        var address = strings.isEmpty() ? "" : StringUtils.removeStartIgnoreCase(string(strings.get(0)), "IPv6:");
+        if (family == 'L') {
+            clientAddress = InetAddress.getLoopbackAddress();
+        } else if (family == '4' && IPV4_LITERAL.matcher(address).matches()
+                || family == '6' && IPV6_LITERAL.matcher(address).matches()) {
+            try {
+                // a literal is parsed without a name lookup
+                clientAddress = InetAddress.getByName(address);
+            } catch (UnknownHostException e) {
+                // an unparsable address is treated as unknown
+            }
+        }
+    }
+
+    private void header(ByteBuffer data) throws IOException {
+        var strings = strings(data);
+        if (strings.isEmpty()) {
+            throw new IOException("Malformed milter header.");
+        }
+        var name = strings.get(0);
+        var value = crlf(strings.size() > 1 ? strings.get(1) : new byte[0]);
+        if (!leadingSpace && value.length > 0) {
+            // the MTA stripped the space after the colon, the usual single space is restored
+            var spaced = new byte[value.length + 1];
+            spaced[0] = ' ';
+            System.arraycopy(value, 0, spaced, 1, value.length);
+            value = spaced;
+        }
+
+        // the header line as the MTA transmits it, for simple canonicalization
+        var line = new byte[name.length + 1 + value.length];
+        System.arraycopy(name, 0, line, 0, name.length);
+        line[name.length] = ':';
+        System.arraycopy(value, 0, line, name.length + 1, value.length);
+        var field = new HeaderIndex.Field(string(name), string(value), line);
+        headerIndex.add(field);
+        headers.add(new AbstractMap.SimpleImmutableEntry<>(field.name(), field.value()));
+    }
+
+    private void select() {
+        if (selected) {
+            return;
+        }
+        selected = true;
+        if (!canAddHeaders) {
+            return;
+        }
+        try {
+            signer = selector.select(new MilterMessage(sender, clientAddress, Map.copyOf(macros), List.copyOf(headers)));
+            if (signer != null) {
+                body = signer.startBodyHash();
+            }
+        } catch (DkimSigningException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new DkimSigningException("Failed to select the signer.", e);
+        }
+    }
+
+    private void body(ByteBuffer data) {
+        select();
+        if (body == null || failure != null) {
+            return;
+        }
+        try {
+            body.update(data);
+        } catch (DkimSigningException e) {
+            failure = e;
+        }
+    }
+
+    private void endOfMessage(ByteBuffer data) throws IOException {
+        body(data);
+        try {
+            if (failure != null) {
+                // the message was meant to be signed, it is retried later rather than sent unsigned
+                reply(SMFIR_TEMPFAIL);
+            } else if (signer != null) {
+                var value = signer.sign(headerIndex, body.finish());
+                writePacket(channel, SMFIR_ADDHEADER, SIGNATURE_HEADER,
+                        terminated(((leadingSpace ? " " : "") + value).getBytes(StandardCharsets.UTF_8)));
+                reply(SMFIR_CONTINUE);
+            } else {
+                reply(SMFIR_CONTINUE);
+            }
+        } catch (DkimSigningException e) {
+            reply(SMFIR_TEMPFAIL);
+        } finally {
+            reset();
+        }
+    }
+
+    private void reset() {
+        if (body != null) {
+            body.close();
+        }
+        sender = null;
+        headers = new ArrayList<>();
+        headerIndex = new HeaderIndex();
+        selected = false;
+        signer = null;
+        body = null;
+        failure = null;
+    }
+
+    private void reply(byte code) throws IOException {
+        writePacket(channel, code);
+    }
+
+    /**
+     * Header values of a folded header are passed with bare LF line breaks
+     */
+    private static byte[] crlf(byte[] value) {
+        var bareLf = false;
+        for (var i = 0; i < value.length && !bareLf; i++) {
+            bareLf = value[i] == '\n' && (i == 0 || value[i - 1] != '\r');
+        }
+        if (!bareLf) {
+            return value;
+        }
+        var out = new ByteArrayOutputStream(value.length + 8);
+        for (var i = 0; i < value.length; i++) {
+            if (value[i] == '\n' && (i == 0 || value[i - 1] != '\r')) {
+                out.write('\r');
+            }
+            out.write(value[i]);
+        }
+        return out.toByteArray();
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
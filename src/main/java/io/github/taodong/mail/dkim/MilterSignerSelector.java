@@ -0,0 +1,17 @@
+package io.github.taodong.mail.dkim;
+
+/**
+ * Select the signer of a message passing through a {@link DkimMilterServer}, called once per message when its headers
+ * are complete. Implementations must be thread-safe, sessions call the selector concurrently.
+ */
+@FunctionalInterface
+public interface MilterSignerSelector {
+
+    /**
+     * Select the signer of a message
+     * @param message - the envelope sender, the macros and the headers of the message
+     * @return the signer, null to pass the message on unsigned
+     * @throws DkimSigningException when the signer can't be selected, the message is rejected temporarily
+     */
+    DkimSigner select(MilterMessage message) throws DkimSigningException;
+}
@@ -0,0 +1,70 @@
+package io.github.taodong.mail.dkim;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free pool for objects which are expensive to create but not thread-safe, such as {@link java.security.Signature}
+ * and {@link java.security.MessageDigest}. The pool doesn't bind objects to threads, so it works the same way for
+ * platform threads and virtual threads. It grows on demand and keeps at most {@code maxIdle} objects for reuse.
+ * @param <T> - type of pooled objects
+ */
+class ObjectPool<T> {
+
+    @FunctionalInterface
+    interface Factory<T> {
+        T create() throws GeneralSecurityException;
+    }
+
+    private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final Factory<T> factory;
+    private final int maxIdle;
+
+    ObjectPool(Factory<T> factory, int maxIdle) {
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Take an idle object from the pool or create a new one when the pool is empty
+     * @return the object, must be released after use
+     * @throws GeneralSecurityException when failed to create the object
+     */
+    T borrow() throws GeneralSecurityException {
+        var object = idle.poll();
+        if (object != null) {
+            idleCount.decrementAndGet();
+            return object;
+        }
+        return factory.create();
+    }
+
+    /**
+     * Create objects up front until the pool has {@code count} idle objects, at most {@code maxIdle}, so that the first
+     * borrowers don't pay for creating them
+     * @param count - number of idle objects wanted
+     * @throws GeneralSecurityException when failed to create an object
+     */
+    void fill(int count) throws GeneralSecurityException {
+        var created = new ArrayList<T>();
+        for (var i = Math.min(count, maxIdle) - idleCount.get(); i > 0; i--) {
+            created.add(factory.create());
+        }
+        created.forEach(this::release);
+    }
+
+    /**
+     * Return an object into the pool. Objects in an unknown state, e.g. after an exception, should not be released.
+     * @param object - the object to return
+     */
+    void release(T object) {
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(object);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+}
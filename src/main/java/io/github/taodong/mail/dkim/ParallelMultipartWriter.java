@@ -0,0 +1,311 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.internet.MimePartDataSource;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write a multipart body with its leaf parts encoded in parallel. The {@link MimeMultipart} tree is walked once and
+ * mirrored with placeholder parts: every leaf part, e.g. a {@link jakarta.activation.FileDataSource} attachment, is
+ * written with its headers and transfer encoding by a task on a fork-join pool into a small bounded queue of chunks,
+ * while the mirrored tree writes the boundaries and drains the queues in wire order. The bytes written are the same
+ * as {@link MimeMultipart#writeTo(OutputStream)}, since the boundaries, the preambles and the headers of nested
+ * multiparts are written by the same code.
+ * <p>
+ * At most as many leaf parts as the pool has parallelism are encoded ahead of the part being written, so memory is
+ * bounded by a few chunks per part in flight. Only multiparts built in memory are supported, a parsed multipart
+ * already holds its encoded bytes.
+ */
+final class ParallelMultipartWriter {
+    static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNKS_PER_PART = 4;
+    private static final byte[] END = new byte[0];
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+    // multipart content is never encoded further, RFC 2045 section 6.4
+    private static final Set<String> IDENTITY_ENCODINGS = Set.of("7bit", "8bit", "binary");
+
+    private final ForkJoinPool pool;
+    private final int window;
+    private final List<LeafPart> leaves = new ArrayList<>();
+    private int started;
+    private volatile boolean cancelled;
+
+    private ParallelMultipartWriter(ForkJoinPool pool) {
+        this.pool = pool;
+        this.window = Math.max(1, pool.getParallelism());
+    }
+
+    /**
+     * Get the multipart content of a message built in memory
+     * @param message - the message
+     * @return the multipart, null when the content is not a multipart or the message was parsed
+     * @throws MessagingException when failed to read the content
+     * @throws IOException when failed to read the content
+     */
+    static MimeMultipart multipartOf(MimeMessage message) throws MessagingException, IOException {
+        return multipartOf(message.getDataHandler());
+    }
+
+    /**
+     * Write a multipart, the same bytes as {@link MimeMultipart#writeTo(OutputStream)}
+     * @param multipart - the multipart
+     * @param out - the output stream
+     * @param pool - the pool encoding the leaf parts
+     * @throws IOException when failed to write or to encode a part
+     * @throws MessagingException when failed to read a part
+     */
+    static void writeTo(MimeMultipart multipart, OutputStream out, ForkJoinPool pool) throws IOException, MessagingException {
+        var writer = new ParallelMultipartWriter(pool);
+        var completed = false;
+        try {
+            var mirror = writer.mirror(multipart);
+            writer.startUpTo(writer.window);
+            mirror.writeTo(out);
+            completed = true;
+        } finally {
+            if (!completed) {
+                // encoding tasks still running drop their output and stop
+                writer.cancelled = true;
+            }
+        }
+    }
+
+    private MimeMultipart mirror(MimeMultipart multipart) throws MessagingException, IOException {
+        var mirror = new MirroredMultipart(multipart);
+        for (var i = 0; i < multipart.getCount(); i++) {
+            mirror.addBodyPart(mirror((MimeBodyPart) multipart.getBodyPart(i)));
+        }
+        return mirror;
+    }
+
+    private MimeBodyPart mirror(MimeBodyPart part) throws MessagingException, IOException {
+        var nested = IDENTITY_ENCODINGS.contains(Objects.toString(part.getEncoding(), "7bit").toLowerCase(Locale.ROOT))
+                ? multipartOf(part.getDataHandler())
+                : null;
+        if (nested == null) {
+            var leaf = new LeafPart(part, leaves.size());
+            leaves.add(leaf);
+            return leaf;
+        }
+
+        var mirror = new MimeBodyPart();
+        // setting the content drops the content headers, the original header lines are copied afterward in order
+        mirror.setContent(mirror(nested));
+        for (var lines = part.getAllHeaderLines(); lines.hasMoreElements(); ) {
+            mirror.addHeaderLine(lines.nextElement());
+        }
+        return mirror;
+    }
+
+    private static MimeMultipart multipartOf(DataHandler dataHandler) throws MessagingException, IOException {
+        // checked before getContent(), which reads the data source of an attachment
+        if (dataHandler.getDataSource() instanceof MimePartDataSource
+                || !StringUtils.startsWithIgnoreCase(dataHandler.getContentType(), "multipart/")) {
+            return null;
+        }
+        return dataHandler.getContent() instanceof MimeMultipart multipart ? multipart : null;
+    }
+
+    /**
+     * Start encoding the leaf parts before an index, called by the writing thread only
+     */
+    private void startUpTo(int end) {
+        for (; started < Math.min(end, leaves.size()); started++) {
+            pool.execute(leaves.get(started)::encode);
+        }
+    }
+
+    /**
+     * A multipart with the content type, boundary included, and the preamble of another multipart
+     */
+    private static final class MirroredMultipart extends MimeMultipart {
+        private MirroredMultipart(MimeMultipart multipart) throws MessagingException {
+            this.contentType = multipart.getContentType();
+            setPreamble(multipart.getPreamble());
+        }
+    }
+
+    /**
+     * A placeholder writing the bytes of a leaf part encoded by a pool task
+     */
+    private final class LeafPart extends MimeBodyPart {
+        private final MimeBodyPart part;
+        private final int index;
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNKS_PER_PART);
+        private volatile Exception failure;
+
+        private LeafPart(MimeBodyPart part, int index) {
+            this.part = part;
+            this.index = index;
+        }
+
+        @Override
+        public void writeTo(OutputStream os) throws IOException {
+            startUpTo(index + 1 + window);
+            try {
+                for (var chunk = take(chunks); chunk != END; chunk = take(chunks)) {
+                    os.write(chunk);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while encoding body part " + index + ".");
+            }
+            if (failure != null) {
+                throw new IOException("Failed to encode body part " + index + ".", failure);
+            }
+        }
+
+        private void encode() {
+            if (cancelled) {
+                return;
+            }
+            try (var out = new ChunkOutputStream(this)) {
+                part.writeTo(out);
+            } catch (IOException | MessagingException | RuntimeException e) {
+                failure = e;
+            }
+            try {
+                put(END);
+            } catch (IOException e) {
+                // cancelled, nobody waits for the end
+            }
+        }
+
+        private void put(byte[] chunk) throws IOException {
+            var blocker = new Offer(chunks, chunk);
+            try {
+                ForkJoinPool.managedBlock(blocker);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while encoding body part " + index + ".");
+            }
+            if (!blocker.offered) {
+                throw new IOException("Encoding of body part " + index + " is cancelled.");
+            }
+        }
+    }
+
+    /**
+     * Collect the output of a part into chunks handed over to the writing thread
+     */
+    private static final class ChunkOutputStream extends OutputStream {
+        private final LeafPart leaf;
+        private byte[] chunk = new byte[CHUNK_SIZE];
+        private int length;
+
+        private ChunkOutputStream(LeafPart leaf) {
+            this.leaf = leaf;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == chunk.length) {
+                handOver();
+            }
+            chunk[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (length == chunk.length) {
+                    handOver();
+                }
+                var count = Math.min(len, chunk.length - length);
+                System.arraycopy(b, off, chunk, length, count);
+                length += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (length > 0) {
+                leaf.put(Arrays.copyOf(chunk, length));
+                length = 0;
+            }
+        }
+
+        private void handOver() throws IOException {
+            leaf.put(chunk);
+            chunk = new byte[CHUNK_SIZE];
+            length = 0;
+        }
+    }
+
+    /**
+     * Wait for a chunk from a pool task, a waiting pool thread is compensated, e.g. when signing in a batch on the
+     * same pool
+     */
+    private static byte[] take(BlockingQueue<byte[]> queue) throws InterruptedException {
+        var blocker = new Take(queue);
+        ForkJoinPool.managedBlock(blocker);
+        return blocker.item;
+    }
+
+    private static final class Take implements ForkJoinPool.ManagedBlocker {
+        private final BlockingQueue<byte[]> queue;
+        private byte[] item;
+
+        private Take(BlockingQueue<byte[]> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (item == null) {
+                item = queue.take();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return item != null || (item = queue.poll()) != null;
+        }
+    }
+
+    private final class Offer implements ForkJoinPool.ManagedBlocker {
+        private final BlockingQueue<byte[]> queue;
+        private final byte[] item;
+        private boolean offered;
+
+        private Offer(BlockingQueue<byte[]> queue, byte[] item) {
+            this.queue = queue;
+            this.item = item;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            // wakes up now and then to see whether the writing thread gave up
+            while (!offered && !cancelled) {
+                offered = queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return offered || cancelled || (offered = queue.offer(item));
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package io.github.taodong.mail.dkim;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An output stream updating a {@link MessageDigest}, on the writing thread while the stream is small and on a second
+ * thread once more than a threshold of bytes was written. The writer, e.g. a {@link CanonicalBodyOutputStream} reading
+ * and canonicalizing a large body, then hands its output over through a bounded ring of reusable buffers and carries on
+ * while SHA-256 runs on the other thread, so the two stages of a large body overlap instead of running one after the
+ * other on one core.
+ * <p>
+ * Bytes reach the digest in the order they were written. The digest is complete only after {@link #close()}, which
+ * waits for the digesting thread. The stream is not thread-safe.
+ */
+final class PipelinedDigestOutputStream extends OutputStream {
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int BUFFER_COUNT = 4;
+
+    private static final Chunk END = new Chunk(0);
+
+    private final MessageDigest digest;
+    private final long threshold;
+    private long written;
+
+    // created when the threshold is crossed
+    private BlockingQueue<Chunk> free;
+    private BlockingQueue<Chunk> filled;
+    private Thread digester;
+    private Chunk current;
+    private volatile Throwable failure;
+    private boolean closed;
+
+    /**
+     * Create a stream
+     * @param digest - the digest to update
+     * @param threshold - number of bytes digested on the writing thread before the second thread takes over
+     */
+    PipelinedDigestOutputStream(MessageDigest digest, long threshold) {
+        this.digest = digest;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return whether the digest is updated on a second thread
+     */
+    boolean isPipelined() {
+        return digester != null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (closed) {
+            throw new IOException("Stream is closed.");
+        }
+
+        if (digester == null) {
+            if (written + len <= threshold) {
+                digest.update(b, off, len);
+                written += len;
+                return;
+            }
+            start();
+        }
+
+        written += len;
+        while (len > 0) {
+            if (current == null) {
+                current = take();
+            }
+            var count = Math.min(len, current.bytes.length - current.length);
+            System.arraycopy(b, off, current.bytes, current.length, count);
+            current.length += count;
+            off += count;
+            len -= count;
+            if (current.length == current.bytes.length) {
+                filled.add(current);
+                current = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (digester == null) {
+            return;
+        }
+
+        // the filled queue has room for every buffer and the end marker, adding never blocks
+        if (current != null && current.length > 0) {
+            filled.add(current);
+            current = null;
+        }
+        filled.add(END);
+        try {
+            digester.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new InterruptedIOException("Interrupted while hashing the body.");
+        }
+        if (failure != null) {
+            throw new IOException("Failed to hash the body.", failure);
+        }
+    }
+
+    private void start() {
+        free = new ArrayBlockingQueue<>(BUFFER_COUNT);
+        filled = new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+        for (var i = 0; i < BUFFER_COUNT; i++) {
+            free.add(new Chunk(BUFFER_SIZE));
+        }
+        digester = Thread.ofVirtual().name("dkim-body-digest").start(this::digest);
+    }
+
+    private Chunk take() throws IOException {
+        if (failure != null) {
+            throw new IOException("Failed to hash the body.", failure);
+        }
+        try {
+            return free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closed = true;
+            abort();
+            throw new InterruptedIOException("Interrupted while hashing the body.");
+        }
+    }
+
+    private void digest() {
+        try {
+            for (var chunk = filled.take(); chunk != END; chunk = filled.take()) {
+                if (failure == null) {
+                    try {
+                        digest.update(chunk.bytes, 0, chunk.length);
+                    } catch (RuntimeException e) {
+                        // keep recycling buffers, so the writer doesn't wait forever and sees the failure
+                        failure = e;
+                    }
+                }
+                chunk.length = 0;
+                free.add(chunk);
+            }
+        } catch (InterruptedException e) {
+            // aborted by the writer
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop the digesting thread and wait until it no longer touches the digest, keeping the interrupt status of the
+     * calling thread
+     */
+    private void abort() {
+        digester.interrupt();
+        var interrupted = Thread.interrupted();
+        while (true) {
+            try {
+                digester.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Chunk {
+        private final byte[] bytes;
+        private int length;
+
+        private Chunk(int size) {
+            this.bytes = new byte[size];
+        }
+    }
+}
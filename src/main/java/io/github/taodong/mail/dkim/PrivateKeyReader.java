@@ -0,0 +1,180 @@
+package io.github.taodong.mail.dkim;
+
+import javax.crypto.Cipher;
+import javax.crypto.EncryptedPrivateKeyInfo;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.Collections;
+
+/**
+ * Parse private keys in the formats commonly used for DKIM: PEM encoded PKCS#8 ({@code PRIVATE KEY}), PKCS#1
+ * ({@code RSA PRIVATE KEY}) and encrypted PKCS#8 ({@code ENCRYPTED PRIVATE KEY}), and PKCS#12 key stores.
+ * The key algorithm, RSA or Ed25519, is detected from the key itself.
+ */
+final class PrivateKeyReader {
+    private static final String PEM_BOUNDARY = "-----";
+    private static final String PEM_BEGIN = "-----BEGIN ";
+    private static final String PEM_END = "-----END ";
+    private static final String PKCS8_TYPE = "PRIVATE KEY";
+    private static final String PKCS1_TYPE = "RSA PRIVATE KEY";
+    private static final String ENCRYPTED_PKCS8_TYPE = "ENCRYPTED PRIVATE KEY";
+    private static final String[] KEY_ALGORITHMS = {"RSA", "Ed25519"};
+
+    // PKCS#8 PrivateKeyInfo header pieces: version 0 and AlgorithmIdentifier {rsaEncryption, NULL}
+    private static final byte[] PKCS8_VERSION = {0x02, 0x01, 0x00};
+    private static final byte[] RSA_ALGORITHM_IDENTIFIER = {
+            0x30, 0x0d, 0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x01, 0x01, 0x05, 0x00
+    };
+
+    private PrivateKeyReader() {
+    }
+
+    /**
+     * Read a PEM encoded private key
+     * @param pem - the PEM content
+     * @param password - password of an encrypted key, ignored for unencrypted keys
+     * @return the private key
+     * @throws DkimSigningException when the content is not a supported private key
+     */
+    static PrivateKey readPem(String pem, char[] password) throws DkimSigningException {
+        var type = PKCS8_TYPE;
+        var base64 = new StringBuilder(pem.length());
+        for (var line : pem.lines().map(String::strip).toList()) {
+            if (line.startsWith(PEM_BEGIN) && line.endsWith(PEM_BOUNDARY)) {
+                type = line.substring(PEM_BEGIN.length(), line.length() - PEM_BOUNDARY.length());
+                base64.setLength(0);
+            } else if (line.startsWith(PEM_END)) {
+                break;
+            } else if (line.contains(":")) {
+                throw new DkimSigningException("Legacy encrypted PEM is not supported, convert the key to encrypted PKCS#8.");
+            } else {
+                base64.append(line);
+            }
+        }
+        // a bare base64 body without boundaries is treated as PKCS#8
+        var der = decodeBase64(base64.toString());
+
+        return switch (type) {
+            case PKCS8_TYPE -> readPkcs8(der);
+            case PKCS1_TYPE -> readPkcs8(pkcs1ToPkcs8(der));
+            case ENCRYPTED_PKCS8_TYPE -> readPkcs8(decrypt(der, password));
+            default -> throw new DkimSigningException("Unsupported private key type " + type + ".");
+        };
+    }
+
+    /**
+     * Read the first private key from a PKCS#12 key store
+     * @param content - the key store content
+     * @param password - password of the key store, also used for the key entry
+     * @return the private key
+     * @throws DkimSigningException when the key store can't be opened or contains no private key
+     */
+    static PrivateKey readPkcs12(byte[] content, char[] password) throws DkimSigningException {
+        try {
+            var keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(new ByteArrayInputStream(content), password);
+            for (var alias : Collections.list(keyStore.aliases())) {
+                if (keyStore.isKeyEntry(alias) && keyStore.getKey(alias, password) instanceof PrivateKey key) {
+                    return key;
+                }
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            throw new DkimSigningException("Failed to read PKCS#12 key store.", e);
+        }
+        throw new DkimSigningException("No private key found in PKCS#12 key store.");
+    }
+
+    /**
+     * Read a DER encoded PKCS#8 private key, trying the key algorithms supported for signing
+     * @param der - the PKCS#8 PrivateKeyInfo
+     * @return the private key
+     * @throws DkimSigningException when the key doesn't match any supported algorithm
+     */
+    static PrivateKey readPkcs8(byte[] der) throws DkimSigningException {
+        var spec = new PKCS8EncodedKeySpec(der);
+        for (var algorithm : KEY_ALGORITHMS) {
+            try {
+                return KeyFactory.getInstance(algorithm).generatePrivate(spec);
+            } catch (InvalidKeySpecException e) {
+                // not a key of this algorithm, try the next one
+            } catch (GeneralSecurityException e) {
+                throw new DkimSigningException("Failed to read private key.", e);
+            }
+        }
+        throw new DkimSigningException("Unsupported PKCS#8 private key.");
+    }
+
+    /**
+     * Wrap a PKCS#1 RSAPrivateKey into a PKCS#8 PrivateKeyInfo, which is what the JDK key factory accepts
+     * @param pkcs1 - the DER encoded RSAPrivateKey
+     * @return the DER encoded PrivateKeyInfo
+     */
+    static byte[] pkcs1ToPkcs8(byte[] pkcs1) {
+        var octetString = new ByteArrayOutputStream(pkcs1.length + 4);
+        writeTlv(octetString, 0x04, pkcs1);
+
+        var content = new ByteArrayOutputStream(pkcs1.length + 32);
+        content.writeBytes(PKCS8_VERSION);
+        content.writeBytes(RSA_ALGORITHM_IDENTIFIER);
+        content.writeBytes(octetString.toByteArray());
+
+        var privateKeyInfo = new ByteArrayOutputStream(content.size() + 4);
+        writeTlv(privateKeyInfo, 0x30, content.toByteArray());
+        return privateKeyInfo.toByteArray();
+    }
+
+    private static byte[] decrypt(byte[] der, char[] password) throws DkimSigningException {
+        if (password == null) {
+            throw new DkimSigningException("Password is required for an encrypted private key.");
+        }
+        try {
+            var info = new EncryptedPrivateKeyInfo(der);
+            var parameters = info.getAlgParameters();
+            var algorithm = info.getAlgName();
+            if ("PBES2".equalsIgnoreCase(algorithm) && parameters != null) {
+                // older runtimes only report PBES2, the parameters carry the actual scheme, e.g. PBEWithHmacSHA256AndAES_256
+                algorithm = parameters.toString();
+            }
+            var secretKey = SecretKeyFactory.getInstance(algorithm).generateSecret(new PBEKeySpec(password));
+            var cipher = Cipher.getInstance(algorithm);
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, parameters);
+            return info.getKeySpec(cipher).getEncoded();
+        } catch (IOException | GeneralSecurityException e) {
+            throw new DkimSigningException("Failed to decrypt private key.", e);
+        }
+    }
+
+    private static byte[] decodeBase64(String base64) throws DkimSigningException {
+        try {
+            return Base64.getDecoder().decode(base64.getBytes(StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) {
+            throw new DkimSigningException("Private key is not base64 encoded.", e);
+        }
+    }
+
+    private static void writeTlv(ByteArrayOutputStream out, int tag, byte[] value) {
+        out.write(tag);
+        var length = value.length;
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            var lengthBytes = (Integer.SIZE - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            out.write(0x80 | lengthBytes);
+            for (var i = lengthBytes - 1; i >= 0; i--) {
+                out.write(length >>> (i * 8));
+            }
+        }
+        out.writeBytes(value);
+    }
+}
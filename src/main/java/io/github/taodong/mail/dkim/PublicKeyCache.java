@@ -0,0 +1,161 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.validation.constraints.NotNull;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the parsed key records of a {@link PublicKeyResolver}. Keys are kept for a TTL, missing and invalid records
+ * for a shorter negative TTL, so a message flood for an unpublished selector doesn't turn into a lookup flood.
+ * Concurrent lookups of the same key are coalesced: one thread queries the resolver and parses the record, the others
+ * wait for its result. Temporary failures are not cached, the next call looks the key up again.
+ */
+public class PublicKeyCache {
+    public static final Duration DEFAULT_TTL = Duration.ofHours(1);
+    public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes(5);
+    // expired entries are purged when the cache grows beyond this size
+    static final int PURGE_THRESHOLD = 100_000;
+
+    private final PublicKeyResolver resolver;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final LongSupplier nanoClock;
+    private final Map<String, CompletableFuture<Entry>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * A resolved key record, or the reason there is none
+     */
+    private record Entry(DkimKeyRecord record, DkimSigningException invalid, long expiresAt) {
+        DkimKeyRecord value() throws DkimSigningException {
+            if (invalid != null) {
+                throw invalid;
+            }
+            return record;
+        }
+    }
+
+    /**
+     * Create a cache with {@link #DEFAULT_TTL} and {@link #DEFAULT_NEGATIVE_TTL}
+     * @param resolver - the resolver to look keys up with
+     */
+    public PublicKeyCache(@NotNull PublicKeyResolver resolver) {
+        this(resolver, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+    }
+
+    /**
+     * Create a cache
+     * @param resolver - the resolver to look keys up with
+     * @param ttl - how long a key is cached
+     * @param negativeTtl - how long a missing or invalid record is cached
+     */
+    public PublicKeyCache(@NotNull PublicKeyResolver resolver, @NotNull Duration ttl, @NotNull Duration negativeTtl) {
+        this(resolver, ttl, negativeTtl, System::nanoTime);
+    }
+
+    PublicKeyCache(PublicKeyResolver resolver, Duration ttl, Duration negativeTtl, LongSupplier nanoClock) {
+        this.resolver = resolver;
+        this.ttlNanos = ttl.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Get the key record of a selector, from the cache or the resolver
+     * @param domain - the signing domain
+     * @param selector - the selector
+     * @return the key record, null when there is none
+     * @throws IOException when the lookup failed temporarily
+     * @throws DkimSigningException when the published record is invalid
+     */
+    public DkimKeyRecord getKey(@NotNull String domain, @NotNull String selector) throws IOException, DkimSigningException {
+        var name = selector.strip().toLowerCase(Locale.ROOT) + "._domainkey." + domain.strip().toLowerCase(Locale.ROOT);
+        while (true) {
+            var cached = entries.get(name);
+            if (cached != null && !isExpired(cached)) {
+                return await(cached).value();
+            }
+
+            var created = new CompletableFuture<Entry>();
+            var owner = cached == null ? entries.putIfAbsent(name, created) == null : entries.replace(name, cached, created);
+            if (owner) {
+                if (entries.size() > PURGE_THRESHOLD) {
+                    purgeExpired();
+                }
+                return load(name, domain, selector, created).value();
+            }
+            // another thread started a lookup meanwhile, wait for it
+        }
+    }
+
+    /**
+     * Drop the cached record of a selector, e.g. after the key was rotated
+     * @param domain - the signing domain
+     * @param selector - the selector
+     */
+    public void invalidate(@NotNull String domain, @NotNull String selector) {
+        entries.remove(selector.strip().toLowerCase(Locale.ROOT) + "._domainkey." + domain.strip().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return the number of cached records, expired ones included until they are purged
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove expired records
+     */
+    public void purgeExpired() {
+        entries.entrySet().removeIf(entry -> isExpired(entry.getValue()));
+    }
+
+    private Entry load(String name, String domain, String selector, CompletableFuture<Entry> created) throws IOException {
+        Entry entry;
+        try {
+            var text = resolver.lookup(domain, selector);
+            entry = text == null
+                    ? new Entry(null, null, nanoClock.getAsLong() + negativeTtlNanos)
+                    : new Entry(DkimKeyRecord.parse(text), null, nanoClock.getAsLong() + ttlNanos);
+        } catch (DkimSigningException e) {
+            entry = new Entry(null, e, nanoClock.getAsLong() + negativeTtlNanos);
+        } catch (IOException | RuntimeException e) {
+            entries.remove(name, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+        created.complete(entry);
+        return entry;
+    }
+
+    private boolean isExpired(CompletableFuture<Entry> cached) {
+        if (!cached.isDone()) {
+            return false;
+        }
+        if (cached.isCompletedExceptionally()) {
+            return true;
+        }
+        return nanoClock.getAsLong() - cached.join().expiresAt() >= 0;
+    }
+
+    private static Entry await(CompletableFuture<Entry> cached) throws IOException {
+        try {
+            return cached.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+}
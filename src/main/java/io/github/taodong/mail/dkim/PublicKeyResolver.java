@@ -0,0 +1,21 @@
+package io.github.taodong.mail.dkim;
+
+import java.io.IOException;
+
+/**
+ * Looks up the DKIM key record of a selector, usually the TXT record at {@code <selector>._domainkey.<domain>}.
+ * {@link InMemoryPublicKeyResolver} serves records from memory or a zone file, a DNS implementation can be plugged in
+ * for production. Wrap a resolver in a {@link PublicKeyCache} to cache keys and misses.
+ */
+@FunctionalInterface
+public interface PublicKeyResolver {
+
+    /**
+     * Look up a key record
+     * @param domain - the signing domain, lower case
+     * @param selector - the selector
+     * @return the text of the record, the strings of a TXT record concatenated, null when there is no record
+     * @throws IOException when the lookup failed temporarily, e.g. a DNS timeout
+     */
+    String lookup(String domain, String selector) throws IOException;
+}
@@ -0,0 +1,148 @@
+package io.github.taodong.mail.dkim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Split a message in RFC 5322 wire format into header fields and body in a single scan without any MIME parsing.
+ * Header lines are kept exactly as transmitted, including folding, so simple canonicalization signs the original
+ * header lines byte by byte.
+ */
+final class RawMessage {
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte SP = ' ';
+    private static final byte HTAB = '\t';
+    private static final byte COLON = ':';
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private RawMessage() {
+    }
+
+    /**
+     * Parse the header block at the position of the buffer. On return, the position of the buffer is at the first
+     * byte of the body.
+     * @param buffer - the message, or at least its complete header block
+     * @return the header index
+     * @throws DkimSigningException when a header line is malformed
+     */
+    static HeaderIndex parse(ByteBuffer buffer) throws DkimSigningException {
+        var index = new HeaderIndex();
+        var fieldStart = -1;
+        var fieldEnd = -1;
+        var lineStart = buffer.position();
+        var limit = buffer.limit();
+
+        while (lineStart < limit) {
+            var lineEnd = indexOf(buffer, LF, lineStart, limit);
+            var nextLine = lineEnd < 0 ? limit : lineEnd + 1;
+            var contentEnd = lineEnd < 0 ? limit : (lineEnd > lineStart && buffer.get(lineEnd - 1) == CR ? lineEnd - 1 : lineEnd);
+
+            if (contentEnd == lineStart) {
+                // the empty line separating headers from body
+                lineStart = nextLine;
+                break;
+            }
+
+            var first = buffer.get(lineStart);
+            if ((first == SP || first == HTAB) && fieldStart >= 0) {
+                // continuation of a folded header
+                fieldEnd = contentEnd;
+            } else {
+                if (fieldStart >= 0) {
+                    index.add(field(buffer, fieldStart, fieldEnd));
+                }
+                fieldStart = lineStart;
+                fieldEnd = contentEnd;
+            }
+            lineStart = nextLine;
+        }
+
+        if (fieldStart >= 0) {
+            index.add(field(buffer, fieldStart, fieldEnd));
+        }
+        buffer.position(Math.min(lineStart, limit));
+        return index;
+    }
+
+    /**
+     * Read from a channel until the complete header block is in the returned buffer. The buffer may contain the
+     * beginning of the body as well, the rest of the body is left in the channel.
+     * @param channel - the channel to read the message from
+     * @return a buffer ready to read, holding the header block and possibly part of the body
+     * @throws IOException when failed to read from the channel
+     */
+    static ByteBuffer readHeaderBlock(ReadableByteChannel channel) throws IOException {
+        var buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        var scanned = 0;
+        while (channel.read(buffer) >= 0) {
+            var headerEnd = headerEnd(buffer, scanned, buffer.position());
+            if (headerEnd >= 0) {
+                break;
+            }
+            // keep the last 3 bytes, an empty line may span two reads
+            scanned = Math.max(0, buffer.position() - 3);
+            if (!buffer.hasRemaining()) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static HeaderIndex.Field field(ByteBuffer buffer, int start, int end) throws DkimSigningException {
+        var colon = indexOf(buffer, COLON, start, end);
+        if (colon <= start) {
+            throw new DkimSigningException("Malformed header line " + decode(buffer, start, Math.min(end, start + 80)) + ".");
+        }
+        var name = decode(buffer, start, colon).stripTrailing();
+        var line = new byte[end - start];
+        buffer.get(start, line);
+        return new HeaderIndex.Field(name, decode(buffer, colon + 1, end), line);
+    }
+
+    /**
+     * Find the end of the header block, the index after the empty line
+     * @return the index, -1 when the header block is not complete
+     */
+    private static int headerEnd(ByteBuffer buffer, int from, int to) {
+        for (var i = indexOf(buffer, LF, from, to); i >= 0; i = indexOf(buffer, LF, i + 1, to)) {
+            if (i + 1 < to && buffer.get(i + 1) == LF) {
+                return i + 2;
+            }
+            if (i + 2 < to && buffer.get(i + 1) == CR && buffer.get(i + 2) == LF) {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+        if (buffer.hasArray()) {
+            var array = buffer.array();
+            var offset = buffer.arrayOffset();
+            for (var i = from + offset; i < to + offset; i++) {
+                if (array[i] == b) {
+                    return i - offset;
+                }
+            }
+            return -1;
+        }
+        for (var i = from; i < to; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        var bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
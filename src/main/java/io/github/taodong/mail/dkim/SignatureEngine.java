@@ -0,0 +1,34 @@
+package io.github.taodong.mail.dkim;
+
+/**
+ * Computes the {@code b=} signature of the signatures made with one key. The signer hashes the canonical header data
+ * with SHA-256 and passes the hash to the engine, so the private key operation can run anywhere: in process with
+ * {@link LocalSignatureEngine}, the default, or in a separate signing daemon holding the keys, see
+ * {@link SigningDaemonClient}. Implementations must be thread-safe.
+ */
+public interface SignatureEngine {
+
+    /**
+     * @return the signing algorithm of the key
+     */
+    SigningAlgorithm getAlgorithm();
+
+    /**
+     * Sign the hash of the signed data. For {@link SigningAlgorithm#RSA_SHA256}, the result is the same as
+     * {@code SHA256withRSA} over the data, for {@link SigningAlgorithm#ED25519_SHA256}, the hash itself is signed as
+     * RFC 8463 requires.
+     * @param digest - the SHA-256 hash of the canonical header data
+     * @return the signature
+     * @throws DkimSigningException when failed to sign
+     */
+    byte[] sign(byte[] digest) throws DkimSigningException;
+
+    /**
+     * Prepare the engine for concurrent signatures at startup, so the first messages don't pay for provider lookup and
+     * key initialization. The default does nothing.
+     * @param concurrency - number of signatures expected to run at the same time
+     * @throws DkimSigningException when failed to prepare the engine
+     */
+    default void warmUp(int concurrency) throws DkimSigningException {
+    }
+}
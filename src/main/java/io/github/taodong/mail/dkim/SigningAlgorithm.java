@@ -0,0 +1,43 @@
+package io.github.taodong.mail.dkim;
+
+import lombok.Getter;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Signing algorithms supported for the DKIM {@code a=} tag
+ */
+@Getter
+public enum SigningAlgorithm {
+    RSA_SHA256("rsa-sha256", "RSA", "SHA256withRSA", false),
+    /**
+     * RFC 8463, the SHA-256 hash of the canonical headers is signed with PureEdDSA Ed25519
+     */
+    ED25519_SHA256("ed25519-sha256", "Ed25519", "Ed25519", true)
+    ;
+
+    private final String tagValue;
+    private final String keyAlgorithm;
+    private final String signatureAlgorithm;
+    private final boolean prehashed;
+
+    SigningAlgorithm(String tagValue, String keyAlgorithm, String signatureAlgorithm, boolean prehashed) {
+        this.tagValue = tagValue;
+        this.keyAlgorithm = keyAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.prehashed = prehashed;
+    }
+
+    /**
+     * Get the signing algorithm by the value of {@code a=} tag
+     * @param tagValue - the tag value
+     * @return the signing algorithm, null if not matched
+     */
+    public static SigningAlgorithm fromTagValue(String tagValue) {
+        for (SigningAlgorithm algorithm : SigningAlgorithm.values()) {
+            if (StringUtils.equalsIgnoreCase(algorithm.getTagValue(), StringUtils.trim(tagValue))) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+}
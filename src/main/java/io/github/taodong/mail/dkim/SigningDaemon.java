@@ -0,0 +1,273 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.validation.constraints.NotNull;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.PrivateKey;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * A local signing daemon holding the private keys of a {@link DkimKeyRegistry}, so the sender processes never load
+ * them. Senders connect with a {@link SigningDaemonClient} over a Unix domain socket, which is only accessible by the
+ * owner of the daemon process, and send batches of SHA-256 hashes to sign. Every connection is served on a virtual
+ * thread, the requests of a batch are signed in parallel on a pool of a thread per processor.
+ * <p>
+ * Keys are looked up in the registry for every request, so keys added to or replaced in a watched key directory are
+ * used without a restart. Usable as a library or from the command line, see {@link #main(String[])}.
+ */
+public final class SigningDaemon implements AutoCloseable {
+    private final DkimKeyRegistry keys;
+    private final Path socket;
+    private final ServerSocketChannel server;
+    private final ForkJoinPool signingPool;
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    // engines pool initialized signatures, an engine is recreated when the key of its selector is replaced
+    private final Map<EngineId, CachedEngine> engines = new ConcurrentHashMap<>();
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    private record EngineId(String domain, String selector, SigningAlgorithm algorithm) {
+    }
+
+    private record CachedEngine(PrivateKey key, LocalSignatureEngine engine) {
+    }
+
+    /**
+     * Start a daemon listening on a Unix domain socket. The socket is bound in a directory only accessible by the
+     * owner and moved to its path once restricted to the owner, so no other user can connect in between. A stale
+     * socket file left by a stopped daemon is replaced, any other file at the path is kept.
+     * @param keys - the registry of the private keys
+     * @param socket - the path of the socket file
+     * @throws DkimSigningException when the path is taken by a file that is not a socket or failed to bind the socket
+     */
+    public SigningDaemon(@NotNull DkimKeyRegistry keys, @NotNull Path socket) throws DkimSigningException {
+        this.keys = keys;
+        this.socket = socket;
+        try {
+            if (!isSocketOrMissing(socket)) {
+                throw new DkimSigningException(socket + " exists and is not a socket.");
+            }
+            this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            bindOwnerOnly(server, socket);
+        } catch (IOException e) {
+            throw new DkimSigningException("Failed to listen on " + socket + ".", e);
+        }
+        this.signingPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        this.acceptor = Thread.ofVirtual().name("dkim-signing-daemon").start(this::accept);
+    }
+
+    /**
+     * @return the path of the socket file
+     */
+    public Path getSocket() {
+        return socket;
+    }
+
+    /**
+     * Wait until the daemon is closed
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public void join() throws InterruptedException {
+        acceptor.join();
+    }
+
+    /**
+     * Stop accepting connections, close the open connections and delete the socket file
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        for (var connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+        signingPool.shutdown();
+        try {
+            if (isSocketOrMissing(socket)) {
+                Files.deleteIfExists(socket);
+            }
+        } catch (IOException e) {
+            // a stale socket file is replaced by the next daemon
+        }
+    }
+
+    /**
+     * Sign a batch of requests, in parallel when there are more than one
+     * @param requests - the requests
+     * @return the results in the order of the requests
+     */
+    List<SigningDaemonProtocol.SignResult> sign(List<SigningDaemonProtocol.SignRequest> requests) {
+        var results = new SigningDaemonProtocol.SignResult[requests.size()];
+        if (results.length == 1) {
+            results[0] = sign(requests.get(0));
+        } else {
+            signingPool.submit(() -> IntStream.range(0, results.length).parallel()
+                    .forEach(i -> results[i] = sign(requests.get(i)))).join();
+        }
+        return Arrays.asList(results);
+    }
+
+    private SigningDaemonProtocol.SignResult sign(SigningDaemonProtocol.SignRequest request) {
+        try {
+            var signature = engine(request).sign(request.digest());
+            return new SigningDaemonProtocol.SignResult(signature, null);
+        } catch (DkimSigningException | RuntimeException e) {
+            return SigningDaemonProtocol.SignResult.failed(e.getMessage());
+        }
+    }
+
+    private LocalSignatureEngine engine(SigningDaemonProtocol.SignRequest request) throws DkimSigningException {
+        var key = keys.getRequiredKey(request.domain(), request.selector());
+        var id = new EngineId(request.domain().toLowerCase(Locale.ROOT), request.selector().toLowerCase(Locale.ROOT),
+                request.algorithm());
+        var cached = engines.get(id);
+        if (cached == null || cached.key() != key) {
+            // a racing request may create the engine twice, the last one is kept
+            cached = new CachedEngine(key, new LocalSignatureEngine(key, request.algorithm()));
+            engines.put(id, cached);
+        }
+        return cached.engine();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                var connection = server.accept();
+                connections.add(connection);
+                Thread.ofVirtual().name("dkim-signing-connection").start(() -> serve(connection));
+            } catch (AsynchronousCloseException e) {
+                return;
+            } catch (IOException e) {
+                if (!server.isOpen()) {
+                    return;
+                }
+                // e.g. too many open files, keep accepting
+            }
+        }
+    }
+
+    private void serve(SocketChannel connection) {
+        try (connection) {
+            for (var body = SigningDaemonProtocol.readFrame(connection); body != null;
+                 body = SigningDaemonProtocol.readFrame(connection)) {
+                var results = sign(SigningDaemonProtocol.decodeRequests(body));
+                SigningDaemonProtocol.writeFrame(connection, SigningDaemonProtocol.encodeResults(results));
+            }
+        } catch (IOException e) {
+            // a broken or misbehaving client only loses its own connection
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    /**
+     * Check that a socket path can be replaced
+     * @param socket - the path of the socket file
+     * @return true when nothing or a socket is at the path, links are not followed
+     * @throws IOException when failed to read the attributes of the path
+     */
+    static boolean isSocketOrMissing(Path socket) throws IOException {
+        try {
+            return Files.readAttributes(socket, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther();
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    private static void bindOwnerOnly(ServerSocketChannel server, Path socket) throws IOException {
+        var parent = socket.toAbsolutePath().getParent();
+        Path staging;
+        try {
+            staging = Files.createTempDirectory(parent, ".dkim-signing-daemon",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+            staging = Files.createTempDirectory(parent, ".dkim-signing-daemon");
+        }
+        try {
+            var staged = staging.resolve("s");
+            server.bind(UnixDomainSocketAddress.of(staged));
+            try {
+                Files.setPosixFilePermissions(staged, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                // not a POSIX file system
+            }
+            // replaces a stale socket in one step
+            Files.move(staged, socket, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            server.close();
+            try (var files = Files.list(staging)) {
+                for (var file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            throw e;
+        } finally {
+            Files.deleteIfExists(staging);
+        }
+    }
+
+    /**
+     * Run a signing daemon from the command line until the process is stopped. Options:
+     * <ul>
+     *     <li>{@code --socket <file>} - the socket path, required</li>
+     *     <li>{@code --keys <directory>} - the watched key directory, required, see {@link DkimKeyRegistry} for the
+     *     file names</li>
+     * </ul>
+     * @param args - the command line arguments
+     * @throws Exception when the arguments are invalid or the daemon failed to start
+     */
+    public static void main(String[] args) throws Exception {
+        var options = new HashMap<String, String>();
+        for (var i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].startsWith("--")) {
+                options.put(args[i].substring(2), args[i + 1]);
+            }
+        }
+        if (!options.containsKey("socket") || !options.containsKey("keys")) {
+            System.err.println("Usage: SigningDaemon --socket <file> --keys <directory>");
+            System.exit(2);
+            return;
+        }
+
+        // a key file failing to load keeps the previous key of its selector, or leaves the selector without a key
+        var registry = new DkimKeyRegistry(file -> null,
+                (file, e) -> System.err.printf("Failed to load key file %s: %s%n", file, e.getMessage()));
+        registry.watch(Path.of(options.get("keys")));
+        var daemon = new SigningDaemon(registry, Path.of(options.get("socket")));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            daemon.close();
+            registry.close();
+        }));
+        System.out.printf("Signing with %d keys on %s%n", registry.size(), daemon.getSocket());
+        daemon.join();
+    }
+}
@@ -0,0 +1,249 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client of a {@link SigningDaemon}, providing {@link SignatureEngine}s which sign with the keys held by the daemon.
+ * The client keeps one connection to the daemon and has one batch of requests in flight at a time: requests made
+ * while a batch is on the way are queued and sent together in the next round trip, so the number of round trips stays
+ * low however many threads sign concurrently, and a single signing thread doesn't wait any longer than one round trip.
+ * <p>
+ * The connection is opened on the first request and reopened on the next request after a failure, the requests of a
+ * failed batch fail. A batch the daemon doesn't answer within the timeout fails too and its connection is closed, so
+ * a hanging daemon doesn't hold up the batches after it. The client is thread-safe, share it for all signers of the
+ * process.
+ */
+public final class SigningDaemonClient implements AutoCloseable {
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+
+    private final UnixDomainSocketAddress address;
+    private final long timeoutNanos;
+    private final BlockingQueue<PendingRequest> queue = new LinkedBlockingQueue<>();
+    private final Thread sender;
+    private SocketChannel channel;
+    private volatile boolean closed;
+
+    private record PendingRequest(SigningDaemonProtocol.SignRequest request, CompletableFuture<byte[]> result) {
+    }
+
+    /**
+     * Create a client with a timeout of 5 seconds per signature
+     * @param socket - the socket file of the daemon
+     */
+    public SigningDaemonClient(@NotNull Path socket) {
+        this(socket, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Create a client
+     * @param socket - the socket file of the daemon
+     * @param timeout - the longest time to wait for a signature
+     */
+    public SigningDaemonClient(@NotNull Path socket, @NotNull Duration timeout) {
+        this.address = UnixDomainSocketAddress.of(socket);
+        this.timeoutNanos = timeout.toNanos();
+        this.sender = Thread.ofVirtual().name("dkim-signing-client").start(this::send);
+    }
+
+    /**
+     * Get an engine signing with a key of the daemon, e.g. for {@link DkimSigningProfile#signatureEngine()}
+     * @param domain - the signing domain of the key
+     * @param selector - the selector of the key
+     * @param algorithm - the signing algorithm of the key
+     * @return the engine
+     */
+    public SignatureEngine engine(@NotBlank String domain, @NotBlank String selector, @NotNull SigningAlgorithm algorithm) {
+        return new SignatureEngine() {
+            @Override
+            public SigningAlgorithm getAlgorithm() {
+                return algorithm;
+            }
+
+            @Override
+            public byte[] sign(byte[] digest) throws DkimSigningException {
+                return SigningDaemonClient.this.sign(domain, selector, algorithm, digest);
+            }
+
+            @Override
+            public void warmUp(int concurrency) throws DkimSigningException {
+                // opens the connection and has the daemon prepare the key
+                sign(new byte[32]);
+            }
+        };
+    }
+
+    /**
+     * Sign a hash with a key of the daemon
+     * @param domain - the signing domain of the key
+     * @param selector - the selector of the key
+     * @param algorithm - the signing algorithm of the key
+     * @param digest - the SHA-256 hash of the signed data
+     * @return the signature
+     * @throws DkimSigningException when the daemon failed to sign or didn't answer in time
+     */
+    public byte[] sign(@NotBlank String domain, @NotBlank String selector, @NotNull SigningAlgorithm algorithm,
+                       @NotNull byte[] digest) throws DkimSigningException {
+        try {
+            return signAsync(domain, selector, algorithm, digest).get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DkimSigningException signingException) {
+                throw signingException;
+            }
+            throw new DkimSigningException("Failed to create signature.", e.getCause());
+        } catch (TimeoutException e) {
+            throw new DkimSigningException("Signing daemon didn't answer in time.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DkimSigningException("Interrupted while waiting for the signing daemon.", e);
+        }
+    }
+
+    /**
+     * Queue a hash to be signed with a key of the daemon
+     * @param domain - the signing domain of the key
+     * @param selector - the selector of the key
+     * @param algorithm - the signing algorithm of the key
+     * @param digest - the SHA-256 hash of the signed data
+     * @return the signature, completed exceptionally with a {@link DkimSigningException} when failed
+     */
+    public CompletableFuture<byte[]> signAsync(@NotBlank String domain, @NotBlank String selector,
+                                               @NotNull SigningAlgorithm algorithm, @NotNull byte[] digest) {
+        var result = new CompletableFuture<byte[]>();
+        if (closed) {
+            result.completeExceptionally(new DkimSigningException("Signing daemon client is closed."));
+            return result;
+        }
+        queue.add(new PendingRequest(new SigningDaemonProtocol.SignRequest(domain, selector, algorithm, digest), result));
+        if (closed) {
+            // closed meanwhile, the sender may have drained the queue already
+            failAll(new DkimSigningException("Signing daemon client is closed."));
+        }
+        return result;
+    }
+
+    /**
+     * Close the connection, pending requests fail
+     */
+    @Override
+    public void close() {
+        closed = true;
+        sender.interrupt();
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failAll(new DkimSigningException("Signing daemon client is closed."));
+    }
+
+    private void send() {
+        var batch = new ArrayList<PendingRequest>(SigningDaemonProtocol.MAX_BATCH_SIZE);
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                queue.drainTo(batch, SigningDaemonProtocol.MAX_BATCH_SIZE - 1);
+                roundTrip(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } finally {
+            disconnect();
+        }
+    }
+
+    private void roundTrip(List<PendingRequest> batch) {
+        List<SigningDaemonProtocol.SignResult> results;
+        // set by whichever comes first, the answer or the watchdog closing the connection
+        var settled = new AtomicBoolean();
+        CompletableFuture<Void> watchdog = null;
+        try {
+            if (channel == null) {
+                channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+                channel.connect(address);
+            }
+            var connection = channel;
+            watchdog = CompletableFuture.runAsync(() -> expire(connection, settled),
+                    CompletableFuture.delayedExecutor(timeoutNanos, TimeUnit.NANOSECONDS));
+            SigningDaemonProtocol.writeFrame(channel, SigningDaemonProtocol.encodeRequests(
+                    batch.stream().map(PendingRequest::request).toList()));
+            var body = SigningDaemonProtocol.readFrame(channel);
+            if (!settled.compareAndSet(false, true)) {
+                throw new IOException("Signing daemon didn't answer in time.");
+            }
+            if (body == null) {
+                throw new IOException("Signing daemon closed the connection.");
+            }
+            results = SigningDaemonProtocol.decodeResults(body);
+            if (results.size() != batch.size()) {
+                throw new IOException("Signing daemon answered " + results.size() + " of " + batch.size() + " requests.");
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // the stream is out of step after a failure, the next batch reconnects
+            disconnect();
+            var failure = settled.compareAndSet(false, true)
+                    ? new DkimSigningException("Failed to sign with daemon at " + address.getPath() + ".", e)
+                    : new DkimSigningException("Signing daemon at " + address.getPath() + " didn't answer in time.", e);
+            batch.forEach(pending -> pending.result().completeExceptionally(failure));
+            return;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
+
+        for (var i = 0; i < batch.size(); i++) {
+            var result = results.get(i);
+            if (result.signature() != null) {
+                batch.get(i).result().complete(result.signature());
+            } else {
+                batch.get(i).result().completeExceptionally(new DkimSigningException(result.error()));
+            }
+        }
+    }
+
+    private static void expire(SocketChannel connection, AtomicBoolean settled) {
+        if (settled.compareAndSet(false, true)) {
+            try {
+                // fails the read of the sender
+                connection.close();
+            } catch (IOException e) {
+                // reconnecting anyway
+            }
+        }
+    }
+
+    private void disconnect() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // reconnecting anyway
+            }
+            channel = null;
+        }
+    }
+
+    private void failAll(DkimSigningException failure) {
+        for (var pending = queue.poll(); pending != null; pending = queue.poll()) {
+            pending.result().completeExceptionally(failure);
+        }
+    }
+}
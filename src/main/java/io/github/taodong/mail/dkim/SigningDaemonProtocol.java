@@ -0,0 +1,197 @@
+package io.github.taodong.mail.dkim;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The wire format between {@link SigningDaemonClient} and {@link SigningDaemon}. Every message is a frame of a 4 byte
+ * length and a body. A request body holds a batch of sign requests, the response body holds one result per request in
+ * the same order:
+ * <pre>
+ * request  = count:int32 *(algorithm:uint8 domain:string8 selector:string8 digest:bytes8)
+ * response = count:int32 *(status:uint8 payload:bytes16)
+ * </pre>
+ * where {@code string8} and {@code bytes8} are prefixed with a 1 byte length and {@code bytes16} with a 2 byte length.
+ * The payload of a result is the signature for {@link #STATUS_OK} and the UTF-8 error message otherwise. All integers
+ * are big-endian.
+ */
+final class SigningDaemonProtocol {
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+    static final int MAX_BATCH_SIZE = 256;
+    // a full batch of requests or of RSA 4096 signatures is far smaller
+    static final int MAX_FRAME_SIZE = 1024 * 1024;
+    private static final int MAX_ERROR_LENGTH = 1024;
+
+    private SigningDaemonProtocol() {
+    }
+
+    /**
+     * A digest to sign with the key of a selector
+     * @param domain - the signing domain
+     * @param selector - the selector
+     * @param algorithm - the signing algorithm
+     * @param digest - the SHA-256 hash of the signed data
+     */
+    record SignRequest(String domain, String selector, SigningAlgorithm algorithm, byte[] digest) {
+    }
+
+    /**
+     * The result of a sign request
+     * @param signature - the signature, null when failed
+     * @param error - the error message, null when signed
+     */
+    record SignResult(byte[] signature, String error) {
+        static SignResult failed(String error) {
+            return new SignResult(null, error == null ? "Failed to create signature." : error);
+        }
+    }
+
+    static ByteBuffer encodeRequests(List<SignRequest> requests) {
+        var fields = new ArrayList<byte[]>(requests.size() * 3);
+        var size = 2 * Integer.BYTES;
+        for (var request : requests) {
+            var domain = request.domain().getBytes(StandardCharsets.UTF_8);
+            var selector = request.selector().getBytes(StandardCharsets.UTF_8);
+            fields.add(domain);
+            fields.add(selector);
+            size += 4 + domain.length + selector.length + request.digest().length;
+        }
+        var buffer = ByteBuffer.allocate(size).putInt(size - Integer.BYTES).putInt(requests.size());
+        for (var i = 0; i < requests.size(); i++) {
+            var request = requests.get(i);
+            buffer.put((byte) request.algorithm().ordinal());
+            putBytes8(buffer, fields.get(2 * i));
+            putBytes8(buffer, fields.get(2 * i + 1));
+            putBytes8(buffer, request.digest());
+        }
+        return buffer.flip();
+    }
+
+    static List<SignRequest> decodeRequests(ByteBuffer body) throws IOException {
+        var count = count(body);
+        var algorithms = SigningAlgorithm.values();
+        var requests = new ArrayList<SignRequest>(count);
+        try {
+            for (var i = 0; i < count; i++) {
+                var ordinal = Byte.toUnsignedInt(body.get());
+                if (ordinal >= algorithms.length) {
+                    throw new IOException("Unknown signing algorithm " + ordinal + ".");
+                }
+                requests.add(new SignRequest(new String(getBytes8(body), StandardCharsets.UTF_8),
+                        new String(getBytes8(body), StandardCharsets.UTF_8), algorithms[ordinal], getBytes8(body)));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated sign request.", e);
+        }
+        return requests;
+    }
+
+    static ByteBuffer encodeResults(List<SignResult> results) {
+        var payloads = new ArrayList<byte[]>(results.size());
+        var size = 2 * Integer.BYTES;
+        for (var result : results) {
+            var payload = result.signature() != null ? result.signature() : result.error().getBytes(StandardCharsets.UTF_8);
+            if (result.signature() == null && payload.length > MAX_ERROR_LENGTH) {
+                payload = Arrays.copyOf(payload, MAX_ERROR_LENGTH);
+            }
+            payloads.add(payload);
+            size += 3 + payload.length;
+        }
+        var buffer = ByteBuffer.allocate(size).putInt(size - Integer.BYTES).putInt(results.size());
+        for (var i = 0; i < results.size(); i++) {
+            buffer.put(results.get(i).signature() != null ? STATUS_OK : STATUS_ERROR);
+            putBytes16(buffer, payloads.get(i));
+        }
+        return buffer.flip();
+    }
+
+    static List<SignResult> decodeResults(ByteBuffer body) throws IOException {
+        var count = count(body);
+        var results = new ArrayList<SignResult>(count);
+        try {
+            for (var i = 0; i < count; i++) {
+                var status = body.get();
+                var payload = new byte[Short.toUnsignedInt(body.getShort())];
+                body.get(payload);
+                results.add(status == STATUS_OK
+                        ? new SignResult(payload, null)
+                        : SignResult.failed(new String(payload, StandardCharsets.UTF_8)));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated sign result.", e);
+        }
+        return results;
+    }
+
+    /**
+     * Read the body of the next frame
+     * @param channel - the channel
+     * @return the body, null when the channel is at its end before a frame
+     * @throws IOException when failed to read or the frame is not valid
+     */
+    static ByteBuffer readFrame(ReadableByteChannel channel) throws IOException {
+        var header = ByteBuffer.allocate(Integer.BYTES);
+        if (!readFully(channel, header, true)) {
+            return null;
+        }
+        var length = header.flip().getInt();
+        if (length < Integer.BYTES || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length " + length + ".");
+        }
+        var body = ByteBuffer.allocate(length);
+        readFully(channel, body, false);
+        return body.flip();
+    }
+
+    static void writeFrame(WritableByteChannel channel, ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer, boolean endAllowed) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (endAllowed && buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Connection closed in the middle of a frame.");
+            }
+        }
+        return true;
+    }
+
+    private static int count(ByteBuffer body) throws IOException {
+        var count = body.remaining() < Integer.BYTES ? -1 : body.getInt();
+        if (count < 0 || count > MAX_BATCH_SIZE) {
+            throw new IOException("Invalid batch size " + count + ".");
+        }
+        return count;
+    }
+
+    private static void putBytes8(ByteBuffer buffer, byte[] bytes) {
+        if (bytes.length > 0xff) {
+            throw new IllegalArgumentException("Field is longer than 255 bytes.");
+        }
+        buffer.put((byte) bytes.length).put(bytes);
+    }
+
+    private static byte[] getBytes8(ByteBuffer buffer) {
+        var bytes = new byte[Byte.toUnsignedInt(buffer.get())];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void putBytes16(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.taodong.mail.dkim;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events for the phases of signing a message. The events are disabled unless a recording enables
+ * them, e.g. {@code -XX:StartFlightRecording:settings=profile}, and then cost nothing on the signing path: fields are
+ * only computed after {@link Event#shouldCommit()}.
+ * <p>
+ * A {@link Sign} event spans the whole signature and encloses one {@link HeaderIndexing}, one {@link BodyHash}, one
+ * {@link HeaderCanonicalization} and one {@link SignatureComputation} event on the same thread.
+ */
+final class SigningEvents {
+    static final String CATEGORY = "DKIM";
+
+    private SigningEvents() {
+    }
+
+    @Category(CATEGORY)
+    @StackTrace(false)
+    abstract static class DkimEvent extends Event {
+        @Label("Domain")
+        String domain;
+
+        @Label("Selector")
+        String selector;
+    }
+
+    @Name("io.github.taodong.mail.dkim.Sign")
+    @Label("DKIM Sign")
+    @Description("Signing one message, all phases included")
+    static final class Sign extends DkimEvent {
+        @Label("Algorithm")
+        String algorithm;
+
+        @Label("Canonicalization")
+        String canonicalization;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("io.github.taodong.mail.dkim.BodyHash")
+    @Label("DKIM Body Hash")
+    @Description("Reading, canonicalizing and hashing the message body")
+    static final class BodyHash extends DkimEvent {
+        @Label("Canonicalization")
+        String canonicalization;
+
+        @Label("Body Size")
+        @DataAmount
+        long bodySize;
+
+        @Label("Canonical Body Size")
+        @DataAmount
+        long canonicalBodySize;
+
+        @Label("Read Time")
+        @Description("Time spent reading the body from the message, MIME encoding and decoding included")
+        @Timespan
+        long readTime;
+
+        @Label("Hash Time")
+        @Description("Time spent canonicalizing the body and updating SHA-256")
+        @Timespan
+        long hashTime;
+    }
+
+    @Name("io.github.taodong.mail.dkim.HeaderIndexing")
+    @Label("DKIM Header Indexing")
+    @Description("Reading the header fields of a message into a lookup index")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class HeaderIndexing extends Event {
+        @Label("Header Count")
+        int headerCount;
+
+        @Label("Raw")
+        @Description("Whether the headers were split from a message in wire format rather than read from a MimeMessage")
+        boolean raw;
+    }
+
+    @Name("io.github.taodong.mail.dkim.HeaderCanonicalization")
+    @Label("DKIM Header Canonicalization")
+    @Description("Selecting the signed headers and canonicalizing them with the DKIM-Signature tags")
+    static final class HeaderCanonicalization extends DkimEvent {
+        @Label("Canonicalization")
+        String canonicalization;
+
+        @Label("Signed Header Count")
+        int signedHeaderCount;
+
+        @Label("Signed Data Size")
+        @DataAmount
+        int signedDataSize;
+    }
+
+    @Name("io.github.taodong.mail.dkim.SignatureComputation")
+    @Label("DKIM Signature Computation")
+    @Description("The private key operation over the canonical header data")
+    static final class SignatureComputation extends DkimEvent {
+        @Label("Algorithm")
+        String algorithm;
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.taodong.mail.dkim;
+
+/**
+ * Receives the outcome of every signature made by a {@link DkimSigner}, e.g. to aggregate throughput, failures and
+ * latency per domain and selector. Callbacks run on the signing thread after the signature is computed, so an
+ * implementation must be thread-safe and should return quickly; {@link DkimSigningMetrics} is the default
+ * implementation.
+ */
+public interface SigningMetricsListener {
+
+    /**
+     * A listener ignoring all callbacks, the signer doesn't measure anything with it
+     */
+    SigningMetricsListener NONE = new SigningMetricsListener() {
+        @Override
+        public void onSigned(String domain, String selector, long latencyNanos, long bodySize) {
+            // ignored
+        }
+
+        @Override
+        public void onFailed(String domain, String selector, long latencyNanos, Throwable failure) {
+            // ignored
+        }
+    };
+
+    /**
+     * Called after a message was signed
+     * @param domain - the signing domain, lower case
+     * @param selector - the selector
+     * @param latencyNanos - time spent signing the message in nanoseconds
+     * @param bodySize - size of the canonical body in bytes
+     */
+    void onSigned(String domain, String selector, long latencyNanos, long bodySize);
+
+    /**
+     * Called after signing a message failed
+     * @param domain - the signing domain, lower case
+     * @param selector - the selector
+     * @param latencyNanos - time spent until the failure in nanoseconds
+     * @param failure - the failure, usually a {@link DkimSigningException}
+     */
+    void onFailed(String domain, String selector, long latencyNanos, Throwable failure);
+}
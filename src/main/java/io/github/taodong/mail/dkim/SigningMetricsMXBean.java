@@ -0,0 +1,54 @@
+package io.github.taodong.mail.dkim;
+
+import java.util.Map;
+
+/**
+ * Aggregate signing metrics of one domain and selector, registered by {@link DkimSigningMetrics} under
+ * {@code io.github.taodong.mail.dkim:type=SigningMetrics,name=<name>,domain=<domain>,selector=<selector>}.
+ * Counters are monotonic, percentiles cover all signatures since the metrics were created and are accurate to 12.5%.
+ */
+public interface SigningMetricsMXBean {
+
+    String getDomain();
+
+    String getSelector();
+
+    /**
+     * @return the number of messages signed
+     */
+    long getSignedCount();
+
+    /**
+     * @return the number of failed signatures
+     */
+    long getFailedCount();
+
+    /**
+     * @return the number of failures by cause, the class name of the cause or the message when there is no cause
+     */
+    Map<String, Long> getFailuresByCause();
+
+    /**
+     * @return messages signed per second over the last minute, or since creation when the metrics are younger, the
+     * same for every reader
+     */
+    double getSignRate();
+
+    long getLatencyP50Nanos();
+
+    long getLatencyP99Nanos();
+
+    long getLatencyP999Nanos();
+
+    long getLatencyMaxNanos();
+
+    double getLatencyMeanNanos();
+
+    long getBodySizeP50();
+
+    long getBodySizeP99();
+
+    long getBodySizeP999();
+
+    long getBodySizeMax();
+}
@@ -0,0 +1,24 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Outcome of signing one message in a batch
+ * @param message - the message signed
+ * @param signature - the DKIM signature header value unfolded, null when signing failed
+ * @param failure - the reason of failure, null when signing succeeded
+ */
+public record SigningResult(MimeMessage message, String signature, DkimSigningException failure) {
+
+    static SigningResult success(MimeMessage message, String signature) {
+        return new SigningResult(message, signature, null);
+    }
+
+    static SigningResult failure(MimeMessage message, DkimSigningException failure) {
+        return new SigningResult(message, null, failure);
+    }
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.taodong.mail.dkim;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Outcome of signing a spool directory
+ * @param signed - number of files signed
+ * @param skipped - number of files skipped, already signed by the signer or removed while they were signed
+ * @param bytes - total size of the files signed
+ * @param failures - the cause of failure by file
+ * @param elapsed - wall clock time of the run
+ */
+public record SpoolSigningReport(long signed, long skipped, long bytes, Map<Path, DkimSigningException> failures, Duration elapsed) {
+
+    /**
+     * @return files signed per second of wall clock time
+     */
+    public double filesPerSecond() {
+        var nanos = elapsed.toNanos();
+        return nanos == 0 ? 0 : signed * 1e9 / nanos;
+    }
+
+    /**
+     * @return bytes signed per second of wall clock time
+     */
+    public double bytesPerSecond() {
+        var nanos = elapsed.toNanos();
+        return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+    }
+}
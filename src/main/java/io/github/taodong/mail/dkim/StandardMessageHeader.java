@@ -5,6 +5,7 @@ import lombok.Getter;
 @Getter
 public enum StandardMessageHeader {
     FROM("From"),
+    SENDER("Sender"),
     TO("To"),
     SUBJECT("Subject"),
     CONTENT_TYPE("Content-Type"),
@@ -0,0 +1,218 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Signature;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.createTestMessage;
+import static io.github.taodong.mail.dkim.DkimTestSupport.signedHeaderData;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testProfile;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testPublicKey;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ArcSealerTest {
+    private static final Clock CLOCK = Clock.fixed(Instant.ofEpochSecond(1_760_000_000L), ZoneOffset.UTC);
+    private static final String RELAY = "relay.duotail.com";
+
+    @Test
+    void seal_firstSetWithDkim() throws Exception {
+        var sealer = sealer(Canonicalization.RELAXED);
+        var dkimSigner = new DkimSigner(testProfile()
+                .headerCanonicalization(Canonicalization.RELAXED)
+                .bodyCanonicalization(Canonicalization.RELAXED)
+                .build());
+        var message = spy(message());
+
+        var result = sealer.seal(message, "spf=pass smtp.mailfrom=duotail.com", ArcChainStatus.NONE, dkimSigner);
+        // one body pass for both signatures
+        verify(message, times(1)).getInputStream();
+        assertEquals(dkimSigner.sign(message()), result.dkimSignature());
+        assertEquals(1, result.instance());
+        assertEquals("i=1; relay.duotail.com; spf=pass smtp.mailfrom=duotail.com", result.authenticationResults());
+        assertEquals(tag(result.dkimSignature(), "bh"), tag(result.messageSignature(), "bh"));
+        assertTrue(result.messageSignature().startsWith("i=1; a=rsa-sha256; c=relaxed/relaxed; d=duotail.com; s=s1; t=1760000000; h="));
+        assertTrue(result.seal().startsWith("i=1; a=rsa-sha256; t=1760000000; cv=none; d=duotail.com; s=s1; b="));
+
+        result.addTo(message);
+        // the message signature signs the new DKIM signature
+        assertTrue(tag(result.messageSignature(), "h").contains(DkimSignature.DKIM_SIGNATURE_HEADER));
+        assertMessageSignatureValid(message, result.messageSignature());
+        assertSealValid(message, result, 1);
+    }
+
+    @Test
+    void seal_nextSetCoversChain() throws Exception {
+        var sealer = sealer(Canonicalization.RELAXED);
+        var message = message();
+        sealer.seal(message, null, ArcChainStatus.NONE).addTo(message);
+
+        var result = sealer.seal(message, "arc=pass", ArcChainStatus.PASS);
+        assertNull(result.dkimSignature());
+        assertEquals(2, result.instance());
+        assertEquals("i=2; relay.duotail.com; arc=pass", result.authenticationResults());
+        assertTrue(result.seal().contains("cv=pass"));
+        result.addTo(message);
+        assertMessageSignatureValid(message, result.messageSignature());
+        assertSealValid(message, result, 1);
+    }
+
+    @Test
+    void seal_failedChainCoversOwnSet() throws Exception {
+        var sealer = sealer(Canonicalization.SIMPLE);
+        var message = message();
+        sealer.seal(message, null, ArcChainStatus.NONE).addTo(message);
+
+        var result = sealer.seal(message, "arc=fail", ArcChainStatus.FAIL);
+        assertTrue(result.seal().contains("cv=fail"));
+        result.addTo(message);
+        assertMessageSignatureValid(message, result.messageSignature());
+        assertSealValid(message, result, 2);
+    }
+
+    @Test
+    void seal_incompleteChainFails() throws Exception {
+        var message = message();
+        message.addHeader(ArcSealer.ARC_SEAL_HEADER, "i=1; a=rsa-sha256; t=1; cv=none; d=example.com; s=s1; b=AAAA");
+
+        var result = sealer(Canonicalization.RELAXED).seal(message, "arc=pass", ArcChainStatus.PASS);
+        assertEquals(2, result.instance());
+        assertTrue(result.seal().contains("cv=fail"));
+    }
+
+    @Test
+    void seal_differentBodyCanonicalization() throws Exception {
+        var dkimSigner = new DkimSigner(testProfile().build());
+        var message = spy(message());
+
+        var result = sealer(Canonicalization.RELAXED).seal(message, null, ArcChainStatus.NONE, dkimSigner);
+        verify(message, times(1)).getInputStream();
+        assertEquals(dkimSigner.sign(message()), result.dkimSignature());
+        assertEquals(tag(new DkimSigner(testProfile().bodyCanonicalization(Canonicalization.RELAXED).build()).sign(message()), "bh"),
+                tag(result.messageSignature(), "bh"));
+    }
+
+    @Test
+    void seal_reported() throws Exception {
+        var listener = mock(SigningMetricsListener.class);
+        var sealer = new ArcSealer(testProfile().identity(null).build(), RELAY, listener, CLOCK);
+
+        sealer.seal(message(), null, ArcChainStatus.NONE, new DkimSigner(testProfile().build(), listener));
+
+        // the DKIM-Signature and the ARC-Message-Signature
+        verify(listener, times(2)).onSigned(eq("duotail.com"), eq("s1"), anyLong(), eq((long) "Relayed  body \r\n".length()));
+    }
+
+    @Test
+    void seal_invalid() throws Exception {
+        var sealer = sealer(Canonicalization.RELAXED);
+        var message = message();
+        sealer.seal(message, null, ArcChainStatus.NONE).addTo(message);
+        var exception = assertThrows(DkimSigningException.class, () -> sealer.seal(message, null, ArcChainStatus.NONE));
+        assertEquals("Chain status none is only valid for the first ARC set.", exception.getMessage());
+
+        var full = message();
+        for (var i = 1; i <= ArcSealer.MAX_INSTANCE; i++) {
+            full.addHeader(ArcSealer.ARC_AUTHENTICATION_RESULTS_HEADER, "i=" + i + "; " + RELAY + "; none");
+            full.addHeader(ArcSealer.ARC_MESSAGE_SIGNATURE_HEADER, "i=" + i + "; a=rsa-sha256; b=AAAA");
+            full.addHeader(ArcSealer.ARC_SEAL_HEADER, "i=" + i + "; a=rsa-sha256; cv=pass; b=AAAA");
+        }
+        exception = assertThrows(DkimSigningException.class, () -> sealer.seal(full, null, ArcChainStatus.PASS));
+        assertEquals("The ARC chain already has 50 sets.", exception.getMessage());
+
+    }
+
+    @Test
+    void seal_malformedInstance() throws Exception {
+        var sealer = sealer(Canonicalization.RELAXED);
+        for (var instance : new String[] {"cv=none; i=1", "i=x; a=rsa-sha256", "i=51; a=rsa-sha256", "i=007; a=rsa-sha256"}) {
+            var message = message();
+            sealer.seal(message, null, ArcChainStatus.NONE).addTo(message);
+            message.addHeader(ArcSealer.ARC_SEAL_HEADER, instance);
+
+            // the chain is broken rather than the message rejected
+            var result = sealer.seal(message, null, ArcChainStatus.PASS);
+            assertEquals(2, result.instance());
+            assertEquals("fail", tag(result.seal(), "cv"));
+        }
+    }
+
+    private static ArcSealer sealer(Canonicalization canonicalization) throws DkimSigningException {
+        var headers = new DkimMimeMessageHelper().getDkimSignHeaders(List.of(
+                new DkimSignHeader(DkimSignature.DKIM_SIGNATURE_HEADER), new DkimSignHeader(ArcSealer.ARC_SEAL_HEADER)));
+        return new ArcSealer(testProfile()
+                .identity(null)
+                .headers(headers)
+                .headerCanonicalization(canonicalization)
+                .bodyCanonicalization(canonicalization)
+                .build(), RELAY, CLOCK);
+    }
+
+    private static MimeMessage message() {
+        return createTestMessage("tao.dong@duotail.com", "list@example.com", "Relayed", "Relayed  body \r\n\r\n");
+    }
+
+    private static String tag(String value, String name) throws DkimSigningException {
+        return DkimSignature.parseTags(value).get(name);
+    }
+
+    private static void assertMessageSignatureValid(MimeMessage message, String value) throws Exception {
+        assertFalse(tag(value, "h").toLowerCase(Locale.ROOT).contains("arc-seal"));
+        var canonicalization = Canonicalization.fromType(StringUtils.substringBefore(tag(value, "c"), "/"));
+        assertTrue(verifySignature(signedHeaderData(message, ArcSealer.ARC_MESSAGE_SIGNATURE_HEADER, value, canonicalization), value));
+    }
+
+    /**
+     * Rebuild the data of the seal of the last set from the message, starting with a set
+     */
+    private static void assertSealValid(MimeMessage message, ArcSealResult result, int firstInstance) throws Exception {
+        var data = new StringBuilder();
+        for (var instance = firstInstance; instance <= result.instance(); instance++) {
+            for (var header : List.of(ArcSealer.ARC_AUTHENTICATION_RESULTS_HEADER, ArcSealer.ARC_MESSAGE_SIGNATURE_HEADER,
+                    ArcSealer.ARC_SEAL_HEADER)) {
+                var value = headerOfInstance(message, header, instance);
+                if (instance == result.instance() && header.equals(ArcSealer.ARC_SEAL_HEADER)) {
+                    data.append(Canonicalization.RELAXED.getHeaderOperator().apply(header, StringUtils.substringBeforeLast(value, "b=") + "b="));
+                } else {
+                    data.append(Canonicalization.RELAXED.getHeaderOperator().apply(header, value)).append("\r\n");
+                }
+            }
+        }
+        assertTrue(verifySignature(data.toString().getBytes(StandardCharsets.UTF_8), result.seal()));
+    }
+
+    private static String headerOfInstance(MimeMessage message, String header, int instance) throws MessagingException {
+        for (var value : message.getHeader(header)) {
+            if (value.startsWith("i=" + instance + ";")) {
+                return value;
+            }
+        }
+        throw new AssertionError("No " + header + " of instance " + instance);
+    }
+
+    private static boolean verifySignature(byte[] data, String value) throws Exception {
+        var signature = Signature.getInstance("SHA256withRSA");
+        signature.initVerify(testPublicKey());
+        signature.update(data);
+        return signature.verify(Base64.getDecoder().decode(tag(value, "b")));
+    }
+}
@@ -0,0 +1,100 @@
+package io.github.taodong.mail.dkim;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.FieldSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.params.provider.Arguments.argumentSet;
+
+class CanonicalBodyOutputStreamTest {
+
+    @SuppressWarnings("unused")
+    private static final List<Arguments> bodyTestCases = List.of(
+            argumentSet("empty body apply simple", Canonicalization.SIMPLE, "", "\r\n"),
+            argumentSet("empty body apply relaxed", Canonicalization.RELAXED, "", ""),
+            argumentSet("white space only body apply simple", Canonicalization.SIMPLE, " \t", " \t\r\n"),
+            argumentSet("white space only body apply relaxed", Canonicalization.RELAXED, " \t", ""),
+            argumentSet("body with white space apply simple", Canonicalization.SIMPLE, " \tXY \t", " \tXY \t\r\n"),
+            argumentSet("body with white space apply relaxed", Canonicalization.RELAXED, " \tXY \t", " XY\r\n"),
+            argumentSet("control characters in white spaces apply relaxed", Canonicalization.RELAXED, " \t\f\u000b \t", " \f\u000b\r\n"),
+            argumentSet("space and CRLF apply simple", Canonicalization.SIMPLE, " \t\r\n \t", " \t\r\n \t\r\n"),
+            argumentSet("space and CRLF apply relaxed", Canonicalization.RELAXED, " \t\r\n \t", ""),
+            argumentSet("CRLF only apply simple", Canonicalization.SIMPLE, "\r\n\r\n\r\n", "\r\n"),
+            argumentSet("CRLF only apply relaxed", Canonicalization.RELAXED, "\r\n\r\n\r\n", ""),
+            argumentSet("empty lines within body apply relaxed", Canonicalization.RELAXED, "A \r\n\r\n \r\nB\r\n\r\n", "A\r\n\r\n\r\nB\r\n"),
+            argumentSet("lone CR apply simple", Canonicalization.SIMPLE, "A\rB\r", "A\rB\r\r\n"),
+            argumentSet("lone CR apply relaxed", Canonicalization.RELAXED, "A \r B \r\r\n", "A \r B \r\r\n"),
+            argumentSet("RLF apply simple", Canonicalization.SIMPLE, " C \r\nD \t E\r\n\r\n\r\n", " C \r\nD \t E\r\n"),
+            argumentSet("RLF apply relaxed", Canonicalization.RELAXED, " C \r\nD \t E\r\n\r\n\r\n", " C\r\nD E\r\n"),
+            argumentSet("unicode apply relaxed", Canonicalization.RELAXED, "中文  テスト\t\r\n", "中文 テスト\r\n")
+    );
+
+    @ParameterizedTest
+    @FieldSource("bodyTestCases")
+    void write(Canonicalization canonicalization, String input, String expected) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var canonicalBody = new CanonicalBodyOutputStream(canonicalization, out)) {
+            canonicalBody.write(input.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+    }
+
+    @ParameterizedTest
+    @FieldSource("bodyTestCases")
+    void write_byteByByte(Canonicalization canonicalization, String input, String expected) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var canonicalBody = new CanonicalBodyOutputStream(canonicalization, out)) {
+            for (var b : input.getBytes(StandardCharsets.UTF_8)) {
+                canonicalBody.write(b);
+            }
+        }
+        assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+    }
+
+    @ParameterizedTest
+    @FieldSource("bodyTestCases")
+    void write_directByteBuffer(Canonicalization canonicalization, String input, String expected) throws IOException {
+        var bytes = input.getBytes(StandardCharsets.UTF_8);
+        var buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        var out = new ByteArrayOutputStream();
+        try (var canonicalBody = new CanonicalBodyOutputStream(canonicalization, out)) {
+            assertEquals(bytes.length, canonicalBody.write(buffer));
+            assertEquals(0, buffer.remaining());
+            canonicalBody.finish();
+            assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, canonicalBody.getBodyLength());
+        }
+        assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void write_largeBodyDigest() throws IOException, NoSuchAlgorithmException {
+        var line = "Lorem ipsum  dolor sit amet \t\r\n".repeat(10_000);
+        var expected = Canonicalization.RELAXED.getBodyOperator().apply(line).getBytes(StandardCharsets.UTF_8);
+
+        var digest = MessageDigest.getInstance("SHA-256");
+        try (var canonicalBody = new CanonicalBodyOutputStream(Canonicalization.RELAXED, digest)) {
+            canonicalBody.write(line.getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(expected), digest.digest());
+    }
+
+    @Test
+    void write_afterFinish() throws IOException {
+        var canonicalBody = new CanonicalBodyOutputStream(null, new ByteArrayOutputStream());
+        canonicalBody.finish();
+        assertThrows(IOException.class, () -> canonicalBody.write('A'));
+    }
+}
@@ -1,12 +1,24 @@
 package io.github.taodong.mail.dkim;
 
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.FieldSource;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.params.provider.Arguments.argumentSet;
 import static org.junit.jupiter.params.provider.Arguments.arguments;
 
@@ -80,4 +92,137 @@ class CanonicalizationTest {
         assertEquals(expected, Canonicalization.fromType(type));
     }
 
-}
\ No newline at end of file
+    @SuppressWarnings("unused")
+    private static final List<Arguments> canonicalBodyTestCases = List.of(
+            arguments(Canonicalization.SIMPLE, "", false),
+            arguments(Canonicalization.RELAXED, "", true),
+            arguments(Canonicalization.SIMPLE, "\r\n", true),
+            arguments(Canonicalization.RELAXED, "\r\n", false),
+            arguments(Canonicalization.SIMPLE, "A  B \t\r\n", true),
+            arguments(Canonicalization.RELAXED, "A  B\r\n", false),
+            arguments(Canonicalization.RELAXED, "A B \r\n", false),
+            arguments(Canonicalization.RELAXED, "A\tB\r\n", false),
+            arguments(Canonicalization.RELAXED, "\r\nA B \rC\r\n", true),
+            arguments(Canonicalization.SIMPLE, "A\r\n\r\n", false),
+            arguments(Canonicalization.RELAXED, "A B", false)
+    );
+
+    @ParameterizedTest
+    @FieldSource("canonicalBodyTestCases")
+    void testIsCanonicalBody(Canonicalization canonicalization, String body, boolean expected) {
+        var bytes = body.getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected, canonicalization.isCanonicalBody(ByteBuffer.wrap(bytes)));
+        if (expected) {
+            assertSame(bytes, canonicalization.canonicalizeBody(bytes));
+        } else {
+            assertArrayEquals(LEGACY_BODY_OPERATORS.get(canonicalization).apply(body).getBytes(StandardCharsets.UTF_8),
+                    canonicalization.canonicalizeBody(bytes));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Canonicalization.class)
+    void testCanonicalizeBodyByteBuffer(Canonicalization canonicalization) {
+        var body = " C \r\nD \t E\r\n\r\n\r\n";
+        var buffer = ByteBuffer.allocateDirect(64).put(body.getBytes(StandardCharsets.UTF_8)).flip();
+        var canonical = canonicalization.canonicalizeBody(buffer);
+
+        var bytes = new byte[canonical.remaining()];
+        canonical.get(bytes);
+        assertEquals(LEGACY_BODY_OPERATORS.get(canonicalization).apply(body), new String(bytes, StandardCharsets.UTF_8));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void testBodyOperator_differential() {
+        var random = new Random(20241210L);
+        for (var i = 0; i < 5000; i++) {
+            var body = randomText(random, random.nextInt(64));
+            for (var canonicalization : Canonicalization.values()) {
+                assertEquals(LEGACY_BODY_OPERATORS.get(canonicalization).apply(body),
+                        canonicalization.getBodyOperator().apply(body),
+                        () -> canonicalization + " body " + StringUtils.wrap(body, '"'));
+            }
+        }
+    }
+
+    @Test
+    void testHeaderOperator_differential() {
+        var random = new Random(20241211L);
+        for (var i = 0; i < 5000; i++) {
+            var header = randomHeaderName(random);
+            var value = randomText(random, random.nextInt(64));
+            for (var canonicalization : Canonicalization.values()) {
+                assertEquals(LEGACY_HEADER_OPERATORS.get(canonicalization).apply(header, value),
+                        canonicalization.getHeaderOperator().apply(header, value),
+                        () -> canonicalization + " header " + StringUtils.wrap(header + ":" + value, '"'));
+            }
+        }
+    }
+
+    @Test
+    void testCanonicalizeHeader_intoBuffer() {
+        var name = "Subject".getBytes(StandardCharsets.UTF_8);
+        var value = " Hello \r\n\t World ".getBytes(StandardCharsets.UTF_8);
+        var buffer = new byte[Canonicalization.maxHeaderLength(name, value) + 3];
+
+        var end = Canonicalization.RELAXED.canonicalizeHeader(name, value, buffer, 3);
+        assertEquals("subject:Hello World", new String(buffer, 3, end - 3, StandardCharsets.UTF_8));
+
+        end = Canonicalization.SIMPLE.canonicalizeHeader(name, value, buffer, 0);
+        assertEquals("Subject:  Hello \r\n\t World ", new String(buffer, 0, end, StandardCharsets.UTF_8));
+    }
+
+    private static final String TEXT_ALPHABET = "ab Z\t\r\n\f\u000b\u0001中テ";
+
+    private static String randomText(Random random, int length) {
+        var sb = new StringBuilder(length);
+        for (var i = 0; i < length; i++) {
+            sb.append(TEXT_ALPHABET.charAt(random.nextInt(TEXT_ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    private static String randomHeaderName(Random random) {
+        var names = List.of("Subject", "from", "X-Custom-HEADER", " To ", "Message-ID\t");
+        return names.get(random.nextInt(names.size()));
+    }
+
+    // the string based implementation before byte scanners were introduced, kept as the reference for differential tests
+    private static final Map<Canonicalization, UnaryOperator<String>> LEGACY_BODY_OPERATORS = Map.of(
+            Canonicalization.SIMPLE, body -> {
+                if (StringUtils.isEmpty(body)) {
+                    return "\r\n";
+                }
+                if (!body.endsWith("\r\n")) {
+                    return body + "\r\n";
+                }
+                while (body.endsWith("\r\n\r\n")) {
+                    body = body.substring(0, body.length() - 2);
+                }
+                return body;
+            },
+            Canonicalization.RELAXED, body -> {
+                if (StringUtils.isEmpty(body)) {
+                    return "";
+                }
+                if (!body.endsWith("\r\n")) {
+                    body += "\r\n";
+                }
+                body = body.replaceAll("[ \\t]+\r\n", "\r\n");
+                body = body.replaceAll("[ \\t]+", " ");
+                while (body.endsWith("\r\n\r\n")) {
+                    body = body.substring(0, body.length() - 2);
+                }
+                if ("\r\n".equals(body)) {
+                    body = "";
+                }
+                return body;
+            }
+    );
+
+    private static final Map<Canonicalization, BinaryOperator<String>> LEGACY_HEADER_OPERATORS = Map.of(
+            Canonicalization.SIMPLE, (header, value) -> header + ": " + value,
+            Canonicalization.RELAXED, (header, value) -> header.trim().toLowerCase() + ":" + value.replaceAll("\\s+", " ").trim()
+    );
+}
@@ -0,0 +1,212 @@
+package io.github.taodong.mail.dkim;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.testProfile;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DkimMilterServerTest {
+    private DkimMilterServer milter;
+
+    @AfterEach
+    void tearDown() {
+        if (milter != null) {
+            milter.close();
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({"SIMPLE,true", "SIMPLE,false", "RELAXED,true", "RELAXED,false"})
+    void send_signedLikeWireMessage(Canonicalization canonicalization, boolean leadingSpace) throws Exception {
+        var signer = new DkimSigner(testProfile()
+                .headerCanonicalization(canonicalization)
+                .bodyCanonicalization(canonicalization)
+                .build());
+        var selected = new AtomicReference<MilterMessage>();
+        milter = new DkimMilterServer(message -> {
+            selected.set(message);
+            return signer;
+        }, new InetSocketAddress("localhost", 0));
+
+        var message = message(1, "Milter body  \r\nwith trailing space\r\n\r\n\r\n");
+        try (var client = new MilterTestClient(milter.getAddress(), leadingSpace)) {
+            client.connect("192.0.2.10");
+            var result = client.send("bounce@duotail.com", message);
+            assertEquals(MilterProtocol.SMFIR_CONTINUE, result.code());
+            assertEquals(1, result.addedHeaders().size());
+            assertEquals(DkimSignature.DKIM_SIGNATURE_HEADER, result.addedHeaders().get(0)[0]);
+            assertEquals(signer.sign(message), result.addedHeaders().get(0)[1].strip());
+        }
+        assertEquals("bounce@duotail.com", selected.get().sender());
+        assertEquals("bounce@duotail.com", selected.get().macros().get("mail_addr"));
+        assertEquals("duotail.com", selected.get().getFromDomain());
+        assertEquals(InetAddress.getByName("192.0.2.10"), selected.get().clientAddress());
+    }
+
+    @Test
+    void send_internalSendersOnly() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        milter = new DkimMilterServer(DkimMilterServer.internalSenders(message -> signer, List.of("10.0.0.0/8", "2001:db8::/32")),
+                new InetSocketAddress("localhost", 0));
+        var message = message(1, "Internal only\r\n");
+
+        for (var client : List.of("10.1.2.3", "127.0.0.1", "2001:db8::25")) {
+            assertEquals(signer.sign(message), sendFrom(client, null, message).addedHeaders().get(0)[1].strip());
+        }
+        assertEquals(signer.sign(message), sendFrom("203.0.113.7", "tao.dong", message).addedHeaders().get(0)[1].strip());
+        assertTrue(sendFrom("203.0.113.7", null, message).addedHeaders().isEmpty());
+        assertTrue(sendFrom("2001:db9::25", null, message).addedHeaders().isEmpty());
+        assertTrue(sendFrom(null, null, message).addedHeaders().isEmpty());
+    }
+
+    @Test
+    void internalSenders_malformedNetwork() {
+        MilterSignerSelector selector = message -> null;
+        assertThrows(IllegalArgumentException.class, () -> DkimMilterServer.internalSenders(selector, List.of("10.0.0.0/33")));
+        assertThrows(IllegalArgumentException.class, () -> DkimMilterServer.internalSenders(selector, List.of("intranet/8")));
+    }
+
+    @Test
+    void send_largeBodyInChunks() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        milter = new DkimMilterServer(message -> signer, new InetSocketAddress("localhost", 0));
+        var message = message(2, "0123456789 abcdefghij\r\n".repeat(20_000));
+
+        try (var client = new MilterTestClient(milter.getAddress(), true)) {
+            var result = client.send("bounce@duotail.com", message);
+            assertEquals(signer.sign(message), result.addedHeaders().get(0)[1].strip());
+        }
+    }
+
+    @Test
+    void send_severalMessagesAfterAbort() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        milter = new DkimMilterServer(message -> signer, new InetSocketAddress("localhost", 0));
+
+        try (var client = new MilterTestClient(milter.getAddress(), true)) {
+            client.sendHeadersAndAbort("bounce@duotail.com", message(0, "Aborted\r\n"));
+            for (var i = 1; i <= 3; i++) {
+                var message = message(i, "Message " + i + "\r\n");
+                assertEquals(signer.sign(message), client.send("bounce@duotail.com", message).addedHeaders().get(0)[1].strip());
+            }
+        }
+    }
+
+    @Test
+    void send_unsigned() throws Exception {
+        milter = new DkimMilterServer(message -> null, new InetSocketAddress("localhost", 0));
+        try (var client = new MilterTestClient(milter.getAddress(), true)) {
+            var result = client.send("bounce@example.com", message(1, "Not ours\r\n"));
+            assertEquals(MilterProtocol.SMFIR_CONTINUE, result.code());
+            assertTrue(result.addedHeaders().isEmpty());
+        }
+    }
+
+    @Test
+    void send_selectorFailed() throws Exception {
+        milter = new DkimMilterServer(message -> {
+            throw new DkimSigningException("No key.");
+        }, new InetSocketAddress("localhost", 0));
+        try (var client = new MilterTestClient(milter.getAddress(), true)) {
+            var result = client.send("bounce@duotail.com", message(1, "Body\r\n"));
+            assertEquals(MilterProtocol.SMFIR_TEMPFAIL, result.code());
+            assertTrue(result.addedHeaders().isEmpty());
+        }
+    }
+
+    @Test
+    void send_concurrentSessions() throws Exception {
+        var signer = new DkimSigner(testProfile().bodyCanonicalization(Canonicalization.RELAXED).build());
+        milter = new DkimMilterServer(message -> signer, new InetSocketAddress("localhost", 0));
+
+        var sessions = new ArrayList<Callable<Void>>();
+        for (var i = 0; i < 500; i++) {
+            var message = message(i, ("Session " + i + "\r\n").repeat(100));
+            sessions.add(() -> {
+                try (var client = new MilterTestClient(milter.getAddress(), true)) {
+                    assertEquals(signer.sign(message), client.send("bounce@duotail.com", message).addedHeaders().get(0)[1].strip());
+                }
+                return null;
+            });
+        }
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var future : executor.invokeAll(sessions)) {
+                future.get();
+            }
+        }
+    }
+
+    @Test
+    void close_unixSocket(@TempDir Path directory) throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var socket = directory.resolve("milter.sock");
+        milter = new DkimMilterServer(message -> signer, UnixDomainSocketAddress.of(socket));
+        var message = message(1, "Over a Unix socket\r\n");
+        try (var client = new MilterTestClient(milter.getAddress(), true)) {
+            assertEquals(signer.sign(message), client.send("bounce@duotail.com", message).addedHeaders().get(0)[1].strip());
+        }
+
+        milter.close();
+        assertFalse(Files.exists(socket));
+    }
+
+    @Test
+    void create_pathNotSocket(@TempDir Path directory) throws Exception {
+        var file = Files.writeString(directory.resolve("main.cf"), "smtpd_milters = unix:/run/dkim/milter.sock");
+
+        var exception = assertThrows(DkimSigningException.class,
+                () -> new DkimMilterServer(message -> null, UnixDomainSocketAddress.of(file)));
+        assertEquals(file + " exists and is not a socket.", exception.getMessage());
+        assertEquals("smtpd_milters = unix:/run/dkim/milter.sock", Files.readString(file));
+    }
+
+    @Test
+    void parseAddress() {
+        assertEquals(new InetSocketAddress("localhost", 8891), DkimMilterServer.parseAddress("inet:localhost:8891"));
+        assertEquals(new InetSocketAddress("localhost", 8891), DkimMilterServer.parseAddress("inet:8891"));
+        assertEquals(UnixDomainSocketAddress.of("/run/dkim/milter.sock"), DkimMilterServer.parseAddress("unix:/run/dkim/milter.sock"));
+    }
+
+    private MilterTestClient.Result sendFrom(String clientAddress, String user, byte[] message) throws Exception {
+        try (var client = new MilterTestClient(milter.getAddress(), true)) {
+            if (clientAddress != null) {
+                client.connect(clientAddress);
+            }
+            if (user != null) {
+                client.authenticate(user);
+            }
+            return client.send("bounce@duotail.com", message);
+        }
+    }
+
+    private static byte[] message(int recipient, String body) {
+        return ("From: Tao Dong <tao.dong@duotail.com>\r\n"
+                + "To: recipient" + recipient + "@example.com\r\n"
+                + "Subject: Milter\r\n\tfolded subject\r\n"
+                + "Date: Mon, 12 Oct 2026 10:00:00 +0000\r\n"
+                + "Message-ID: <" + recipient + "@duotail.com>\r\n"
+                + "MIME-Version: 1.0\r\n"
+                + "Content-Type: text/plain; charset=UTF-8\r\n"
+                + "\r\n"
+                + body).getBytes(StandardCharsets.UTF_8);
+    }
+}
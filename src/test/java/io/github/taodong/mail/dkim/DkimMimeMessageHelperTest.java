@@ -7,6 +7,7 @@ import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.FieldSource;
 
 import java.io.IOException;
+import java.security.interfaces.EdECPrivateKey;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -18,6 +19,7 @@ import static io.github.taodong.mail.dkim.StandardMessageHeader.LIST_UNSUBSCRIBE
 import static io.github.taodong.mail.dkim.StandardMessageHeader.LIST_UNSUBSCRIBE_POST;
 import static io.github.taodong.mail.dkim.StandardMessageHeader.MIME_VERSION;
 import static io.github.taodong.mail.dkim.StandardMessageHeader.TO;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -96,4 +98,45 @@ class DkimMimeMessageHelperTest {
             assertThrows(DkimSigningException.class, () -> dkimMimeMessageHelper.getKPCS8KeyFromInputStream(input));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void getPrivateKeyFromInputStream_ed25519() throws IOException, DkimSigningException {
+        var classLoader = getClass().getClassLoader();
+        try (var input = classLoader.getResourceAsStream("keys/test_ed25519_key.pem")) {
+            var key = dkimMimeMessageHelper.getPrivateKeyFromInputStream(input, SigningAlgorithm.ED25519_SHA256);
+            assertTrue(key instanceof EdECPrivateKey);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static final List<Arguments> pemKeyTestCases = List.of(
+            arguments("keys/test_key.pem", null, "RSA"),
+            arguments("keys/test_key_pkcs1.pem", null, "RSA"),
+            arguments("keys/test_key_encrypted.pem", "changeit".toCharArray(), "RSA"),
+            arguments("keys/test_ed25519_key.pem", null, "EdDSA")
+    );
+
+    @ParameterizedTest
+    @FieldSource("pemKeyTestCases")
+    void getPrivateKeyFromPem(String resource, char[] password, String algorithm) throws DkimSigningException {
+        var classLoader = getClass().getClassLoader();
+        var key = dkimMimeMessageHelper.getPrivateKeyFromPem(classLoader.getResourceAsStream(resource), password);
+        assertEquals(algorithm, key.getAlgorithm());
+    }
+
+    @Test
+    void getPrivateKeyFromPem_pkcs1MatchesPkcs8() throws DkimSigningException {
+        var classLoader = getClass().getClassLoader();
+        var key = dkimMimeMessageHelper.getPrivateKeyFromPem(classLoader.getResourceAsStream("keys/test_key_pkcs1.pem"), null);
+        assertArrayEquals(DkimTestSupport.testKey().getEncoded(), key.getEncoded());
+    }
+
+    @Test
+    void getPrivateKeyFromPem_wrongPassword() {
+        var classLoader = getClass().getClassLoader();
+        assertThrows(DkimSigningException.class, () -> dkimMimeMessageHelper.getPrivateKeyFromPem(
+                classLoader.getResourceAsStream("keys/test_key_encrypted.pem"), null));
+        assertThrows(DkimSigningException.class, () -> dkimMimeMessageHelper.getPrivateKeyFromPem(
+                classLoader.getResourceAsStream("keys/test_key_encrypted.pem"), "wrong".toCharArray()));
+    }
+}
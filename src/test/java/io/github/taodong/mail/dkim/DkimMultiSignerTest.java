@@ -0,0 +1,76 @@
+package io.github.taodong.mail.dkim;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.createTestMessage;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testEd25519Key;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testProfile;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+class DkimMultiSignerTest {
+
+    @Test
+    void sign() throws DkimSigningException {
+        var rsa = new DkimSigner(testProfile().build());
+        var ed25519 = new DkimSigner(testProfile().privateKey(testEd25519Key()).selector("ed1")
+                .headerCanonicalization(Canonicalization.RELAXED).bodyCanonicalization(Canonicalization.RELAXED).build());
+        var esp = new DkimSigner(testProfile().domain("esp.example.com").identity("@mail.esp.example.com")
+                .headerCanonicalization(Canonicalization.RELAXED).build());
+        var multiSigner = new DkimMultiSigner(List.of(rsa, ed25519, esp));
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Multiple Signatures", "Hello  world \r\n\r\n");
+
+        var signatures = multiSigner.sign(message);
+
+        assertEquals(List.of(rsa.sign(message), ed25519.sign(message), esp.sign(message)), signatures);
+    }
+
+    @Test
+    void sign_pipelinedParallelParts(@TempDir Path tempDir) throws Exception {
+        var simple = new DkimSigner(testProfile().pipelinedHashThreshold(64 * 1024).parallelPartEncoding(true).build());
+        var relaxed = new DkimSigner(testProfile().bodyCanonicalization(Canonicalization.RELAXED)
+                .pipelinedHashThreshold(64 * 1024).build());
+        var message = spy(ParallelMultipartWriterTest.multipartMessage(tempDir, 4, 200_000));
+
+        var signatures = new DkimMultiSigner(List.of(simple, relaxed)).sign(message);
+
+        // the parts were encoded on the pool, the body stream of the message was not read
+        verify(message, never()).getInputStream();
+        assertEquals(List.of(simple.sign(message), relaxed.sign(message)), signatures);
+    }
+
+    @Test
+    void sign_reported() throws DkimSigningException {
+        var listener = mock(SigningMetricsListener.class);
+        var simple = new DkimSigner(testProfile().build(), listener);
+        var relaxed = new DkimSigner(testProfile().selector("s2").bodyCanonicalization(Canonicalization.RELAXED).build(), listener);
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Reported", "Hello  world \r\n\r\n");
+
+        new DkimMultiSigner(List.of(simple, relaxed)).sign(message);
+
+        verify(listener).onSigned(eq("duotail.com"), eq("s1"), anyLong(), eq((long) "Hello  world \r\n".length()));
+        verify(listener).onSigned(eq("duotail.com"), eq("s2"), anyLong(), eq((long) "Hello world\r\n".length()));
+    }
+
+    @Test
+    void sign_failed() throws DkimSigningException {
+        var headers = new DkimMimeMessageHelper().getDkimSignHeaders(List.of(new DkimSignHeader("X-Feedback-ID", true)));
+        var multiSigner = new DkimMultiSigner(List.of(
+                new DkimSigner(testProfile().build()),
+                new DkimSigner(testProfile().headers(headers).build())));
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Missing Header", "");
+
+        var exception = assertThrows(DkimSigningException.class, () -> multiSigner.sign(message));
+        assertEquals("Required header X-Feedback-ID is missing.", exception.getMessage());
+    }
+}
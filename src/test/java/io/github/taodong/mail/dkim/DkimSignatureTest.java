@@ -2,6 +2,8 @@ package io.github.taodong.mail.dkim;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -70,5 +72,48 @@ class DkimSignatureTest {
         assertThrows(DkimSigningException.class, signature::getBeforeHashValue);
     }
 
+    @Test
+    void getTagPrefix() throws DkimSigningException {
+        DkimSignature signature = new DkimSignature();
+        signature.addTagValue(HeaderTag.DOMAIN, "duotail.com");
+        signature.addTagValue(HeaderTag.CANONICALIZATION, "relaxed/simple");
+        signature.addTagValue(HeaderTag.USERNAME, "tao.dong@duotail.com");
+        signature.addTagValue(HeaderTag.SELECTOR, "selector1");
+
+        String expected = "v=1; a=rsa-sha256; d=duotail.com; c=relaxed/simple; i=tao.dong@duotail.com; s=selector1";
+        assertEquals(expected, signature.getTagPrefix(HeaderTag.HEADERS));
+    }
 
-}
\ No newline at end of file
+    @Test
+    void getTagPrefix_missingTagValue() {
+        DkimSignature signature = new DkimSignature();
+        signature.addTagValue(HeaderTag.DOMAIN, "duotail.com");
+
+        var exception = assertThrows(DkimSigningException.class, () -> signature.getTagPrefix(HeaderTag.HEADERS));
+        assertEquals("Missing value for tag(s): c, i, s", exception.getMessage());
+    }
+
+    @Test
+    void parse() throws DkimSigningException {
+        var signature = DkimSignature.parse("v=1; a=rsa-sha256; d=duotail.com; s=s1;\r\n\th=from:to; l=10;\r\n bh=ab\r\n cd=; b=ef gh;");
+
+        assertEquals("1", signature.getTagValue(HeaderTag.VERSION));
+        assertEquals("duotail.com", signature.getTagValue(HeaderTag.DOMAIN));
+        assertEquals("from:to", signature.getTagValue(HeaderTag.HEADERS));
+        assertEquals("abcd=", signature.getTagValue(HeaderTag.BODY_HASH));
+        assertEquals("efgh", signature.getTagValue(HeaderTag.SIGNATURE));
+        assertNull(signature.getTagValue(HeaderTag.CANONICALIZATION));
+        assertNull(DkimSignature.parse("d=duotail.com").getTagValue(HeaderTag.ALGORITHM));
+    }
+
+    @Test
+    void parseTags() throws DkimSigningException {
+        var tags = DkimSignature.parseTags(" v = 1 ;l=10; x= ;");
+        assertEquals(List.of("v", "l", "x"), List.copyOf(tags.keySet()));
+        assertEquals("1", tags.get("v"));
+        assertEquals("", tags.get("x"));
+
+        assertEquals("Duplicate tag v.", assertThrows(DkimSigningException.class, () -> DkimSignature.parseTags("v=1; v=2")).getMessage());
+        assertEquals("Malformed tag abc.", assertThrows(DkimSigningException.class, () -> DkimSignature.parseTags("v=1; abc")).getMessage());
+    }
+}
@@ -0,0 +1,405 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.createTestMessage;
+import static io.github.taodong.mail.dkim.DkimTestSupport.signedHeaderData;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testEd25519Key;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testEd25519PublicKey;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testKey;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testProfile;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testPublicKey;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class DkimSignerTest {
+
+    @Test
+    void sign_sameAsSigningService() throws DkimSigningException {
+        var profile = testProfile().bodyCanonicalization(Canonicalization.RELAXED).build();
+        var signer = new DkimSigner(profile);
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Reuse", "Hello  world \r\n");
+
+        var expected = new DkimSigningService().sign(message, profile);
+        assertEquals(expected, signer.sign(message));
+        assertEquals(expected, signer.sign(message));
+    }
+
+    @Test
+    void sign_ed25519() throws Exception {
+        var signer = new DkimSigner(testProfile().privateKey(testEd25519Key()).headerCanonicalization(Canonicalization.RELAXED).build());
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Ed25519", "Hello world");
+
+        var result = signer.sign(message);
+
+        assertEquals(SigningAlgorithm.ED25519_SHA256, signer.getAlgorithm());
+        assertTrue(result.startsWith("v=1; a=ed25519-sha256; d=duotail.com; c=relaxed/simple;"));
+        var hash = MessageDigest.getInstance("SHA-256").digest(signedHeaderData(message, result, Canonicalization.RELAXED));
+        var verifier = Signature.getInstance("Ed25519");
+        verifier.initVerify(testEd25519PublicKey());
+        verifier.update(hash);
+        assertTrue(verifier.verify(Base64.getDecoder().decode(StringUtils.substringAfterLast(result, "b="))));
+    }
+
+    @Test
+    void sign_concurrently() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Concurrent", "Hello world");
+        var expected = signer.sign(message);
+
+        try (var platformThreads = Executors.newFixedThreadPool(8);
+             var virtualThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            var futures = new ArrayList<Future<String>>();
+            Callable<String> task = () -> signer.sign(message);
+            for (var i = 0; i < 64; i++) {
+                futures.add(platformThreads.submit(task));
+                futures.add(virtualThreads.submit(task));
+            }
+            for (var future : futures) {
+                assertEquals(expected, future.get());
+            }
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    @Test
+    void signAll() throws DkimSigningException {
+        var headers = new DkimMimeMessageHelper().getDkimSignHeaders(List.of(new DkimSignHeader("X-Campaign", true)));
+        var signer = spy(new DkimSigner(testProfile().headers(headers).build()));
+        var body = "Campaign body shared by all recipients";
+
+        var messages = new ArrayList<MimeMessage>();
+        for (var i = 0; i < 20; i++) {
+            var message = createTestMessage("tao.dong@duotail.com", "user" + i + "@gmail.com", "Campaign", body);
+            if (i != 7) {
+                addHeader(message, "X-Campaign", "c1");
+            }
+            messages.add(message);
+        }
+
+        var results = signer.signAll(messages);
+
+        assertEquals(messages.size(), results.size());
+        for (var i = 0; i < messages.size(); i++) {
+            var result = results.get(i);
+            assertEquals(messages.get(i), result.message());
+            if (i == 7) {
+                assertFalse(result.isSuccess());
+                assertNull(result.signature());
+                assertEquals("Required header X-Campaign is missing.", result.failure().getMessage());
+            } else {
+                assertTrue(result.isSuccess());
+                assertEquals(signer.sign(messages.get(i)), result.signature());
+            }
+        }
+        // once for the batch, once per message signed individually above
+        verify(signer, times(1 + messages.size() - 1)).hashBody(any());
+    }
+
+    @Test
+    void sign_rawMessage() throws Exception {
+        var signer = new DkimSigner(testProfile()
+                .headerCanonicalization(Canonicalization.RELAXED)
+                .bodyCanonicalization(Canonicalization.RELAXED)
+                .build());
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Raw", "Hello  world \r\n".repeat(1000));
+        var bytes = toWireFormat(message);
+
+        var result = signer.sign(bytes);
+
+        var parsed = new MimeMessage(Session.getInstance(new Properties()), new ByteArrayInputStream(bytes));
+        verifySignature(signedHeaderData(parsed, result, Canonicalization.RELAXED), result);
+        var body = Arrays.copyOfRange(bytes, indexOfBody(bytes), bytes.length);
+        var bodyHash = MessageDigest.getInstance("SHA-256").digest(Canonicalization.RELAXED.canonicalizeBody(body));
+        assertEquals(Base64.getEncoder().encodeToString(bodyHash), StringUtils.substringBetween(result, "bh=", ";"));
+
+        assertEquals(result, signer.sign(ByteBuffer.allocateDirect(bytes.length).put(bytes).flip()));
+        assertEquals(result, signer.sign(Channels.newChannel(new ByteArrayInputStream(bytes))));
+    }
+
+    @Test
+    void sign_rawMessageSimpleKeepsHeaderLines() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var headers = "From:tao.dong@duotail.com\r\n" +
+                "To: test@gmail.com\r\n" +
+                "subject: Folded\r\n\tsubject  line\r\n";
+        var bytes = (headers + "\r\nHello world\r\n").getBytes(StandardCharsets.UTF_8);
+
+        var result = signer.sign(bytes);
+
+        assertTrue(result.contains("; h=From:To:Subject;"));
+        var unsigned = StringUtils.substringBeforeLast(result, "b=") + "b=";
+        verifySignature((headers + DkimSignature.DKIM_SIGNATURE_HEADER + ": " + unsigned).getBytes(StandardCharsets.UTF_8), result);
+    }
+
+    @Test
+    void sign_rawMessageLargeBodyFromChannel() throws Exception {
+        var signer = new DkimSigner(testProfile().bodyCanonicalization(Canonicalization.RELAXED).build());
+        var head = "From: tao.dong@duotail.com\r\nSubject: Large\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+        var body = "Lorem ipsum dolor sit amet\r\n".repeat(200_000).getBytes(StandardCharsets.UTF_8);
+        var bytes = ByteBuffer.allocate(head.length + body.length).put(head).put(body).array();
+
+        assertEquals(signer.sign(bytes), signer.sign(Channels.newChannel(new ByteArrayInputStream(bytes))));
+    }
+
+    @Test
+    void sign_pipelinedHash() throws Exception {
+        var profile = testProfile().bodyCanonicalization(Canonicalization.RELAXED).build();
+        var pipelined = new DkimSigner(profile.toBuilder().pipelinedHashThreshold(64 * 1024).build());
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Pipelined", "Hello  world \r\n".repeat(100_000));
+        var bytes = toWireFormat(message);
+
+        var expected = new DkimSigner(profile).sign(message);
+        assertEquals(expected, pipelined.sign(message));
+        assertEquals(new DkimSigner(profile).sign(bytes), pipelined.sign(bytes));
+    }
+
+    @Test
+    void sign_parallelPartEncoding(@TempDir Path tempDir) throws Exception {
+        var profile = testProfile().bodyCanonicalization(Canonicalization.RELAXED).build();
+        var parallel = new DkimSigner(profile.toBuilder().parallelPartEncoding(true).build());
+        var message = ParallelMultipartWriterTest.multipartMessage(tempDir, 4, 200_000);
+
+        assertEquals(new DkimSigner(profile).sign(message), parallel.sign(message));
+        assertEquals(new DkimSigner(profile).sign(message), parallel.signAll(List.of(message, message)).get(1).signature());
+    }
+
+    @Test
+    void signAndSerialize() throws Exception {
+        var signer = new DkimSigner(testProfile().headerCanonicalization(Canonicalization.RELAXED).build());
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Serialize", "Hello  world \r\n".repeat(100));
+        message.setRecipients(MimeMessage.RecipientType.BCC, "hidden@gmail.com");
+
+        var signed = signer.signAndSerialize(message);
+
+        var text = new String(signed, StandardCharsets.UTF_8);
+        assertTrue(text.startsWith(DkimSignature.DKIM_SIGNATURE_HEADER + ": v=1; a=rsa-sha256; d=duotail.com;"));
+        assertFalse(text.contains("hidden@gmail.com"));
+        var resolver = new InMemoryPublicKeyResolver();
+        resolver.put("duotail.com", "s1", "v=DKIM1; k=rsa; p=" + Base64.getEncoder().encodeToString(testPublicKey().getEncoded()));
+        assertEquals(List.of(DkimVerificationResult.pass("duotail.com", "s1")), new DkimVerifier(resolver).verify(signed));
+
+        var out = new ByteArrayOutputStream();
+        var value = signer.signAndWrite(message, out);
+        assertArrayEquals(signed, out.toByteArray());
+        assertEquals(value, signer.sign(Arrays.copyOfRange(signed, text.indexOf("\r\n") + 2, signed.length)));
+    }
+
+    @Test
+    void signAndSerialize_bareLineFeeds() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Serialize", "Line one\nLine two\r\rLine four\n");
+
+        var signed = signer.signAndSerialize(message);
+
+        var text = new String(signed, StandardCharsets.UTF_8);
+        assertFalse(text.replace("\r\n", "").contains("\n"));
+        assertFalse(text.replace("\r\n", "").contains("\r"));
+        assertTrue(text.endsWith("\r\n\r\nLine one\r\nLine two\r\n\r\nLine four\r\n"));
+        var value = StringUtils.substringBetween(text, DkimSignature.DKIM_SIGNATURE_HEADER + ": ", "\r\n");
+        var crlfMessage = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Serialize", "Line one\r\nLine two\r\n\r\nLine four\r\n");
+        assertEquals(DkimSignature.parseTags(signer.sign(crlfMessage)).get("bh"), DkimSignature.parseTags(value).get("bh"));
+    }
+
+    @Test
+    void sign_rawMessageMissingRequiredHeader() throws DkimSigningException {
+        var signer = new DkimSigner(testProfile().build());
+        var bytes = "To: test@gmail.com\r\n\r\nHello\r\n".getBytes(StandardCharsets.UTF_8);
+
+        var exception = assertThrows(DkimSigningException.class, () -> signer.sign(bytes));
+        assertEquals("Required header From is missing.", exception.getMessage());
+    }
+
+    @Test
+    void sign_repeatedHeadersBottomUp() throws Exception {
+        var headers = List.of(new DkimSignHeader("From", true), new DkimSignHeader("Received"), new DkimSignHeader("Received"));
+        var signer = new DkimSigner(testProfile().headers(headers).build());
+        var bytes = ("Received: from c\r\n" +
+                "Received: from b\r\n" +
+                "From: tao.dong@duotail.com\r\n" +
+                "Received: from a\r\n" +
+                "\r\nHello\r\n").getBytes(StandardCharsets.UTF_8);
+
+        var result = signer.sign(bytes);
+
+        assertTrue(result.contains("; h=From:Received:Received:Received;"));
+        var unsigned = StringUtils.substringBeforeLast(result, "b=") + "b=";
+        verifySignature(("From: tao.dong@duotail.com\r\n" +
+                "Received: from a\r\n" +
+                "Received: from b\r\n" +
+                "Received: from c\r\n" +
+                DkimSignature.DKIM_SIGNATURE_HEADER + ": " + unsigned).getBytes(StandardCharsets.UTF_8), result);
+    }
+
+    @Test
+    void sign_repeatedHeadersOversignedOnce() throws Exception {
+        var headers = List.of(new DkimSignHeader("From", true), new DkimSignHeader("Received"), new DkimSignHeader("Received"));
+        var signer = new DkimSigner(testProfile().headers(headers).oversignHeaders(true).build());
+        var bytes = ("Received: from b\r\n" +
+                "From: tao.dong@duotail.com\r\n" +
+                "Received: from a\r\n" +
+                "\r\nHello\r\n").getBytes(StandardCharsets.UTF_8);
+
+        var result = signer.sign(bytes);
+
+        // both instances at the first listing, the second listing adds nothing
+        assertTrue(result.contains("; h=From:From:Received:Received:Received;"));
+        var unsigned = StringUtils.substringBeforeLast(result, "b=") + "b=";
+        verifySignature(("From: tao.dong@duotail.com\r\n" +
+                "Received: from a\r\n" +
+                "Received: from b\r\n" +
+                DkimSignature.DKIM_SIGNATURE_HEADER + ": " + unsigned).getBytes(StandardCharsets.UTF_8), result);
+    }
+
+    @Test
+    void sign_oversignHeaders() throws Exception {
+        var headers = List.of(new DkimSignHeader("From", true), new DkimSignHeader("To"), new DkimSignHeader("Cc"));
+        var signer = new DkimSigner(testProfile().headers(headers).oversignHeaders(true).build());
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Oversign", "Hello world");
+
+        var result = signer.sign(message);
+
+        assertTrue(result.contains("; h=From:From:To:To:Cc;"));
+        var unsigned = StringUtils.substringBeforeLast(result, "b=") + "b=";
+        verifySignature(("From: tao.dong@duotail.com\r\n" +
+                "To: test@gmail.com\r\n" +
+                DkimSignature.DKIM_SIGNATURE_HEADER + ": " + unsigned).getBytes(StandardCharsets.UTF_8), result);
+    }
+
+    @Test
+    void sign_indexesHeadersOnce() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var message = spy(createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Index", "Hello world"));
+        for (var i = 0; i < 40; i++) {
+            message.addHeader("X-Trace-" + i, "trace " + i);
+        }
+
+        signer.sign(message);
+
+        verify(message, times(1)).getAllHeaders();
+        verify(message, never()).getHeader("From");
+    }
+
+    @Test
+    void signAsync() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Async", "Hello world");
+        var unsigned = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Async", "Hello world");
+        unsigned.removeHeader("From");
+
+        assertEquals(signer.sign(message), signer.signAsync(message).get(30, TimeUnit.SECONDS));
+
+        var failed = signer.signAsync(unsigned, Runnable::run);
+        var exception = assertThrows(ExecutionException.class, failed::get);
+        assertEquals("Required header From is missing.", exception.getCause().getMessage());
+    }
+
+    @Test
+    void warmUp_notReported() throws Exception {
+        var profile = testProfile().headerCanonicalization(Canonicalization.RELAXED).bodyCanonicalization(Canonicalization.RELAXED).build();
+        var listener = mock(SigningMetricsListener.class);
+        var signer = new DkimSigner(profile, listener);
+
+        assertSame(signer, signer.warmUp(2));
+        verifyNoInteractions(listener);
+
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Warm", "Hello  world \r\n");
+        assertEquals(new DkimSigner(profile).sign(message), signer.sign(message));
+        verify(listener).onSigned(any(), any(), anyLong(), anyLong());
+    }
+
+    @Test
+    void warmUp_engine() throws Exception {
+        var engine = spy(new LocalSignatureEngine(testKey()));
+        var signer = new DkimSigner(testProfile().privateKey(null).signatureEngine(engine).build());
+
+        signer.warmUp(3);
+        verify(engine).warmUp(3);
+    }
+
+    @Test
+    void warmUp_invalidConcurrency() throws DkimSigningException {
+        var signer = new DkimSigner(testProfile().build());
+        assertThrows(IllegalArgumentException.class, () -> signer.warmUp(0));
+    }
+
+    @Test
+    void create_invalidIdentity() {
+        var profile = testProfile().identity("tao.dong@example.com").build();
+        var exception = assertThrows(DkimSigningException.class, () -> new DkimSigner(profile));
+        assertEquals("The identity tao.dong@example.com is not end with domain duotail.com", exception.getMessage());
+    }
+
+    @Test
+    void create_badKey() {
+        var profile = testProfile().privateKey(mock(RSAPrivateKey.class)).build();
+        var exception = assertThrows(DkimSigningException.class, () -> new DkimSigner(profile));
+        assertEquals("Failed to create signature.", exception.getMessage());
+    }
+
+    private static byte[] toWireFormat(MimeMessage message) throws IOException, MessagingException {
+        var out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static int indexOfBody(byte[] bytes) {
+        var text = new String(bytes, StandardCharsets.ISO_8859_1);
+        return text.indexOf("\r\n\r\n") + 4;
+    }
+
+    private static void verifySignature(byte[] signedData, String dkimValue) throws Exception {
+        var verifier = Signature.getInstance("SHA256withRSA");
+        verifier.initVerify(testPublicKey());
+        verifier.update(signedData);
+        assertTrue(verifier.verify(Base64.getDecoder().decode(StringUtils.substringAfterLast(dkimValue, "b="))));
+    }
+
+    private static void addHeader(MimeMessage message, String name, String value) {
+        try {
+            message.addHeader(name, value);
+        } catch (MessagingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.taodong.mail.dkim;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.security.SignatureException;
+import java.util.Map;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.createTestMessage;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testProfile;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DkimSigningMetricsTest {
+
+    @Test
+    void sign_recordsMetrics() throws Exception {
+        var metrics = new DkimSigningMetrics(null, "test");
+        var signer = new DkimSigner(testProfile().domain(" Duotail.com ").build(), metrics);
+        for (var i = 0; i < 10; i++) {
+            signer.sign(createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Test", "Hello"));
+        }
+        var noFrom = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Test", "Hello");
+        noFrom.removeHeader("From");
+        assertThrows(DkimSigningException.class, () -> signer.sign(noFrom));
+
+        var selectorMetrics = metrics.getMetrics("duotail.com", "s1");
+        assertEquals("duotail.com", selectorMetrics.getDomain());
+        assertEquals("s1", selectorMetrics.getSelector());
+        assertEquals(10, selectorMetrics.getSignedCount());
+        assertEquals(1, selectorMetrics.getFailedCount());
+        assertEquals(Map.of("Required header From is missing.", 1L), selectorMetrics.getFailuresByCause());
+        // "Hello" plus the CRLF added by simple canonicalization
+        assertEquals(7, selectorMetrics.getBodySizeP50());
+        assertEquals(7, selectorMetrics.getBodySizeMax());
+        assertTrue(selectorMetrics.getLatencyP50Nanos() > 0);
+        assertTrue(selectorMetrics.getLatencyP50Nanos() <= selectorMetrics.getLatencyP999Nanos());
+        assertTrue(selectorMetrics.getLatencyP999Nanos() <= selectorMetrics.getLatencyMaxNanos());
+        assertTrue(selectorMetrics.getLatencyMeanNanos() > 0);
+        // reading the rate doesn't reset it
+        assertTrue(selectorMetrics.getSignRate() > 0);
+        assertTrue(selectorMetrics.getSignRate() > 0);
+
+        assertNull(metrics.getMetrics("duotail.com", "s2"));
+        assertEquals(1, metrics.getAllMetrics().size());
+    }
+
+    @Test
+    void onFailed_groupsCauses() {
+        var metrics = new DkimSigningMetrics(null, "test");
+        metrics.onFailed("duotail.com", "s1", 10, new DkimSigningException("Failed to create signature.", new SignatureException("bad")));
+        metrics.onFailed("duotail.com", "s1", 10, new DkimSigningException("Failed to create signature.", new SignatureException("worse")));
+        for (var i = 0; i < DkimSigningMetrics.MAX_FAILURE_CAUSES + 10; i++) {
+            metrics.onFailed("duotail.com", "s1", 10, new DkimSigningException("Malformed header line " + i + "."));
+        }
+
+        var failures = metrics.getMetrics("duotail.com", "s1").getFailuresByCause();
+        assertEquals(2, failures.get(SignatureException.class.getName()));
+        assertEquals(DkimSigningMetrics.MAX_FAILURE_CAUSES + 1, failures.size());
+        assertEquals(11, failures.get(DkimSigningMetrics.OTHER_CAUSE));
+        assertEquals(0, metrics.getMetrics("duotail.com", "s1").getSignedCount());
+    }
+
+    @Test
+    void signRate_lastMinute() {
+        var selectorMetrics = new DkimSigningMetrics.SelectorMetrics("duotail.com", "s1", 0);
+        for (var i = 0; i < 10; i++) {
+            selectorMetrics.countSigned(500_000_000L);
+        }
+        for (var i = 0; i < 20; i++) {
+            selectorMetrics.countSigned(1_500_000_000L);
+        }
+
+        assertEquals(15, selectorMetrics.signRate(2_000_000_000L));
+        assertEquals(15, selectorMetrics.signRate(2_000_000_000L));
+        // the first second left the window
+        assertEquals(20 / 59.5, selectorMetrics.signRate(60_500_000_000L), 1e-9);
+        assertEquals(0, selectorMetrics.signRate(61_500_000_000L));
+
+        // a slot is reused for a second of the next minute
+        selectorMetrics.countSigned(62_500_000_000L);
+        assertEquals(1 / 59.5, selectorMetrics.signRate(62_500_000_000L), 1e-9);
+    }
+
+    @Test
+    void jmx() throws Exception {
+        var server = MBeanServerFactory.newMBeanServer();
+        var name = new ObjectName("io.github.taodong.mail.dkim:type=SigningMetrics,name=\"jmx\",domain=\"duotail.com\",selector=\"s1\"");
+        try (var metrics = new DkimSigningMetrics(server, "jmx")) {
+            var service = new DkimSigningService(metrics);
+            service.sign(createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Test", "Hello"), testProfile().build());
+
+            assertTrue(server.isRegistered(name));
+            assertEquals(1L, server.getAttribute(name, "SignedCount"));
+            assertEquals(7L, server.getAttribute(name, "BodySizeP99"));
+            assertTrue((Long) server.getAttribute(name, "LatencyP99Nanos") > 0);
+            assertTrue(((TabularData) server.getAttribute(name, "FailuresByCause")).isEmpty());
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,232 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.createTestMessage;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testProfile;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DkimSigningProcessorTest {
+
+    @Test
+    void process() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var messages = createMessages(50);
+        messages.add(createTestMessage("someone@example.com", "test@gmail.com", "No From", "Hello"));
+        messages.getLast().removeHeader("From");
+
+        var subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        try (var publisher = new SubmissionPublisher<MimeMessage>()) {
+            var processor = new DkimSigningProcessor(signer);
+            publisher.subscribe(processor);
+            processor.subscribe(subscriber);
+            messages.forEach(publisher::submit);
+        }
+
+        subscriber.done.get(30, TimeUnit.SECONDS);
+        assertEquals(messages.size(), subscriber.results.size());
+        for (var result : subscriber.results) {
+            if (result.message() == messages.getLast()) {
+                assertFalse(result.isSuccess());
+                assertEquals("Required header From is missing.", result.failure().getMessage());
+            } else {
+                assertEquals(signer.sign(result.message()), result.signature());
+            }
+        }
+    }
+
+    @Test
+    void process_boundedInFlight() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var messages = createMessages(40);
+        var maxInFlight = 4;
+        var requested = new AtomicInteger();
+        var maxOutstanding = new AtomicInteger();
+        var delivered = new AtomicInteger();
+
+        // a slow consumer taking one result at a time
+        var subscriber = new CollectingSubscriber(1) {
+            @Override
+            public void onNext(SigningResult item) {
+                super.onNext(item);
+                delivered.incrementAndGet();
+                sleep();
+                subscription.request(1);
+            }
+        };
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var processor = new DkimSigningProcessor(signer, executor, maxInFlight);
+            processor.subscribe(subscriber);
+            processor.onSubscribe(new Flow.Subscription() {
+                private int next;
+
+                @Override
+                public void request(long n) {
+                    var outstanding = requested.addAndGet((int) n) - delivered.get();
+                    maxOutstanding.accumulateAndGet(outstanding, Math::max);
+                    // deliver synchronously like an eager upstream
+                    for (var i = 0; i < n && next < messages.size(); i++) {
+                        processor.onNext(messages.get(next++));
+                    }
+                    if (next == messages.size()) {
+                        next++;
+                        processor.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    // nothing to release
+                }
+            });
+
+            subscriber.done.get(30, TimeUnit.SECONDS);
+        }
+
+        assertEquals(messages.size(), subscriber.results.size());
+        // the processor's buffer and the subscriber's in-progress item add to the requested messages
+        assertTrue(maxOutstanding.get() <= maxInFlight * 2 + 1, "outstanding " + maxOutstanding.get());
+    }
+
+    @Test
+    void process_fixedPoolSmallerThanInFlight() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var messages = createMessages(60);
+        var calls = new AtomicInteger();
+        var concurrentCalls = new AtomicInteger();
+
+        // a slow consumer asking for the next result from its own thread, the buffer is full meanwhile
+        var subscriber = new CollectingSubscriber(1);
+        var consumer = Thread.ofVirtual().start(() -> {
+            while (!subscriber.done.isDone() && !Thread.currentThread().isInterrupted()) {
+                sleep();
+                if (subscriber.subscription != null) {
+                    subscriber.subscription.request(1);
+                }
+            }
+        });
+
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var processor = new DkimSigningProcessor(signer, executor, 8);
+            processor.subscribe(subscriber);
+            processor.onSubscribe(new Flow.Subscription() {
+                private int next;
+
+                @Override
+                public void request(long n) {
+                    if (calls.incrementAndGet() > 1) {
+                        concurrentCalls.incrementAndGet();
+                    }
+                    try {
+                        for (var i = 0; i < n && next < messages.size(); i++) {
+                            processor.onNext(messages.get(next++));
+                        }
+                        if (next == messages.size()) {
+                            next++;
+                            processor.onComplete();
+                        }
+                    } finally {
+                        calls.decrementAndGet();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    // nothing to release
+                }
+            });
+
+            subscriber.done.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+            consumer.interrupt();
+            consumer.join();
+        }
+
+        assertEquals(messages.size(), subscriber.results.size());
+        assertEquals(0, concurrentCalls.get());
+    }
+
+    @Test
+    void process_upstreamError() throws Exception {
+        var processor = new DkimSigningProcessor(new DkimSigner(testProfile().build()));
+        var subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+
+        try (var publisher = new SubmissionPublisher<MimeMessage>()) {
+            publisher.subscribe(processor);
+            publisher.submit(createMessages(1).getFirst());
+            publisher.closeExceptionally(new IllegalStateException("upstream failed"));
+        }
+
+        var error = subscriber.done.handle((ignored, e) -> e).get(30, TimeUnit.SECONDS);
+        assertInstanceOf(IllegalStateException.class, error);
+    }
+
+    private static List<MimeMessage> createMessages(int count) {
+        var messages = new ArrayList<MimeMessage>();
+        for (var i = 0; i < count; i++) {
+            messages.add(createTestMessage("tao.dong@duotail.com", "user" + i + "@gmail.com", "Stream", "Hello " + i));
+        }
+        return messages;
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class CollectingSubscriber implements Flow.Subscriber<SigningResult> {
+        final List<SigningResult> results = new ArrayList<>();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final Set<MimeMessage> seen = ConcurrentHashMap.newKeySet();
+        private final long initialRequest;
+        volatile Flow.Subscription subscription;
+
+        CollectingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(SigningResult item) {
+            assertTrue(seen.add(item.message()));
+            results.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.internet.InternetAddress;
+import org.junit.jupiter.api.Test;
+
+import java.security.interfaces.RSAPrivateKey;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.createTestMessage;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testProfile;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class DkimSigningRouterTest {
+
+    @Test
+    void resolve_exactAndParentFallback() throws Exception {
+        var router = new DkimSigningRouter();
+        router.put("duotail.com", profile("duotail.com", "s1"));
+        router.put("News.Duotail.com.", profile("news.duotail.com", "s2"));
+
+        assertEquals("s1", router.resolve("DUOTAIL.COM").getProfile().selector());
+        assertEquals("s2", router.resolve("news.duotail.com").getProfile().selector());
+        assertEquals("s2", router.resolve("eu.news.duotail.com").getProfile().selector());
+        assertEquals("s1", router.resolve("mail.duotail.com").getProfile().selector());
+        assertNull(router.resolve("duotail.org"));
+        assertNull(router.resolve("otherduotail.com"));
+        assertNull(router.resolve((String) null));
+    }
+
+    @Test
+    void resolve_wildcard() throws Exception {
+        var router = new DkimSigningRouter(SigningMetricsListener.NONE, false);
+        router.putAll(Map.of("*.duotail.com", profile("duotail.com", "wild"),
+                "duotail.com", profile("duotail.com", "apex")));
+
+        assertEquals("apex", router.resolve("duotail.com").getProfile().selector());
+        assertEquals("wild", router.resolve("a.b.duotail.com").getProfile().selector());
+        assertEquals(2, router.size());
+
+        router.remove("*.duotail.com");
+        // no parent domain fallback
+        assertNull(router.resolve("a.b.duotail.com"));
+        assertFalse(router.remove("*.duotail.com"));
+    }
+
+    @Test
+    void resolve_wildcardBeforeParent() throws Exception {
+        var router = new DkimSigningRouter();
+        router.putAll(Map.of("*.news.duotail.com", profile("duotail.com", "wild"),
+                "duotail.com", profile("duotail.com", "apex")));
+
+        assertEquals("wild", router.resolve("eu.news.duotail.com").getProfile().selector());
+        assertEquals("apex", router.resolve("news.duotail.com").getProfile().selector());
+    }
+
+    @Test
+    void resolve_messageFromThenSender() throws Exception {
+        var router = new DkimSigningRouter();
+        router.put("duotail.com", profile("duotail.com", "s1"));
+
+        var message = createTestMessage("Tao Dong <tao.dong@duotail.com>", "someone@example.com", "Routed", "Body");
+        assertEquals(router.resolve("duotail.com").sign(message), router.sign(message));
+
+        var onBehalf = createTestMessage("customer@example.org", "someone@example.com", "Routed", "Body");
+        assertThrows(DkimSigningException.class, () -> router.sign(onBehalf));
+        onBehalf.setSender(new InternetAddress("bounce@mail.duotail.com"));
+        assertNotNull(router.resolve(onBehalf));
+    }
+
+    @Test
+    void select_milterMessage() throws Exception {
+        var router = new DkimSigningRouter();
+        router.put("duotail.com", profile("duotail.com", "s1"));
+
+        var message = new MilterMessage("bounce@example.org", null, Map.of(),
+                List.of(Map.entry("From", " Tao Dong <tao.dong@duotail.com>")));
+        assertEquals(router.resolve("duotail.com"), router.select(message));
+        assertNull(router.select(new MilterMessage(null, null, Map.of(), List.of())));
+    }
+
+    @Test
+    void putAll_invalidProfileKeepsRoutes() throws Exception {
+        var router = new DkimSigningRouter();
+        router.put("duotail.com", profile("duotail.com", "s1"));
+
+        var bad = profile("example.com", "s1").toBuilder().privateKey(mock(RSAPrivateKey.class)).build();
+        assertThrows(DkimSigningException.class, () -> router.putAll(Map.of("example.com", bad,
+                "example.org", profile("example.org", "s1"))));
+        assertThrows(DkimSigningException.class, () -> router.put("*.", profile("duotail.com", "s1")));
+        assertEquals(1, router.size());
+        assertNull(router.resolve("example.org"));
+
+        router.replaceAll(Map.of("example.org", profile("example.org", "s1")));
+        assertNull(router.resolve("duotail.com"));
+        assertNotNull(router.resolve("example.org"));
+    }
+
+    @Test
+    void resolve_whileUpdating() throws Exception {
+        var router = new DkimSigningRouter();
+        router.put("duotail.com", profile("duotail.com", "s1"));
+        var running = new AtomicBoolean(true);
+        var missing = new AtomicBoolean();
+
+        try (var executor = Executors.newFixedThreadPool(4)) {
+            for (var i = 0; i < 3; i++) {
+                executor.execute(() -> {
+                    while (running.get()) {
+                        if (router.resolve("mail.duotail.com") == null) {
+                            missing.set(true);
+                        }
+                    }
+                });
+            }
+            for (var i = 0; i < 200; i++) {
+                router.put("customer" + i + ".example.com", profile("customer" + i + ".example.com", "s1"));
+            }
+            running.set(false);
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertFalse(missing.get());
+        assertEquals(201, router.size());
+    }
+
+    private static DkimSigningProfile profile(String domain, String selector) {
+        return testProfile().domain(domain).selector(selector).identity("@" + domain).build();
+    }
+}
@@ -32,6 +32,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Properties;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 import static io.github.taodong.mail.dkim.StandardMessageHeader.CONTENT_TYPE;
@@ -129,6 +130,22 @@ class DkimSigningServiceTest {
         assertEquals("Failed to create signature.", exception.getMessage());
     }
 
+    @Test
+    void signAsync_badKey() {
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Empty Body", "");
+        var profile = DkimSigningProfile.builder()
+                .privateKey(mock(RSAPrivateKey.class))
+                .selector("test")
+                .domain("duotail.com")
+                .identity("tao.dong@duotail.com")
+                .headers(dkimMimeMessageHelper.getDkimSignHeaders(null))
+                .build();
+
+        var exception = assertThrows(ExecutionException.class, () -> dkimSigningService.signAsync(message, profile).get());
+
+        assertEquals("Failed to create signature.", exception.getCause().getMessage());
+    }
+
     private boolean validateSignature(MimeMessage message, String dkimToken, Canonicalization headerCanonicalization)
             throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
         LinkedHashMap<String, String> contentToSign = getSignedHeaders(message, dkimToken);
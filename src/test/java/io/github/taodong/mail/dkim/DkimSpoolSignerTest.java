@@ -0,0 +1,136 @@
+package io.github.taodong.mail.dkim;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.testProfile;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DkimSpoolSignerTest {
+
+    @TempDir
+    private Path spool;
+
+    @Test
+    void signAll_inPlace() throws Exception {
+        var signer = new DkimSigner(testProfile().bodyCanonicalization(Canonicalization.RELAXED).build());
+        var messages = new byte[20][];
+        for (var i = 0; i < messages.length; i++) {
+            messages[i] = message(i);
+            Files.write(spool.resolve("q" + i + ".eml"), messages[i]);
+        }
+        Files.writeString(spool.resolve("notes.txt"), "not a message");
+
+        var report = new DkimSpoolSigner(signer, 4, DkimSpoolSigner.SPOOL_FILES).signAll(spool);
+
+        assertEquals(messages.length, report.signed());
+        assertTrue(report.failures().isEmpty());
+        assertTrue(report.filesPerSecond() > 0);
+        for (var i = 0; i < messages.length; i++) {
+            assertSigned(signer, messages[i], Files.readAllBytes(spool.resolve("q" + i + ".eml")));
+        }
+        assertEquals("not a message", Files.readString(spool.resolve("notes.txt")));
+        try (var files = Files.list(spool)) {
+            assertEquals(messages.length + 1, files.count());
+        }
+    }
+
+    @Test
+    void signAll_maildirToOutput(@TempDir Path output) throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var maildir = spool.resolve("user/Maildir");
+        for (var folder : new String[] {"new", "cur", "tmp"}) {
+            Files.createDirectories(maildir.resolve(folder));
+            Files.write(maildir.resolve(folder).resolve("1733788800.M1P1.mx1"), message(0));
+        }
+        Files.write(maildir.resolve("new/1733788801.M2P1.mx1"), "Subject: no sender\r\n\r\nHello\r\n".getBytes(StandardCharsets.UTF_8));
+
+        var report = new DkimSpoolSigner(signer).signAll(spool, output);
+
+        assertEquals(2, report.signed());
+        assertEquals(1, report.failures().size());
+        assertEquals("Required header From is missing.",
+                report.failures().get(maildir.resolve("new/1733788801.M2P1.mx1")).getMessage());
+        var signedMaildir = output.resolve("user/Maildir");
+        assertSigned(signer, message(0), Files.readAllBytes(signedMaildir.resolve("new/1733788800.M1P1.mx1")));
+        assertSigned(signer, message(0), Files.readAllBytes(signedMaildir.resolve("cur/1733788800.M1P1.mx1")));
+        assertTrue(Files.notExists(signedMaildir.resolve("tmp")));
+        assertArrayEquals(message(0), Files.readAllBytes(maildir.resolve("new/1733788800.M1P1.mx1")));
+    }
+
+    @Test
+    void signAll_againSkipsSigned(@TempDir Path output) throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var other = new DkimSigner(testProfile().selector("s2").build());
+        for (var i = 0; i < 3; i++) {
+            Files.write(spool.resolve("q" + i + ".eml"), message(i));
+        }
+        new DkimSpoolSigner(other).signFile(spool.resolve("q2.eml"), spool.resolve("q2.eml"));
+        var signedByOther = Files.readAllBytes(spool.resolve("q2.eml"));
+
+        var first = new DkimSpoolSigner(signer).signAll(spool);
+        var signed = Files.readAllBytes(spool.resolve("q0.eml"));
+        var second = new DkimSpoolSigner(signer).signAll(spool);
+
+        assertEquals(3, first.signed());
+        assertEquals(0, first.skipped());
+        assertEquals(0, second.signed());
+        assertEquals(3, second.skipped());
+        assertTrue(second.failures().isEmpty());
+        assertSigned(signer, message(0), Files.readAllBytes(spool.resolve("q0.eml")));
+        assertArrayEquals(signed, Files.readAllBytes(spool.resolve("q0.eml")));
+        assertSigned(signer, signedByOther, Files.readAllBytes(spool.resolve("q2.eml")));
+
+        // copied unchanged to another output
+        var copied = new DkimSpoolSigner(signer).signAll(spool, output);
+        assertEquals(3, copied.skipped());
+        assertArrayEquals(signed, Files.readAllBytes(output.resolve("q0.eml")));
+    }
+
+    @Test
+    void signFile_removedSkipped() throws Exception {
+        var file = spool.resolve("q1.eml");
+        assertEquals(-1, new DkimSpoolSigner(new DkimSigner(testProfile().build())).signFile(file, file));
+        assertTrue(Files.notExists(file));
+    }
+
+    @Test
+    void spoolFiles_maildirHasAllFolders() throws Exception {
+        var tmpSpool = Files.createDirectories(spool.resolve("tmp"));
+        var archive = Files.createDirectories(spool.resolve("archive/new"));
+        var maildir = spool.resolve("Maildir");
+        for (var folder : new String[] {"new", "cur", "tmp"}) {
+            Files.createDirectories(maildir.resolve(folder));
+        }
+
+        assertTrue(DkimSpoolSigner.SPOOL_FILES.test(tmpSpool.resolve("q1.eml")));
+        assertTrue(DkimSpoolSigner.SPOOL_FILES.test(archive.resolve("q2.eml")));
+        assertFalse(DkimSpoolSigner.SPOOL_FILES.test(archive.resolve("notes.txt")));
+        assertTrue(DkimSpoolSigner.SPOOL_FILES.test(maildir.resolve("cur/1733788800.M1P1.mx1")));
+        assertFalse(DkimSpoolSigner.SPOOL_FILES.test(maildir.resolve("tmp/1733788800.M1P1.mx1")));
+        assertFalse(DkimSpoolSigner.SPOOL_FILES.test(maildir.resolve("new/.1733788800.M1P1.mx1")));
+    }
+
+    private static void assertSigned(DkimSigner signer, byte[] original, byte[] signed) throws DkimSigningException {
+        var header = (DkimSignature.DKIM_SIGNATURE_HEADER + ": " + signer.sign(original) + "\r\n").getBytes(StandardCharsets.UTF_8);
+        var expected = new byte[header.length + original.length];
+        System.arraycopy(header, 0, expected, 0, header.length);
+        System.arraycopy(original, 0, expected, header.length, original.length);
+        assertArrayEquals(expected, signed);
+    }
+
+    private static byte[] message(int i) {
+        return ("From: tao.dong@duotail.com\r\n" +
+                "To: user" + i + "@gmail.com\r\n" +
+                "Subject: Spool " + i + "\r\n" +
+                "\r\n" +
+                "Hello  world " + i + " \r\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.createTestMessage;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testProfile;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class DkimTemplateTest {
+    private static final String BODY = "Campaign  body \r\nshared by all recipients\r\n";
+
+    @ParameterizedTest
+    @EnumSource(Canonicalization.class)
+    void sign_sameAsSigner(Canonicalization canonicalization) throws Exception {
+        var headers = new DkimMimeMessageHelper().getDkimSignHeaders(List.of(new DkimSignHeader("List-Unsubscribe", false)));
+        var signer = spy(new DkimSigner(testProfile()
+                .headers(headers)
+                .headerCanonicalization(canonicalization)
+                .bodyCanonicalization(canonicalization)
+                .build()));
+        var template = new DkimTemplate(signer, recipientMessage(0));
+
+        for (var i = 1; i <= 5; i++) {
+            var message = recipientMessage(i);
+            var signature = template.sign(message);
+            assertEquals(signer.sign(message), signature);
+            assertEquals(template.getBodyHash(), StringUtils.substringBetween(signature, "bh=", ";"));
+        }
+        // once for the template, once per message signed by the signer above
+        verify(signer, times(1 + 5)).hashBody(any(MimeMessage.class));
+    }
+
+    @Test
+    void sign_staticHeaderFromPrototype() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var template = new DkimTemplate(signer, recipientMessage(0), Set.of("to", "message-id"));
+        var message = recipientMessage(1);
+        message.setSentDate(new Date(0));
+
+        // Date is not varying, the date of the prototype is signed
+        assertNotEquals(signer.sign(message), template.sign(message));
+        message.setSentDate(DkimTestSupport.TEST_DATE);
+        assertEquals(signer.sign(message), template.sign(message));
+    }
+
+    @Test
+    void sign_missingRequiredHeader() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var prototype = recipientMessage(0);
+        prototype.removeHeader("From");
+        var template = new DkimTemplate(signer, prototype);
+
+        var exception = assertThrows(DkimSigningException.class, () -> template.sign(recipientMessage(1)));
+        assertEquals("Required header From is missing.", exception.getMessage());
+    }
+
+    private static MimeMessage recipientMessage(int i) throws MessagingException {
+        var message = createTestMessage("tao.dong@duotail.com", "user" + i + "@gmail.com", "Newsletter", BODY);
+        message.setHeader("Message-ID", "<" + i + ".campaign@duotail.com>");
+        message.setHeader("List-Unsubscribe", "<https://duotail.com/unsubscribe>");
+        return message;
+    }
+}
@@ -0,0 +1,138 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.stream.Collectors;
+
+/**
+ * Shared keys and messages for tests
+ */
+final class DkimTestSupport {
+
+    static final Date TEST_DATE = createTestDate();
+
+    private DkimTestSupport() {
+    }
+
+    static MimeMessage createTestMessage(String from, String to, String subject, String body) {
+        var message = new MimeMessage(Session.getInstance(new Properties()));
+        try {
+            message.setFrom(from);
+            message.setRecipients(MimeMessage.RecipientType.TO, to);
+            message.setSubject(subject);
+            message.setSentDate(TEST_DATE);
+            message.setText(body, StandardCharsets.UTF_8.name());
+            return message;
+        } catch (MessagingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static DkimSigningProfile.DkimSigningProfileBuilder testProfile() {
+        return DkimSigningProfile.builder()
+                .privateKey(testKey())
+                .selector("s1")
+                .domain("duotail.com")
+                .identity("tao.dong@duotail.com")
+                .headers(new DkimMimeMessageHelper().getDkimSignHeaders(null));
+    }
+
+    static RSAPrivateKey testKey() {
+        try (var input = DkimTestSupport.class.getClassLoader().getResourceAsStream("keys/test_key.pem")) {
+            return new DkimMimeMessageHelper().getKPCS8KeyFromInputStream(input);
+        } catch (IOException | DkimSigningException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static PublicKey testPublicKey() {
+        return readPublicKey("keys/test_key.pub", "RSA");
+    }
+
+    private static PublicKey readPublicKey(String resource, String algorithm) {
+        try (var input = DkimTestSupport.class.getClassLoader().getResourceAsStream(resource)) {
+            assert input != null;
+            try (final var reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.US_ASCII))) {
+                var rawKey = reader.lines().filter(line -> !line.startsWith("-----")).collect(Collectors.joining());
+                return KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(rawKey)));
+            }
+        } catch (IOException | NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static PrivateKey testEd25519Key() {
+        try (var input = DkimTestSupport.class.getClassLoader().getResourceAsStream("keys/test_ed25519_key.pem")) {
+            return new DkimMimeMessageHelper().getPrivateKeyFromInputStream(input, SigningAlgorithm.ED25519_SHA256);
+        } catch (IOException | DkimSigningException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static PublicKey testEd25519PublicKey() {
+        return readPublicKey("keys/test_ed25519_key.pub", "Ed25519");
+    }
+
+    /**
+     * Rebuild the data covered by the {@code b=} tag of a signature the way a verifier does
+     * @param message - the signed message
+     * @param dkimValue - the DKIM-Signature header value
+     * @param headerCanonicalization - header canonicalization of the signature
+     * @return the canonical headers followed by the canonical DKIM-Signature header without signature
+     */
+    static byte[] signedHeaderData(MimeMessage message, String dkimValue, Canonicalization headerCanonicalization) {
+        return signedHeaderData(message, DkimSignature.DKIM_SIGNATURE_HEADER, dkimValue, headerCanonicalization);
+    }
+
+    /**
+     * Rebuild the data covered by the {@code b=} tag of a signature header, e.g. an ARC-Message-Signature
+     * @param message - the signed message
+     * @param signatureHeader - the name of the signature header
+     * @param dkimValue - the signature header value
+     * @param headerCanonicalization - header canonicalization of the signature
+     * @return the canonical headers followed by the canonical signature header without signature
+     */
+    static byte[] signedHeaderData(MimeMessage message, String signatureHeader, String dkimValue,
+                                   Canonicalization headerCanonicalization) {
+        var headerNames = StringUtils.substringBefore(StringUtils.substringAfter(dkimValue, "; h="), ";").split(":");
+        var signedContent = new StringBuilder();
+        try {
+            for (var header : headerNames) {
+                var value = message.getHeader(header, ",");
+                if (value != null) {
+                    signedContent.append(headerCanonicalization.getHeaderOperator().apply(header, value)).append("\r\n");
+                }
+            }
+        } catch (MessagingException e) {
+            throw new RuntimeException(e);
+        }
+        var unsigned = StringUtils.substringBeforeLast(dkimValue, "b=") + "b=";
+        signedContent.append(headerCanonicalization.getHeaderOperator().apply(signatureHeader, unsigned));
+        return signedContent.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Date createTestDate() {
+        var calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.set(2024, Calendar.DECEMBER, 10, 0, 0, 0);
+        return calendar.getTime();
+    }
+}
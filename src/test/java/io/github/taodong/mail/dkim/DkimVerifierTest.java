@@ -0,0 +1,234 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.createTestMessage;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testEd25519Key;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testEd25519PublicKey;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testKey;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testProfile;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testPublicKey;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DkimVerifierTest {
+    private InMemoryPublicKeyResolver resolver;
+    private DkimVerifier verifier;
+
+    @BeforeEach
+    void setUp() {
+        resolver = new InMemoryPublicKeyResolver();
+        resolver.put("duotail.com", "s1", "v=DKIM1; k=rsa; p=" + Base64.getEncoder().encodeToString(testPublicKey().getEncoded()));
+        var ed25519Key = testEd25519PublicKey().getEncoded();
+        resolver.put("duotail.com", "ed", "v=DKIM1; k=ed25519; p="
+                + Base64.getEncoder().encodeToString(Arrays.copyOfRange(ed25519Key, ed25519Key.length - 32, ed25519Key.length)));
+        verifier = new DkimVerifier(resolver);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "SIMPLE, SIMPLE, false",
+            "RELAXED, RELAXED, false",
+            "RELAXED, SIMPLE, true",
+            "SIMPLE, RELAXED, true"
+    })
+    void verify_signedMessage(Canonicalization headerCanonicalization, Canonicalization bodyCanonicalization,
+                              boolean oversignHeaders) throws Exception {
+        var signer = new DkimSigner(testProfile()
+                .headerCanonicalization(headerCanonicalization)
+                .bodyCanonicalization(bodyCanonicalization)
+                .oversignHeaders(oversignHeaders)
+                .build());
+        var message = wireFormat(createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Verify  me",
+                "Hello  World \r\n\r\n\r\n"));
+
+        var signed = addSignature(message, signer.sign(message));
+
+        assertEquals(List.of(DkimVerificationResult.pass("duotail.com", "s1")), verifier.verify(signed));
+        var parsed = new MimeMessage(Session.getInstance(new Properties()), new ByteArrayInputStream(signed));
+        assertEquals(List.of(DkimVerificationResult.pass("duotail.com", "s1")), verifier.verify(parsed));
+    }
+
+    @Test
+    void verify_multipleSignatures() throws Exception {
+        var rsaSigner = new DkimSigner(testProfile().build());
+        var ed25519Signer = new DkimSigner(testProfile().privateKey(testEd25519Key()).selector("ed")
+                .headerCanonicalization(Canonicalization.RELAXED).build());
+        var message = wireFormat(createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Two", "Hello"));
+
+        var signed = addSignature(addSignature(message, rsaSigner.sign(message)), ed25519Signer.sign(message));
+
+        var results = verifier.verify(ByteBuffer.wrap(signed));
+        assertEquals(List.of(DkimVerificationResult.pass("duotail.com", "ed"), DkimVerificationResult.pass("duotail.com", "s1")), results);
+    }
+
+    @Test
+    void verify_tampered() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var message = wireFormat(createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Original", "Hello"));
+        var signed = new String(addSignature(message, signer.sign(message)), StandardCharsets.UTF_8);
+
+        var bodyChanged = verifier.verify((signed + "PS").getBytes(StandardCharsets.UTF_8));
+        assertEquals(DkimVerificationResult.Status.FAIL, bodyChanged.getFirst().status());
+        assertEquals("Body hash mismatch.", bodyChanged.getFirst().reason());
+
+        var subjectChanged = verifier.verify(signed.replace("Subject: Original", "Subject: Changed").getBytes(StandardCharsets.UTF_8));
+        assertEquals(DkimVerificationResult.Status.FAIL, subjectChanged.getFirst().status());
+        assertEquals("Signature mismatch.", subjectChanged.getFirst().reason());
+    }
+
+    @Test
+    void verify_unsigned() throws Exception {
+        var message = wireFormat(createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Plain", "Hello"));
+        assertTrue(verifier.verify(message).isEmpty());
+    }
+
+    @Test
+    void verify_keyProblems() throws Exception {
+        var message = wireFormat(createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Keys", "Hello"));
+        var signed = addSignature(message, new DkimSigner(testProfile().selector("s2").build()).sign(message));
+        var edSigned = addSignature(message, new DkimSigner(testProfile().privateKey(testEd25519Key()).selector("s1").build()).sign(message));
+
+        assertResult(DkimVerificationResult.Status.PERMERROR, "No key record for selector s2 of domain duotail.com.", verifier.verify(signed));
+        assertResult(DkimVerificationResult.Status.PERMERROR, "Key type rsa doesn't match algorithm ed25519-sha256.", verifier.verify(edSigned));
+
+        resolver.put("duotail.com", "s2", "v=DKIM1; p=");
+        assertResult(DkimVerificationResult.Status.PERMERROR, "Key revoked.", new DkimVerifier(resolver).verify(signed));
+
+        resolver.put("duotail.com", "s2", "v=DKIM1; p=not-base64");
+        assertResult(DkimVerificationResult.Status.PERMERROR, "Invalid key record: Invalid public key in key record.",
+                new DkimVerifier(resolver).verify(signed));
+
+        var failing = new DkimVerifier((domain, selector) -> {
+            throw new IOException("timeout");
+        });
+        assertResult(DkimVerificationResult.Status.TEMPERROR, "Key lookup failed: timeout", failing.verify(signed));
+    }
+
+    @Test
+    void verify_malformedSignatures() throws Exception {
+        var message = wireFormat(createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Malformed", "Hello"));
+
+        assertResult(DkimVerificationResult.Status.PERMERROR, "Missing tag d.",
+                verifier.verify(addSignature(message, "v=1; a=rsa-sha256; s=s1; h=from; bh=AAAA; b=AAAA")));
+        assertResult(DkimVerificationResult.Status.PERMERROR, "Duplicate tag d.",
+                verifier.verify(addSignature(message, "v=1; d=a.com; d=b.com")));
+        assertResult(DkimVerificationResult.Status.PERMERROR, "Unsupported algorithm rsa-sha1.",
+                verifier.verify(addSignature(message, "v=1; a=rsa-sha1; d=duotail.com; s=s1; h=from; bh=AAAA; b=AAAA")));
+        assertResult(DkimVerificationResult.Status.PERMERROR, "From header is not signed.",
+                verifier.verify(addSignature(message, "v=1; a=rsa-sha256; d=duotail.com; s=s1; h=to; bh=AAAA; b=AAAA")));
+        assertResult(DkimVerificationResult.Status.PERMERROR, "Unsupported canonicalization strict/simple.",
+                verifier.verify(addSignature(message, "v=1; a=rsa-sha256; c=strict/simple; d=duotail.com; s=s1; h=from; bh=AAAA; b=AAAA")));
+        assertResult(DkimVerificationResult.Status.PERMERROR, "Identity user@other.com is not in domain duotail.com.",
+                verifier.verify(addSignature(message, "v=1; a=rsa-sha256; d=duotail.com; i=user@other.com; s=s1; h=from; bh=AAAA; b=AAAA")));
+    }
+
+    @Test
+    void verify_expired() throws Exception {
+        var message = ("From: tao.dong@duotail.com\r\nSubject: Expiring\r\n\r\nHello\r\n").getBytes(StandardCharsets.UTF_8);
+        var signed = signManually(message, "v=1; a=rsa-sha256; c=relaxed/relaxed; d=duotail.com; s=s1; h=from:subject; x=1700000000",
+                "Hello\r\n");
+
+        var beforeExpiry = new DkimVerifier(new PublicKeyCache(resolver), Clock.fixed(Instant.ofEpochSecond(1_600_000_000), ZoneOffset.UTC));
+        assertTrue(beforeExpiry.verify(signed).getFirst().isPass());
+        assertResult(DkimVerificationResult.Status.FAIL, "Signature expired.", verifier.verify(signed));
+    }
+
+    @Test
+    void verify_bodyLength() throws Exception {
+        var message = ("From: tao.dong@duotail.com\r\nSubject: Length\r\n\r\nHello\r\nappended by a list\r\n").getBytes(StandardCharsets.UTF_8);
+
+        var signed = signManually(message, "v=1; a=rsa-sha256; c=relaxed/relaxed; d=duotail.com; s=s1; h=from:subject; l=7", "Hello\r\n");
+        assertTrue(verifier.verify(signed).getFirst().isPass());
+
+        var tooLong = signManually(message, "v=1; a=rsa-sha256; c=relaxed/relaxed; d=duotail.com; s=s1; h=from:subject; l=1000", "Hello\r\n");
+        assertResult(DkimVerificationResult.Status.FAIL, "Body is shorter than the body length tag.", verifier.verify(tooLong));
+    }
+
+    @Test
+    void verify_cachesKeys() throws Exception {
+        var lookups = new AtomicInteger();
+        var counting = new DkimVerifier((domain, selector) -> {
+            lookups.incrementAndGet();
+            return resolver.lookup(domain, selector);
+        });
+        var signer = new DkimSigner(testProfile().build());
+        for (var i = 0; i < 10; i++) {
+            var message = wireFormat(createTestMessage("tao.dong@duotail.com", "user" + i + "@gmail.com", "Cached", "Hello"));
+            assertTrue(counting.verify(addSignature(message, signer.sign(message))).getFirst().isPass());
+        }
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    void removeSignatureValue() {
+        assertEquals("v=1; bh=abc; b=", DkimVerifier.removeSignatureValue("v=1; bh=abc; b=xyz"));
+        assertEquals("v=1; b=; d=a.com", DkimVerifier.removeSignatureValue("v=1; b= x\r\n y ; d=a.com"));
+        assertEquals("DKIM-Signature: b=; v=1", DkimVerifier.removeSignatureValue("DKIM-Signature: b=xyz; v=1"));
+        assertEquals("v=1; bh=abc", DkimVerifier.removeSignatureValue("v=1; bh=abc"));
+    }
+
+    private static void assertResult(DkimVerificationResult.Status status, String reason, List<DkimVerificationResult> results) {
+        assertEquals(1, results.size());
+        assertEquals(status, results.getFirst().status());
+        assertEquals(reason, results.getFirst().reason());
+    }
+
+    private static byte[] wireFormat(MimeMessage message) throws Exception {
+        var out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] addSignature(byte[] message, String dkimValue) {
+        var header = (DkimSignature.DKIM_SIGNATURE_HEADER + ": " + dkimValue + "\r\n").getBytes(StandardCharsets.UTF_8);
+        var signed = Arrays.copyOf(header, header.length + message.length);
+        System.arraycopy(message, 0, signed, header.length, message.length);
+        return signed;
+    }
+
+    /**
+     * Sign a message with tags the signer doesn't produce, relaxed canonicalization for headers and body
+     */
+    private static byte[] signManually(byte[] message, String tags, String signedBody) throws Exception {
+        var bodyHash = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256")
+                .digest(signedBody.getBytes(StandardCharsets.UTF_8)));
+        var unsigned = tags + "; bh=" + bodyHash + "; b=";
+        var headers = new String(message, StandardCharsets.UTF_8).split("\r\n\r\n")[0];
+        var data = new ByteArrayOutputStream();
+        for (var line : headers.split("\r\n")) {
+            var colon = line.indexOf(':');
+            data.write(Canonicalization.RELAXED.canonicalizeHeader(line.substring(0, colon).getBytes(StandardCharsets.UTF_8),
+                    line.substring(colon + 1).getBytes(StandardCharsets.UTF_8)));
+            data.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+        data.write(Canonicalization.RELAXED.canonicalizeHeader(DkimSignature.DKIM_SIGNATURE_HEADER.getBytes(StandardCharsets.UTF_8),
+                unsigned.getBytes(StandardCharsets.UTF_8)));
+
+        var signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(testKey());
+        signature.update(data.toByteArray());
+        return addSignature(message, unsigned + Base64.getEncoder().encodeToString(signature.sign()));
+    }
+}
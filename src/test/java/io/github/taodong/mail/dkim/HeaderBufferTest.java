@@ -0,0 +1,36 @@
+package io.github.taodong.mail.dkim;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HeaderBufferTest {
+
+    @Test
+    void append() {
+        var buffer = new HeaderBuffer();
+        var tags = new StringBuilder("s=s1; h=From:To; i=用户@duotail.com");
+
+        buffer.append("from:a".getBytes(StandardCharsets.UTF_8)).appendCrlf().append(tags, 6, tags.length());
+
+        assertEquals("from:a\r\nh=From:To; i=用户@duotail.com", content(buffer));
+    }
+
+    @Test
+    void append_grow() {
+        var buffer = new HeaderBuffer();
+        var line = "x".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+
+        buffer.append(line).append(line).appendCrlf();
+
+        assertEquals(20_002, buffer.size());
+        assertEquals(0, buffer.reset().size());
+    }
+
+    private static String content(HeaderBuffer buffer) {
+        return new String(Arrays.copyOf(buffer.array(), buffer.size()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.mail.MessagingException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.createTestMessage;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeaderIndexTest {
+
+    @Test
+    void of() throws MessagingException {
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Index", "Hello world");
+        message.addHeader("X-Tag", "a");
+        message.addHeader("X-Trace", "1");
+        message.addHeader("x-tag", "b");
+
+        var index = HeaderIndex.of(message);
+
+        assertEquals(List.of("a", "b"), index.get("X-TAG").stream().map(HeaderIndex.Field::value).toList());
+        assertEquals(List.of("test@gmail.com"), index.get("to").stream().map(HeaderIndex.Field::value).toList());
+        assertTrue(index.get("Cc").isEmpty());
+    }
+
+    @Test
+    void canonicalize() {
+        var field = new HeaderIndex.Field("Subject", "Hello  World ", null);
+
+        var relaxed = field.canonicalize(Canonicalization.RELAXED);
+
+        assertEquals("subject:Hello World", new String(relaxed, StandardCharsets.UTF_8));
+        assertSame(relaxed, field.canonicalize(Canonicalization.RELAXED));
+        assertEquals("Subject: Hello  World ", new String(field.canonicalize(Canonicalization.SIMPLE), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void canonicalize_rawLine() {
+        var field = new HeaderIndex.Field("Subject", "Hello\r\n World",
+                "Subject:Hello\r\n World".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("Subject:Hello\r\n World", new String(field.canonicalize(Canonicalization.SIMPLE), StandardCharsets.UTF_8));
+        assertEquals("subject:Hello World", new String(field.canonicalize(Canonicalization.RELAXED), StandardCharsets.UTF_8));
+    }
+}
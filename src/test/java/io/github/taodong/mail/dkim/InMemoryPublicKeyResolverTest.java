@@ -0,0 +1,91 @@
+package io.github.taodong.mail.dkim;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.testEd25519PublicKey;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testPublicKey;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryPublicKeyResolverTest {
+    private static final String RSA_KEY = Base64.getEncoder().encodeToString(testPublicKey().getEncoded());
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void putAndLookup() {
+        var resolver = new InMemoryPublicKeyResolver();
+        resolver.put("Duotail.com", "S1", "v=DKIM1; p=abc");
+
+        assertEquals("v=DKIM1; p=abc", resolver.lookup("duotail.com", "s1"));
+        assertNull(resolver.lookup("duotail.com", "s2"));
+
+        resolver.remove("duotail.com", "s1");
+        assertEquals(0, resolver.size());
+    }
+
+    @Test
+    void loadZoneFile() throws Exception {
+        var zoneFile = tempDir.resolve("duotail.com.zone");
+        Files.writeString(zoneFile, """
+                $ORIGIN duotail.com.
+                $TTL 3600
+                @               IN  SOA  ns1 hostmaster 1 7200 3600 1209600 3600
+                @               IN  MX   10 mail ; mail server
+                s1._domainkey   300 IN TXT ( "v=DKIM1; k=rsa; " ; split over lines
+                                             "p=%s" )
+                s2._domainkey.example.org.  IN  TXT  "v=DKIM1; p="
+                revoked._domainkey          TXT "v=DKIM1; k=rsa; p=\\"quoted\\""
+                www             IN  A    192.0.2.1
+                """.formatted(RSA_KEY));
+
+        var resolver = new InMemoryPublicKeyResolver();
+        assertEquals(3, resolver.loadZoneFile(zoneFile));
+
+        assertEquals("v=DKIM1; k=rsa; p=" + RSA_KEY, resolver.lookup("duotail.com", "s1"));
+        assertEquals("v=DKIM1; p=", resolver.lookup("example.org", "s2"));
+        assertEquals("v=DKIM1; k=rsa; p=\"quoted\"", resolver.lookup("duotail.com", "revoked"));
+        assertEquals(testPublicKey(), DkimKeyRecord.parse(resolver.lookup("duotail.com", "s1")).publicKey());
+    }
+
+    @Test
+    void loadZoneFile_malformed() throws Exception {
+        var zoneFile = tempDir.resolve("bad.zone");
+        Files.writeString(zoneFile, "s1._domainkey.duotail.com. IN TXT ( \"v=DKIM1; p=\"\n");
+
+        assertThrows(DkimSigningException.class, () -> new InMemoryPublicKeyResolver().loadZoneFile(zoneFile));
+        assertThrows(DkimSigningException.class, () -> new InMemoryPublicKeyResolver().loadZoneFile(tempDir.resolve("missing.zone")));
+    }
+
+    @Test
+    void parseKeyRecord() throws Exception {
+        var rsa = DkimKeyRecord.parse("v=DKIM1; h=sha1:sha256; k=rsa; p=" + RSA_KEY.substring(0, 10) + " \r\n\t" + RSA_KEY.substring(10));
+        assertEquals(testPublicKey(), rsa.publicKey());
+        assertTrue(rsa.supports(SigningAlgorithm.RSA_SHA256));
+        assertFalse(rsa.supports(SigningAlgorithm.ED25519_SHA256));
+
+        var encoded = testEd25519PublicKey().getEncoded();
+        var raw = Base64.getEncoder().encodeToString(Arrays.copyOfRange(encoded, 12, encoded.length));
+        var ed25519 = DkimKeyRecord.parse("v=DKIM1; k=ed25519; p=" + raw);
+        assertEquals(testEd25519PublicKey(), ed25519.publicKey());
+        assertTrue(ed25519.supports(SigningAlgorithm.ED25519_SHA256));
+
+        assertTrue(DkimKeyRecord.parse("v=DKIM1; p=").isRevoked());
+        assertEquals("Unsupported key record version DKIM2.",
+                assertThrows(DkimSigningException.class, () -> DkimKeyRecord.parse("v=DKIM2; p=" + RSA_KEY)).getMessage());
+        assertEquals("Key record doesn't allow sha256.",
+                assertThrows(DkimSigningException.class, () -> DkimKeyRecord.parse("h=sha1; p=" + RSA_KEY)).getMessage());
+        assertEquals("Key record has no p= tag.",
+                assertThrows(DkimSigningException.class, () -> DkimKeyRecord.parse("v=DKIM1; k=rsa")).getMessage());
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.taodong.mail.dkim;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.interfaces.RSAPrivateKey;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.testEd25519Key;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testKey;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+class LocalSignatureEngineTest {
+    private static final byte[] DATA = "from:tao.dong@duotail.com\r\nsubject:Test\r\n".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void sign_rsaSameAsSha256WithRsa() throws Exception {
+        var engine = new LocalSignatureEngine(testKey());
+        assertEquals(SigningAlgorithm.RSA_SHA256, engine.getAlgorithm());
+
+        var expected = Signature.getInstance("SHA256withRSA");
+        expected.initSign(testKey());
+        expected.update(DATA);
+        assertArrayEquals(expected.sign(), engine.sign(MessageDigest.getInstance("SHA-256").digest(DATA)));
+    }
+
+    @Test
+    void sign_ed25519SignsHash() throws Exception {
+        var engine = new LocalSignatureEngine(testEd25519Key());
+        assertEquals(SigningAlgorithm.ED25519_SHA256, engine.getAlgorithm());
+
+        var hash = MessageDigest.getInstance("SHA-256").digest(DATA);
+        var expected = Signature.getInstance("Ed25519");
+        expected.initSign(testEd25519Key());
+        expected.update(hash);
+        assertArrayEquals(expected.sign(), engine.sign(hash));
+    }
+
+    @Test
+    void warmUp() throws Exception {
+        var engine = new LocalSignatureEngine(testEd25519Key());
+        engine.warmUp(4);
+
+        var expected = Signature.getInstance("Ed25519");
+        expected.initSign(testEd25519Key());
+        var hash = MessageDigest.getInstance("SHA-256").digest(DATA);
+        expected.update(hash);
+        assertArrayEquals(expected.sign(), engine.sign(hash));
+    }
+
+    @Test
+    void sign_notSha256() throws Exception {
+        var engine = new LocalSignatureEngine(testKey());
+        var exception = assertThrows(DkimSigningException.class, () -> engine.sign(DATA));
+        assertEquals("The digest must be a SHA-256 hash of 32 bytes.", exception.getMessage());
+    }
+
+    @Test
+    void create_badKey() {
+        var exception = assertThrows(DkimSigningException.class, () -> new LocalSignatureEngine(mock(RSAPrivateKey.class)));
+        assertEquals("Failed to create signature.", exception.getMessage());
+    }
+}
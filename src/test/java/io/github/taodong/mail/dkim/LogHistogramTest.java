@@ -0,0 +1,86 @@
+package io.github.taodong.mail.dkim;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogHistogramTest {
+
+    @ParameterizedTest
+    @ValueSource(longs = {0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 123_456, 1L << 30, (1L << 41) - 1})
+    void bucketOf_containsValue(long value) {
+        var bucket = LogHistogram.bucketOf(value);
+        assertTrue(LogHistogram.lowerBound(bucket) <= value);
+        assertTrue(bucket == LogHistogram.BUCKETS - 1 || LogHistogram.lowerBound(bucket + 1) > value);
+        // relative error of the bucket is at most 1/8
+        assertTrue(value - LogHistogram.lowerBound(bucket) <= value / 8);
+    }
+
+    @Test
+    void bucketOf_monotonic() {
+        var previous = 0;
+        for (var value = 0L; value < 100_000; value++) {
+            var bucket = LogHistogram.bucketOf(value);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            previous = bucket;
+        }
+        assertEquals(LogHistogram.BUCKETS - 1, LogHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    void percentile() {
+        var histogram = new LogHistogram();
+        assertEquals(0, histogram.percentile(0.5));
+
+        for (var value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+        histogram.record(-5);
+
+        assertEquals(10_001, histogram.count());
+        assertEquals(50_005_000, histogram.sum());
+        assertEquals(10_000, histogram.max());
+        assertWithin(5_000, histogram.percentile(0.5));
+        assertWithin(9_900, histogram.percentile(0.99));
+        assertWithin(9_990, histogram.percentile(0.999));
+        assertWithin(10_000, histogram.percentile(1));
+        assertEquals(0, histogram.percentile(0));
+    }
+
+    @Test
+    void record_concurrently() throws InterruptedException {
+        var histogram = new LogHistogram();
+        var threads = new ArrayList<Thread>();
+        var start = new CountDownLatch(1);
+        for (var t = 0; t < 64; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (var i = 0; i < 10_000; i++) {
+                    histogram.record(i % 100);
+                }
+            }));
+        }
+        start.countDown();
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(640_000, histogram.count());
+        assertEquals(64L * 100 * 4950, histogram.sum());
+        assertEquals(99, histogram.max());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 8, "expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.taodong.mail.dkim;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_ABORT;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_BODY;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_BODYEOB;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_CONNECT;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_EOH;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_HEADER;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_MACRO;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_MAIL;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_OPTNEG;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIC_QUIT;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIP_HDR_LEADSPC;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIR_ADDHEADER;
+import static io.github.taodong.mail.dkim.MilterProtocol.SMFIR_CONTINUE;
+import static io.github.taodong.mail.dkim.MilterProtocol.terminated;
+import static io.github.taodong.mail.dkim.MilterProtocol.writePacket;
+
+/**
+ * Plays the MTA side of the milter protocol the way Postfix does: header values are passed with bare LF line breaks
+ * and the body in chunks of at most 64 KB
+ */
+class MilterTestClient implements AutoCloseable {
+    private static final int BODY_CHUNK_SIZE = 65535;
+
+    private final SocketChannel channel;
+    private final MilterProtocol.Reader reader;
+    private final boolean leadingSpace;
+    private String authenticatedUser;
+
+    /**
+     * The replies of the milter to the end of a message
+     * @param addedHeaders - the name and value of every header added
+     * @param code - the final reply code
+     */
+    record Result(List<String[]> addedHeaders, byte code) {
+    }
+
+    MilterTestClient(SocketAddress address, boolean leadingSpace) throws IOException {
+        this.channel = SocketChannel.open(address);
+        this.reader = new MilterProtocol.Reader(channel);
+        var protocol = 0x1fffff & (leadingSpace ? -1 : ~SMFIP_HDR_LEADSPC);
+        writePacket(channel, SMFIC_OPTNEG, ByteBuffer.allocate(12).putInt(6).putInt(0x1ff).putInt(protocol).array());
+        var reply = reader.read();
+        if (reply.command() != SMFIC_OPTNEG) {
+            throw new IOException("Unexpected negotiation reply " + (char) reply.command());
+        }
+        reply.data().getInt();
+        reply.data().getInt();
+        this.leadingSpace = (reply.data().getInt() & SMFIP_HDR_LEADSPC) != 0;
+    }
+
+    /**
+     * Pass the SMTP client connection, an IPv4 or IPv6 address
+     */
+    void connect(String clientAddress) throws IOException {
+        var family = (byte) (clientAddress.contains(":") ? '6' : '4');
+        command(SMFIC_CONNECT, terminated(bytes("client.example.com")), new byte[] {family, 0x30, 0x39}, terminated(bytes(clientAddress)));
+    }
+
+    /**
+     * Pass the authenticated user of the next messages with the MAIL macros
+     */
+    void authenticate(String user) {
+        this.authenticatedUser = user;
+    }
+
+    /**
+     * Pass a message in wire format through the milter
+     */
+    Result send(String sender, byte[] message) throws IOException {
+        sendHeaders(sender, message);
+        var body = Arrays.copyOfRange(message, bodyStart(message), message.length);
+        for (var offset = 0; offset < body.length; offset += BODY_CHUNK_SIZE) {
+            command(SMFIC_BODY, Arrays.copyOfRange(body, offset, Math.min(body.length, offset + BODY_CHUNK_SIZE)));
+        }
+
+        writePacket(channel, SMFIC_BODYEOB);
+        var added = new ArrayList<String[]>();
+        while (true) {
+            var reply = reader.read();
+            if (reply.command() != SMFIR_ADDHEADER) {
+                return new Result(added, reply.command());
+            }
+            var strings = MilterProtocol.strings(reply.data());
+            added.add(new String[] {string(strings.get(0)), string(strings.get(1))});
+        }
+    }
+
+    /**
+     * Pass the headers of a message, then abort it
+     */
+    void sendHeadersAndAbort(String sender, byte[] message) throws IOException {
+        sendHeaders(sender, message);
+        writePacket(channel, SMFIC_ABORT);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            writePacket(channel, SMFIC_QUIT);
+        }
+    }
+
+    private void sendHeaders(String sender, byte[] message) throws IOException {
+        if (authenticatedUser == null) {
+            writePacket(channel, SMFIC_MACRO, new byte[] {SMFIC_MAIL}, terminated(bytes("{mail_addr}")), terminated(bytes(sender)));
+        } else {
+            writePacket(channel, SMFIC_MACRO, new byte[] {SMFIC_MAIL}, terminated(bytes("{mail_addr}")), terminated(bytes(sender)),
+                    terminated(bytes("{auth_authen}")), terminated(bytes(authenticatedUser)));
+        }
+        command(SMFIC_MAIL, terminated(bytes("<" + sender + ">")));
+
+        var headerBlock = new String(message, 0, Math.max(0, bodyStart(message) - 4), StandardCharsets.UTF_8);
+        for (var line : headerBlock.split("\r\n(?![ \t])")) {
+            var colon = line.indexOf(':');
+            var value = line.substring(colon + 1).replace("\r\n", "\n");
+            if (!leadingSpace) {
+                value = value.stripLeading();
+            }
+            command(SMFIC_HEADER, terminated(bytes(line.substring(0, colon))), terminated(bytes(value)));
+        }
+        command(SMFIC_EOH);
+    }
+
+    private void command(byte command, byte[]... data) throws IOException {
+        writePacket(channel, command, data);
+        var reply = reader.read();
+        if (reply.command() != SMFIR_CONTINUE) {
+            throw new IOException("Unexpected reply " + (char) reply.command() + " to " + (char) command);
+        }
+    }
+
+    private static int bodyStart(byte[] message) {
+        for (var i = 0; i + 3 < message.length; i++) {
+            if (message[i] == '\r' && message[i + 1] == '\n' && message[i + 2] == '\r' && message[i + 3] == '\n') {
+                return i + 4;
+            }
+        }
+        return message.length;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,144 @@
+package io.github.taodong.mail.dkim;
+
+import jakarta.activation.DataHandler;
+import jakarta.activation.DataSource;
+import jakarta.activation.FileDataSource;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.createTestMessage;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ParallelMultipartWriterTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void writeTo_sameBytesAsSequential() throws Exception {
+        var message = multipartMessage(tempDir, 5, 300_000);
+        var multipart = ParallelMultipartWriter.multipartOf(message);
+        assertNotNull(multipart);
+
+        var expected = new ByteArrayOutputStream();
+        multipart.writeTo(expected);
+        for (var parallelism : new int[] {1, 2, 8}) {
+            var pool = new ForkJoinPool(parallelism);
+            try {
+                var actual = new ByteArrayOutputStream();
+                ParallelMultipartWriter.writeTo(multipart, actual, pool);
+                assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void multipartOf_notMultipart() throws Exception {
+        assertNull(ParallelMultipartWriter.multipartOf(createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Text", "Hello")));
+
+        var out = new ByteArrayOutputStream();
+        multipartMessage(tempDir, 2, 1000).writeTo(out);
+        var parsed = new MimeMessage(Session.getInstance(new Properties()), new ByteArrayInputStream(out.toByteArray()));
+        assertNull(ParallelMultipartWriter.multipartOf(parsed));
+    }
+
+    @Test
+    void writeTo_failedPart() throws Exception {
+        var multipart = new MimeMultipart();
+        multipart.addBodyPart(textPart("first"));
+        var broken = new MimeBodyPart();
+        broken.setDataHandler(new DataHandler(new BrokenDataSource()));
+        broken.setFileName("broken.bin");
+        multipart.addBodyPart(broken);
+        multipart.addBodyPart(textPart("last"));
+        var message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setContent(multipart);
+        message.saveChanges();
+
+        var exception = assertThrows(IOException.class,
+                () -> ParallelMultipartWriter.writeTo(multipart, OutputStream.nullOutputStream(), ForkJoinPool.commonPool()));
+        assertEquals("Failed to encode body part 1.", exception.getMessage());
+    }
+
+    /**
+     * A mixed multipart with a nested alternative text part followed by file attachments
+     */
+    static MimeMessage multipartMessage(Path dir, int attachments, int attachmentSize) throws IOException, MessagingException {
+        var alternative = new MimeMultipart("alternative");
+        alternative.addBodyPart(textPart("Hello  world \r\n".repeat(100)));
+        var html = new MimeBodyPart();
+        html.setContent("<p>Hello world</p>", "text/html; charset=utf-8");
+        alternative.addBodyPart(html);
+        var body = new MimeBodyPart();
+        body.setContent(alternative);
+
+        var mixed = new MimeMultipart();
+        mixed.setPreamble("This is a multi-part message in MIME format.");
+        mixed.addBodyPart(body);
+        var random = new SplittableRandom(attachmentSize);
+        for (var i = 0; i < attachments; i++) {
+            var bytes = new byte[attachmentSize + i];
+            random.nextBytes(bytes);
+            var file = Files.write(dir.resolve("report-" + i + ".pdf"), bytes);
+            var attachment = new MimeBodyPart();
+            attachment.setDataHandler(new DataHandler(new FileDataSource(file.toFile())));
+            attachment.setFileName(file.getFileName().toString());
+            mixed.addBodyPart(attachment);
+        }
+
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Reports", "");
+        message.setContent(mixed);
+        message.saveChanges();
+        return message;
+    }
+
+    private static MimeBodyPart textPart(String text) throws MessagingException {
+        var part = new MimeBodyPart();
+        part.setText(text, "utf-8");
+        return part;
+    }
+
+    private static final class BrokenDataSource implements DataSource {
+        @Override
+        public InputStream getInputStream() throws IOException {
+            throw new IOException("Disk failure");
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getContentType() {
+            return "application/octet-stream";
+        }
+
+        @Override
+        public String getName() {
+            return "broken.bin";
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.taodong.mail.dkim;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PipelinedDigestOutputStreamTest {
+
+    @ParameterizedTest
+    @ValueSource(longs = {1, 1000, 65536, 1_000_000, 10_000_000})
+    void write_sameDigestAsSequential(long threshold) throws Exception {
+        var bytes = randomBytes(3 * 1024 * 1024 + 17);
+        var digest = MessageDigest.getInstance("SHA-256");
+
+        try (var out = new PipelinedDigestOutputStream(digest, threshold)) {
+            // uneven writes cross buffer boundaries
+            for (int off = 0, len = 1; off < bytes.length; off += len, len = len * 3 % 100_000 + 1) {
+                out.write(bytes, off, Math.min(len, bytes.length - off));
+            }
+            assertEquals(threshold < bytes.length, out.isPipelined());
+        }
+
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(bytes), digest.digest());
+    }
+
+    @Test
+    void write_throughCanonicalizer() throws Exception {
+        var body = "Lorem  ipsum \t dolor sit amet \r\n\r\n".repeat(100_000).getBytes();
+        var expected = MessageDigest.getInstance("SHA-256").digest(Canonicalization.RELAXED.canonicalizeBody(body));
+        var digest = MessageDigest.getInstance("SHA-256");
+
+        try (var canonicalBody = new CanonicalBodyOutputStream(Canonicalization.RELAXED, new PipelinedDigestOutputStream(digest, 4096))) {
+            canonicalBody.write(body);
+        }
+
+        assertArrayEquals(expected, digest.digest());
+    }
+
+    @Test
+    void write_afterClose() throws NoSuchAlgorithmException, IOException {
+        var out = new PipelinedDigestOutputStream(MessageDigest.getInstance("SHA-256"), 0);
+        out.close();
+        assertThrows(IOException.class, () -> out.write(1));
+    }
+
+    @Test
+    void write_belowThreshold() throws Exception {
+        var digest = MessageDigest.getInstance("SHA-256");
+        try (var out = new PipelinedDigestOutputStream(digest, 1024)) {
+            out.write(new byte[1024]);
+            assertFalse(out.isPipelined());
+            out.write(1);
+            assertTrue(out.isPipelined());
+        }
+        var expected = new byte[1025];
+        expected[1024] = 1;
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(expected), digest.digest());
+    }
+
+    private static byte[] randomBytes(int size) {
+        var bytes = new byte[size];
+        new SplittableRandom(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,145 @@
+package io.github.taodong.mail.dkim;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.testPublicKey;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PublicKeyCacheTest {
+    private static final String RECORD = "v=DKIM1; k=rsa; p=" + Base64.getEncoder().encodeToString(testPublicKey().getEncoded());
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    @Test
+    void getKey_cachesForTtl() throws Exception {
+        var cache = new PublicKeyCache(counting(RECORD), Duration.ofMinutes(10), Duration.ofMinutes(1), clock::get);
+
+        var key = cache.getKey("duotail.com", "s1");
+        assertEquals(testPublicKey(), key.publicKey());
+        assertSame(key, cache.getKey("Duotail.com", "S1"));
+        assertEquals(1, lookups.get());
+
+        clock.addAndGet(Duration.ofMinutes(10).toNanos());
+        assertEquals(testPublicKey(), cache.getKey("duotail.com", "s1").publicKey());
+        assertEquals(2, lookups.get());
+
+        cache.invalidate("duotail.com", "s1");
+        cache.getKey("duotail.com", "s1");
+        assertEquals(3, lookups.get());
+    }
+
+    @Test
+    void getKey_cachesMisses() throws Exception {
+        var cache = new PublicKeyCache(counting(null), Duration.ofMinutes(10), Duration.ofMinutes(1), clock::get);
+
+        assertNull(cache.getKey("duotail.com", "s1"));
+        assertNull(cache.getKey("duotail.com", "s1"));
+        assertEquals(1, lookups.get());
+
+        clock.addAndGet(Duration.ofMinutes(1).toNanos());
+        assertNull(cache.getKey("duotail.com", "s1"));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void getKey_cachesInvalidRecords() {
+        var cache = new PublicKeyCache(counting("v=DKIM1; k=dsa; p=AAAA"), Duration.ofMinutes(10), Duration.ofMinutes(1), clock::get);
+
+        var e = assertThrows(DkimSigningException.class, () -> cache.getKey("duotail.com", "s1"));
+        assertEquals("Unsupported key type dsa.", e.getMessage());
+        assertThrows(DkimSigningException.class, () -> cache.getKey("duotail.com", "s1"));
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    void getKey_doesNotCacheTemporaryFailures() throws Exception {
+        var failures = new AtomicInteger(1);
+        var cache = new PublicKeyCache((domain, selector) -> {
+            lookups.incrementAndGet();
+            if (failures.getAndDecrement() > 0) {
+                throw new IOException("timeout");
+            }
+            return RECORD;
+        });
+
+        assertThrows(IOException.class, () -> cache.getKey("duotail.com", "s1"));
+        assertEquals(testPublicKey(), cache.getKey("duotail.com", "s1").publicKey());
+        assertEquals(2, lookups.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void getKey_coalescesConcurrentLookups() throws Exception {
+        var release = new CountDownLatch(1);
+        var cache = new PublicKeyCache((domain, selector) -> {
+            lookups.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return RECORD;
+        });
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var futures = new ArrayList<CompletableFuture<DkimKeyRecord>>();
+            for (var i = 0; i < 50; i++) {
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return cache.getKey("duotail.com", "s1");
+                    } catch (IOException | DkimSigningException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, executor));
+            }
+            // let all threads reach the cache before the lookup completes
+            TimeUnit.MILLISECONDS.sleep(200);
+            release.countDown();
+
+            var first = futures.getFirst().get(10, TimeUnit.SECONDS);
+            for (var future : futures) {
+                assertSame(first, future.get(10, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    void purgeExpired() throws Exception {
+        var cache = new PublicKeyCache(counting(RECORD), Duration.ofMinutes(10), Duration.ofMinutes(1), clock::get);
+        cache.getKey("duotail.com", "s1");
+        cache.getKey("duotail.com", "s2");
+        assertEquals(2, cache.size());
+
+        clock.addAndGet(Duration.ofMinutes(5).toNanos());
+        cache.getKey("duotail.com", "s3");
+        clock.addAndGet(Duration.ofMinutes(5).toNanos());
+        cache.purgeExpired();
+
+        assertEquals(1, cache.size());
+        assertTrue(lookups.get() >= 3);
+    }
+
+    private PublicKeyResolver counting(String record) {
+        return (domain, selector) -> {
+            lookups.incrementAndGet();
+            return record;
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.taodong.mail.dkim;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RawMessageTest {
+    private static final String HEADERS = "From: tao.dong@duotail.com\r\n" +
+            "To: a@gmail.com\r\n" +
+            "Subject: Folded\r\n\tsubject\r\n" +
+            "to:b@gmail.com\r\n";
+
+    @Test
+    void parse() throws DkimSigningException {
+        var buffer = ByteBuffer.wrap((HEADERS + "\r\nBody\r\n").getBytes(StandardCharsets.UTF_8));
+
+        var message = RawMessage.parse(buffer);
+
+        assertEquals(List.of(" a@gmail.com", "b@gmail.com"), values(message, "TO"));
+        assertEquals(List.of(" Folded\r\n\tsubject"), values(message, "subject"));
+        assertTrue(message.get("Cc").isEmpty());
+        assertEquals("Body\r\n", StandardCharsets.UTF_8.decode(buffer).toString());
+    }
+
+    @Test
+    void parse_noBody() throws DkimSigningException {
+        var buffer = ByteBuffer.wrap("From: tao.dong@duotail.com".getBytes(StandardCharsets.UTF_8));
+
+        var message = RawMessage.parse(buffer);
+
+        assertEquals(List.of(" tao.dong@duotail.com"), values(message, "From"));
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    void parse_malformedHeader() {
+        var buffer = ByteBuffer.wrap("From tao.dong@duotail.com\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        assertThrows(DkimSigningException.class, () -> RawMessage.parse(buffer));
+    }
+
+    @Test
+    void canonicalizeHeader() throws DkimSigningException {
+        var message = RawMessage.parse(ByteBuffer.wrap((HEADERS + "\r\n").getBytes(StandardCharsets.UTF_8)));
+        var subject = message.get("Subject").getFirst();
+        var to = message.get("To");
+
+        assertEquals("Subject: Folded\r\n\tsubject", new String(subject.canonicalize(Canonicalization.SIMPLE), StandardCharsets.UTF_8));
+        assertEquals("subject:Folded subject", new String(subject.canonicalize(Canonicalization.RELAXED), StandardCharsets.UTF_8));
+        assertEquals("to:b@gmail.com", new String(to.get(1).canonicalize(Canonicalization.SIMPLE), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void canonicalizeHeader_invalidUtf8() throws DkimSigningException {
+        // a Latin-1 "é" is not valid UTF-8 and is signed as transmitted
+        var line = "Subject:  Caf\u00e9 \r\n".getBytes(StandardCharsets.ISO_8859_1);
+        var message = RawMessage.parse(ByteBuffer.wrap(line));
+
+        var canonical = message.get("Subject").getFirst().canonicalize(Canonicalization.RELAXED);
+
+        assertEquals("subject:Caf\u00e9", new String(canonical, StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void readHeaderBlock() throws IOException, DkimSigningException {
+        var headers = "X-Padding: " + "x".repeat(40_000) + "\r\n" + HEADERS;
+        var body = "Body\r\n".repeat(10_000);
+        var channel = Channels.newChannel(new ByteArrayInputStream((headers + "\r\n" + body).getBytes(StandardCharsets.UTF_8)));
+
+        var buffer = RawMessage.readHeaderBlock(channel);
+        var message = RawMessage.parse(buffer);
+
+        assertEquals(List.of(" tao.dong@duotail.com"), values(message, "From"));
+        var remaining = StandardCharsets.UTF_8.decode(buffer) + new String(Channels.newInputStream(channel).readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(body, remaining);
+    }
+
+    private static List<String> values(HeaderIndex index, String name) {
+        return index.get(name).stream().map(HeaderIndex.Field::value).toList();
+    }
+}
@@ -0,0 +1,189 @@
+package io.github.taodong.mail.dkim;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.createTestMessage;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testEd25519Key;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testKey;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testProfile;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SigningDaemonTest {
+    @TempDir
+    Path directory;
+
+    private DkimKeyRegistry keys;
+    private SigningDaemon daemon;
+    private SigningDaemonClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        keys = new DkimKeyRegistry();
+        keys.register("duotail.com", "s1", testKey());
+        keys.register("duotail.com", "ed", testEd25519Key());
+        daemon = new SigningDaemon(keys, directory.resolve("dkim.sock"));
+        client = new SigningDaemonClient(daemon.getSocket(), Duration.ofSeconds(10));
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        daemon.close();
+        keys.close();
+    }
+
+    @Test
+    void sign_sameAsLocalSigner() throws Exception {
+        var message = createTestMessage("tao.dong@duotail.com", "someone@example.com", "Daemon", "Signed by the daemon\r\n");
+        var local = new DkimSigner(testProfile().build());
+        var remote = new DkimSigner(testProfile()
+                .privateKey(null)
+                .signatureEngine(client.engine("duotail.com", "s1", SigningAlgorithm.RSA_SHA256))
+                .build());
+
+        assertEquals(local.sign(message), remote.sign(message));
+    }
+
+    @Test
+    void sign_ed25519() throws Exception {
+        var hash = MessageDigest.getInstance("SHA-256").digest("data".getBytes(StandardCharsets.UTF_8));
+        var expected = new LocalSignatureEngine(testEd25519Key()).sign(hash);
+        assertArrayEquals(expected, client.sign("DUOTAIL.COM", "ed", SigningAlgorithm.ED25519_SHA256, hash));
+    }
+
+    @Test
+    void sign_concurrentRequestsBatched() throws Exception {
+        var engine = new LocalSignatureEngine(testKey());
+        var digest = MessageDigest.getInstance("SHA-256");
+        var hashes = new ArrayList<byte[]>();
+        var futures = new ArrayList<CompletableFuture<byte[]>>();
+        for (var i = 0; i < 500; i++) {
+            var hash = digest.digest(("message " + i).getBytes(StandardCharsets.UTF_8));
+            hashes.add(hash);
+            futures.add(client.signAsync("duotail.com", "s1", SigningAlgorithm.RSA_SHA256, hash));
+        }
+        for (var i = 0; i < hashes.size(); i++) {
+            assertArrayEquals(engine.sign(hashes.get(i)), futures.get(i).join());
+        }
+    }
+
+    @Test
+    void sign_unknownKey() {
+        var exception = assertThrows(DkimSigningException.class,
+                () -> client.sign("duotail.com", "missing", SigningAlgorithm.RSA_SHA256, new byte[32]));
+        assertEquals("No private key registered for selector missing of domain duotail.com.", exception.getMessage());
+    }
+
+    @Test
+    void sign_notSha256() throws Exception {
+        // the daemon answers the bad request and keeps the connection
+        var exception = assertThrows(DkimSigningException.class,
+                () -> client.sign("duotail.com", "s1", SigningAlgorithm.RSA_SHA256, new byte[31]));
+        assertEquals("The digest must be a SHA-256 hash of 32 bytes.", exception.getMessage());
+        assertArrayEquals(new LocalSignatureEngine(testKey()).sign(new byte[32]),
+                client.sign("duotail.com", "s1", SigningAlgorithm.RSA_SHA256, new byte[32]));
+    }
+
+    @Test
+    void sign_replacedKey() throws Exception {
+        var hash = new byte[32];
+        client.sign("duotail.com", "s1", SigningAlgorithm.RSA_SHA256, hash);
+        keys.register("duotail.com", "s1", testEd25519Key());
+        assertArrayEquals(new LocalSignatureEngine(testEd25519Key()).sign(hash),
+                client.sign("duotail.com", "s1", SigningAlgorithm.ED25519_SHA256, hash));
+    }
+
+    @Test
+    void sign_reconnectAfterRestart() throws Exception {
+        var hash = new byte[32];
+        client.sign("duotail.com", "s1", SigningAlgorithm.RSA_SHA256, hash);
+        daemon.close();
+        assertFalse(Files.exists(daemon.getSocket()));
+
+        // the batch on the broken connection fails, the next one reconnects
+        assertThrows(DkimSigningException.class, () -> client.sign("duotail.com", "s1", SigningAlgorithm.RSA_SHA256, hash));
+        daemon = new SigningDaemon(keys, directory.resolve("dkim.sock"));
+        assertArrayEquals(new LocalSignatureEngine(testKey()).sign(hash),
+                client.sign("duotail.com", "s1", SigningAlgorithm.RSA_SHA256, hash));
+    }
+
+    @Test
+    void create_socketOwnerOnly() throws Exception {
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(daemon.getSocket()));
+        try (var files = Files.list(directory)) {
+            assertEquals(List.of(daemon.getSocket()), files.toList());
+        }
+    }
+
+    @Test
+    void create_pathNotSocket() throws Exception {
+        var file = Files.writeString(directory.resolve("keys.txt"), "not a socket");
+
+        var exception = assertThrows(DkimSigningException.class, () -> new SigningDaemon(keys, file));
+        assertEquals(file + " exists and is not a socket.", exception.getMessage());
+        assertEquals("not a socket", Files.readString(file));
+    }
+
+    @Test
+    void sign_daemonNotAnswering() throws Exception {
+        var socket = directory.resolve("stuck.sock");
+        var stuck = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        stuck.bind(UnixDomainSocketAddress.of(socket));
+        // accepts a connection and never answers, the connection is kept open
+        var accepted = CompletableFuture.supplyAsync(() -> {
+            try {
+                return stuck.accept();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        var hash = new byte[32];
+        try (var timedClient = new SigningDaemonClient(socket, Duration.ofMillis(500))) {
+            var exception = assertThrows(CompletionException.class,
+                    () -> timedClient.signAsync("duotail.com", "s1", SigningAlgorithm.RSA_SHA256, hash).join());
+            assertEquals("Signing daemon at " + socket + " didn't answer in time.", exception.getCause().getMessage());
+
+            stuck.close();
+            Files.delete(socket);
+            try (var restarted = new SigningDaemon(keys, socket)) {
+                assertArrayEquals(new LocalSignatureEngine(testKey()).sign(hash),
+                        timedClient.sign("duotail.com", "s1", SigningAlgorithm.RSA_SHA256, hash));
+            }
+        } finally {
+            accepted.join().close();
+        }
+    }
+
+    @Test
+    void signAsync_closed() {
+        client.close();
+        var exception = assertThrows(CompletionException.class,
+                () -> client.signAsync("duotail.com", "s1", SigningAlgorithm.RSA_SHA256, new byte[32]).join());
+        assertInstanceOf(DkimSigningException.class, exception.getCause());
+        assertTrue(Files.exists(daemon.getSocket()));
+    }
+}
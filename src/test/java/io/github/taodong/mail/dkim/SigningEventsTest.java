@@ -0,0 +1,114 @@
+package io.github.taodong.mail.dkim;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static io.github.taodong.mail.dkim.DkimTestSupport.createTestMessage;
+import static io.github.taodong.mail.dkim.DkimTestSupport.testProfile;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SigningEventsTest {
+    private static final String PREFIX = "io.github.taodong.mail.dkim.";
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    void sign_recordsPhases() throws Exception {
+        var signer = new DkimSigner(testProfile().headerCanonicalization(Canonicalization.RELAXED).build());
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Test", "Hello\r\nWorld");
+        var wireFormat = new ByteArrayOutputStream();
+        message.writeTo(wireFormat);
+
+        var events = record(() -> {
+            signer.sign(message);
+            signer.sign(wireFormat.toByteArray());
+        });
+
+        var signEvents = events.get(PREFIX + "Sign");
+        assertEquals(2, signEvents.size());
+        for (var event : signEvents) {
+            assertEquals("duotail.com", event.getString("domain"));
+            assertEquals("s1", event.getString("selector"));
+            assertEquals("rsa-sha256", event.getString("algorithm"));
+            assertEquals("relaxed/simple", event.getString("canonicalization"));
+            assertTrue(event.getBoolean("succeeded"));
+        }
+
+        var indexEvents = events.get(PREFIX + "HeaderIndexing");
+        assertEquals(2, indexEvents.size());
+        assertEquals(List.of(false, true), indexEvents.stream().map(e -> e.getBoolean("raw")).toList());
+        indexEvents.forEach(e -> assertTrue(e.getInt("headerCount") >= 4));
+
+        var bodyEvents = events.get(PREFIX + "BodyHash");
+        assertEquals(2, bodyEvents.size());
+        for (var event : bodyEvents) {
+            assertEquals("simple", event.getString("canonicalization"));
+            assertEquals(12, event.getLong("bodySize"));
+            assertEquals(14, event.getLong("canonicalBodySize"));
+            assertEquals("s1", event.getString("selector"));
+        }
+
+        var headerEvents = events.get(PREFIX + "HeaderCanonicalization");
+        assertEquals(2, headerEvents.size());
+        for (var event : headerEvents) {
+            assertEquals("relaxed", event.getString("canonicalization"));
+            assertEquals(7, event.getInt("signedHeaderCount"));
+            assertTrue(event.getInt("signedDataSize") > 0);
+        }
+
+        var signatureEvents = events.get(PREFIX + "SignatureComputation");
+        assertEquals(2, signatureEvents.size());
+        signatureEvents.forEach(e -> assertEquals("duotail.com", e.getString("domain")));
+    }
+
+    @Test
+    void sign_recordsFailure() throws Exception {
+        var signer = new DkimSigner(testProfile().build());
+        var message = createTestMessage("tao.dong@duotail.com", "test@gmail.com", "Test", "Hello");
+        message.removeHeader("From");
+
+        var events = record(() -> assertThrows(DkimSigningException.class, () -> signer.sign(message)));
+
+        var signEvents = events.get(PREFIX + "Sign");
+        assertEquals(1, signEvents.size());
+        assertFalse(signEvents.getFirst().getBoolean("succeeded"));
+        assertEquals(1, events.get(PREFIX + "BodyHash").size());
+        assertFalse(events.containsKey(PREFIX + "SignatureComputation"));
+    }
+
+    private Map<String, List<RecordedEvent>> record(SigningTask task) throws Exception {
+        var file = tempDir.resolve("signing.jfr");
+        try (var recording = new Recording()) {
+            for (var name : List.of("Sign", "HeaderIndexing", "BodyHash", "HeaderCanonicalization", "SignatureComputation")) {
+                recording.enable(PREFIX + name);
+            }
+            recording.start();
+            task.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(e -> Thread.currentThread().threadId() == e.getThread().getJavaThreadId())
+                .sorted(Comparator.comparing(RecordedEvent::getStartTime))
+                .collect(Collectors.groupingBy(e -> e.getEventType().getName()));
+    }
+
+    @FunctionalInterface
+    private interface SigningTask {
+        void run() throws Exception;
+    }
+}